@@ -4,14 +4,17 @@ import io.github.eutro.wasm2j.api.bits.FormatDetector;
 import io.github.eutro.wasm2j.api.bits.InterfaceBasedLinker;
 import io.github.eutro.wasm2j.api.bits.NameSectionParser;
 import io.github.eutro.wasm2j.api.bits.OutputsToDirectory;
+import io.github.eutro.wasm2j.api.events.SplitFunctionEvent;
 import io.github.eutro.wasm2j.api.support.CaseStyle;
 import io.github.eutro.wasm2j.api.support.NameMangler;
 import io.github.eutro.wasm2j.api.support.NameSupplier;
+import io.github.eutro.wasm2j.core.passes.form.SplitLargeFunctions;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import static io.github.eutro.wasm2j.api.support.NameMangler.IllegalSymbolPolicy.MANGLE_BIJECTIVE;
 
@@ -30,6 +33,9 @@ public class Cli {
         File outputDir = new File(".");
         boolean suppressFlags = false;
         String pkgName = "";
+        int threads = 1;
+        int maxMethodSize = SplitLargeFunctions.DEFAULT_MAX_SIZE;
+        boolean verbose = false;
         for (int i = 0; i < args.length; ) {
             String arg = args[i++];
             if (!suppressFlags && arg.startsWith("-")) {
@@ -51,6 +57,40 @@ public class Cli {
                         setOutput = true;
                         outputDir = new File(args[i++]);
                         break;
+                    case "-j":
+                    case "--threads":
+                        if (i == args.length) {
+                            System.err.printf("%s: expected number", arg);
+                            System.exit(1);
+                        }
+                        try {
+                            threads = Integer.parseInt(args[i++]);
+                        } catch (NumberFormatException e) {
+                            threads = 0;
+                        }
+                        if (threads < 1) {
+                            System.err.printf("%s: expected a positive number", arg);
+                            System.exit(1);
+                        }
+                        break;
+                    case "--max-method-size":
+                        if (i == args.length) {
+                            System.err.printf("%s: expected number", arg);
+                            System.exit(1);
+                        }
+                        try {
+                            maxMethodSize = Integer.parseInt(args[i++]);
+                        } catch (NumberFormatException e) {
+                            maxMethodSize = 0;
+                        }
+                        if (maxMethodSize < 1 || maxMethodSize > 65535) {
+                            System.err.printf("%s: expected a number between 1 and 65535", arg);
+                            System.exit(1);
+                        }
+                        break;
+                    case "--verbose":
+                        verbose = true;
+                        break;
                     case "--":
                         suppressFlags = true;
                         break;
@@ -78,6 +118,7 @@ public class Cli {
                 sourceStyle, CaseStyle.LOWER_CAMEL
         )));
         new OutputsToDirectory<>(outputDir.toPath()).addTo(linker);
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
         for (String spec : paths) {
             String[] fileAndModules = spec.split(":");
             if (fileAndModules.length == 0) {
@@ -90,6 +131,14 @@ public class Cli {
             else if (name.endsWith(".wat")) name = name.substring(0, name.length() - ".wat".length());
             try {
                 ModuleCompilation comp = fd.submitFile(file.toPath());
+                comp.setExecutor(pool);
+                comp.setMaxMethodSize(maxMethodSize);
+                if (verbose) {
+                    comp.listen(SplitFunctionEvent.class, evt -> System.err.printf(
+                            "split %s into %d methods%n",
+                            evt.method.name,
+                            evt.outlined.size() + 1));
+                }
                 comp.setName(pkgName +
                         sourceStyle.convertTo(
                                 CaseStyle.UPPER_CAMEL,
@@ -104,16 +153,21 @@ public class Cli {
             }
         }
         linker.finish();
+        if (pool != null) pool.shutdown();
     }
 
     private static void printHelp() {
         System.out.println(
-                "usage: wasm2j [-h|--help] [-o|--output <dir>] [-p|--package <package>] <file>(:<module>)* ...\n" +
+                "usage: wasm2j [-h|--help] [-o|--output <dir>] [-p|--package <package>] [-j|--threads <n>]\n" +
+                        "              [--max-method-size <bytes>] [--verbose] <file>(:<module>)* ...\n" +
                         "\n" +
                         "  <file>(:<module>)* : each file can be specified to implement a number of modules\n" +
                         "                       importable by others, separated by colons\n" +
                         "  -o|--output <dir> : output classes to <dir>/name/of/package/ModuleName.class\n" +
                         "  -p|--package <package> : set name/of/package to <package>\n" +
+                        "  -j|--threads <n> : compile the functions of each module on <n> threads\n" +
+                        "  --max-method-size <bytes> : split functions larger than <bytes> into several methods\n" +
+                        "  --verbose : report functions that were split\n" +
                         "  -h|--help : show this help"
         );
     }
@@ -4,17 +4,25 @@ import io.github.eutro.jwasm.tree.ModuleNode;
 import io.github.eutro.wasm2j.api.events.*;
 import io.github.eutro.wasm2j.core.conf.itf.WirJavaConventionFactory;
 import io.github.eutro.wasm2j.core.ext.JavaExts;
+import io.github.eutro.wasm2j.core.passes.IRPass;
 import io.github.eutro.wasm2j.core.passes.Passes;
 import io.github.eutro.wasm2j.core.passes.convert.JirToJava;
 import io.github.eutro.wasm2j.core.passes.convert.WasmToWir;
 import io.github.eutro.wasm2j.core.passes.convert.WirToJir;
+import io.github.eutro.wasm2j.core.passes.form.SplitLargeFunctions;
+import io.github.eutro.wasm2j.core.passes.opts.DevirtualizeTables;
+import io.github.eutro.wasm2j.core.passes.opts.InlineSmallFunctions;
 import io.github.eutro.wasm2j.core.ssa.Function;
 import io.github.eutro.wasm2j.core.ssa.JClass;
 import io.github.eutro.wasm2j.core.ssa.Module;
 import io.github.eutro.wasm2j.core.util.Lazy;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.tree.ClassNode;
 
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
 import java.util.function.Supplier;
 
 /**
@@ -26,20 +34,29 @@ import java.util.function.Supplier;
  *     <li>{@link ModifyConventionsEvent} is fired.</li>
  *     <li>The WebAssembly module is {@link WasmToWir compiled to WebAssembly IR}.</li>
  *     <li>{@link WirPassesEvent} is fired.</li>
+ *     <li>Indirect calls through constant tables are {@link DevirtualizeTables devirtualized},
+ *     and small functions are {@link InlineSmallFunctions inlined}, as enabled by the event.</li>
  *     <li>The WebAssembly IR is {@link WirToJir converted to Java IR} according to the conventions.</li>
  *     <li>{@link JirPassesEvent} is fired.</li>
  *     <li>Minor optimisations are run.</li>
+ *     <li>Functions that are too large are {@link SplitLargeFunctions split}.</li>
  *     <li>{@link Passes#JAVA_PREEMIT Stackification and register allocation} are performed.</li>
  *     <li>{@link JavaPreemitEvent} is fired.</li>
  *     <li>Java IR is {@link JirToJava compiled to Java bytecode}.</li>
+ *     <li>{@link SplitFunctionEvent} is fired for each function that was split.</li>
  *     <li>{@link EmitClassEvent} is fired.</li>
  * </ol>
  * With the exception that passes are applied <i>lazily</i>. That is, most of the passes
  * and conversions are not actually run until the final {@link JirToJava IR to Java bytecode} compilation.
- * This is done to reduce the maximum memory footprint of the compilation, and in the future to facilitate threading.
+ * This is done to reduce the maximum memory footprint of the compilation, and to facilitate threading:
+ * if an {@link #setExecutor(Executor) executor is set}, the per-function passes and bytecode generation
+ * run in parallel on it.
  */
 public class ModuleCompilation extends EventSupplier<ModuleCompileEvent> {
     private final WasmCompiler cc;
+    @Nullable
+    private Executor executor;
+    private int maxMethodSize = SplitLargeFunctions.DEFAULT_MAX_SIZE;
 
     /**
      * The module being compiled.
@@ -71,23 +88,97 @@ public class ModuleCompilation extends EventSupplier<ModuleCompileEvent> {
                 .build();
 
         Module wir = WasmToWir.INSTANCE.run(node);
-        wir = dispatch(WirPassesEvent.class, new WirPassesEvent(wir)).wir;
+        WirPassesEvent wirPasses = dispatch(WirPassesEvent.class, new WirPassesEvent(wir));
+        wir = wirPasses.wir;
+        // devirtualize first, so the direct calls can be inlined
+        if (wirPasses.devirtualizeTables) {
+            DevirtualizeTables.INSTANCE.runInPlace(wir);
+        }
+        if (wirPasses.inlineSmallFunctions) {
+            InlineSmallFunctions.INSTANCE.runInPlace(wir);
+        }
 
         JClass jir = new WirToJir(conventions).run(wir);
         jir = dispatch(JirPassesEvent.class, new JirPassesEvent(jir)).jir;
 
+        // functions may be split on other threads, so the events are fired here afterwards
+        List<SplitFunctionEvent> splits = Collections.synchronizedList(new ArrayList<>());
+        IRPass<Function, Function> javaPreemit = javaPreemit((method, outlined) ->
+                splits.add(new SplitFunctionEvent(method, outlined)));
         for (JClass.JavaMethod method : jir.methods) {
             Lazy<Function> impl = method.getNullable(JavaExts.METHOD_IMPL);
             if (impl != null) {
-                impl.mapInPlace(func -> Passes.SSA_OPTS.then(Passes.JAVA_PREEMIT).run(func));
+                impl.mapInPlace(func -> Passes.SSA_OPTS.then(javaPreemit).run(func));
             }
         }
         jir = dispatch(JavaPreemitEvent.class, new JavaPreemitEvent(jir)).jir;
 
-        ClassNode classNode = JirToJava.INSTANCE.run(jir);
+        ClassNode classNode = (executor == null ? JirToJava.INSTANCE : new JirToJava(executor)).run(jir);
+        Map<JClass.JavaMethod, Integer> methodOrder = new HashMap<>();
+        for (JClass.JavaMethod method : jir.methods) {
+            methodOrder.put(method, methodOrder.size());
+        }
+        splits.sort(Comparator.comparing(split -> methodOrder.getOrDefault(split.method, Integer.MAX_VALUE)));
+        for (SplitFunctionEvent split : splits) {
+            dispatch(SplitFunctionEvent.class, split);
+        }
         dispatch(EmitClassEvent.class, new EmitClassEvent(classNode));
     }
 
+    /**
+     * Set the executor on which functions are compiled in parallel.
+     * <p>
+     * By default (or when {@code null} is passed to this method), functions are compiled one at a time
+     * on the thread calling {@link #run()}. Passes added to {@link JavaPreemitEvent} or
+     * {@link JirPassesEvent} which map function implementations must then be safe to run concurrently
+     * for different functions. Events are still fired on the thread calling {@link #run()},
+     * and the compiled class is the same as it would be without an executor.
+     *
+     * @param executor The executor, for example a {@link java.util.concurrent.ForkJoinPool}.
+     * @return This, for convenience.
+     * @see JirToJava#JirToJava(Executor)
+     */
+    public ModuleCompilation setExecutor(@Nullable Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Set the maximum estimated size of the bytecode of each method, in bytes.
+     * Functions larger than this are {@link SplitLargeFunctions split} into several methods,
+     * and {@link SplitFunctionEvent} is fired for each.
+     * <p>
+     * The default is {@link SplitLargeFunctions#DEFAULT_MAX_SIZE}, which is the largest method
+     * that HotSpot will JIT compile by default. Methods can be at most 65535 bytes.
+     *
+     * @param maxMethodSize The maximum size.
+     * @return This, for convenience.
+     */
+    public ModuleCompilation setMaxMethodSize(int maxMethodSize) {
+        if (maxMethodSize <= 0 || maxMethodSize > 65535) {
+            throw new IllegalArgumentException("Method size out of range: " + maxMethodSize);
+        }
+        this.maxMethodSize = maxMethodSize;
+        return this;
+    }
+
+    /**
+     * Get the passes that this compilation runs on each function before it is converted to Java bytecode.
+     * <p>
+     * When run outside of {@link #run()}, these fire {@link SplitFunctionEvent} on the thread that runs them.
+     *
+     * @return The passes.
+     * @see Passes#javaPreemit(IRPass)
+     */
+    public IRPass<Function, Function> getJavaPreemit() {
+        return javaPreemit((method, outlined) ->
+                dispatch(SplitFunctionEvent.class, new SplitFunctionEvent(method, outlined)));
+    }
+
+    private IRPass<Function, Function> javaPreemit(BiConsumer<JClass.JavaMethod, List<JClass.JavaMethod>> onSplit) {
+        return Passes.javaPreemit(new SplitLargeFunctions(maxMethodSize, onSplit));
+    }
+
     /**
      * Set the name of the class produced by this compilation, by
      * {@link ModifyConventionsEvent modifying the conventions}.
@@ -31,7 +31,8 @@ public class OutputsToDirectory<T extends EventSupplier<? super EmitClassEvent>>
     @Override
     public Void addTo(T cc) {
         cc.listen(EmitClassEvent.class, evt -> {
-            ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+            // frames are emitted by JirToJava
+            ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
             evt.classNode.accept(cw);
             byte[] bytes = cw.toByteArray();
 
@@ -0,0 +1,41 @@
+package io.github.eutro.wasm2j.api.events;
+
+import io.github.eutro.wasm2j.api.ModuleCompilation;
+import io.github.eutro.wasm2j.core.passes.form.SplitLargeFunctions;
+import io.github.eutro.wasm2j.core.ssa.JClass;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Fired when a function was too large, and has been {@link SplitLargeFunctions split} into several methods.
+ * <p>
+ * Since passes are run lazily, and possibly on {@link ModuleCompilation#setExecutor(java.util.concurrent.Executor)
+ * other threads}, this is fired once the Java IR has been compiled to Java bytecode, before {@link EmitClassEvent},
+ * on the thread running the compilation. Functions are reported in the order of their methods in the class.
+ *
+ * @see ModuleCompilation#setMaxMethodSize(int)
+ */
+public class SplitFunctionEvent implements ModuleCompileEvent {
+    /**
+     * The method of the function that was split.
+     */
+    @NotNull
+    public final JClass.JavaMethod method;
+    /**
+     * The methods that parts of the function were outlined into.
+     */
+    @NotNull
+    public final List<JClass.JavaMethod> outlined;
+
+    /**
+     * Construct a new split function event.
+     *
+     * @param method   The method of the function that was split.
+     * @param outlined The methods that parts of the function were outlined into.
+     */
+    public SplitFunctionEvent(@NotNull JClass.JavaMethod method, @NotNull List<JClass.JavaMethod> outlined) {
+        this.method = method;
+        this.outlined = outlined;
+    }
+}
@@ -1,6 +1,8 @@
 package io.github.eutro.wasm2j.api.events;
 
 import io.github.eutro.wasm2j.api.ModuleCompilation;
+import io.github.eutro.wasm2j.core.passes.opts.DevirtualizeTables;
+import io.github.eutro.wasm2j.core.passes.opts.InlineSmallFunctions;
 import io.github.eutro.wasm2j.core.ssa.Module;
 import org.jetbrains.annotations.NotNull;
 
@@ -21,6 +23,24 @@ public class WirPassesEvent implements ModuleCompileEvent {
     @NotNull
     public Module wir;
 
+    /**
+     * Whether small functions should be {@link InlineSmallFunctions inlined} into their callers
+     * after this event, before the IR is converted to Java IR.
+     * <p>
+     * This is off by default, since it computes every function body up front,
+     * so functions are no longer compiled lazily.
+     */
+    public boolean inlineSmallFunctions;
+
+    /**
+     * Whether indirect calls through tables that never change should be {@link DevirtualizeTables devirtualized}
+     * after this event, before the IR is converted to Java IR.
+     * <p>
+     * This is on by default. It should be turned off if the tables are modified by other means,
+     * such as by a table convention.
+     */
+    public boolean devirtualizeTables = true;
+
     /**
      * Construct a new WirPassesEvent over the given IR.
      *
@@ -0,0 +1,72 @@
+package io.github.eutro.wasm2j;
+
+import io.github.eutro.wasm2j.api.ModuleCompilation;
+import io.github.eutro.wasm2j.api.WasmCompiler;
+import io.github.eutro.wasm2j.api.events.EmitClassEvent;
+import io.github.eutro.wasm2j.api.events.SplitFunctionEvent;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelCompilationTest {
+    private static String makeModule() {
+        StringBuilder sb = new StringBuilder("(module");
+        for (int i = 0; i < 16; i++) {
+            sb.append("(func (export \"f").append(i).append("\") (param i32) (result i32)")
+                    .append("(local i32)");
+            for (int j = 0; j < 8 * (i + 1); j++) {
+                sb.append("(if (i32.gt_s (local.get 0) (i32.const ").append(j).append("))")
+                        .append("(then (local.set 1 (i32.add (local.get 1) (i32.mul (local.get 0) (i32.const ")
+                        .append(j + i).append("))))))");
+            }
+            sb.append("(local.get 1))");
+        }
+        return sb.append(")").toString();
+    }
+
+    private static byte[] compile(String module, Executor executor, List<Thread> splitThreads) {
+        WasmCompiler cc = new WasmCompiler();
+        ModuleCompilation comp = cc.submitText(module);
+        byte[][] bytes = new byte[1][];
+        comp.listen(EmitClassEvent.class, ece -> {
+            ClassWriter cw = new ClassWriter(0);
+            ece.classNode.accept(cw);
+            bytes[0] = cw.toByteArray();
+        });
+        comp.listen(SplitFunctionEvent.class, sfe -> splitThreads.add(Thread.currentThread()));
+        comp.setName("io/github/eutro/test/Parallel")
+                .setMaxMethodSize(256)
+                .setExecutor(executor)
+                .run();
+        return bytes[0];
+    }
+
+    @Test
+    void testSameAsSerial() {
+        String module = makeModule();
+        List<Thread> serialSplits = new ArrayList<>();
+        byte[] serial = compile(module, null, serialSplits);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int i = 0; i < 4; i++) {
+                List<Thread> parallelSplits = new ArrayList<>();
+                byte[] parallel = compile(module, pool, parallelSplits);
+                assertArrayEquals(serial, parallel);
+                assertEquals(serialSplits.size(), parallelSplits.size());
+                for (Thread thread : parallelSplits) {
+                    assertSame(Thread.currentThread(), thread);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertFalse(serialSplits.isEmpty(), "no functions were split");
+    }
+}
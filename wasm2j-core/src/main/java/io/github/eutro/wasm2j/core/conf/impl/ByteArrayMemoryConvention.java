@@ -0,0 +1,517 @@
+package io.github.eutro.wasm2j.core.conf.impl;
+
+import io.github.eutro.jwasm.tree.MemoryNode;
+import io.github.eutro.wasm2j.core.conf.itf.ConventionModifier;
+import io.github.eutro.wasm2j.core.conf.itf.ExportableConvention;
+import io.github.eutro.wasm2j.core.conf.itf.MemoryConvention;
+import io.github.eutro.wasm2j.core.conf.itf.WirJavaConventionFactory;
+import io.github.eutro.wasm2j.core.ext.Ext;
+import io.github.eutro.wasm2j.core.ext.JavaExts;
+import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.ops.JavaOps;
+import io.github.eutro.wasm2j.core.ops.Op;
+import io.github.eutro.wasm2j.core.ops.WasmOps;
+import io.github.eutro.wasm2j.core.ssa.*;
+import io.github.eutro.wasm2j.core.ssa.Module;
+import io.github.eutro.wasm2j.core.util.IRUtils;
+import io.github.eutro.wasm2j.core.util.Instructions;
+import io.github.eutro.wasm2j.core.util.Pair;
+import io.github.eutro.wasm2j.core.util.ValueGetterSetter;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Optional;
+
+import static io.github.eutro.jwasm.Opcodes.PAGE_SIZE;
+
+/**
+ * A {@link MemoryConvention} that has a {@code byte[]} as its underlying representation,
+ * which is accessed with {@code sun.misc.Unsafe}.
+ * <p>
+ * Every load and store does a single explicit bounds check against the length of the array,
+ * instead of the index and limit checks that a {@link ByteBuffer} does on each access.
+ * <p>
+ * Unsafe accesses are in the native byte order, so the constructor of the generated class traps
+ * if the platform is not little-endian.
+ * <p>
+ * The array is kept in a field that this convention adds to the class in
+ * {@link #modifyConstructor(IRBuilder, JClass.JavaMethod, Module, JClass)},
+ * so it is not available until then. The {@code Unsafe} instance is kept in a static final field,
+ * which is shared by every byte array memory of the class.
+ *
+ * @see #MODIFIER
+ */
+public class ByteArrayMemoryConvention extends DelegatingExporter implements MemoryConvention {
+    /**
+     * An ext that provides access to the underlying byte array.
+     * <p>
+     * For use with optimising {@link #emitMemCopy(IRBuilder, Effect, MemoryConvention)}.
+     */
+    public static final Ext<ValueGetterSetter> MEMORY_BYTE_ARRAY = Ext.create(ValueGetterSetter.class, "MEMORY_BYTE_ARRAY");
+
+    /**
+     * A {@link ConventionModifier} that replaces a local memory's convention with a {@link ByteArrayMemoryConvention},
+     * for use with {@link WirJavaConventionFactory.Builder#setModifyMemConvention(ConventionModifier)}.
+     * <p>
+     * The convention it is given is discarded entirely, so this should be set before any modifiers
+     * that wrap the convention, such as ones that export it.
+     */
+    public static final ConventionModifier<MemoryConvention, MemoryNode> MODIFIER = (convention, node, index) ->
+            new ByteArrayMemoryConvention(ExportableConvention.noop(), index, node.limits.min, node.limits.max);
+
+    /**
+     * An empty {@link JClass} of {@code sun.misc.Unsafe}.
+     */
+    public static final JClass UNSAFE_CLASS = new JClass("sun/misc/Unsafe");
+
+    /**
+     * Attached to a {@link JClass}. The static field holding the {@code Unsafe} instance.
+     */
+    private static final Ext<JClass.JavaField> UNSAFE_FIELD = Ext.create(JClass.JavaField.class, "UNSAFE_FIELD");
+
+    /**
+     * {@code Unsafe.ARRAY_BYTE_BASE_OFFSET}
+     */
+    private static final Op ARRAY_BYTE_BASE_OFFSET = JavaOps.GET_FIELD
+            .create(new JClass.JavaField(UNSAFE_CLASS, "ARRAY_BYTE_BASE_OFFSET", "I", true));
+    /**
+     * {@link ByteOrder#nativeOrder()}
+     */
+    private static final JClass.JavaMethod NATIVE_ORDER = ByteBufferMemoryConvention.BYTE_ORDER_CLASS.lookupMethod("nativeOrder");
+    /**
+     * Get {@link ByteOrder#LITTLE_ENDIAN}
+     */
+    private static final Op BYTE_ORDER_LE = JavaOps.GET_FIELD
+            .create(JClass.JavaField.fromJava(ByteOrder.class, "LITTLE_ENDIAN"));
+    /**
+     * {@link Class#getDeclaredField(String)}
+     */
+    private static final JClass.JavaMethod GET_DECLARED_FIELD = JClass.emptyFromJava(Class.class)
+            .lookupMethod("getDeclaredField", String.class);
+    /**
+     * {@link Field#setAccessible(boolean)}
+     */
+    private static final JClass.JavaMethod SET_ACCESSIBLE = JClass.emptyFromJava(Field.class)
+            .lookupMethod("setAccessible", boolean.class);
+    /**
+     * {@link Field#get(Object)}
+     */
+    private static final JClass.JavaMethod FIELD_GET = JClass.emptyFromJava(Field.class)
+            .lookupMethod("get", Object.class);
+    /**
+     * {@link Arrays#copyOf(byte[], int)}
+     */
+    private static final JClass.JavaMethod ARRAYS_COPY_OF = JClass.emptyFromJava(Arrays.class)
+            .lookupMethod("copyOf", byte[].class, int.class);
+    /**
+     * {@link Arrays#fill(byte[], int, int, byte)}
+     */
+    private static final JClass.JavaMethod ARRAYS_FILL = JClass.emptyFromJava(Arrays.class)
+            .lookupMethod("fill", byte[].class, int.class, int.class, byte.class);
+    /**
+     * {@link System#arraycopy(Object, int, Object, int, int)}
+     */
+    private static final JClass.JavaMethod ARRAYCOPY = JClass.emptyFromJava(System.class)
+            .lookupMethod("arraycopy", Object.class, int.class, Object.class, int.class, int.class);
+    /**
+     * {@link ByteBuffer#get(byte[], int, int)}
+     */
+    private static final JClass.JavaMethod BUFFER_GET_ARRAY = IRUtils.BYTE_BUFFER_CLASS
+            .lookupMethod("get", byte[].class, int.class, int.class);
+
+    private final int index;
+    private final int min;
+    private final @Nullable Integer max;
+    private JClass.JavaField arrayField;
+    private JClass.JavaField unsafeField;
+
+    private final ValueGetterSetter array = new ValueGetterSetter() {
+        @Override
+        public Var get(IRBuilder ib) {
+            return ib.insert(JavaOps.GET_FIELD.create(getArrayField()).insn(IRUtils.getThis(ib)), "bytes");
+        }
+
+        @Override
+        public void set(IRBuilder ib, Var val) {
+            ib.insert(JavaOps.PUT_FIELD.create(getArrayField()).insn(IRUtils.getThis(ib), val).assignTo());
+        }
+    };
+
+    /**
+     * Construct a {@link ByteArrayMemoryConvention}.
+     *
+     * @param exporter The exporter.
+     * @param index    The index of the memory, used to name its fields.
+     * @param min      The minimum of the memory's type, which is its initial size in pages.
+     * @param max      The maximum of the memory's type.
+     */
+    public ByteArrayMemoryConvention(
+            ExportableConvention exporter,
+            int index,
+            int min,
+            @Nullable Integer max
+    ) {
+        super(exporter);
+        this.index = index;
+        this.min = min;
+        this.max = max;
+        attachExt(MEMORY_BYTE_ARRAY, array);
+    }
+
+    private synchronized JClass.JavaField getArrayField() {
+        if (arrayField == null) {
+            throw new IllegalStateException("memory " + index + " has not been added to a constructor yet");
+        }
+        return arrayField;
+    }
+
+    private synchronized JClass.JavaField getUnsafeField() {
+        getArrayField();
+        return unsafeField;
+    }
+
+    private Var getUnsafe(IRBuilder ib) {
+        return ib.insert(JavaOps.GET_FIELD.create(getUnsafeField()).insn(), "unsafe");
+    }
+
+    private static Var length(IRBuilder ib, Var bytes) {
+        return ib.insert(JavaOps.insns(new InsnNode(Opcodes.ARRAYLENGTH)).insn(bytes), "len");
+    }
+
+    /**
+     * Emit code which traps if the {@code size} bytes at {@code ptr + offset} are not all inside the array,
+     * and returns the raw Unsafe offset of the first of them.
+     */
+    private Var checkedAddr(IRBuilder ib, Var bytes, WasmOps.WithMemArg<?> wmArg, Var ptr, int size) {
+        Var ptrL = ib.insert(JavaOps.I2L_U.insn(ptr), "ptrL");
+        long offset = Integer.toUnsignedLong(wmArg.offset);
+        Var end = ib.insert(JavaOps.LADD.insn(ptrL, ib.insert(CommonOps.constant(offset + size), "size")), "end");
+        IRUtils.trapWhen(ib, JavaOps.BR_COND.create(JavaOps.JumpType.IFGT)
+                        .insn(ib.insert(JavaOps.insns(new InsnNode(Opcodes.LCMP))
+                                        .insn(end, ib.insert(JavaOps.I2L.insn(length(ib, bytes)), "lenL")),
+                                "cmp")),
+                "out of bounds memory access");
+        Var base = ib.insert(JavaOps.I2L.insn(ib.insert(ARRAY_BYTE_BASE_OFFSET.insn(), "base")), "baseL");
+        if (offset != 0) {
+            base = ib.insert(JavaOps.LADD.insn(base, ib.insert(CommonOps.constant(offset), "offset")), "base");
+        }
+        return ib.insert(JavaOps.LADD.insn(base, ptrL), "addr");
+    }
+
+    @Override
+    public void emitMemLoad(IRBuilder ib, Effect effect) {
+        WasmOps.WithMemArg<WasmOps.DerefType> wmArg = WasmOps.MEM_LOAD.cast(effect.insn().op).arg;
+        WasmOps.DerefType derefType = wmArg.value;
+        Access access = Access.of(derefType.load);
+
+        Var bytes = array.get(ib);
+        Var addr = checkedAddr(ib, bytes, wmArg, effect.insn().args().get(0), access.size);
+        Insn loadInsn = JavaOps.INVOKE.create(access.get).insn(getUnsafe(ib), bytes, addr);
+        if (derefType.ext.insns.size() == 0) {
+            ib.insert(loadInsn.copyFrom(effect));
+        } else {
+            Var loaded = ib.insert(loadInsn, "loaded");
+            ib.insert(JavaOps.INSNS
+                    .create(Instructions.copyList(derefType.ext.insns))
+                    .insn(loaded)
+                    .copyFrom(effect));
+        }
+    }
+
+    @Override
+    public void emitMemStore(IRBuilder ib, Effect effect) {
+        WasmOps.WithMemArg<WasmOps.StoreType> wmArg = WasmOps.MEM_STORE.cast(effect.insn().op).arg;
+        WasmOps.StoreType storeType = wmArg.value;
+        Access access = Access.of(storeType);
+
+        Var value = effect.insn().args().get(1);
+        if (storeType.getType() == io.github.eutro.jwasm.Opcodes.I64 && access != Access.LONG) {
+            value = ib.insert(JavaOps.insns(new InsnNode(Opcodes.L2I)).insn(value), "truncated");
+        }
+        Var bytes = array.get(ib);
+        Var addr = checkedAddr(ib, bytes, wmArg, effect.insn().args().get(0), access.size);
+        ib.insert(JavaOps.INVOKE.create(access.put).insn(getUnsafe(ib), bytes, addr, value).assignTo());
+    }
+
+    @Override
+    public void emitMemSize(IRBuilder ib, Effect effect) {
+        ib.insert(JavaOps.IDIV_U
+                .insn(length(ib, array.get(ib)),
+                        ib.insert(CommonOps.constant(PAGE_SIZE), "pgSz"))
+                .copyFrom(effect));
+    }
+
+    @SuppressWarnings({"CommentedOutCode", "DuplicatedCode"})
+    @Override
+    public void emitMemGrow(IRBuilder ib, Effect effect) {
+        // This is what we are implementing:
+        /*
+        int sz = theArr.length / PAGE_SIZE;
+        int newSz = sz + growByPages;
+        int res;
+        if (growByPages < 0 || newSz > Math.min(MAX_PAGES, max)) {
+            res = -1;
+        } else {
+            try {
+                theArr = Arrays.copyOf(theArr, theArr.length + growByPages * PAGE_SIZE);
+                res = sz;
+            } catch (OutOfMemoryError e) {
+                res = -1;
+            }
+        }
+        return res;
+         */
+
+        Type oome = Type.getType(OutOfMemoryError.class);
+
+        Var growBy = effect.insn().args().get(0);
+        BasicBlock failBlock = ib.func.newBb();
+
+        BasicBlock k = ib.func.newBb();
+        ib.insertCtrl(JavaOps.BR_COND.create(JavaOps.JumpType.IFLT).insn(growBy).jumpsTo(failBlock, k));
+        ib.setBlock(k);
+
+        Var theArr = array.get(ib);
+        Var rawSz = length(ib, theArr);
+        Var sz = ib.insert(JavaOps.insns(new InsnNode(Opcodes.IDIV))
+                        .insn(rawSz, ib.insert(CommonOps.constant(PAGE_SIZE), "psz")),
+                "sz");
+        Var newSz = ib.insert(JavaOps.IADD
+                        .insn(sz, growBy),
+                "newSz");
+
+        int maxPages = ByteBufferMemoryConvention.MAX_PAGES;
+        k = ib.func.newBb();
+        ib.insertCtrl(JavaOps.BR_COND.create(JavaOps.JumpType.IF_ICMPGT)
+                .insn(newSz, ib.insert(CommonOps.constant(max == null ? maxPages : Math.min(maxPages, max)), "max"))
+                .jumpsTo(failBlock, k));
+        ib.setBlock(k);
+
+        k = ib.func.newBb();
+        BasicBlock catchBlock = ib.func.newBb();
+        ib.insertCtrl(JavaOps.TRY.create(oome).insn().jumpsTo(catchBlock, k));
+        ib.setBlock(k);
+
+        Var newArr = ib.insert(JavaOps.INVOKE
+                        .create(ARRAYS_COPY_OF)
+                        .insn(theArr,
+                                ib.insert(JavaOps.IADD
+                                                .insn(rawSz,
+                                                        ib.insert(JavaOps.IMUL
+                                                                        .insn(ib.insert(CommonOps.constant(PAGE_SIZE), "psz"),
+                                                                                growBy),
+                                                                "byRaw")),
+                                        "newSzRaw")),
+                "newArr");
+        array.set(ib, newArr);
+        BasicBlock end = ib.func.newBb();
+        ib.insertCtrl(Control.br(end));
+        BasicBlock successBlock = ib.getBlock();
+
+        ib.setBlock(catchBlock);
+        ib.insert(JavaOps.CATCH.create(oome).insn(), "oome");
+        ib.insertCtrl(Control.br(failBlock));
+
+        ib.setBlock(failBlock);
+        Var err = ib.insert(CommonOps.constant(-1), "err");
+        ib.insertCtrl(Control.br(end));
+
+        ib.setBlock(end);
+        ib.insert(CommonOps.PHI.create(Arrays.asList(successBlock, failBlock))
+                .insn(sz, err)
+                .copyFrom(effect));
+    }
+
+    @Override
+    public void emitMemInit(IRBuilder ib, Effect effect, Var data) {
+        Iterator<Var> iter = effect.insn().args().iterator();
+        Var dstIdx = iter.next();
+        Var srcIdx = iter.next();
+        Var length = iter.next();
+
+        // data.slice().position(srcIdx).get(bytes, dstIdx, length),
+        // which checks both bounds before copying anything
+        data = ib.insert(JavaOps.INVOKE.create(ByteBufferMemoryConvention.BUFFER_SLICE).insn(data), "sliced");
+        if (!CommonOps.quickCheckConstant(srcIdx, 0)) {
+            ib.insert(JavaOps.INVOKE.create(ByteBufferMemoryConvention.BUFFER_POSITION).insn(data, srcIdx), "_positioned");
+        }
+        ib.insert(JavaOps.INVOKE.create(BUFFER_GET_ARRAY).insn(data, array.get(ib), dstIdx, length), "_got");
+    }
+
+    @Override
+    public void emitBoundsCheck(IRBuilder ib, int mem, Var bound) {
+        Var szRaw = ib.insert(JavaOps.I2L.insn(length(ib, array.get(ib))), "rawSzL");
+        IRUtils.trapWhen(ib, JavaOps.BR_COND.create(JavaOps.JumpType.IFGT)
+                        .insn(ib.insert(JavaOps.insns(new InsnNode(Opcodes.LCMP))
+                                        .insn(bound, szRaw),
+                                "cmp")),
+                "out of bounds memory access");
+    }
+
+    @SuppressWarnings("DuplicatedCode")
+    @Override
+    public void emitMemCopy(IRBuilder ib, Effect effect, MemoryConvention dst) {
+        Optional<ValueGetterSetter> barr = dst.getExt(MEMORY_BYTE_ARRAY);
+        if (barr.isPresent()) {
+            Pair<Integer, Integer> arg = WasmOps.MEM_COPY.cast(effect.insn().op).arg;
+            int thisIdx = arg.left;
+            int otherIdx = arg.right;
+            Iterator<Var> iter = effect.insn().args().iterator();
+            Var dstAddr = iter.next();
+            Var srcAddr = iter.next();
+            Var len = iter.next();
+
+            Var lenLong = ib.insert(JavaOps.I2L_U.insn(len), "lenL");
+            emitBoundsCheck(ib, thisIdx, ib.insert(JavaOps.LADD.insn(ib.insert(JavaOps.I2L_U.insn(srcAddr), "sL"), lenLong),
+                    "srcEnd"));
+            dst.emitBoundsCheck(ib, otherIdx, ib.insert(JavaOps.LADD.insn(ib.insert(JavaOps.I2L_U.insn(dstAddr), "dL"), lenLong),
+                    "dstEnd"));
+
+            // System.arraycopy handles overlapping ranges within the same array
+            ib.insert(JavaOps.INVOKE.create(ARRAYCOPY)
+                    .insn(array.get(ib), srcAddr, barr.get().get(ib), dstAddr, len)
+                    .assignTo());
+        } else {
+            MemoryConvention.super.emitMemCopy(ib, effect, dst);
+        }
+    }
+
+    @Override
+    public void emitMemFill(IRBuilder ib, Effect effect) {
+        int thisIdx = WasmOps.MEM_FILL.cast(effect.insn().op).arg;
+        Iterator<Var> iter = effect.insn().args().iterator();
+        Var idx = iter.next();
+        Var value = iter.next();
+        Var len = iter.next();
+
+        emitBoundsCheck(ib, thisIdx, ib.insert(JavaOps.LADD.insn(
+                        ib.insert(JavaOps.I2L_U.insn(idx), "iL"),
+                        ib.insert(JavaOps.I2L_U.insn(len), "lenL")
+                ),
+                "idxEnd"));
+        ib.insert(JavaOps.INVOKE.create(ARRAYS_FILL)
+                .insn(array.get(ib),
+                        idx,
+                        ib.insert(JavaOps.IADD.insn(idx, len), "end"),
+                        ib.insert(JavaOps.insns(new InsnNode(Opcodes.I2B)).insn(value), "b"))
+                .assignTo());
+    }
+
+    @Override
+    public void modifyConstructor(IRBuilder ib, JClass.JavaMethod ctorMethod, Module module, JClass jClass) {
+        JClass.JavaField arrayField = new JClass.JavaField(jClass, "memBytes" + index, "[B", false);
+        JClass.JavaField unsafeField = getOrMakeUnsafeField(jClass);
+        synchronized (this) {
+            if (this.arrayField != null) {
+                throw new IllegalStateException("memory " + index + " was already added to a constructor");
+            }
+            this.arrayField = arrayField;
+            this.unsafeField = unsafeField;
+        }
+        jClass.fields.add(arrayField);
+
+        IRUtils.trapWhen(ib, JavaOps.BR_COND.create(JavaOps.JumpType.IF_ACMPNE)
+                        .insn(ib.insert(JavaOps.INVOKE.create(NATIVE_ORDER).insn(), "nativeOrder"),
+                                ib.insert(BYTE_ORDER_LE.insn(), "le")),
+                "byte array memories require a little-endian platform");
+
+        array.set(ib, ib.insert(JavaOps.insns(new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_BYTE))
+                        .insn(ib.insert(CommonOps.constant(min * PAGE_SIZE), "size")),
+                "bytes"));
+    }
+
+    private static JClass.JavaField getOrMakeUnsafeField(JClass jClass) {
+        synchronized (jClass) {
+            return jClass.getExtOrRun(UNSAFE_FIELD, jClass, $ -> {
+                JClass.JavaField field = new JClass.JavaField(jClass, "memUnsafe", UNSAFE_CLASS.getType().getDescriptor(),
+                        Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL);
+                field.attachExt(JavaExts.FIELD_IMMUTABLE, true);
+                jClass.fields.add(field);
+                jClass.attachExt(UNSAFE_FIELD, field);
+
+                IRUtils.addStaticInit(jClass, ib -> {
+                    // Field f = Unsafe.class.getDeclaredField("theUnsafe");
+                    // f.setAccessible(true);
+                    // memUnsafe = (Unsafe) f.get(null);
+                    Var theUnsafe = ib.insert(JavaOps.INVOKE.create(GET_DECLARED_FIELD)
+                                    .insn(ib.insert(IRUtils.loadClass(UNSAFE_CLASS.getType()), "unsafeClass"),
+                                            ib.insert(CommonOps.constant("theUnsafe"), "name")),
+                            "theUnsafe");
+                    ib.insert(JavaOps.INVOKE.create(SET_ACCESSIBLE)
+                            .insn(theUnsafe, ib.insert(CommonOps.constant(1), "true"))
+                            .assignTo());
+                    Var unsafe = ib.insert(JavaOps.insns(new TypeInsnNode(Opcodes.CHECKCAST, UNSAFE_CLASS.name))
+                                    .insn(ib.insert(JavaOps.INVOKE.create(FIELD_GET)
+                                                    .insn(theUnsafe, ib.insert(CommonOps.constant(null), "nil")),
+                                            "unsafeObj")),
+                            "unsafe");
+                    ib.insert(JavaOps.PUT_FIELD.create(field).insn(unsafe).assignTo());
+                });
+                return null;
+            });
+        }
+    }
+
+    private enum Access {
+        BYTE("Byte", Type.BYTE_TYPE, 1),
+        SHORT("Short", Type.SHORT_TYPE, 2),
+        INT("Int", Type.INT_TYPE, 4),
+        LONG("Long", Type.LONG_TYPE, 8),
+        FLOAT("Float", Type.FLOAT_TYPE, 4),
+        DOUBLE("Double", Type.DOUBLE_TYPE, 8),
+        ;
+
+        final JClass.JavaMethod get, put;
+        final int size;
+
+        Access(String name, Type type, int size) {
+            Type object = Type.getType(Object.class);
+            get = new JClass.JavaMethod(UNSAFE_CLASS, "get" + name,
+                    Type.getMethodDescriptor(type, object, Type.LONG_TYPE),
+                    Opcodes.ACC_PUBLIC);
+            put = new JClass.JavaMethod(UNSAFE_CLASS, "put" + name,
+                    Type.getMethodDescriptor(Type.VOID_TYPE, object, Type.LONG_TYPE, type),
+                    Opcodes.ACC_PUBLIC);
+            this.size = size;
+        }
+
+        static Access of(WasmOps.DerefType.LoadType load) {
+            switch (load) {
+                // @formatter:off
+                case I8: return BYTE;
+                case I16: return SHORT;
+                case I32: return INT;
+                case I64: return LONG;
+                case F32: return FLOAT;
+                case F64: return DOUBLE;
+                // @formatter:on
+                default:
+                    throw new IllegalArgumentException();
+            }
+        }
+
+        static Access of(WasmOps.StoreType store) {
+            switch (store) {
+                // @formatter:off
+                case I32_8: case I64_8: return BYTE;
+                case I32_16: case I64_16: return SHORT;
+                case I32: case I64_32: return INT;
+                case I64: return LONG;
+                case F32: return FLOAT;
+                case F64: return DOUBLE;
+                // @formatter:on
+                default:
+                    throw new IllegalArgumentException();
+            }
+        }
+    }
+}
@@ -51,6 +51,10 @@ public class ByteBufferMemoryConvention extends DelegatingExporter implements Me
      * {@link ByteBuffer#slice()}
      */
     public static final JClass.JavaMethod BUFFER_SLICE = IRUtils.BYTE_BUFFER_CLASS.lookupMethod("slice");
+    /**
+     * {@link ByteBuffer#duplicate()}
+     */
+    public static final JClass.JavaMethod BUFFER_DUPLICATE = IRUtils.BYTE_BUFFER_CLASS.lookupMethod("duplicate");
     /**
      * {@link Buffer#position(int)}
      */
@@ -59,15 +63,31 @@ public class ByteBufferMemoryConvention extends DelegatingExporter implements Me
      * {@link Buffer#limit(int)}
      */
     public static final JClass.JavaMethod BUFFER_LIMIT = IRUtils.BUFFER_CLASS.lookupMethod("limit", int.class);
+    /**
+     * {@link Buffer#limit()}
+     */
+    public static final JClass.JavaMethod BUFFER_GET_LIMIT = IRUtils.BUFFER_CLASS.lookupMethod("limit");
+    /**
+     * {@link Buffer#capacity()}
+     */
+    public static final JClass.JavaMethod BUFFER_CAPACITY = IRUtils.BUFFER_CLASS.lookupMethod("capacity");
     /**
      * {@link ByteBuffer#put(ByteBuffer)}
      */
     public static final JClass.JavaMethod BUFFER_PUT_BUF = IRUtils.BYTE_BUFFER_CLASS.lookupMethod("put", ByteBuffer.class);
+    /**
+     * {@link ByteBuffer#put(int, byte)}
+     */
+    public static final JClass.JavaMethod BUFFER_PUT_AT = IRUtils.BYTE_BUFFER_CLASS.lookupMethod("put", int.class, byte.class);
     /**
      * Get {@link ByteOrder#LITTLE_ENDIAN}
      */
-    private static final Op BYTE_ORDER_LE = JavaOps.GET_FIELD
+    protected static final Op BYTE_ORDER_LE = JavaOps.GET_FIELD
             .create(JClass.JavaField.fromJava(ByteOrder.class, "LITTLE_ENDIAN"));
+    private static final JClass.JavaMethod MATH_MAX = JClass.emptyFromJava(Math.class)
+            .lookupMethod("max", int.class, int.class);
+    private static final JClass.JavaMethod MATH_MIN = JClass.emptyFromJava(Math.class)
+            .lookupMethod("min", int.class, int.class);
 
     private final ValueGetterSetter buffer;
     private final @Nullable Integer max;
@@ -131,7 +151,7 @@ public class ByteBufferMemoryConvention extends DelegatingExporter implements Me
     public void emitMemSize(IRBuilder ib, Effect effect) {
         ib.insert(JavaOps.IDIV_U
                 .insn(ib.insert(JavaOps.INVOKE
-                                        .create(IRUtils.BUFFER_CLASS.lookupMethod("capacity"))
+                                        .create(BUFFER_GET_LIMIT)
                                         .insn(buffer.get(ib)),
                                 "rawSz"),
                         ib.insert(CommonOps.constant(PAGE_SIZE), "pgSz"))
@@ -143,29 +163,39 @@ public class ByteBufferMemoryConvention extends DelegatingExporter implements Me
     public void emitMemGrow(IRBuilder ib, Effect effect) {
         // This is what we are implementing:
         /*
-        int sz = theBuf.capacity() / PAGE_SIZE;
+        int rawSz = theBuf.limit();
+        int sz = rawSz / PAGE_SIZE;
         int newSz = sz + growByPages;
         int res;
-        if (growByPages < 0 || newSz >= Math.min(Short.MAX_VALUE / 2, max)) {
+        if (growByPages < 0 || newSz > Math.min(MAX_PAGES, max)) {
             res = -1;
         } else {
-            try {
-                ByteBuffer newBuf = ByteBuffer
-                        .allocateDirect(theBuf.capacity() + growByPages * PAGE_SIZE)
-                        .order(ByteOrder.LITTLE_ENDIAN);
-                newBuf.duplicate().put(theBuf);
-                theBuf = newBuf;
-                res = sz;
-            } catch (OutOfMemoryError e) {
-                res = -1;
+            int newRawSz = rawSz + growByPages * PAGE_SIZE;
+            int cap = theBuf.capacity();
+            if (newRawSz > cap) {
+                try {
+                    theBuf = realloc(theBuf, Math.max(newRawSz, cap + Math.min(cap, MAX_RAW - cap)));
+                } catch (OutOfMemoryError e) {
+                    try {
+                        theBuf = realloc(theBuf, newRawSz);
+                    } catch (OutOfMemoryError e2) {
+                        return -1;
+                    }
+                }
             }
+            theBuf.limit(newRawSz);
+            res = sz;
         }
         return res;
-         */
 
-        JClass.JavaMethod capacity = IRUtils.BYTE_BUFFER_CLASS.lookupMethod("capacity");
-        JClass.JavaMethod duplicate = IRUtils.BYTE_BUFFER_CLASS.lookupMethod("duplicate");
-        Type oome = Type.getType(OutOfMemoryError.class);
+        ByteBuffer realloc(ByteBuffer theBuf, int capacity) {
+            ByteBuffer newBuf = ByteBuffer
+                    .allocateDirect(capacity)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            newBuf.duplicate().put(theBuf.duplicate());
+            return newBuf;
+        }
+         */
 
         Var growBy = effect.insn().args().get(0);
         BasicBlock failBlock = ib.func.newBb();
@@ -175,7 +205,7 @@ public class ByteBufferMemoryConvention extends DelegatingExporter implements Me
         ib.setBlock(k);
 
         Var theBuf = buffer.get(ib);
-        Var rawSz = ib.insert(JavaOps.INVOKE.create(capacity).insn(theBuf), "rawSz");
+        Var rawSz = ib.insert(JavaOps.INVOKE.create(BUFFER_GET_LIMIT).insn(theBuf), "rawSz");
         Var sz = ib.insert(JavaOps.insns(new InsnNode(Opcodes.IDIV))
                         .insn(rawSz, ib.insert(CommonOps.constant(PAGE_SIZE), "psz")),
                 "sz");
@@ -183,13 +213,76 @@ public class ByteBufferMemoryConvention extends DelegatingExporter implements Me
                         .insn(sz, growBy),
                 "newSz");
 
+        int maxPages = max == null ? MAX_PAGES : Math.min(MAX_PAGES, max);
         k = ib.func.newBb();
         ib.insertCtrl(JavaOps.BR_COND.create(JavaOps.JumpType.IF_ICMPGT)
-                .insn(newSz, ib.insert(CommonOps.constant(max == null ? MAX_PAGES : Math.min(MAX_PAGES, max)), "max"))
+                .insn(newSz, ib.insert(CommonOps.constant(maxPages), "max"))
                 .jumpsTo(failBlock, k));
         ib.setBlock(k);
 
+        Var newRawSz = ib.insert(JavaOps.IADD
+                        .insn(rawSz,
+                                ib.insert(JavaOps.IMUL
+                                                .insn(ib.insert(CommonOps.constant(PAGE_SIZE), "psz"),
+                                                        growBy),
+                                        "byRaw")),
+                "newSzRaw");
+        Var cap = ib.insert(JavaOps.INVOKE.create(BUFFER_CAPACITY).insn(theBuf), "cap");
+        BasicBlock setLimitBlock = ib.func.newBb();
         k = ib.func.newBb();
+        ib.insertCtrl(JavaOps.BR_COND.create(JavaOps.JumpType.IF_ICMPLE)
+                .insn(newRawSz, cap)
+                .jumpsTo(setLimitBlock, k));
+        ib.setBlock(k);
+
+        // double the capacity, up to the maximum, but at least enough for the new size
+        Var geomCap = ib.insert(JavaOps.INVOKE.create(MATH_MAX)
+                        .insn(newRawSz,
+                                ib.insert(JavaOps.IADD
+                                                .insn(cap,
+                                                        ib.insert(JavaOps.INVOKE.create(MATH_MIN)
+                                                                        .insn(cap,
+                                                                                ib.insert(JavaOps.ISUB
+                                                                                                .insn(ib.insert(CommonOps.constant(maxPages * PAGE_SIZE), "maxRaw"),
+                                                                                                        cap),
+                                                                                        "headroom")),
+                                                                "step")),
+                                        "doubled")),
+                "geomCap");
+        BasicBlock retryBlock = emitRealloc(ib, theBuf, geomCap, setLimitBlock);
+        ib.setBlock(retryBlock);
+        // if that much couldn't be allocated, try again with exactly as much as was asked for
+        BasicBlock catchBlock = emitRealloc(ib, theBuf, newRawSz, setLimitBlock);
+        ib.setBlock(catchBlock);
+        ib.insertCtrl(Control.br(failBlock));
+
+        ib.setBlock(setLimitBlock);
+        ib.insert(JavaOps.INVOKE.create(BUFFER_LIMIT).insn(buffer.get(ib), newRawSz), "limited");
+        BasicBlock end = ib.func.newBb();
+        ib.insertCtrl(Control.br(end));
+        BasicBlock successBlock = ib.getBlock();
+
+        ib.setBlock(failBlock);
+        Var err = ib.insert(CommonOps.constant(-1), "err");
+        ib.insertCtrl(Control.br(end));
+
+        ib.setBlock(end);
+        ib.insert(CommonOps.PHI.create(Arrays.asList(successBlock, failBlock))
+                .insn(sz, err)
+                .copyFrom(effect));
+    }
+
+    /**
+     * Emit code which tries to replace the buffer with a copy of {@code theBuf} with the given capacity,
+     * jumping to {@code then} if it succeeds.
+     *
+     * @return The block that is jumped to, after catching, if an {@link OutOfMemoryError} was thrown.
+     */
+    private BasicBlock emitRealloc(IRBuilder ib, Var theBuf, Var capacity, BasicBlock then) {
+        Type oome = Type.getType(OutOfMemoryError.class);
+        JClass.JavaMethod duplicate = IRUtils.BYTE_BUFFER_CLASS.lookupMethod("duplicate");
+
+        BasicBlock k = ib.func.newBb();
         BasicBlock catchBlock = ib.func.newBb();
         ib.insertCtrl(JavaOps.TRY.create(oome).insn().jumpsTo(catchBlock, k));
         ib.setBlock(k);
@@ -198,13 +291,7 @@ public class ByteBufferMemoryConvention extends DelegatingExporter implements Me
                         .create(IRUtils.BYTE_BUFFER_CLASS.lookupMethod("order", ByteOrder.class))
                         .insn(ib.insert(JavaOps.INVOKE
                                                 .create(IRUtils.BYTE_BUFFER_CLASS.lookupMethod("allocateDirect", int.class))
-                                                .insn(ib.insert(JavaOps.IADD
-                                                                .insn(rawSz,
-                                                                        ib.insert(JavaOps.IMUL
-                                                                                        .insn(ib.insert(CommonOps.constant(PAGE_SIZE), "psz"),
-                                                                                                growBy),
-                                                                                "byRaw")),
-                                                        "newSzRaw")),
+                                                .insn(capacity),
                                         "newBuf"),
                                 ib.insert(BYTE_ORDER_LE.insn(), "order")),
                 "newBufLE");
@@ -214,22 +301,13 @@ public class ByteBufferMemoryConvention extends DelegatingExporter implements Me
                                 ib.insert(JavaOps.INVOKE.create(duplicate).insn(theBuf), "dupSrc")),
                 "put");
         buffer.set(ib, newBuf);
-        BasicBlock end = ib.func.newBb();
-        ib.insertCtrl(Control.br(end));
-        BasicBlock successBlock = ib.getBlock();
+        ib.insertCtrl(Control.br(then));
 
         ib.setBlock(catchBlock);
         ib.insert(JavaOps.CATCH.create(oome).insn(), "oome");
-        ib.insertCtrl(Control.br(failBlock));
-
-        ib.setBlock(failBlock);
-        Var err = ib.insert(CommonOps.constant(-1), "err");
-        ib.insertCtrl(Control.br(end));
-
-        ib.setBlock(end);
-        ib.insert(CommonOps.PHI.create(Arrays.asList(successBlock, failBlock))
-                .insn(sz, err)
-                .copyFrom(effect));
+        BasicBlock caught = ib.func.newBb();
+        ib.insertCtrl(Control.br(caught));
+        return caught;
     }
 
     private static Var position(IRBuilder ib, Var buffer, Var to) {
@@ -260,7 +338,7 @@ public class ByteBufferMemoryConvention extends DelegatingExporter implements Me
     @Override
     public void emitBoundsCheck(IRBuilder ib, int mem, Var bound) {
         Var szRaw = ib.insert(JavaOps.INVOKE
-                        .create(IRUtils.BUFFER_CLASS.lookupMethod("capacity"))
+                        .create(BUFFER_GET_LIMIT)
                         .insn(buffer.get(ib)),
                 "rawSz");
         szRaw = ib.insert(JavaOps.I2L.insn(szRaw), "rawSzL");
@@ -304,9 +382,67 @@ public class ByteBufferMemoryConvention extends DelegatingExporter implements Me
             Var positioned = position(ib, src, srcAddr);
             Var limit = ib.insert(JavaOps.IADD.insn(srcAddr, len), "limit");
             ib.insert(JavaOps.INVOKE.create(BUFFER_LIMIT).insn(positioned, limit), "limited");
+            // overlapping ranges are fine: heap buffers copy with System.arraycopy,
+            // and direct buffers with Unsafe.copyMemory, both of which handle overlap
             ib.insert(JavaOps.INVOKE.create(BUFFER_PUT_BUF).insn(target, src), "put");
         } else {
             MemoryConvention.super.emitMemCopy(ib, effect, dst);
         }
     }
+
+    @Override
+    public void emitMemFill(IRBuilder ib, Effect effect) {
+        int thisIdx = WasmOps.MEM_FILL.cast(effect.insn().op).arg;
+        Iterator<Var> iter = effect.insn().args().iterator();
+        Var idx = iter.next();
+        Var value = iter.next();
+        Var len = iter.next();
+
+        emitBoundsCheck(ib, thisIdx, ib.insert(JavaOps.LADD.insn(
+                        ib.insert(JavaOps.I2L_U.insn(idx), "iL"),
+                        ib.insert(JavaOps.I2L_U.insn(len), "lenL")),
+                "idxEnd"));
+
+        // there is no bulk fill for byte buffers, so store the first byte,
+        // then repeatedly copy what has been filled so far after itself,
+        // taking a logarithmic number of bulk copies
+        BasicBlock fillBlock = ib.func.newBb();
+        BasicBlock loopBlock = ib.func.newBb();
+        BasicBlock endBlock = ib.func.newBb();
+        ib.insertCtrl(JavaOps.BR_COND.create(JavaOps.JumpType.IFEQ).insn(len).jumpsTo(endBlock, fillBlock));
+
+        ib.setBlock(fillBlock);
+        Var buf = buffer.get(ib);
+        ib.insert(JavaOps.INVOKE.create(BUFFER_PUT_AT)
+                        .insn(buf, idx, ib.insert(JavaOps.insns(new InsnNode(Opcodes.I2B)).insn(value), "b")),
+                "_put");
+        Var one = ib.insert(CommonOps.constant(1), "1");
+        ib.insertCtrl(JavaOps.BR_COND.create(JavaOps.JumpType.IF_ICMPLT)
+                .insn(one, len)
+                .jumpsTo(loopBlock, endBlock));
+
+        ib.setBlock(loopBlock);
+        Var filledOut = ib.func.newVar("filled'");
+        Var filled = ib.insert(CommonOps.PHI
+                        .create(Arrays.asList(fillBlock, loopBlock))
+                        .insn(one, filledOut),
+                "filled");
+        Var count = ib.insert(JavaOps.INVOKE.create(MATH_MIN)
+                        .insn(filled, ib.insert(JavaOps.ISUB.insn(len, filled), "left")),
+                "count");
+        Var target = ib.insert(JavaOps.INVOKE.create(BUFFER_SLICE).insn(buf), "sliced");
+        position(ib, target, ib.insert(JavaOps.IADD.insn(idx, filled), "to"));
+        Var src = ib.insert(JavaOps.INVOKE.create(BUFFER_SLICE).insn(buf), "sliced");
+        Var positioned = position(ib, src, idx);
+        ib.insert(JavaOps.INVOKE.create(BUFFER_LIMIT)
+                        .insn(positioned, ib.insert(JavaOps.IADD.insn(idx, count), "limit")),
+                "_limited");
+        ib.insert(JavaOps.INVOKE.create(BUFFER_PUT_BUF).insn(target, src), "_put");
+        ib.insert(JavaOps.IADD.insn(filled, count).assignTo(filledOut));
+        ib.insertCtrl(JavaOps.BR_COND.create(JavaOps.JumpType.IF_ICMPLT)
+                .insn(filledOut, len)
+                .jumpsTo(loopBlock, endBlock));
+
+        ib.setBlock(endBlock);
+    }
 }
@@ -0,0 +1,96 @@
+package io.github.eutro.wasm2j.core.conf.impl;
+
+import io.github.eutro.jwasm.tree.TypeNode;
+import io.github.eutro.wasm2j.core.intrinsics.ImplClassBytes;
+import io.github.eutro.wasm2j.core.intrinsics.IntrinsicImpl;
+import io.github.eutro.wasm2j.core.intrinsics.impls.InlineCaches;
+import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.ops.JavaOps;
+import io.github.eutro.wasm2j.core.ops.WasmOps;
+import io.github.eutro.wasm2j.core.ssa.Effect;
+import io.github.eutro.wasm2j.core.ssa.IRBuilder;
+import io.github.eutro.wasm2j.core.ssa.Var;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link BasicCallingConvention} which calls function references through inline caches.
+ * <p>
+ * Instead of invoking the function reference directly, each indirect call is an {@code invokedynamic}
+ * call site, which remembers the last few distinct function references it has been called with, and
+ * calls those directly, after checking that the reference is the same. This lets the JIT inline calls at sites
+ * that only ever call a few functions, such as virtual calls in C++ or calls through trait objects in Rust,
+ * which it cannot do through a single {@link MethodHandle#invokeExact(Object...) invokeExact}.
+ * <p>
+ * Once a call site has seen more references than the depth of its cache, it falls back to invoking them generically.
+ *
+ * @see InlineCaches
+ */
+public class InlineCacheCallingConvention extends BasicCallingConvention {
+    private static final IntrinsicImpl BOOTSTRAP;
+    private static final List<IntrinsicImpl> HELPERS;
+
+    static {
+        ClassNode node = new ClassNode();
+        ImplClassBytes.getClassReaderFor(InlineCaches.class).accept(node, ClassReader.SKIP_DEBUG);
+        IntrinsicImpl bootstrap = null;
+        IntrinsicImpl miss = null;
+        for (MethodNode method : node.methods) {
+            if (method.name.equals("icBootstrap")) {
+                bootstrap = new IntrinsicImpl(method, false);
+            } else if (method.name.equals("icMiss")) {
+                miss = new IntrinsicImpl(method, false);
+            }
+        }
+        if (bootstrap == null || miss == null) throw new IllegalStateException();
+        BOOTSTRAP = bootstrap;
+        HELPERS = Collections.singletonList(miss);
+    }
+
+    private final int depth;
+
+    /**
+     * Construct a new inline caching calling convention.
+     *
+     * @param depth The maximum number of distinct function references to cache at each call site.
+     */
+    public InlineCacheCallingConvention(int depth) {
+        this.depth = depth;
+    }
+
+    @Override
+    public void emitCallIndirect(IRBuilder ib, Effect effect) {
+        TypeNode callType = WasmOps.CALL_INDIRECT.cast(effect.insn().op).arg;
+        List<Var> args = effect.insn().args();
+        List<Var> invokeArgs = new ArrayList<>();
+        invokeArgs.add(args.get(0));
+        List<Var> rawArgs = passArguments(ib, args.subList(1, args.size()), callType);
+        invokeArgs.addAll(rawArgs);
+        Type ty = getDescriptor(callType);
+        Type[] siteArgs = new Type[ty.getArgumentTypes().length + 1];
+        siteArgs[0] = Type.getType(MethodHandle.class);
+        System.arraycopy(ty.getArgumentTypes(), 0, siteArgs, 1, siteArgs.length - 1);
+        Var[] rets = ty.getReturnType().getSize() == 0
+                ? new Var[0]
+                : new Var[]{ib.func.newVar("ret")};
+        ib.insert(JavaOps.INDY_INTRINSIC.create(new JavaOps.IndyIntrinsic(
+                        "call_indirect",
+                        Type.getMethodDescriptor(ty.getReturnType(), siteArgs),
+                        BOOTSTRAP,
+                        HELPERS,
+                        depth
+                ))
+                .insn(invokeArgs)
+                .assignTo(rets));
+        ib.insert(CommonOps.IDENTITY
+                .insn(receiveReturn(ib, rawArgs, rets.length == 1 ? rets[0] : null, callType))
+                .copyFrom(effect));
+    }
+}
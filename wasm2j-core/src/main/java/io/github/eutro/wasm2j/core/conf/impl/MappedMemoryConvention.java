@@ -0,0 +1,332 @@
+package io.github.eutro.wasm2j.core.conf.impl;
+
+import io.github.eutro.jwasm.tree.MemoryNode;
+import io.github.eutro.wasm2j.core.conf.itf.ConventionModifier;
+import io.github.eutro.wasm2j.core.conf.itf.ExportableConvention;
+import io.github.eutro.wasm2j.core.conf.itf.MemoryConvention;
+import io.github.eutro.wasm2j.core.conf.itf.WirJavaConventionFactory;
+import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.ops.JavaOps;
+import io.github.eutro.wasm2j.core.ops.Op;
+import io.github.eutro.wasm2j.core.ssa.*;
+import io.github.eutro.wasm2j.core.ssa.Module;
+import io.github.eutro.wasm2j.core.util.IRUtils;
+import io.github.eutro.wasm2j.core.util.ValueGetterSetter;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+import static io.github.eutro.jwasm.Opcodes.PAGE_SIZE;
+
+/**
+ * A {@link ByteBufferMemoryConvention} where the buffer is a {@link java.nio.MappedByteBuffer} of a file.
+ * <p>
+ * The memory lives in the file rather than in direct memory, so it is paged in and out by the operating system,
+ * and is not limited by {@code -XX:MaxDirectMemorySize}.
+ * <p>
+ * The file is opened, or created, by the constructor of the generated class. If it already exists,
+ * the memory starts with its contents, and at least as many pages as fit in it.
+ * Data segments are still written when the module is instantiated, as usual.
+ * Growing the memory extends the file and maps it again, without copying.
+ * <p>
+ * The buffer and the file channel are kept in fields that this convention adds to the class in
+ * {@link #modifyConstructor(IRBuilder, JClass.JavaMethod, Module, JClass)},
+ * so they are not available until then.
+ *
+ * @see #modifier(IntFunction)
+ */
+public class MappedMemoryConvention extends ByteBufferMemoryConvention {
+    private static final JClass FILE_CHANNEL_CLASS = JClass.emptyFromJava(FileChannel.class);
+    /**
+     * {@link Paths#get(String, String...)}
+     */
+    private static final JClass.JavaMethod PATHS_GET = JClass.emptyFromJava(Paths.class)
+            .lookupMethod("get", String.class, String[].class);
+    /**
+     * {@link FileChannel#open(Path, OpenOption...)}
+     */
+    private static final JClass.JavaMethod CHANNEL_OPEN = FILE_CHANNEL_CLASS
+            .lookupMethod("open", Path.class, OpenOption[].class);
+    /**
+     * {@link FileChannel#size()}
+     */
+    private static final JClass.JavaMethod CHANNEL_SIZE = FILE_CHANNEL_CLASS.lookupMethod("size");
+    /**
+     * {@link FileChannel#map(FileChannel.MapMode, long, long)}
+     */
+    private static final JClass.JavaMethod CHANNEL_MAP = FILE_CHANNEL_CLASS
+            .lookupMethod("map", FileChannel.MapMode.class, long.class, long.class);
+    /**
+     * {@link ByteBuffer#order(ByteOrder)}
+     */
+    private static final JClass.JavaMethod BUFFER_ORDER = IRUtils.BYTE_BUFFER_CLASS
+            .lookupMethod("order", ByteOrder.class);
+    /**
+     * Get {@link FileChannel.MapMode#READ_WRITE}
+     */
+    private static final Op MAP_MODE_RW = JavaOps.GET_FIELD
+            .create(JClass.JavaField.fromJava(FileChannel.MapMode.class, "READ_WRITE"));
+    private static final JClass.JavaMethod MATH_MAX = JClass.emptyFromJava(Math.class)
+            .lookupMethod("max", int.class, int.class);
+    private static final JClass.JavaMethod MATH_MIN = JClass.emptyFromJava(Math.class)
+            .lookupMethod("min", long.class, long.class);
+
+    private final LazyField buffer;
+    private final LazyField channel;
+    private final int index;
+    private final String path;
+    private final int min;
+    private final @Nullable Integer max;
+
+    /**
+     * Construct a {@link MappedMemoryConvention}.
+     *
+     * @param exporter The exporter.
+     * @param index    The index of the memory, used to name its fields.
+     * @param path     The path of the file to map, when the class is constructed.
+     * @param min      The minimum of the memory's type.
+     * @param max      The maximum of the memory's type.
+     */
+    public MappedMemoryConvention(
+            ExportableConvention exporter,
+            int index,
+            String path,
+            int min,
+            @Nullable Integer max
+    ) {
+        this(exporter, new LazyField(index), index, path, min, max);
+    }
+
+    private MappedMemoryConvention(
+            ExportableConvention exporter,
+            LazyField buffer,
+            int index,
+            String path,
+            int min,
+            @Nullable Integer max
+    ) {
+        super(exporter, buffer, max);
+        this.buffer = buffer;
+        this.channel = new LazyField(index);
+        this.index = index;
+        this.path = path;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Returns a {@link ConventionModifier} that replaces each local memory's convention with
+     * a {@link MappedMemoryConvention}, for use with
+     * {@link WirJavaConventionFactory.Builder#setModifyMemConvention(ConventionModifier)}.
+     * <p>
+     * The convention it is given is discarded entirely, so this should be set before any modifiers
+     * that wrap the convention, such as ones that export it.
+     *
+     * @param pathForMemory The function that gets the path of the file for the memory with a given index.
+     * @return The convention modifier.
+     */
+    public static ConventionModifier<MemoryConvention, MemoryNode> modifier(IntFunction<String> pathForMemory) {
+        return (convention, node, index) -> new MappedMemoryConvention(
+                ExportableConvention.noop(),
+                index,
+                pathForMemory.apply(index),
+                node.limits.min,
+                node.limits.max
+        );
+    }
+
+    private int maxPages() {
+        return max == null ? MAX_PAGES : Math.min(MAX_PAGES, max);
+    }
+
+    private Var emitMap(IRBuilder ib, Var theChannel, Var rawSize) {
+        Var mapped = ib.insert(JavaOps.INVOKE.create(CHANNEL_MAP)
+                        .insn(theChannel,
+                                ib.insert(MAP_MODE_RW.insn(), "mode"),
+                                ib.insert(CommonOps.constant(0L), "zero"),
+                                ib.insert(JavaOps.I2L.insn(rawSize), "sizeL")),
+                "mapped");
+        return ib.insert(JavaOps.INVOKE.create(BUFFER_ORDER)
+                        .insn(mapped, ib.insert(BYTE_ORDER_LE.insn(), "order")),
+                "mappedLE");
+    }
+
+    @SuppressWarnings({"CommentedOutCode", "DuplicatedCode"})
+    @Override
+    public void emitMemGrow(IRBuilder ib, Effect effect) {
+        // This is what we are implementing:
+        /*
+        int rawSz = theBuf.limit();
+        int sz = rawSz / PAGE_SIZE;
+        int newSz = sz + growByPages;
+        int res;
+        if (growByPages < 0 || newSz > Math.min(MAX_PAGES, max)) {
+            res = -1;
+        } else {
+            try {
+                theBuf = channel.map(READ_WRITE, 0, rawSz + growByPages * PAGE_SIZE)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                res = sz;
+            } catch (IOException e) {
+                res = -1;
+            }
+        }
+        return res;
+         */
+
+        Type ioe = Type.getType(IOException.class);
+
+        Var growBy = effect.insn().args().get(0);
+        BasicBlock failBlock = ib.func.newBb();
+
+        BasicBlock k = ib.func.newBb();
+        ib.insertCtrl(JavaOps.BR_COND.create(JavaOps.JumpType.IFLT).insn(growBy).jumpsTo(failBlock, k));
+        ib.setBlock(k);
+
+        Var rawSz = ib.insert(JavaOps.INVOKE.create(BUFFER_GET_LIMIT).insn(buffer.get(ib)), "rawSz");
+        Var sz = ib.insert(JavaOps.insns(new InsnNode(Opcodes.IDIV))
+                        .insn(rawSz, ib.insert(CommonOps.constant(PAGE_SIZE), "psz")),
+                "sz");
+        Var newSz = ib.insert(JavaOps.IADD
+                        .insn(sz, growBy),
+                "newSz");
+
+        k = ib.func.newBb();
+        ib.insertCtrl(JavaOps.BR_COND.create(JavaOps.JumpType.IF_ICMPGT)
+                .insn(newSz, ib.insert(CommonOps.constant(maxPages()), "max"))
+                .jumpsTo(failBlock, k));
+        ib.setBlock(k);
+
+        k = ib.func.newBb();
+        BasicBlock catchBlock = ib.func.newBb();
+        ib.insertCtrl(JavaOps.TRY.create(ioe).insn().jumpsTo(catchBlock, k));
+        ib.setBlock(k);
+
+        Var newRawSz = ib.insert(JavaOps.IADD
+                        .insn(rawSz,
+                                ib.insert(JavaOps.IMUL
+                                                .insn(ib.insert(CommonOps.constant(PAGE_SIZE), "psz"),
+                                                        growBy),
+                                        "byRaw")),
+                "newSzRaw");
+        buffer.set(ib, emitMap(ib, channel.get(ib), newRawSz));
+        BasicBlock end = ib.func.newBb();
+        ib.insertCtrl(Control.br(end));
+        BasicBlock successBlock = ib.getBlock();
+
+        ib.setBlock(catchBlock);
+        ib.insert(JavaOps.CATCH.create(ioe).insn(), "ioe");
+        ib.insertCtrl(Control.br(failBlock));
+
+        ib.setBlock(failBlock);
+        Var err = ib.insert(CommonOps.constant(-1), "err");
+        ib.insertCtrl(Control.br(end));
+
+        ib.setBlock(end);
+        ib.insert(CommonOps.PHI.create(Arrays.asList(successBlock, failBlock))
+                .insn(sz, err)
+                .copyFrom(effect));
+    }
+
+    @Override
+    public void modifyConstructor(IRBuilder ib, JClass.JavaMethod ctorMethod, Module module, JClass jClass) {
+        buffer.create(jClass, "memMapped", Type.getDescriptor(ByteBuffer.class));
+        channel.create(jClass, "memChannel", Type.getDescriptor(FileChannel.class));
+
+        // FileChannel channel = FileChannel.open(Paths.get(path), READ, WRITE, CREATE);
+        Var thePath = ib.insert(JavaOps.INVOKE.create(PATHS_GET)
+                        .insn(ib.insert(CommonOps.constant(path), "pathStr"),
+                                ib.insert(JavaOps.insns(new TypeInsnNode(Opcodes.ANEWARRAY,
+                                                        Type.getInternalName(String.class)))
+                                                .insn(ib.insert(CommonOps.constant(0), "zero")),
+                                        "more")),
+                "path");
+        StandardOpenOption[] options = {
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+        };
+        Var optionsV = ib.insert(JavaOps.insns(new TypeInsnNode(Opcodes.ANEWARRAY,
+                                Type.getInternalName(OpenOption.class)))
+                        .insn(ib.insert(CommonOps.constant(options.length), "len")),
+                "options");
+        for (int i = 0; i < options.length; i++) {
+            ib.insert(JavaOps.ARRAY_SET.create()
+                    .insn(optionsV,
+                            ib.insert(CommonOps.constant(i), "i"),
+                            ib.insert(JavaOps.GET_FIELD
+                                            .create(JClass.JavaField.fromJava(StandardOpenOption.class, options[i].name()))
+                                            .insn(),
+                                    "option"))
+                    .assignTo());
+        }
+        Var theChannel = ib.insert(JavaOps.INVOKE.create(CHANNEL_OPEN).insn(thePath, optionsV), "channel");
+        channel.set(ib, theChannel);
+
+        // int pages = Math.max(min, (int) Math.min(channel.size() / PAGE_SIZE, maxPages));
+        Var filePages = ib.insert(JavaOps.insns(new InsnNode(Opcodes.LDIV))
+                        .insn(ib.insert(JavaOps.INVOKE.create(CHANNEL_SIZE).insn(theChannel), "fileSize"),
+                                ib.insert(CommonOps.constant((long) PAGE_SIZE), "psz")),
+                "filePages");
+        Var pages = ib.insert(JavaOps.INVOKE.create(MATH_MAX)
+                        .insn(ib.insert(CommonOps.constant(min), "min"),
+                                ib.insert(JavaOps.insns(new InsnNode(Opcodes.L2I))
+                                                .insn(ib.insert(JavaOps.INVOKE.create(MATH_MIN)
+                                                                .insn(filePages,
+                                                                        ib.insert(CommonOps.constant((long) maxPages()), "max")),
+                                                        "clamped")),
+                                        "clampedI")),
+                "pages");
+        Var rawSize = ib.insert(JavaOps.IMUL
+                        .insn(pages, ib.insert(CommonOps.constant(PAGE_SIZE), "psz")),
+                "rawSize");
+        buffer.set(ib, emitMap(ib, theChannel, rawSize));
+    }
+
+    private static class LazyField implements ValueGetterSetter {
+        private final int index;
+        private JClass.JavaField field;
+
+        LazyField(int index) {
+            this.index = index;
+        }
+
+        synchronized void create(JClass jClass, String name, String descriptor) {
+            if (field != null) {
+                throw new IllegalStateException("memory " + index + " was already added to a constructor");
+            }
+            field = new JClass.JavaField(jClass, name + index, descriptor, false);
+            jClass.fields.add(field);
+        }
+
+        private synchronized JClass.JavaField getField() {
+            if (field == null) {
+                throw new IllegalStateException("memory " + index + " has not been added to a constructor yet");
+            }
+            return field;
+        }
+
+        @Override
+        public Var get(IRBuilder ib) {
+            return ib.insert(JavaOps.GET_FIELD.create(getField()).insn(IRUtils.getThis(ib)), "field");
+        }
+
+        @Override
+        public void set(IRBuilder ib, Var val) {
+            ib.insert(JavaOps.PUT_FIELD.create(getField()).insn(IRUtils.getThis(ib), val).assignTo());
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package io.github.eutro.wasm2j.core.conf.impl;
+
+import io.github.eutro.jwasm.tree.TypeNode;
+import io.github.eutro.wasm2j.core.conf.itf.CallingConvention;
+import io.github.eutro.wasm2j.core.ext.Ext;
+import io.github.eutro.wasm2j.core.ext.JavaExts;
+import io.github.eutro.wasm2j.core.intrinsics.ImplClassBytes;
+import io.github.eutro.wasm2j.core.intrinsics.IntrinsicImpl;
+import io.github.eutro.wasm2j.core.intrinsics.impls.ReturnSlots;
+import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.ops.JavaOps;
+import io.github.eutro.wasm2j.core.ssa.Effect;
+import io.github.eutro.wasm2j.core.ssa.IRBuilder;
+import io.github.eutro.wasm2j.core.ssa.JClass;
+import io.github.eutro.wasm2j.core.ssa.Module;
+import io.github.eutro.wasm2j.core.ssa.Var;
+import io.github.eutro.wasm2j.core.util.IRUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * A {@link BasicCallingConvention} which returns multiple values without allocating.
+ * <p>
+ * A function with more than one result returns its first result directly, and writes the rest into
+ * return slots, which the caller reads back immediately after the call returns.
+ * The slots are arrays, one for each type of result, which each thread using the instance
+ * allocates the first time it needs them, and keeps in a {@link ThreadLocal} field of the instance.
+ * So no other call can overwrite the slots between the callee writing them and the caller reading them,
+ * even if several threads call functions of the same instance at once.
+ * Since the slots belong to the instance, this only works for direct calls between functions of the same instance.
+ * <p>
+ * Everything which may be seen from Java still uses {@link BasicCallingConvention}: indirect calls,
+ * which may call functions of other instances or the host, are made with the {@link #indirect} convention,
+ * and references to the functions themselves, such as exports and {@code ref.func}, are made through a
+ * bridge method which collects the results into an array.
+ *
+ * @see io.github.eutro.wasm2j.core.conf.itf.WirJavaConventionFactory.Builder#setCallingConvention(CallingConvention)
+ */
+public class ReturnSlotCallingConvention extends BasicCallingConvention {
+    /**
+     * A singleton instance of this calling convention, which makes indirect calls with {@link BasicCallingConvention}.
+     */
+    public static final ReturnSlotCallingConvention INSTANCE = new ReturnSlotCallingConvention(BasicCallingConvention.INSTANCE);
+
+    /**
+     * Attached to a {@link JClass}. The return slots of the class, by {@link #slotKind(byte) kind}.
+     */
+    private static final Ext<Map<Character, Slots>> RETURN_SLOTS = Ext.create(Map.class, "RETURN_SLOTS");
+
+    private static final String THREAD_LOCAL_DESC = Type.getDescriptor(ThreadLocal.class);
+    private static final Map<String, IntrinsicImpl> HELPERS = new HashMap<>();
+
+    static {
+        ClassNode helpersNode = new ClassNode();
+        ImplClassBytes.getClassReaderFor(ReturnSlots.class)
+                .accept(helpersNode, ClassReader.SKIP_DEBUG);
+        for (MethodNode method : helpersNode.methods) {
+            if (method.name.startsWith("slots")) {
+                HELPERS.put(method.name, new IntrinsicImpl(method, false));
+            }
+        }
+    }
+
+    /**
+     * The slots of one kind: a thread local array, large enough for every function of the class.
+     */
+    private static class Slots {
+        final char kind;
+        final JClass.JavaField field;
+        int size;
+
+        Slots(char kind, JClass.JavaField field) {
+            this.kind = kind;
+            this.field = field;
+        }
+    }
+
+    /**
+     * The calling convention with which indirect calls are made.
+     * Its descriptors must be the same as those of {@link BasicCallingConvention}.
+     */
+    public final CallingConvention indirect;
+
+    /**
+     * Construct a new return slot calling convention.
+     *
+     * @param indirect The calling convention with which indirect calls are made, such as
+     *                 {@link InlineCacheCallingConvention}. Its descriptors must be the same as those of
+     *                 {@link BasicCallingConvention}.
+     */
+    public ReturnSlotCallingConvention(CallingConvention indirect) {
+        this.indirect = indirect;
+    }
+
+    @Override
+    public Type getDescriptor(TypeNode funcType) {
+        if (funcType.returns.length <= 1) return super.getDescriptor(funcType);
+        Type[] args = new Type[funcType.params.length];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = javaType(funcType.params[i]);
+        }
+        return Type.getMethodType(javaType(funcType.returns[0]), args);
+    }
+
+    @Override
+    public void declareFunction(JClass jClass, TypeNode funcType) {
+        indirect.declareFunction(jClass, funcType);
+        Map<Character, Slots> slots = jClass.getNullable(RETURN_SLOTS);
+        if (slots == null) jClass.attachExt(RETURN_SLOTS, slots = new TreeMap<>());
+        for (int i = 1; i < funcType.returns.length; i++) {
+            char kind = slotKind(funcType.returns[i]);
+            Slots ofKind = slots.computeIfAbsent(kind, $ -> {
+                JClass.JavaField field = new JClass.JavaField(jClass, "retSlots$" + kind, THREAD_LOCAL_DESC, false);
+                field.attachExt(JavaExts.FIELD_IMMUTABLE, true);
+                jClass.fields.add(field);
+                return new Slots(kind, field);
+            });
+            ofKind.size = Math.max(ofKind.size, i);
+        }
+    }
+
+    @Override
+    public void modifyConstructor(IRBuilder ib, JClass.JavaMethod ctorMethod, Module module, JClass jClass) {
+        indirect.modifyConstructor(ib, ctorMethod, module, jClass);
+        Map<Character, Slots> slots = jClass.getNullable(RETURN_SLOTS);
+        if (slots == null) return;
+        for (Slots ofKind : slots.values()) {
+            ib.insert(JavaOps.PUT_FIELD.create(ofKind.field).insn(
+                    IRUtils.getThis(ib),
+                    ib.insert(JavaOps.INTRINSIC.create(HELPERS.get("slotsNew")).insn(), "slots")
+            ).assignTo());
+        }
+    }
+
+    @Override
+    public Optional<Var> emitReturn(IRBuilder ib, List<Var> rawArgs, List<Var> returns, TypeNode funcType) {
+        if (returns.size() <= 1) return super.emitReturn(ib, rawArgs, returns, funcType);
+        Map<Character, Var> arrays = new HashMap<>();
+        for (int i = 1; i < returns.size(); i++) {
+            ib.insert(JavaOps.ARRAY_SET.create().insn(
+                    getSlots(ib, arrays, funcType.returns[i]),
+                    ib.insert(CommonOps.constant(i - 1), "slot"),
+                    returns.get(i)
+            ).assignTo());
+        }
+        return Optional.of(returns.get(0));
+    }
+
+    @Override
+    public List<Var> receiveReturn(IRBuilder ib, List<Var> rawArgs, Var rawReturn, TypeNode funcType) {
+        if (funcType.returns.length <= 1) return super.receiveReturn(ib, rawArgs, rawReturn, funcType);
+        List<Var> returns = new ArrayList<>(funcType.returns.length);
+        returns.add(rawReturn);
+        Map<Character, Var> arrays = new HashMap<>();
+        // array reads aren't pure, so these stay before the next call, which may overwrite the slots
+        for (int i = 1; i < funcType.returns.length; i++) {
+            byte retTy = funcType.returns[i];
+            Var ret = ib.insert(JavaOps.ARRAY_GET.create().insn(
+                    getSlots(ib, arrays, retTy),
+                    ib.insert(CommonOps.constant(i - 1), "slot")
+            ), "ret");
+            Type jTy = javaType(retTy);
+            if (slotKind(retTy) == 'A' && !jTy.equals(Type.getType(Object.class))) {
+                ret = ib.insert(JavaOps.insns(new TypeInsnNode(Opcodes.CHECKCAST, jTy.getInternalName()))
+                        .insn(ret), "ret");
+            }
+            returns.add(ret);
+        }
+        return returns;
+    }
+
+    @Override
+    public void emitCallIndirect(IRBuilder ib, Effect effect) {
+        indirect.emitCallIndirect(ib, effect);
+    }
+
+    /**
+     * Get this thread's array of the slots for a type, once for each kind of slot in a call or return.
+     */
+    private static Var getSlots(IRBuilder ib, Map<Character, Var> arrays, byte type) {
+        char kind = slotKind(type);
+        Var array = arrays.get(kind);
+        if (array != null) return array;
+        JClass jClass = ib.func.getExtOrThrow(JavaExts.FUNCTION_METHOD).owner;
+        Slots slots = jClass.getExtOrThrow(RETURN_SLOTS).get(kind);
+        if (slots == null) {
+            throw new IllegalStateException("return slots of kind " + kind + " were not declared");
+        }
+        array = ib.insert(JavaOps.INTRINSIC.create(HELPERS.get("slots" + kind)).insn(
+                ib.insert(JavaOps.GET_FIELD.create(slots.field).insn(IRUtils.getThis(ib)), "local"),
+                ib.insert(CommonOps.constant(slots.size), "size")
+        ), "slots");
+        arrays.put(kind, array);
+        return array;
+    }
+
+    private static char slotKind(byte type) {
+        switch (javaType(type).getSort()) {
+            // @formatter:off
+            case Type.INT: return 'I';
+            case Type.LONG: return 'J';
+            case Type.FLOAT: return 'F';
+            case Type.DOUBLE: return 'D';
+            default: return 'A';
+            // @formatter:on
+        }
+    }
+}
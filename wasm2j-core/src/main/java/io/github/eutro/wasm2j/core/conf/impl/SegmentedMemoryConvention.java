@@ -0,0 +1,517 @@
+package io.github.eutro.wasm2j.core.conf.impl;
+
+import io.github.eutro.jwasm.tree.MemoryNode;
+import io.github.eutro.wasm2j.core.conf.itf.ConventionModifier;
+import io.github.eutro.wasm2j.core.conf.itf.ExportableConvention;
+import io.github.eutro.wasm2j.core.conf.itf.MemoryConvention;
+import io.github.eutro.wasm2j.core.conf.itf.WirJavaConventionFactory;
+import io.github.eutro.wasm2j.core.ext.Ext;
+import io.github.eutro.wasm2j.core.intrinsics.ImplClassBytes;
+import io.github.eutro.wasm2j.core.intrinsics.IntrinsicImpl;
+import io.github.eutro.wasm2j.core.intrinsics.impls.Segments;
+import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.ops.JavaOps;
+import io.github.eutro.wasm2j.core.ops.WasmOps;
+import io.github.eutro.wasm2j.core.ssa.*;
+import io.github.eutro.wasm2j.core.ssa.Module;
+import io.github.eutro.wasm2j.core.util.IRUtils;
+import io.github.eutro.wasm2j.core.util.Instructions;
+import io.github.eutro.wasm2j.core.util.ValueGetterSetter;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+
+import static io.github.eutro.jwasm.Opcodes.PAGE_SIZE;
+
+/**
+ * A {@link MemoryConvention} that has an array of {@link ByteBuffer} segments as its underlying representation,
+ * and addresses them with {@code long}s, so it is not limited to 2GiB like a {@link ByteBufferMemoryConvention}.
+ * <p>
+ * Accesses that lie entirely within the first segment, which is cached in its own field,
+ * go straight to that buffer after a single comparison of the address against a constant.
+ * Other accesses, and growing, filling, copying and initialising, call helpers from {@link Segments},
+ * which are copied into the generated class.
+ * <p>
+ * Segments are 1GiB by default, but the size can be any power of two from 8 bytes up, see
+ * {@link #SegmentedMemoryConvention(ExportableConvention, int, boolean, long, Long, int)}.
+ * <p>
+ * By default, addresses are 32-bit, so the memory can be as large as the full 4GiB.
+ * If the convention is constructed for a 64-bit memory, addresses, sizes and results of
+ * {@code memory.grow} are {@code long}s instead of {@code int}s, as in the memory64 proposal.
+ * <p>
+ * The segments are kept in fields that this convention adds to the class in
+ * {@link #modifyConstructor(IRBuilder, JClass.JavaMethod, Module, JClass)},
+ * so they are not available until then.
+ *
+ * @see #MODIFIER
+ * @see #modifier(int)
+ */
+public class SegmentedMemoryConvention extends DelegatingExporter implements MemoryConvention {
+    /**
+     * An ext that provides access to the underlying array of segments.
+     * <p>
+     * For use with optimising {@link #emitMemCopy(IRBuilder, Effect, MemoryConvention)}.
+     */
+    public static final Ext<ValueGetterSetter> MEMORY_SEGMENTS = Ext.create(ValueGetterSetter.class, "MEMORY_SEGMENTS");
+    /**
+     * An ext that provides the base 2 logarithm of the size of the segments in {@link #MEMORY_SEGMENTS}.
+     */
+    public static final Ext<Integer> MEMORY_SEGMENT_SHIFT = Ext.create(Integer.class, "MEMORY_SEGMENT_SHIFT");
+
+    /**
+     * A {@link ConventionModifier} that replaces a local memory's convention with a 32-bit {@link SegmentedMemoryConvention},
+     * for use with {@link WirJavaConventionFactory.Builder#setModifyMemConvention(ConventionModifier)}.
+     * <p>
+     * The convention it is given is discarded entirely, so this should be set before any modifiers
+     * that wrap the convention, such as ones that export it.
+     */
+    public static final ConventionModifier<MemoryConvention, MemoryNode> MODIFIER = modifier(Segments.DEFAULT_SEGMENT_SHIFT);
+
+    /**
+     * The max number of pages a 32-bit memory can have.
+     */
+    public static final long MAX_PAGES_32 = 1L << 16;
+    /**
+     * The max number of pages a 64-bit segmented memory with the default segment size can have,
+     * limited by the length of the array of segments.
+     */
+    public static final long MAX_PAGES_64 = maxPages64(Segments.DEFAULT_SEGMENT_SHIFT);
+
+    private static final String SEGMENTS_DESC = Type.getDescriptor(ByteBuffer[].class);
+    private static final Map<String, IntrinsicImpl> HELPERS = new HashMap<>();
+
+    static {
+        ClassNode helpersNode = new ClassNode();
+        ImplClassBytes.getClassReaderFor(Segments.class)
+                .accept(helpersNode, ClassReader.SKIP_DEBUG);
+        for (MethodNode method : helpersNode.methods) {
+            if (method.name.startsWith("seg")) {
+                HELPERS.put(method.name, new IntrinsicImpl(method, false));
+            }
+        }
+    }
+
+    private static final JClass.JavaMethod COMPARE_UNSIGNED = JClass.emptyFromJava(Long.class)
+            .lookupMethod("compareUnsigned", long.class, long.class);
+
+    private final int index;
+    private final boolean memory64;
+    private final int shift;
+    private final long min;
+    private final long maxPages;
+    private JClass.JavaField segmentsField;
+    private JClass.JavaField firstField;
+
+    private final ValueGetterSetter segments = new ValueGetterSetter() {
+        @Override
+        public Var get(IRBuilder ib) {
+            return ib.insert(JavaOps.GET_FIELD.create(getSegmentsField()).insn(IRUtils.getThis(ib)), "segments");
+        }
+
+        @Override
+        public void set(IRBuilder ib, Var val) {
+            ib.insert(JavaOps.PUT_FIELD.create(getSegmentsField()).insn(IRUtils.getThis(ib), val).assignTo());
+            // keep the fast path's buffer in sync
+            ib.insert(JavaOps.PUT_FIELD.create(getFirstField())
+                    .insn(IRUtils.getThis(ib),
+                            ib.insert(JavaOps.ARRAY_GET.create()
+                                            .insn(val, ib.insert(CommonOps.constant(0), "zero")),
+                                    "first"))
+                    .assignTo());
+        }
+    };
+
+    /**
+     * Construct a {@link SegmentedMemoryConvention} with the default segment size of 1GiB.
+     *
+     * @param exporter The exporter.
+     * @param index    The index of the memory, used to name its fields.
+     * @param memory64 Whether the memory is addressed with 64-bit addresses, rather than 32-bit ones.
+     * @param min      The minimum of the memory's type, which is its initial size in pages.
+     * @param max      The maximum of the memory's type.
+     */
+    public SegmentedMemoryConvention(
+            ExportableConvention exporter,
+            int index,
+            boolean memory64,
+            long min,
+            @Nullable Long max
+    ) {
+        this(exporter, index, memory64, min, max, Segments.DEFAULT_SEGMENT_SHIFT);
+    }
+
+    /**
+     * Construct a {@link SegmentedMemoryConvention}.
+     * <p>
+     * Only accesses to the first segment take the fast path, so smaller segments are slower;
+     * they are mostly useful for testing accesses across segments without allocating gigabytes.
+     *
+     * @param exporter     The exporter.
+     * @param index        The index of the memory, used to name its fields.
+     * @param memory64     Whether the memory is addressed with 64-bit addresses, rather than 32-bit ones.
+     * @param min          The minimum of the memory's type, which is its initial size in pages.
+     * @param max          The maximum of the memory's type.
+     * @param segmentShift The base 2 logarithm of the size of each segment in bytes,
+     *                     from {@link Segments#MIN_SEGMENT_SHIFT} to {@link Segments#MAX_SEGMENT_SHIFT}.
+     */
+    public SegmentedMemoryConvention(
+            ExportableConvention exporter,
+            int index,
+            boolean memory64,
+            long min,
+            @Nullable Long max,
+            int segmentShift
+    ) {
+        super(exporter);
+        if (segmentShift < Segments.MIN_SEGMENT_SHIFT || segmentShift > Segments.MAX_SEGMENT_SHIFT) {
+            throw new IllegalArgumentException("segment shift out of range: " + segmentShift);
+        }
+        this.index = index;
+        this.memory64 = memory64;
+        this.shift = segmentShift;
+        this.min = min;
+        long limit = memory64 ? maxPages64(segmentShift) : Math.min(MAX_PAGES_32, maxPages64(segmentShift));
+        this.maxPages = max == null ? limit : Math.min(limit, max);
+        attachExt(MEMORY_SEGMENTS, segments);
+        attachExt(MEMORY_SEGMENT_SHIFT, segmentShift);
+    }
+
+    /**
+     * Get a {@link ConventionModifier} that replaces a local memory's convention with a 32-bit
+     * {@link SegmentedMemoryConvention} with segments of the given size, like {@link #MODIFIER}.
+     *
+     * @param segmentShift The base 2 logarithm of the size of each segment in bytes.
+     * @return The convention modifier.
+     */
+    public static ConventionModifier<MemoryConvention, MemoryNode> modifier(int segmentShift) {
+        return (convention, node, index) -> new SegmentedMemoryConvention(ExportableConvention.noop(),
+                index,
+                false,
+                node.limits.min,
+                node.limits.max == null ? null : (long) node.limits.max,
+                segmentShift);
+    }
+
+    private static long maxPages64(int shift) {
+        return ((long) Integer.MAX_VALUE << shift) / PAGE_SIZE;
+    }
+
+    private synchronized JClass.JavaField getSegmentsField() {
+        if (segmentsField == null) {
+            throw new IllegalStateException("memory " + index + " has not been added to a constructor yet");
+        }
+        return segmentsField;
+    }
+
+    private synchronized JClass.JavaField getFirstField() {
+        getSegmentsField();
+        return firstField;
+    }
+
+    private Var shift(IRBuilder ib) {
+        return ib.insert(CommonOps.constant(shift), "shift");
+    }
+
+    private static Var helper(IRBuilder ib, String name, String varName, Var... args) {
+        return ib.insert(JavaOps.INTRINSIC.create(HELPERS.get(name)).insn(args), varName);
+    }
+
+    private static void helperVoid(IRBuilder ib, String name, Var... args) {
+        ib.insert(JavaOps.INTRINSIC.create(HELPERS.get(name)).insn(args).assignTo());
+    }
+
+    /**
+     * Emit code which converts a wasm address, or length, to a {@code long}.
+     */
+    private Var widen(IRBuilder ib, Var value) {
+        return memory64 ? value : ib.insert(JavaOps.I2L_U.insn(value), "wide");
+    }
+
+    /**
+     * Emit code which converts a {@code long} number of pages to the wasm type of sizes.
+     */
+    private Var narrow(IRBuilder ib, Var pages) {
+        return memory64 ? pages : ib.insert(JavaOps.insns(new InsnNode(Opcodes.L2I)).insn(pages), "narrow");
+    }
+
+    private Var effectiveAddr(IRBuilder ib, WasmOps.WithMemArg<?> wmArg, Var ptr) {
+        Var addr = widen(ib, ptr);
+        if (wmArg.offset == 0) return addr;
+        return ib.insert(JavaOps.LADD.insn(addr,
+                        ib.insert(CommonOps.constant(Integer.toUnsignedLong(wmArg.offset)), "offset")),
+                "addr");
+    }
+
+    /**
+     * Emit a branch to {@code fast} if the {@code size} bytes at {@code addr} are all in the first segment,
+     * or to {@code slow} otherwise.
+     */
+    private void emitFastPathCheck(IRBuilder ib, Var addr, int size, BasicBlock fast, BasicBlock slow) {
+        Var lastFast = ib.insert(CommonOps.constant((long) ((1 << shift) - size)), "lastFast");
+        // 32-bit addresses are never negative as longs, but 64-bit ones are unsigned
+        Var cmp = ib.insert(memory64
+                        ? JavaOps.INVOKE.create(COMPARE_UNSIGNED).insn(addr, lastFast)
+                        : JavaOps.insns(new InsnNode(Opcodes.LCMP)).insn(addr, lastFast),
+                "cmp");
+        ib.insertCtrl(JavaOps.BR_COND.create(JavaOps.JumpType.IFGT).insn(cmp).jumpsTo(slow, fast));
+    }
+
+    private Var first(IRBuilder ib) {
+        return ib.insert(JavaOps.GET_FIELD.create(getFirstField()).insn(IRUtils.getThis(ib)), "first");
+    }
+
+    @Override
+    public void emitMemLoad(IRBuilder ib, Effect effect) {
+        WasmOps.WithMemArg<WasmOps.DerefType> wmArg = WasmOps.MEM_LOAD.cast(effect.insn().op).arg;
+        WasmOps.DerefType derefType = wmArg.value;
+        Access access = Access.of(derefType.load);
+
+        Var addr = effectiveAddr(ib, wmArg, effect.insn().args().get(0));
+        BasicBlock fastBlock = ib.func.newBb();
+        BasicBlock slowBlock = ib.func.newBb();
+        BasicBlock end = ib.func.newBb();
+        emitFastPathCheck(ib, addr, access.size, fastBlock, slowBlock);
+
+        ib.setBlock(fastBlock);
+        Var fastLoaded = ib.insert(JavaOps.INVOKE.create(access.get)
+                        .insn(first(ib), ib.insert(JavaOps.insns(new InsnNode(Opcodes.L2I)).insn(addr), "addrI")),
+                "fastLoaded");
+        ib.insertCtrl(Control.br(end));
+
+        ib.setBlock(slowBlock);
+        Var slowLoaded = helper(ib, access.slowGet, "slowLoaded", segments.get(ib), shift(ib), addr);
+        ib.insertCtrl(Control.br(end));
+
+        ib.setBlock(end);
+        Insn phi = CommonOps.PHI.create(Arrays.asList(fastBlock, slowBlock)).insn(fastLoaded, slowLoaded);
+        if (derefType.ext.insns.size() == 0) {
+            ib.insert(phi.copyFrom(effect));
+        } else {
+            Var loaded = ib.insert(phi, "loaded");
+            ib.insert(JavaOps.INSNS
+                    .create(Instructions.copyList(derefType.ext.insns))
+                    .insn(loaded)
+                    .copyFrom(effect));
+        }
+    }
+
+    @Override
+    public void emitMemStore(IRBuilder ib, Effect effect) {
+        WasmOps.WithMemArg<WasmOps.StoreType> wmArg = WasmOps.MEM_STORE.cast(effect.insn().op).arg;
+        WasmOps.StoreType storeType = wmArg.value;
+        Access access = Access.of(storeType);
+
+        Var value = effect.insn().args().get(1);
+        if (storeType.getType() == io.github.eutro.jwasm.Opcodes.I64 && access != Access.LONG) {
+            value = ib.insert(JavaOps.insns(new InsnNode(Opcodes.L2I)).insn(value), "truncated");
+        }
+        Var addr = effectiveAddr(ib, wmArg, effect.insn().args().get(0));
+        BasicBlock fastBlock = ib.func.newBb();
+        BasicBlock slowBlock = ib.func.newBb();
+        BasicBlock end = ib.func.newBb();
+        emitFastPathCheck(ib, addr, access.size, fastBlock, slowBlock);
+
+        ib.setBlock(fastBlock);
+        ib.insert(JavaOps.INVOKE.create(access.put)
+                        .insn(first(ib),
+                                ib.insert(JavaOps.insns(new InsnNode(Opcodes.L2I)).insn(addr), "addrI"),
+                                value),
+                "_put");
+        ib.insertCtrl(Control.br(end));
+
+        ib.setBlock(slowBlock);
+        helperVoid(ib, access.slowPut, segments.get(ib), shift(ib), addr, value);
+        ib.insertCtrl(Control.br(end));
+
+        ib.setBlock(end);
+    }
+
+    private Var sizePages(IRBuilder ib, Var segs) {
+        return ib.insert(JavaOps.insns(new InsnNode(Opcodes.LDIV))
+                        .insn(helper(ib, "segSize", "rawSz", segs, shift(ib)),
+                                ib.insert(CommonOps.constant((long) PAGE_SIZE), "psz")),
+                "sz");
+    }
+
+    @Override
+    public void emitMemSize(IRBuilder ib, Effect effect) {
+        Var sz = sizePages(ib, segments.get(ib));
+        if (memory64) {
+            ib.insert(CommonOps.IDENTITY.insn(sz).copyFrom(effect));
+        } else {
+            ib.insert(JavaOps.insns(new InsnNode(Opcodes.L2I)).insn(sz).copyFrom(effect));
+        }
+    }
+
+    @Override
+    public void emitMemGrow(IRBuilder ib, Effect effect) {
+        // This is what we are implementing:
+        /*
+        long sz = segSize(segments, shift) / PAGE_SIZE;
+        ByteBuffer[] grown = segGrow(segments, shift, growByPages, maxPages);
+        if (grown == null) return -1;
+        segments = grown;
+        first = grown[0];
+        return sz;
+         */
+        Var segs = segments.get(ib);
+        Var sz = narrow(ib, sizePages(ib, segs));
+        Var grown = helper(ib, "segGrow", "grown", segs, shift(ib),
+                widen(ib, effect.insn().args().get(0)),
+                ib.insert(CommonOps.constant(maxPages), "max"));
+
+        BasicBlock successBlock = ib.func.newBb();
+        BasicBlock failBlock = ib.func.newBb();
+        BasicBlock end = ib.func.newBb();
+        ib.insertCtrl(JavaOps.BR_COND.create(JavaOps.JumpType.IFNULL).insn(grown).jumpsTo(failBlock, successBlock));
+
+        ib.setBlock(successBlock);
+        segments.set(ib, grown);
+        ib.insertCtrl(Control.br(end));
+        successBlock = ib.getBlock();
+
+        ib.setBlock(failBlock);
+        Var err = ib.insert(CommonOps.constant(memory64 ? (Object) (-1L) : (Object) (-1)), "err");
+        ib.insertCtrl(Control.br(end));
+
+        ib.setBlock(end);
+        ib.insert(CommonOps.PHI.create(Arrays.asList(successBlock, failBlock))
+                .insn(sz, err)
+                .copyFrom(effect));
+    }
+
+    @Override
+    public void emitMemInit(IRBuilder ib, Effect effect, Var data) {
+        Iterator<Var> iter = effect.insn().args().iterator();
+        Var dstIdx = iter.next();
+        Var srcIdx = iter.next();
+        Var length = iter.next();
+        helperVoid(ib, "segInit", segments.get(ib), shift(ib), widen(ib, dstIdx), data, srcIdx, length);
+    }
+
+    @Override
+    public void emitBoundsCheck(IRBuilder ib, int mem, Var bound) {
+        IRUtils.trapWhen(ib, JavaOps.BR_COND.create(JavaOps.JumpType.IFGT)
+                        .insn(ib.insert(JavaOps.insns(new InsnNode(Opcodes.LCMP))
+                                        .insn(bound, helper(ib, "segSize", "rawSz", segments.get(ib), shift(ib))),
+                                "cmp")),
+                "out of bounds memory access");
+    }
+
+    @Override
+    public void emitMemCopy(IRBuilder ib, Effect effect, MemoryConvention dst) {
+        Optional<ValueGetterSetter> otherSegments = dst.getExt(MEMORY_SEGMENTS);
+        Optional<Integer> otherShift = dst.getExt(MEMORY_SEGMENT_SHIFT);
+        if (otherSegments.isPresent() && otherShift.isPresent()) {
+            Iterator<Var> iter = effect.insn().args().iterator();
+            Var dstAddr = iter.next();
+            Var srcAddr = iter.next();
+            Var len = iter.next();
+            helperVoid(ib, "segCopy",
+                    otherSegments.get().get(ib),
+                    ib.insert(CommonOps.constant(otherShift.get()), "dstShift"),
+                    widen(ib, dstAddr),
+                    segments.get(ib), shift(ib), widen(ib, srcAddr),
+                    widen(ib, len));
+        } else {
+            MemoryConvention.super.emitMemCopy(ib, effect, dst);
+        }
+    }
+
+    @Override
+    public void emitMemFill(IRBuilder ib, Effect effect) {
+        Iterator<Var> iter = effect.insn().args().iterator();
+        Var idx = iter.next();
+        Var value = iter.next();
+        Var len = iter.next();
+        helperVoid(ib, "segFill", segments.get(ib), shift(ib),
+                widen(ib, idx),
+                ib.insert(JavaOps.insns(new InsnNode(Opcodes.I2B)).insn(value), "b"),
+                widen(ib, len));
+    }
+
+    @Override
+    public void modifyConstructor(IRBuilder ib, JClass.JavaMethod ctorMethod, Module module, JClass jClass) {
+        JClass.JavaField segmentsField = new JClass.JavaField(jClass, "memSegments" + index, SEGMENTS_DESC, false);
+        JClass.JavaField firstField = new JClass.JavaField(jClass, "memFirst" + index, Type.getDescriptor(ByteBuffer.class), false);
+        synchronized (this) {
+            if (this.segmentsField != null) {
+                throw new IllegalStateException("memory " + index + " was already added to a constructor");
+            }
+            this.segmentsField = segmentsField;
+            this.firstField = firstField;
+        }
+        jClass.fields.add(segmentsField);
+        jClass.fields.add(firstField);
+
+        segments.set(ib, helper(ib, "segAlloc", "segments", ib.insert(CommonOps.constant(min), "min"), shift(ib)));
+    }
+
+    private enum Access {
+        BYTE("", Type.BYTE_TYPE, 1),
+        SHORT("Short", Type.SHORT_TYPE, 2),
+        INT("Int", Type.INT_TYPE, 4),
+        LONG("Long", Type.LONG_TYPE, 8),
+        FLOAT("Float", Type.FLOAT_TYPE, 4),
+        DOUBLE("Double", Type.DOUBLE_TYPE, 8),
+        ;
+
+        final JClass.JavaMethod get, put;
+        final String slowGet, slowPut;
+        final int size;
+
+        Access(String name, Type type, int size) {
+            Type buffer = Type.getType(ByteBuffer.class);
+            get = new JClass.JavaMethod(IRUtils.BYTE_BUFFER_CLASS, "get" + name,
+                    Type.getMethodDescriptor(type, Type.INT_TYPE),
+                    Opcodes.ACC_PUBLIC);
+            put = new JClass.JavaMethod(IRUtils.BYTE_BUFFER_CLASS, "put" + name,
+                    Type.getMethodDescriptor(buffer, Type.INT_TYPE, type),
+                    Opcodes.ACC_PUBLIC);
+            slowGet = "segGet" + name;
+            slowPut = "segPut" + name;
+            this.size = size;
+        }
+
+        static Access of(WasmOps.DerefType.LoadType load) {
+            switch (load) {
+                // @formatter:off
+                case I8: return BYTE;
+                case I16: return SHORT;
+                case I32: return INT;
+                case I64: return LONG;
+                case F32: return FLOAT;
+                case F64: return DOUBLE;
+                // @formatter:on
+                default:
+                    throw new IllegalArgumentException();
+            }
+        }
+
+        static Access of(WasmOps.StoreType store) {
+            switch (store) {
+                // @formatter:off
+                case I32_8: case I64_8: return BYTE;
+                case I32_16: case I64_16: return SHORT;
+                case I32: case I64_32: return INT;
+                case I64: return LONG;
+                case F32: return FLOAT;
+                case F64: return DOUBLE;
+                // @formatter:on
+                default:
+                    throw new IllegalArgumentException();
+            }
+        }
+    }
+}
@@ -2,6 +2,8 @@ package io.github.eutro.wasm2j.core.conf.itf;
 
 import io.github.eutro.jwasm.tree.TypeNode;
 import io.github.eutro.wasm2j.core.conf.impl.BasicCallingConvention;
+import io.github.eutro.wasm2j.core.conf.impl.InlineCacheCallingConvention;
+import io.github.eutro.wasm2j.core.conf.impl.ReturnSlotCallingConvention;
 import io.github.eutro.wasm2j.core.ssa.IRBuilder;
 import io.github.eutro.wasm2j.core.ssa.Var;
 import io.github.eutro.wasm2j.core.ops.CommonOps;
@@ -30,11 +32,20 @@ import static io.github.eutro.wasm2j.core.util.IRUtils.METHOD_HANDLE_CLASS;
  * arguments and return values, and the actual "raw" Java method, its arguments, its return
  * value, and its type.
  * <p>
- * Currently, the only usable calling convention is {@link BasicCallingConvention}.
+ * Currently, the usable calling conventions are {@link BasicCallingConvention},
+ * {@link InlineCacheCallingConvention}, which only changes how indirect calls are made, and
+ * {@link ReturnSlotCallingConvention}, which only changes how direct calls return multiple values.
+ * <p>
+ * If a calling convention gives a function a different descriptor to {@link BasicCallingConvention},
+ * references to the function, which may be seen from Java, are made through a bridge method which has
+ * the {@link BasicCallingConvention} descriptor.
+ * <p>
+ * A calling convention may also {@link #modifyConstructor(IRBuilder, JClass.JavaMethod, io.github.eutro.wasm2j.core.ssa.Module, JClass)
+ * modify the constructor} of each class that uses it, for example to initialise the members it declares.
  *
  * @see WirJavaConventionFactory.Builder#setCallingConvention(CallingConvention)
  */
-public interface CallingConvention {
+public interface CallingConvention extends ConstructorCallback {
     /**
      * Get the descriptor of the raw Java method that implements the given type.
      *
@@ -43,6 +54,17 @@ public interface CallingConvention {
      */
     Type getDescriptor(TypeNode funcType);
 
+    /**
+     * Add any members that this convention needs to a class which defines a function of the given type.
+     * <p>
+     * This is called for each function of the class, before any code is converted.
+     *
+     * @param jClass   The class.
+     * @param funcType The type of the function.
+     */
+    default void declareFunction(JClass jClass, TypeNode funcType) {
+    }
+
     /**
      * For a given function type, emit code to convert the given WebAssembly {@code args}
      * (as given to a {@link WasmOps#CALL_INDIRECT} instruction)
@@ -21,6 +21,7 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.TypeInsnNode;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.*;
@@ -79,6 +80,8 @@ public interface WirJavaConventionFactory {
         private ConventionModifier<GlobalConvention, GlobalNode> modifyGlobalConvention = ConventionModifier.identity();
         private ConventionModifier<MemoryConvention, MemoryNode> modifyMemConvention = ConventionModifier.identity();
         private final List<ConstructorCallback> constructorCallbacks = new ArrayList<>();
+        private int memoryReservePages = 0;
+        private boolean shareDataSegments = false;
 
         private CallingConvention callingConvention = BasicCallingConvention.INSTANCE;
         private Supplier<String> nameSupplier = () -> "com/example/FIXME";
@@ -135,8 +138,9 @@ public interface WirJavaConventionFactory {
         }
 
         /**
-         * Set the calling convention of this builder. Currently, only {@link BasicCallingConvention}
-         * is properly supported, and it is already set to that by default.
+         * Set the calling convention of this builder. It is set to {@link BasicCallingConvention} by default.
+         * <p>
+         * Only the calling conventions listed in {@link CallingConvention} are properly supported.
          *
          * @param callingConvention The calling convention.
          * @return This builder, for convenience.
@@ -190,6 +194,43 @@ public interface WirJavaConventionFactory {
             return this;
         }
 
+        /**
+         * Set the number of pages to reserve for each local memory when it is created.
+         * <p>
+         * Local memories are allocated with room for at least this many pages, limited by their maximum,
+         * so they can grow up to that size without being copied. Past that, their capacity is doubled
+         * whenever they run out of room.
+         * <p>
+         * By default, no extra pages are reserved.
+         *
+         * @param pages The number of pages to reserve.
+         * @return This builder, for convenience.
+         */
+        public Builder setMemoryReservePages(int pages) {
+            if (pages < 0) {
+                throw new IllegalArgumentException("negative reserve: " + pages);
+            }
+            this.memoryReservePages = pages;
+            return this;
+        }
+
+        /**
+         * Set whether data segments are shared between all instances of the generated class.
+         * <p>
+         * When enabled, the bytes of all the data segments are decoded once, into a single read-only
+         * {@link ByteBuffer} held in a static field, when the class is initialised. Each instance
+         * then only takes a slice of it for each segment, rather than decoding its own copy.
+         * <p>
+         * By default, each instance decodes its own copy of each data segment.
+         *
+         * @param shareDataSegments Whether to share data segments.
+         * @return This builder, for convenience.
+         */
+        public Builder setShareDataSegments(boolean shareDataSegments) {
+            this.shareDataSegments = shareDataSegments;
+            return this;
+        }
+
         /**
          * Set the function that generates class names. Class names must be
          * <a href="https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html#jvms-4.2.1">internal names</a>.
@@ -281,6 +322,70 @@ public interface WirJavaConventionFactory {
                     return globalImports.createImport(module, globalImport, jClass, globals.size());
                 }
 
+                private JClass.JavaMethod createJavaBridge(
+                        FunctionConvention direct,
+                        JClass.JavaMethod method,
+                        TypeNode typeNode,
+                        int funcIdx
+                ) {
+                    JClass.JavaMethod bridge = new JClass.JavaMethod(
+                            jClass,
+                            method.name + "$java",
+                            BasicCallingConvention.INSTANCE.getDescriptor(typeNode).getDescriptor(),
+                            Opcodes.ACC_PRIVATE
+                    );
+                    jClass.methods.add(bridge);
+                    bridge.attachExt(JavaExts.WASM_FUNCTION_INDEX, funcIdx);
+                    bridge.attachExt(JavaExts.METHOD_IMPL, lazy(() -> {
+                        Function func = new Function();
+                        func.attachExt(JavaExts.FUNCTION_METHOD, bridge);
+                        IRBuilder ib = new IRBuilder(func, func.newBb());
+                        List<Var> args = new ArrayList<>();
+                        for (int i = 0; i < typeNode.params.length; i++) {
+                            args.add(ib.insert(CommonOps.ARG.create(i).insn(), func.newVar("arg", i)));
+                        }
+                        List<Var> rets = new ArrayList<>();
+                        for (int i = 0; i < typeNode.returns.length; i++) {
+                            rets.add(func.newVar("ret", i));
+                        }
+                        direct.emitCall(ib, WasmOps.CALL
+                                .create(new WasmOps.CallType(funcIdx, typeNode))
+                                .insn(args)
+                                .assignTo(rets));
+                        List<Var> retArgs = new ArrayList<>();
+                        BasicCallingConvention.INSTANCE.emitReturn(ib, args, rets, typeNode).ifPresent(retArgs::add);
+                        ib.insertCtrl(CommonOps.RETURN.insn(retArgs).jumpsTo());
+                        return func;
+                    }));
+                    return bridge;
+                }
+
+                private void emitDataBlobInit(ModuleNode node, JClass.JavaField blobField) {
+                    IRUtils.addStaticInit(jClass, ib -> {
+                        ByteArrayOutputStream blob = new ByteArrayOutputStream();
+                        for (DataNode data : Objects.requireNonNull(node.datas)) {
+                            blob.write(data.init, 0, data.init.length);
+                        }
+                        byte[] bytes = blob.toByteArray();
+
+                        Var blobV = ib.insert(JavaOps.INVOKE.create(
+                                                IRUtils.BYTE_BUFFER_CLASS.lookupMethod("allocate", int.class))
+                                        .insn(ib.insert(CommonOps.constant(bytes.length), "len")),
+                                "blob");
+                        Var slicedV = ib.insert(JavaOps.INVOKE.create(ByteBufferMemoryConvention.BUFFER_SLICE)
+                                        .insn(blobV),
+                                "sliced");
+                        IRUtils.fillAuto(bytes, ib, slicedV);
+                        // class initialisation publishes the buffer safely to every instance,
+                        // and since it's read-only they can't interfere with each other
+                        Var readOnlyV = ib.insert(JavaOps.INVOKE.create(
+                                                IRUtils.BYTE_BUFFER_CLASS.lookupMethod("asReadOnlyBuffer"))
+                                        .insn(blobV),
+                                "readOnly");
+                        ib.insert(JavaOps.PUT_FIELD.create(blobField).insn(readOnlyV).assignTo());
+                    });
+                }
+
                 @Override
                 public void convert(IRPass<Function, Function> convert) {
                     ModuleNode node = module.getExtOrThrow(WasmExts.MODULE);
@@ -317,7 +422,22 @@ public interface WirJavaConventionFactory {
                     }
 
                     if (node.datas != null) {
+                        JClass.JavaField blobField;
+                        if (shareDataSegments) {
+                            blobField = new JClass.JavaField(
+                                    jClass,
+                                    "dataBlob",
+                                    Type.getDescriptor(ByteBuffer.class),
+                                    true
+                            );
+                            jClass.fields.add(blobField);
+                            emitDataBlobInit(node, blobField);
+                        } else {
+                            blobField = null;
+                        }
+
                         int dataIdx = -1;
+                        int blobOffset = 0;
                         for (DataNode data : node.datas) {
                             dataIdx++;
                             JClass.JavaField field = new JClass.JavaField(
@@ -337,21 +457,40 @@ public interface WirJavaConventionFactory {
                             datas.add(field);
                             dataInits.add(method);
 
+                            int fBlobOffset = blobOffset;
+                            blobOffset += data.init.length;
                             method.attachExt(JavaExts.METHOD_IMPL, lazy(() -> {
                                 Function func = new Function();
                                 func.attachExt(JavaExts.FUNCTION_METHOD, method);
 
                                 IRBuilder dIb = new IRBuilder(func, func.newBb());
-                                Var dataV = dIb.insert(JavaOps.INVOKE.create(
-                                                        IRUtils.BYTE_BUFFER_CLASS.lookupMethod("allocate", int.class))
-                                                .insn(dIb.insert(CommonOps.constant(data.init.length), "len")),
-                                        "data");
+                                Var dataV;
+                                if (blobField != null) {
+                                    Var blobV = dIb.insert(JavaOps.INVOKE.create(ByteBufferMemoryConvention.BUFFER_DUPLICATE)
+                                                    .insn(dIb.insert(JavaOps.GET_FIELD.create(blobField).insn(), "blob")),
+                                            "dup");
+                                    dIb.insert(JavaOps.INVOKE.create(ByteBufferMemoryConvention.BUFFER_LIMIT)
+                                                    .insn(blobV, dIb.insert(CommonOps.constant(fBlobOffset + data.init.length),
+                                                            "end")),
+                                            "_limited");
+                                    dIb.insert(JavaOps.INVOKE.create(ByteBufferMemoryConvention.BUFFER_POSITION)
+                                                    .insn(blobV, dIb.insert(CommonOps.constant(fBlobOffset), "start")),
+                                            "_positioned");
+                                    dataV = dIb.insert(JavaOps.INVOKE.create(ByteBufferMemoryConvention.BUFFER_SLICE)
+                                                    .insn(blobV),
+                                            "data");
+                                } else {
+                                    dataV = dIb.insert(JavaOps.INVOKE.create(
+                                                            IRUtils.BYTE_BUFFER_CLASS.lookupMethod("allocate", int.class))
+                                                    .insn(dIb.insert(CommonOps.constant(data.init.length), "len")),
+                                            "data");
 
-                                Var slicedV = dIb.insert(JavaOps.INVOKE.create(ByteBufferMemoryConvention.BUFFER_SLICE)
-                                                .insn(dataV),
-                                        "sliced");
+                                    Var slicedV = dIb.insert(JavaOps.INVOKE.create(ByteBufferMemoryConvention.BUFFER_SLICE)
+                                                    .insn(dataV),
+                                            "sliced");
 
-                                IRUtils.fillAuto(data.init, dIb, slicedV);
+                                    IRUtils.fillAuto(data.init, dIb, slicedV);
+                                }
 
                                 dIb.insert(JavaOps.PUT_FIELD.create(field)
                                         .insn(IRUtils.getThis(dIb), dataV)
@@ -361,6 +500,7 @@ public interface WirJavaConventionFactory {
                                 return func;
                             }));
                         }
+                        jClass.attachExt(JavaExts.DATA_FIELDS, datas);
                     }
 
                     if (node.elems != null) {
@@ -384,20 +524,40 @@ public interface WirJavaConventionFactory {
                         for (FuncNode fn : node.funcs) {
                             CodeNode code = it.next();
                             TypeNode typeNode = node.types.types.get(fn.type);
+                            Type desc = getCC().getDescriptor(typeNode);
                             JClass.JavaMethod method = new JClass.JavaMethod(
                                     jClass,
                                     "_func" + i++,
-                                    getCC().getDescriptor(typeNode).getDescriptor(),
+                                    desc.getDescriptor(),
                                     Opcodes.ACC_PRIVATE
                             );
                             jClass.methods.add(method);
+                            method.attachExt(JavaExts.WASM_FUNCTION_INDEX, funcs.size());
+                            getCC().declareFunction(jClass, typeNode);
+                            InstanceFunctionConvention direct = new InstanceFunctionConvention(
+                                    ExportableConvention.noop(),
+                                    GET_THIS,
+                                    method,
+                                    getCC()
+                            );
+                            FunctionConvention convention = direct;
+                            if (!desc.equals(BasicCallingConvention.INSTANCE.getDescriptor(typeNode))) {
+                                // references can be seen from Java, so they must use the basic convention
+                                JClass.JavaMethod bridge = createJavaBridge(direct, method, typeNode, funcs.size());
+                                convention = new InstanceFunctionConvention(
+                                        ExportableConvention.noop(),
+                                        GET_THIS,
+                                        bridge,
+                                        BasicCallingConvention.INSTANCE
+                                ) {
+                                    @Override
+                                    public void emitCall(IRBuilder ib, Effect effect) {
+                                        direct.emitCall(ib, effect);
+                                    }
+                                };
+                            }
                             funcs.add(modifyFuncConvention
-                                    .modify(new InstanceFunctionConvention(
-                                                    ExportableConvention.noop(),
-                                                    GET_THIS,
-                                                    method,
-                                                    getCC()
-                                            ),
+                                    .modify(convention,
                                             Pair.of(fn, code),
                                             funcs.size()));
                             funcTypes.add(typeNode);
@@ -419,6 +579,9 @@ public interface WirJavaConventionFactory {
                                     BasicCallingConvention.javaType(global.type.type).getDescriptor(),
                                     false
                             );
+                            if (global.type.mut == MUT_CONST) {
+                                field.attachExt(JavaExts.FIELD_IMMUTABLE, true);
+                            }
                             jClass.fields.add(field);
                             globals.add(modifyGlobalConvention
                                     .modify(new GetterSetterGlobalConvention(
@@ -441,15 +604,23 @@ public interface WirJavaConventionFactory {
                                     false
                             );
                             jClass.fields.add(field);
-                            memories.add(modifyMemConvention
+                            ValueGetterSetter fieldAccess = fieldGetter(GET_THIS, field);
+                            MemoryConvention memConv = modifyMemConvention
                                     .modify(new ByteBufferMemoryConvention(
                                                     ExportableConvention.noop(),
-                                                    fieldGetter(GET_THIS, field),
+                                                    fieldAccess,
                                                     memory.limits.max
                                             ),
                                             memory,
-                                            memories.size()));
-                            lMemories.add(field);
+                                            memories.size());
+                            memories.add(memConv);
+                            if (memConv.getExt(ByteBufferMemoryConvention.MEMORY_BYTE_BUFFER).orElse(null) == fieldAccess) {
+                                lMemories.add(field);
+                            } else {
+                                // replaced by a convention with its own storage, don't allocate the buffer
+                                jClass.fields.remove(field);
+                                lMemories.add(null);
+                            }
                         }
                     }
 
@@ -511,6 +682,7 @@ public interface WirJavaConventionFactory {
                             Opcodes.ACC_PUBLIC
                     )).insn(IRUtils.getThis(ib)).assignTo());
 
+                    getCC().modifyConstructor(ib, ctorMethod, module, jClass);
                     Stream.of(funcs, globals, tables, memories, constructorCallbacks)
                             .flatMap(Collection::stream)
                             .forEach(it -> it.modifyConstructor(ib, ctorMethod, module, jClass));
@@ -560,12 +732,24 @@ public interface WirJavaConventionFactory {
                             int i = iMemories;
                             for (MemoryNode mem : node.mems) {
                                 JClass.JavaField memField = lMemories.get(i++);
+                                if (memField == null) continue;
+                                int maxPages = mem.limits.max == null
+                                        ? ByteBufferMemoryConvention.MAX_PAGES
+                                        : Math.min(ByteBufferMemoryConvention.MAX_PAGES, mem.limits.max);
+                                int reserved = Math.max(mem.limits.min, Math.min(memoryReservePages, maxPages));
                                 Var memV = ib.insert(JavaOps.INVOKE.create(IRUtils.BYTE_BUFFER_CLASS.lookupMethod(
                                                 "allocateDirect",
                                                 int.class
-                                        )).insn(ib.insert(CommonOps.constant(mem.limits.min * PAGE_SIZE),
-                                                "size")),
+                                        )).insn(ib.insert(CommonOps.constant(reserved * PAGE_SIZE),
+                                                "capacity")),
                                         "mem");
+                                if (reserved != mem.limits.min) {
+                                    // the limit is the size of the memory, the rest is room to grow into
+                                    ib.insert(JavaOps.INVOKE.create(ByteBufferMemoryConvention.BUFFER_LIMIT)
+                                                    .insn(memV, ib.insert(CommonOps.constant(mem.limits.min * PAGE_SIZE),
+                                                            "size")),
+                                            "limited");
+                                }
                                 memV = ib.insert(JavaOps.INVOKE.create(IRUtils.BYTE_BUFFER_CLASS
                                                         .lookupMethod("order", ByteOrder.class))
                                                 .insn(memV,
@@ -56,6 +56,15 @@ public class CommonExts {
      * Whether the instruction can be trivially duplicated.
      */
     public static final Ext<Boolean> IS_TRIVIAL = Ext.create(Boolean.class, "IS_TRIVIAL");
+    /**
+     * Attached to an {@link Insn}, {@link Op} or {@link OpKey}.
+     * Whether the result of the instruction depends only on its arguments,
+     * so that two such instructions with the same arguments can be merged.
+     * <p>
+     * This does not imply {@link #IS_PURE}, since the instruction may still throw,
+     * but it will always do so for the same arguments.
+     */
+    public static final Ext<Boolean> IS_DETERMINISTIC = Ext.create(Boolean.class, "IS_DETERMINISTIC");
 
     /**
      * Attached to a {@link Var}, computed by {@link PropagateConstants}.
@@ -152,6 +161,18 @@ public class CommonExts {
         return t;
     }
 
+    /**
+     * Mark something as deterministic, by attaching {@link #IS_DETERMINISTIC} {@code = true} to it.
+     *
+     * @param t   The thing to mark as deterministic.
+     * @param <T> The type of {@code t}.
+     * @return {@code t}.
+     */
+    public static <T extends ExtContainer> T markDeterministic(T t) {
+        t.attachExt(IS_DETERMINISTIC, true);
+        return t;
+    }
+
     /**
      * The live variable information of a basic block.
      */
@@ -1,46 +1,83 @@
 package io.github.eutro.wasm2j.core.ext;
 
-import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Map;
-import java.util.TreeMap;
-
 /**
- * An implementation of {@link ExtContainer} using a {@link Map}.
+ * An implementation of {@link ExtContainer} using a small array of exts and their values.
+ * <p>
+ * This is thread-safe. The array is replaced, rather than modified, whenever an ext is attached or removed,
+ * so reads never lock, and see either the old or the new array. Most holders only have one or two exts,
+ * so copying them is cheap.
  */
 @SuppressWarnings("CommentedOutCode")
 public class ExtHolder implements ExtContainer {
+    /**
+     * Exts and their values, interleaved and sorted by ext.
+     * Many ExtHolders don't need any, so this stays null until they do.
+     */
     @Nullable
-    private Map<Ext<?>, Object> map = null; // many ExtHolders don't need it, so don't allocate it!
+    private volatile Object[] entries = null;
 
-    @NotNull
-    private Map<Ext<?>, Object> getMap() {
-        if (map == null) {
-            map = new TreeMap<>();
+    private static int indexOf(Object[] entries, Ext<?> ext) {
+        int i = 0;
+        for (; i < entries.length; i += 2) {
+            int cmp = ((Ext<?>) entries[i]).compareTo(ext);
+            if (cmp == 0) return i;
+            if (cmp > 0) break;
         }
-        return map;
+        return -(i + 1);
     }
 
     @Override
     public <T> void attachExt(Ext<T> ext, T value) {
-        getMap().put(ext, value);
+        synchronized (this) {
+            Object[] entries = this.entries;
+            if (entries == null) {
+                this.entries = new Object[]{ext, value};
+                return;
+            }
+            int i = indexOf(entries, ext);
+            Object[] copy;
+            if (i >= 0) {
+                copy = entries.clone();
+                copy[i + 1] = value;
+            } else {
+                i = -(i + 1);
+                copy = new Object[entries.length + 2];
+                System.arraycopy(entries, 0, copy, 0, i);
+                copy[i] = ext;
+                copy[i + 1] = value;
+                System.arraycopy(entries, i, copy, i + 2, entries.length - i);
+            }
+            this.entries = copy;
+        }
     }
 
     @Override
     public <T> void removeExt(Ext<T> ext) {
-        if (map == null) return;
-        Map<Ext<?>, Object> map = this.map;
-        map.remove(ext);
-        if (map.isEmpty()) {
-            this.map = null;
+        if (entries == null) return;
+        synchronized (this) {
+            Object[] entries = this.entries;
+            if (entries == null) return;
+            int i = indexOf(entries, ext);
+            if (i < 0) return;
+            if (entries.length == 2) {
+                this.entries = null;
+                return;
+            }
+            Object[] copy = new Object[entries.length - 2];
+            System.arraycopy(entries, 0, copy, 0, i);
+            System.arraycopy(entries, i + 2, copy, i, entries.length - i - 2);
+            this.entries = copy;
         }
     }
 
     @SuppressWarnings("unchecked")
     public <T> @Nullable T getNullable(Ext<T> ext) {
-        if (map == null) return null;
-        return (T) getMap().get(ext);
+        Object[] entries = this.entries;
+        if (entries == null) return null;
+        int i = indexOf(entries, ext);
+        return i < 0 ? null : (T) entries[i + 1];
     }
 
     // Code for finding the average size of an ExtHolder
@@ -57,9 +94,9 @@ public class ExtHolder implements ExtContainer {
     static {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             double totalSize = 0;
-            Map<Integer, Integer> totals = ehs.stream().collect(Collectors.toMap(it -> it.map == null ? 0 : it.map.size(), $ -> 1, Integer::sum));
+            Map<Integer, Integer> totals = ehs.stream().collect(Collectors.toMap(it -> it.entries == null ? 0 : it.entries.length / 2, $ -> 1, Integer::sum));
             for (ExtHolder eh : ehs) {
-                if (eh.map != null) totalSize += eh.map.size();
+                if (eh.entries != null) totalSize += eh.entries.length / 2;
             }
             double average = totalSize / ehs.size();
             System.out.println("Average ExtHolder size: " + average);
@@ -3,6 +3,7 @@ package io.github.eutro.wasm2j.core.ext;
 import io.github.eutro.wasm2j.core.intrinsics.IntrinsicImpl;
 import io.github.eutro.wasm2j.core.passes.meta.InferTypes;
 import io.github.eutro.wasm2j.core.ssa.Function;
+import io.github.eutro.wasm2j.core.ssa.IRBuilder;
 import io.github.eutro.wasm2j.core.ssa.JClass;
 import io.github.eutro.wasm2j.core.ssa.JClass.JavaMethod;
 import io.github.eutro.wasm2j.core.ssa.Var;
@@ -10,7 +11,9 @@ import io.github.eutro.wasm2j.core.util.Lazy;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.MethodNode;
 
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * A collection of {@link Ext}s that exist in Java IR.
@@ -33,6 +36,29 @@ public class JavaExts {
      * Attached to a {@link Function}. The {@link JavaMethod} it is the implementation for.
      */
     public static final Ext<JavaMethod> FUNCTION_METHOD = Ext.create(JavaMethod.class, "FUNCTION_METHOD");
+    /**
+     * Attached to a {@link JavaMethod}. The index of the WebAssembly function it implements, if any.
+     */
+    public static final Ext<Integer> WASM_FUNCTION_INDEX = Ext.create(Integer.class, "WASM_FUNCTION_INDEX");
+
+    /**
+     * Attached to a {@link JClass.JavaField}. Whether the field is only ever set while the object is being constructed,
+     * so reads of it from other methods always give the same value.
+     */
+    public static final Ext<Boolean> FIELD_IMMUTABLE = Ext.create(Boolean.class, "FIELD_IMMUTABLE");
+
+    /**
+     * Attached to a {@link JClass} compiled from a module with data segments.
+     * The fields holding each data segment, by index. A dropped segment is replaced by an empty buffer.
+     */
+    public static final Ext<List<JClass.JavaField>> DATA_FIELDS = Ext.create(List.class, "DATA_FIELDS");
+
+    /**
+     * Attached to a {@link JClass}. The code to emit in its static initialiser, in order.
+     *
+     * @see io.github.eutro.wasm2j.core.util.IRUtils#addStaticInit(JClass, Consumer)
+     */
+    public static final Ext<List<Consumer<IRBuilder>>> STATIC_INIT = Ext.create(List.class, "STATIC_INIT");
 
     /**
      * Attached to a {@link JClass}.
@@ -2,6 +2,7 @@ package io.github.eutro.wasm2j.core.intrinsics;
 
 import io.github.eutro.jwasm.Opcodes;
 import io.github.eutro.wasm2j.core.intrinsics.impls.Operators;
+import io.github.eutro.wasm2j.core.intrinsics.impls.VectorOperators;
 import io.github.eutro.wasm2j.core.util.InsnMap;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Type;
@@ -21,12 +22,42 @@ import java.util.Map;
 public class JavaIntrinsics {
     /**
      * The map from WebAssembly instructions to intrinsic implementations.
+     * <p>
+     * This is read concurrently when compiling in parallel, and must not be modified.
      */
     public static final InsnMap<IntrinsicImpl> INTRINSICS = new InsnMap<>();
 
+    /**
+     * Builds a {@code v128} {@link java.nio.ByteBuffer} from its low and high halves.
+     */
+    public static final IntrinsicImpl V128_PACK;
+    /**
+     * Gets the low half of a {@code v128} {@link java.nio.ByteBuffer}.
+     */
+    public static final IntrinsicImpl V128_LO;
+    /**
+     * Gets the high half of a {@code v128} {@link java.nio.ByteBuffer}.
+     */
+    public static final IntrinsicImpl V128_HI;
+
     static {
+        loadIntrinsics(Operators.class);
+        ClassNode vectorNode = loadIntrinsics(VectorOperators.class);
+        V128_PACK = new IntrinsicImpl(findMethod(vectorNode, "v128Pack"), true);
+        V128_LO = new IntrinsicImpl(findMethod(vectorNode, "v128Lo"), true);
+        V128_HI = new IntrinsicImpl(findMethod(vectorNode, "v128Hi"), true);
+    }
+
+    private static MethodNode findMethod(ClassNode node, String name) {
+        for (MethodNode method : node.methods) {
+            if (method.name.equals(name)) return method;
+        }
+        throw new IllegalStateException(String.format("Method %s not found in %s", name, node.name));
+    }
+
+    private static ClassNode loadIntrinsics(Class<?> implClass) {
         ClassNode IMPL_NODE = new ClassNode();
-        ImplClassBytes.getClassReaderFor(Operators.class)
+        ImplClassBytes.getClassReaderFor(implClass)
                 .accept(IMPL_NODE, ClassReader.SKIP_DEBUG);
 
         for (MethodNode method : IMPL_NODE.methods) {
@@ -54,11 +85,14 @@ public class JavaIntrinsics {
 
             boolean inline = (boolean) annotAsMap.getOrDefault("inline", true);
             IntrinsicImpl impl = new IntrinsicImpl(method, inline);
-            try {
-                impl.eval = MethodHandles.lookup().findStatic(Operators.class, method.name,
-                        MethodType.fromMethodDescriptorString(method.desc, Operators.class.getClassLoader()));
-            } catch (ReflectiveOperationException e) {
-                throw new IllegalStateException(e);
+            // only primitive results can be folded into constants
+            if (Type.getReturnType(method.desc).getSort() != Type.OBJECT) {
+                try {
+                    impl.eval = MethodHandles.lookup().findStatic(implClass, method.name,
+                            MethodType.fromMethodDescriptorString(method.desc, implClass.getClassLoader()));
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException(e);
+                }
             }
 
             if (annotAsMap.containsKey("iOp")) {
@@ -72,5 +106,6 @@ public class JavaIntrinsics {
                 throw new IllegalStateException("Method %s's intrinsic annotation specifies neither value nor iOp.");
             }
         }
+        return IMPL_NODE;
     }
 }
@@ -0,0 +1,79 @@
+package io.github.eutro.wasm2j.core.intrinsics.impls;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+/**
+ * Java implementations of the inline caches for indirect calls,
+ * as used by {@link io.github.eutro.wasm2j.core.conf.impl.InlineCacheCallingConvention}.
+ * <p>
+ * Each call site takes the function reference, followed by the arguments, like
+ * {@link MethodHandle#invokeExact(Object...) invokeExact}. It starts out calling {@link #icMiss},
+ * which adds a guarded direct call to the function reference, up to the depth of the cache.
+ * After that, the site is megamorphic, and the reference is always invoked generically.
+ * <p>
+ * These are copied into the generated class when they are used, so they must only reference the JDK.
+ * {@link #icBootstrap} looks {@link #icMiss} up by name in the class it is copied into.
+ */
+public final class InlineCaches {
+    private InlineCaches() {
+    }
+
+    public static CallSite icBootstrap(
+            MethodHandles.Lookup caller,
+            String name,
+            MethodType type,
+            int depth
+    ) throws ReflectiveOperationException {
+        MutableCallSite site = new MutableCallSite(type);
+        MethodHandle miss = caller.findStatic(caller.lookupClass(), "icMiss", MethodType.methodType(
+                Object.class,
+                MutableCallSite.class,
+                int[].class,
+                int.class,
+                MethodHandle.class,
+                Object[].class
+        ));
+        site.setTarget(MethodHandles.insertArguments(miss, 0, site, new int[1], depth)
+                .asCollector(Object[].class, type.parameterCount() - 1)
+                .asType(type));
+        return site;
+    }
+
+    public static Object icMiss(
+            MutableCallSite site,
+            int[] cached,
+            int depth,
+            MethodHandle callee,
+            Object[] args
+    ) throws Throwable {
+        MethodType calleeType = site.type().dropParameterTypes(0, 1);
+        MethodHandle invoker = MethodHandles.exactInvoker(calleeType);
+        // a racing miss may add a redundant guard, or one past the depth, which is harmless
+        if (callee != null && callee.type().equals(calleeType)) {
+            if (cached[0] < depth) {
+                cached[0]++;
+                MethodHandle test = MethodHandles.publicLookup()
+                        .findVirtual(Object.class, "equals", MethodType.methodType(boolean.class, Object.class))
+                        .bindTo(callee)
+                        .asType(MethodType.methodType(boolean.class, MethodHandle.class));
+                site.setTarget(MethodHandles.guardWithTest(
+                        MethodHandles.dropArguments(test, 1, calleeType.parameterList()),
+                        MethodHandles.dropArguments(callee, 0, MethodHandle.class),
+                        site.getTarget()
+                ));
+            } else if (cached[0] == depth) {
+                cached[0]++;
+                site.setTarget(invoker);
+            }
+        }
+        Object[] invokeArgs = new Object[args.length + 1];
+        invokeArgs[0] = callee;
+        System.arraycopy(args, 0, invokeArgs, 1, args.length);
+        // throws like invokeExact if the type is wrong, or the reference is null
+        return invoker.invokeWithArguments(invokeArgs);
+    }
+}
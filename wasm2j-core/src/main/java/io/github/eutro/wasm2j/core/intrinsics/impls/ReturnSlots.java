@@ -0,0 +1,49 @@
+package io.github.eutro.wasm2j.core.intrinsics.impls;
+
+/**
+ * Java implementations of the return slots of {@link io.github.eutro.wasm2j.core.conf.impl.ReturnSlotCallingConvention}.
+ * <p>
+ * The slots of each type are an array, kept in a {@link ThreadLocal} of the instance,
+ * which is created the first time that a thread uses it.
+ * <p>
+ * These are copied into the generated class when they are used, so they must only reference the JDK,
+ * and not each other.
+ */
+public final class ReturnSlots {
+    private ReturnSlots() {
+    }
+
+    public static ThreadLocal<Object> slotsNew() {
+        return new ThreadLocal<>();
+    }
+
+    public static int[] slotsI(ThreadLocal<Object> local, int size) {
+        Object slots = local.get();
+        if (slots == null) local.set(slots = new int[size]);
+        return (int[]) slots;
+    }
+
+    public static long[] slotsJ(ThreadLocal<Object> local, int size) {
+        Object slots = local.get();
+        if (slots == null) local.set(slots = new long[size]);
+        return (long[]) slots;
+    }
+
+    public static float[] slotsF(ThreadLocal<Object> local, int size) {
+        Object slots = local.get();
+        if (slots == null) local.set(slots = new float[size]);
+        return (float[]) slots;
+    }
+
+    public static double[] slotsD(ThreadLocal<Object> local, int size) {
+        Object slots = local.get();
+        if (slots == null) local.set(slots = new double[size]);
+        return (double[]) slots;
+    }
+
+    public static Object[] slotsA(ThreadLocal<Object> local, int size) {
+        Object slots = local.get();
+        if (slots == null) local.set(slots = new Object[size]);
+        return (Object[]) slots;
+    }
+}
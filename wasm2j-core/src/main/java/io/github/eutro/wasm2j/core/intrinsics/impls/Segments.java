@@ -0,0 +1,390 @@
+package io.github.eutro.wasm2j.core.intrinsics.impls;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Java implementations of the operations on a segmented memory,
+ * as used by {@link io.github.eutro.wasm2j.core.conf.impl.SegmentedMemoryConvention}.
+ * <p>
+ * A segmented memory is an array of little-endian direct {@link ByteBuffer}s, each {@code 1 << shift} bytes long,
+ * except for the last one, whose limit is the rest of the memory, and whose capacity may be larger.
+ * There is always at least one segment, even if the memory is empty. Addresses are unsigned {@code long}s.
+ * <p>
+ * Every method takes the shift of the memory, which the convention always passes as a constant.
+ * It must be between {@link #MIN_SEGMENT_SHIFT} and {@link #MAX_SEGMENT_SHIFT}.
+ * <p>
+ * These are copied into the generated class when they are used, so they must only reference the JDK,
+ * and not each other.
+ */
+@SuppressWarnings("DuplicatedCode")
+public final class Segments {
+    /**
+     * The base 2 logarithm of the default size of each segment in bytes, which is 1GiB.
+     */
+    public static final int DEFAULT_SEGMENT_SHIFT = 30;
+    /**
+     * The smallest allowed shift, so that any single access spans at most two segments.
+     */
+    public static final int MIN_SEGMENT_SHIFT = 3;
+    /**
+     * The largest allowed shift, so that a segment fits in a {@link ByteBuffer}.
+     */
+    public static final int MAX_SEGMENT_SHIFT = 30;
+    private static final int PAGE_SIZE = 1 << 16;
+
+    private Segments() {
+    }
+
+    public static ByteBuffer[] segAlloc(long pages, int shift) {
+        int segmentSize = 1 << shift;
+        int mask = segmentSize - 1;
+        long size = pages * PAGE_SIZE;
+        int count = (int) Math.max(1, (size + mask) >>> shift);
+        ByteBuffer[] segments = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            int limit = (int) Math.min(size - ((long) i << shift), segmentSize);
+            segments[i] = ByteBuffer.allocateDirect(limit).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return segments;
+    }
+
+    public static long segSize(ByteBuffer[] segments, int shift) {
+        return ((long) (segments.length - 1) << shift) + segments[segments.length - 1].limit();
+    }
+
+    public static ByteBuffer[] segGrow(ByteBuffer[] segments, int shift, long pages, long maxPages) {
+        int segmentSize = 1 << shift;
+        int mask = segmentSize - 1;
+        long size = ((long) (segments.length - 1) << shift) + segments[segments.length - 1].limit();
+        if (Long.compareUnsigned(pages, maxPages - size / PAGE_SIZE) > 0) return null;
+        long newSize = size + pages * PAGE_SIZE;
+        int count = (int) Math.max(1, (newSize + mask) >>> shift);
+        ByteBuffer[] grown = Arrays.copyOf(segments, count);
+        try {
+            // nothing is modified until everything has been allocated
+            for (int i = segments.length - 1; i < count; i++) {
+                int limit = (int) Math.min(newSize - ((long) i << shift), segmentSize);
+                ByteBuffer segment = grown[i];
+                if (segment != null && segment.capacity() >= limit) continue;
+                int capacity = limit;
+                if (segment != null) {
+                    // double the last segment, like a growing buffer would, up to a full segment
+                    capacity = (int) Math.max(limit, Math.min(segment.capacity() * 2L, segmentSize));
+                }
+                ByteBuffer fresh = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+                if (segment != null) fresh.duplicate().put(segment.duplicate());
+                grown[i] = fresh;
+            }
+        } catch (OutOfMemoryError e) {
+            return null;
+        }
+        for (int i = segments.length - 1; i < count; i++) {
+            ((Buffer) grown[i]).limit((int) Math.min(newSize - ((long) i << shift), segmentSize));
+        }
+        return grown;
+    }
+
+    // region Loads
+    public static byte segGet(ByteBuffer[] segments, int shift, long addr) {
+        int segmentSize = 1 << shift;
+        int mask = segmentSize - 1;
+        long segment = addr >>> shift;
+        if (segment >= segments.length) throw new IndexOutOfBoundsException();
+        return segments[(int) segment].get((int) addr & mask);
+    }
+
+    public static short segGetShort(ByteBuffer[] segments, int shift, long addr) {
+        int segmentSize = 1 << shift;
+        int mask = segmentSize - 1;
+        long segment = addr >>> shift;
+        int offset = (int) addr & mask;
+        if (segment >= segments.length) throw new IndexOutOfBoundsException();
+        if (offset <= segmentSize - 2) return segments[(int) segment].getShort(offset);
+        long value = 0;
+        for (int i = 0; i < 2; i++) {
+            long segI = (addr + i) >>> shift;
+            if (segI >= segments.length) throw new IndexOutOfBoundsException();
+            value |= (segments[(int) segI].get((int) (addr + i) & mask) & 0xFFL) << (i * 8);
+        }
+        return (short) value;
+    }
+
+    public static int segGetInt(ByteBuffer[] segments, int shift, long addr) {
+        int segmentSize = 1 << shift;
+        int mask = segmentSize - 1;
+        long segment = addr >>> shift;
+        int offset = (int) addr & mask;
+        if (segment >= segments.length) throw new IndexOutOfBoundsException();
+        if (offset <= segmentSize - 4) return segments[(int) segment].getInt(offset);
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            long segI = (addr + i) >>> shift;
+            if (segI >= segments.length) throw new IndexOutOfBoundsException();
+            value |= (segments[(int) segI].get((int) (addr + i) & mask) & 0xFFL) << (i * 8);
+        }
+        return (int) value;
+    }
+
+    public static long segGetLong(ByteBuffer[] segments, int shift, long addr) {
+        int segmentSize = 1 << shift;
+        int mask = segmentSize - 1;
+        long segment = addr >>> shift;
+        int offset = (int) addr & mask;
+        if (segment >= segments.length) throw new IndexOutOfBoundsException();
+        if (offset <= segmentSize - 8) return segments[(int) segment].getLong(offset);
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            long segI = (addr + i) >>> shift;
+            if (segI >= segments.length) throw new IndexOutOfBoundsException();
+            value |= (segments[(int) segI].get((int) (addr + i) & mask) & 0xFFL) << (i * 8);
+        }
+        return value;
+    }
+
+    public static float segGetFloat(ByteBuffer[] segments, int shift, long addr) {
+        int segmentSize = 1 << shift;
+        int mask = segmentSize - 1;
+        long segment = addr >>> shift;
+        int offset = (int) addr & mask;
+        if (segment >= segments.length) throw new IndexOutOfBoundsException();
+        if (offset <= segmentSize - 4) return segments[(int) segment].getFloat(offset);
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            long segI = (addr + i) >>> shift;
+            if (segI >= segments.length) throw new IndexOutOfBoundsException();
+            value |= (segments[(int) segI].get((int) (addr + i) & mask) & 0xFFL) << (i * 8);
+        }
+        return Float.intBitsToFloat((int) value);
+    }
+
+    public static double segGetDouble(ByteBuffer[] segments, int shift, long addr) {
+        int segmentSize = 1 << shift;
+        int mask = segmentSize - 1;
+        long segment = addr >>> shift;
+        int offset = (int) addr & mask;
+        if (segment >= segments.length) throw new IndexOutOfBoundsException();
+        if (offset <= segmentSize - 8) return segments[(int) segment].getDouble(offset);
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            long segI = (addr + i) >>> shift;
+            if (segI >= segments.length) throw new IndexOutOfBoundsException();
+            value |= (segments[(int) segI].get((int) (addr + i) & mask) & 0xFFL) << (i * 8);
+        }
+        return Double.longBitsToDouble(value);
+    }
+    // endregion
+
+    // region Stores
+    // accesses that straddle two segments check that the last byte is in bounds before storing anything
+
+    public static void segPut(ByteBuffer[] segments, int shift, long addr, byte value) {
+        int segmentSize = 1 << shift;
+        int mask = segmentSize - 1;
+        long segment = addr >>> shift;
+        if (segment >= segments.length) throw new IndexOutOfBoundsException();
+        segments[(int) segment].put((int) addr & mask, value);
+    }
+
+    public static void segPutShort(ByteBuffer[] segments, int shift, long addr, short value) {
+        int segmentSize = 1 << shift;
+        int mask = segmentSize - 1;
+        long segment = addr >>> shift;
+        int offset = (int) addr & mask;
+        if (segment >= segments.length) throw new IndexOutOfBoundsException();
+        if (offset <= segmentSize - 2) {
+            segments[(int) segment].putShort(offset, value);
+            return;
+        }
+        long last = addr + 1;
+        if (last >>> shift >= segments.length
+                || ((int) last & mask) >= segments[(int) (last >>> shift)].limit()) {
+            throw new IndexOutOfBoundsException();
+        }
+        for (int i = 0; i < 2; i++) {
+            segments[(int) ((addr + i) >>> shift)].put((int) (addr + i) & mask, (byte) (value >>> (i * 8)));
+        }
+    }
+
+    public static void segPutInt(ByteBuffer[] segments, int shift, long addr, int value) {
+        int segmentSize = 1 << shift;
+        int mask = segmentSize - 1;
+        long segment = addr >>> shift;
+        int offset = (int) addr & mask;
+        if (segment >= segments.length) throw new IndexOutOfBoundsException();
+        if (offset <= segmentSize - 4) {
+            segments[(int) segment].putInt(offset, value);
+            return;
+        }
+        long last = addr + 3;
+        if (last >>> shift >= segments.length
+                || ((int) last & mask) >= segments[(int) (last >>> shift)].limit()) {
+            throw new IndexOutOfBoundsException();
+        }
+        for (int i = 0; i < 4; i++) {
+            segments[(int) ((addr + i) >>> shift)].put((int) (addr + i) & mask, (byte) (value >>> (i * 8)));
+        }
+    }
+
+    public static void segPutLong(ByteBuffer[] segments, int shift, long addr, long value) {
+        int segmentSize = 1 << shift;
+        int mask = segmentSize - 1;
+        long segment = addr >>> shift;
+        int offset = (int) addr & mask;
+        if (segment >= segments.length) throw new IndexOutOfBoundsException();
+        if (offset <= segmentSize - 8) {
+            segments[(int) segment].putLong(offset, value);
+            return;
+        }
+        long last = addr + 7;
+        if (last >>> shift >= segments.length
+                || ((int) last & mask) >= segments[(int) (last >>> shift)].limit()) {
+            throw new IndexOutOfBoundsException();
+        }
+        for (int i = 0; i < 8; i++) {
+            segments[(int) ((addr + i) >>> shift)].put((int) (addr + i) & mask, (byte) (value >>> (i * 8)));
+        }
+    }
+
+    public static void segPutFloat(ByteBuffer[] segments, int shift, long addr, float value) {
+        int segmentSize = 1 << shift;
+        int mask = segmentSize - 1;
+        long segment = addr >>> shift;
+        int offset = (int) addr & mask;
+        if (segment >= segments.length) throw new IndexOutOfBoundsException();
+        if (offset <= segmentSize - 4) {
+            segments[(int) segment].putFloat(offset, value);
+            return;
+        }
+        long last = addr + 3;
+        if (last >>> shift >= segments.length
+                || ((int) last & mask) >= segments[(int) (last >>> shift)].limit()) {
+            throw new IndexOutOfBoundsException();
+        }
+        int bits = Float.floatToRawIntBits(value);
+        for (int i = 0; i < 4; i++) {
+            segments[(int) ((addr + i) >>> shift)].put((int) (addr + i) & mask, (byte) (bits >>> (i * 8)));
+        }
+    }
+
+    public static void segPutDouble(ByteBuffer[] segments, int shift, long addr, double value) {
+        int segmentSize = 1 << shift;
+        int mask = segmentSize - 1;
+        long segment = addr >>> shift;
+        int offset = (int) addr & mask;
+        if (segment >= segments.length) throw new IndexOutOfBoundsException();
+        if (offset <= segmentSize - 8) {
+            segments[(int) segment].putDouble(offset, value);
+            return;
+        }
+        long last = addr + 7;
+        if (last >>> shift >= segments.length
+                || ((int) last & mask) >= segments[(int) (last >>> shift)].limit()) {
+            throw new IndexOutOfBoundsException();
+        }
+        long bits = Double.doubleToRawLongBits(value);
+        for (int i = 0; i < 8; i++) {
+            segments[(int) ((addr + i) >>> shift)].put((int) (addr + i) & mask, (byte) (bits >>> (i * 8)));
+        }
+    }
+    // endregion
+
+    // region Bulk
+    // each of these checks all of its bounds first, then works a segment-sized chunk at a time
+
+    public static void segInit(ByteBuffer[] segments, int shift, long dst, ByteBuffer data, int src, int len) {
+        int segmentSize = 1 << shift;
+        int mask = segmentSize - 1;
+        long size = ((long) (segments.length - 1) << shift) + segments[segments.length - 1].limit();
+        if (Integer.toUnsignedLong(src) + Integer.toUnsignedLong(len) > data.limit()
+                || Long.compareUnsigned(dst, size) > 0
+                || Integer.toUnsignedLong(len) > size - dst) {
+            throw new IndexOutOfBoundsException();
+        }
+        long left = Integer.toUnsignedLong(len);
+        int from = src;
+        while (left > 0) {
+            int offset = (int) dst & mask;
+            int count = (int) Math.min(left, segmentSize - offset);
+            ByteBuffer target = segments[(int) (dst >>> shift)].duplicate();
+            ((Buffer) target).position(offset);
+            ByteBuffer source = data.duplicate();
+            ((Buffer) source).limit(from + count).position(from);
+            target.put(source);
+            dst += count;
+            from += count;
+            left -= count;
+        }
+    }
+
+    public static void segCopy(ByteBuffer[] dstSegments, int dstShift, long dst,
+                               ByteBuffer[] srcSegments, int srcShift, long src,
+                               long len) {
+        int dstMask = (1 << dstShift) - 1;
+        int srcMask = (1 << srcShift) - 1;
+        long dstSize = ((long) (dstSegments.length - 1) << dstShift) + dstSegments[dstSegments.length - 1].limit();
+        long srcSize = ((long) (srcSegments.length - 1) << srcShift) + srcSegments[srcSegments.length - 1].limit();
+        if (Long.compareUnsigned(dst, dstSize) > 0 || Long.compareUnsigned(len, dstSize - dst) > 0
+                || Long.compareUnsigned(src, srcSize) > 0 || Long.compareUnsigned(len, srcSize - src) > 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        // copy backwards if the destination overlaps the end of the source,
+        // so that no chunk overwrites source bytes that have yet to be copied
+        boolean backwards = dstSegments == srcSegments && dst > src && dst < src + len;
+        long done = 0;
+        while (done < len) {
+            long left = len - done;
+            long d = backwards ? dst + left : dst + done;
+            long s = backwards ? src + left : src + done;
+            // going backwards, d and s are the ends of the chunk, so look at the byte before them
+            int dOffset = (int) (backwards ? d - 1 : d) & dstMask;
+            int sOffset = (int) (backwards ? s - 1 : s) & srcMask;
+            int count = (int) Math.min(left, backwards
+                    ? Math.min(dOffset, sOffset) + 1
+                    : Math.min(dstMask - dOffset, srcMask - sOffset) + 1);
+            if (backwards) {
+                d -= count;
+                s -= count;
+            }
+            ByteBuffer target = dstSegments[(int) (d >>> dstShift)].duplicate();
+            ((Buffer) target).position((int) d & dstMask);
+            ByteBuffer source = srcSegments[(int) (s >>> srcShift)].duplicate();
+            int sStart = (int) s & srcMask;
+            ((Buffer) source).limit(sStart + count).position(sStart);
+            // within one buffer, put handles overlap
+            target.put(source);
+            done += count;
+        }
+    }
+
+    public static void segFill(ByteBuffer[] segments, int shift, long dst, byte value, long len) {
+        int segmentSize = 1 << shift;
+        int mask = segmentSize - 1;
+        long size = ((long) (segments.length - 1) << shift) + segments[segments.length - 1].limit();
+        if (Long.compareUnsigned(dst, size) > 0 || Long.compareUnsigned(len, size - dst) > 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0) {
+            int offset = (int) dst & mask;
+            int count = (int) Math.min(len, segmentSize - offset);
+            ByteBuffer segment = segments[(int) (dst >>> shift)];
+            // store the first byte, then repeatedly copy what has been filled so far after itself
+            segment.put(offset, value);
+            int filled = 1;
+            while (filled < count) {
+                int n = Math.min(filled, count - filled);
+                ByteBuffer target = segment.duplicate();
+                ((Buffer) target).position(offset + filled);
+                ByteBuffer source = segment.duplicate();
+                ((Buffer) source).limit(offset + n).position(offset);
+                target.put(source);
+                filled += n;
+            }
+            dst += count;
+            len -= count;
+        }
+    }
+    // endregion
+}
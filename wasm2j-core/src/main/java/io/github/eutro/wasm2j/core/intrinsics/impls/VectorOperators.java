@@ -0,0 +1,659 @@
+package io.github.eutro.wasm2j.core.intrinsics.impls;
+
+import io.github.eutro.wasm2j.core.intrinsics.Intrinsic;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static io.github.eutro.jwasm.Opcodes.*;
+
+/**
+ * Java implementations of WebAssembly vector primitives.
+ * <p>
+ * Inside a function, a {@code v128} is kept as its two little-endian {@code long} halves,
+ * and each of these computes a single half of the result of its instruction.
+ * Most are applied to the low halves and the high halves of their operands in turn,
+ * the rest take the halves they need, as described by
+ * {@link io.github.eutro.wasm2j.core.passes.convert.WasmToWir WasmToWir}.
+ * Where the lanes allow it, a half is worked on as a whole {@code long}, rather than lane by lane.
+ * <p>
+ * A {@code v128} only becomes a 16 byte {@link ByteBuffer} where it leaves the function,
+ * such as when it is passed to another function or stored in a global.
+ */
+@SuppressWarnings({"DuplicatedCode", "unused"})
+public final class VectorOperators {
+    // @formatter:off
+
+    // region Representation
+    public static ByteBuffer v128Pack(long lo, long hi) { return ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN).putLong(0, lo).putLong(8, hi); }
+    public static long v128Lo(ByteBuffer x) { return x.order() == ByteOrder.LITTLE_ENDIAN ? x.getLong(0) : Long.reverseBytes(x.getLong(0)); }
+    public static long v128Hi(ByteBuffer x) { return x.order() == ByteOrder.LITTLE_ENDIAN ? x.getLong(8) : Long.reverseBytes(x.getLong(8)); }
+    // endregion
+    // region Construction
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_SHUFFLE, inline = false) public static long i8x16Shuffle(long xlo, long xhi, long ylo, long yhi, long lanes) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) {
+            int lane = (int) (lanes >>> i) & 0x1F;
+            long src = lane < 8 ? xlo : lane < 16 ? xhi : lane < 24 ? ylo : yhi;
+            r |= (src >>> ((lane & 7) * 8) & 0xFF) << i;
+        }
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_SWIZZLE, inline = false) public static long i8x16Swizzle(long xlo, long xhi, long s) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) {
+            int lane = (int) (s >>> i) & 0xFF;
+            if (lane < 16) r |= ((lane < 8 ? xlo : xhi) >>> ((lane & 7) * 8) & 0xFF) << i;
+        }
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_SPLAT) public static long i8x16Splat(int x) { return (x & 0xFFL) * 0x0101010101010101L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_SPLAT) public static long i16x8Splat(int x) { return (x & 0xFFFFL) * 0x0001000100010001L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_SPLAT) public static long i32x4Splat(int x) { return (x & 0xFFFFFFFFL) * 0x0000000100000001L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_SPLAT) public static long i64x2Splat(long x) { return x; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_SPLAT) public static long f32x4Splat(float x) { return (Float.floatToRawIntBits(x) & 0xFFFFFFFFL) * 0x0000000100000001L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_SPLAT) public static long f64x2Splat(double x) { return Double.doubleToRawLongBits(x); }
+    // endregion
+    // region Lanes
+    // lanes are numbered within the half that holds them
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_EXTRACT_LANE_S) public static int i8x16ExtractLaneS(long x, int lane) { return (byte) (x >>> (lane * 8)); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_EXTRACT_LANE_U) public static int i8x16ExtractLaneU(long x, int lane) { return (int) (x >>> (lane * 8)) & 0xFF; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_REPLACE_LANE) public static long i8x16ReplaceLane(long x, int y, int lane) { return x & ~(0xFFL << (lane * 8)) | (y & 0xFFL) << (lane * 8); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_EXTRACT_LANE_S) public static int i16x8ExtractLaneS(long x, int lane) { return (short) (x >>> (lane * 16)); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_EXTRACT_LANE_U) public static int i16x8ExtractLaneU(long x, int lane) { return (int) (x >>> (lane * 16)) & 0xFFFF; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_REPLACE_LANE) public static long i16x8ReplaceLane(long x, int y, int lane) { return x & ~(0xFFFFL << (lane * 16)) | (y & 0xFFFFL) << (lane * 16); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_EXTRACT_LANE) public static int i32x4ExtractLane(long x, int lane) { return (int) (x >>> (lane * 32)); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_REPLACE_LANE) public static long i32x4ReplaceLane(long x, int y, int lane) { return x & ~(0xFFFFFFFFL << (lane * 32)) | (y & 0xFFFFFFFFL) << (lane * 32); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_EXTRACT_LANE) public static long i64x2ExtractLane(long x, int lane) { return x; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_REPLACE_LANE) public static long i64x2ReplaceLane(long x, long y, int lane) { return y; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_EXTRACT_LANE) public static float f32x4ExtractLane(long x, int lane) { return Float.intBitsToFloat((int) (x >>> (lane * 32))); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_REPLACE_LANE) public static long f32x4ReplaceLane(long x, float y, int lane) { return x & ~(0xFFFFFFFFL << (lane * 32)) | (Float.floatToRawIntBits(y) & 0xFFFFFFFFL) << (lane * 32); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_EXTRACT_LANE) public static double f64x2ExtractLane(long x, int lane) { return Double.longBitsToDouble(x); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_REPLACE_LANE) public static long f64x2ReplaceLane(long x, double y, int lane) { return Double.doubleToRawLongBits(y); }
+    // endregion
+    // region Comparison
+    // a lane is non-zero iff adding 0x7F to its low bits, or-ed with it, sets its top bit
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_EQ) public static long i8x16Eq(long x, long y) { long t = x ^ y; return ~((((((t & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL) | t) & 0x8080808080808080L) >>> 7) * 0xFF); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_NE) public static long i8x16Ne(long x, long y) { long t = x ^ y; return (((((t & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL) | t) & 0x8080808080808080L) >>> 7) * 0xFF; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_LT_S, inline = false) public static long i8x16LtS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) if ((byte) (x >>> i) < (byte) (y >>> i)) r |= 0xFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_LT_U, inline = false) public static long i8x16LtU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) if ((x >>> i & 0xFF) < (y >>> i & 0xFF)) r |= 0xFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_GT_S, inline = false) public static long i8x16GtS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) if ((byte) (x >>> i) > (byte) (y >>> i)) r |= 0xFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_GT_U, inline = false) public static long i8x16GtU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) if ((x >>> i & 0xFF) > (y >>> i & 0xFF)) r |= 0xFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_LE_S, inline = false) public static long i8x16LeS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) if ((byte) (x >>> i) <= (byte) (y >>> i)) r |= 0xFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_LE_U, inline = false) public static long i8x16LeU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) if ((x >>> i & 0xFF) <= (y >>> i & 0xFF)) r |= 0xFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_GE_S, inline = false) public static long i8x16GeS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) if ((byte) (x >>> i) >= (byte) (y >>> i)) r |= 0xFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_GE_U, inline = false) public static long i8x16GeU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) if ((x >>> i & 0xFF) >= (y >>> i & 0xFF)) r |= 0xFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_EQ) public static long i16x8Eq(long x, long y) { long t = x ^ y; return ~((((((t & 0x7FFF7FFF7FFF7FFFL) + 0x7FFF7FFF7FFF7FFFL) | t) & 0x8000800080008000L) >>> 15) * 0xFFFF); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_NE) public static long i16x8Ne(long x, long y) { long t = x ^ y; return (((((t & 0x7FFF7FFF7FFF7FFFL) + 0x7FFF7FFF7FFF7FFFL) | t) & 0x8000800080008000L) >>> 15) * 0xFFFF; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_LT_S, inline = false) public static long i16x8LtS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) if ((short) (x >>> i) < (short) (y >>> i)) r |= 0xFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_LT_U, inline = false) public static long i16x8LtU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) if ((x >>> i & 0xFFFF) < (y >>> i & 0xFFFF)) r |= 0xFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_GT_S, inline = false) public static long i16x8GtS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) if ((short) (x >>> i) > (short) (y >>> i)) r |= 0xFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_GT_U, inline = false) public static long i16x8GtU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) if ((x >>> i & 0xFFFF) > (y >>> i & 0xFFFF)) r |= 0xFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_LE_S, inline = false) public static long i16x8LeS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) if ((short) (x >>> i) <= (short) (y >>> i)) r |= 0xFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_LE_U, inline = false) public static long i16x8LeU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) if ((x >>> i & 0xFFFF) <= (y >>> i & 0xFFFF)) r |= 0xFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_GE_S, inline = false) public static long i16x8GeS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) if ((short) (x >>> i) >= (short) (y >>> i)) r |= 0xFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_GE_U, inline = false) public static long i16x8GeU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) if ((x >>> i & 0xFFFF) >= (y >>> i & 0xFFFF)) r |= 0xFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_EQ) public static long i32x4Eq(long x, long y) { long t = x ^ y; return ~((((((t & 0x7FFFFFFF7FFFFFFFL) + 0x7FFFFFFF7FFFFFFFL) | t) & 0x8000000080000000L) >>> 31) * 0xFFFFFFFFL); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_NE) public static long i32x4Ne(long x, long y) { long t = x ^ y; return (((((t & 0x7FFFFFFF7FFFFFFFL) + 0x7FFFFFFF7FFFFFFFL) | t) & 0x8000000080000000L) >>> 31) * 0xFFFFFFFFL; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_LT_S, inline = false) public static long i32x4LtS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) if ((int) (x >>> i) < (int) (y >>> i)) r |= 0xFFFFFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_LT_U, inline = false) public static long i32x4LtU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) if ((x >>> i & 0xFFFFFFFFL) < (y >>> i & 0xFFFFFFFFL)) r |= 0xFFFFFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_GT_S, inline = false) public static long i32x4GtS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) if ((int) (x >>> i) > (int) (y >>> i)) r |= 0xFFFFFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_GT_U, inline = false) public static long i32x4GtU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) if ((x >>> i & 0xFFFFFFFFL) > (y >>> i & 0xFFFFFFFFL)) r |= 0xFFFFFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_LE_S, inline = false) public static long i32x4LeS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) if ((int) (x >>> i) <= (int) (y >>> i)) r |= 0xFFFFFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_LE_U, inline = false) public static long i32x4LeU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) if ((x >>> i & 0xFFFFFFFFL) <= (y >>> i & 0xFFFFFFFFL)) r |= 0xFFFFFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_GE_S, inline = false) public static long i32x4GeS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) if ((int) (x >>> i) >= (int) (y >>> i)) r |= 0xFFFFFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_GE_U, inline = false) public static long i32x4GeU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) if ((x >>> i & 0xFFFFFFFFL) >= (y >>> i & 0xFFFFFFFFL)) r |= 0xFFFFFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_EQ, inline = false) public static long f32x4Eq(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) if (Float.intBitsToFloat((int) (x >>> i)) == Float.intBitsToFloat((int) (y >>> i))) r |= 0xFFFFFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_NE, inline = false) public static long f32x4Ne(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) if (Float.intBitsToFloat((int) (x >>> i)) != Float.intBitsToFloat((int) (y >>> i))) r |= 0xFFFFFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_LT, inline = false) public static long f32x4Lt(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) if (Float.intBitsToFloat((int) (x >>> i)) < Float.intBitsToFloat((int) (y >>> i))) r |= 0xFFFFFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_GT, inline = false) public static long f32x4Gt(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) if (Float.intBitsToFloat((int) (x >>> i)) > Float.intBitsToFloat((int) (y >>> i))) r |= 0xFFFFFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_LE, inline = false) public static long f32x4Le(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) if (Float.intBitsToFloat((int) (x >>> i)) <= Float.intBitsToFloat((int) (y >>> i))) r |= 0xFFFFFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_GE, inline = false) public static long f32x4Ge(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) if (Float.intBitsToFloat((int) (x >>> i)) >= Float.intBitsToFloat((int) (y >>> i))) r |= 0xFFFFFFFFL << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_EQ) public static long f64x2Eq(long x, long y) { return Double.longBitsToDouble(x) == Double.longBitsToDouble(y) ? -1L : 0L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_NE) public static long f64x2Ne(long x, long y) { return Double.longBitsToDouble(x) != Double.longBitsToDouble(y) ? -1L : 0L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_LT) public static long f64x2Lt(long x, long y) { return Double.longBitsToDouble(x) < Double.longBitsToDouble(y) ? -1L : 0L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_GT) public static long f64x2Gt(long x, long y) { return Double.longBitsToDouble(x) > Double.longBitsToDouble(y) ? -1L : 0L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_LE) public static long f64x2Le(long x, long y) { return Double.longBitsToDouble(x) <= Double.longBitsToDouble(y) ? -1L : 0L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_GE) public static long f64x2Ge(long x, long y) { return Double.longBitsToDouble(x) >= Double.longBitsToDouble(y) ? -1L : 0L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_EQ) public static long i64x2Eq(long x, long y) { return x == y ? -1L : 0L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_NE) public static long i64x2Ne(long x, long y) { return x != y ? -1L : 0L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_LT_S) public static long i64x2LtS(long x, long y) { return x < y ? -1L : 0L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_GT_S) public static long i64x2GtS(long x, long y) { return x > y ? -1L : 0L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_LE_S) public static long i64x2LeS(long x, long y) { return x <= y ? -1L : 0L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_GE_S) public static long i64x2GeS(long x, long y) { return x >= y ? -1L : 0L; }
+    // endregion
+    // region Bitwise
+    @Intrinsic(value = VECTOR_PREFIX, iOp = V128_NOT) public static long v128Not(long x) { return ~x; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = V128_AND) public static long v128And(long x, long y) { return x & y; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = V128_ANDNOT) public static long v128AndNot(long x, long y) { return x & ~y; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = V128_OR) public static long v128Or(long x, long y) { return x | y; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = V128_XOR) public static long v128Xor(long x, long y) { return x ^ y; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = V128_BITSELECT) public static long v128Bitselect(long x, long y, long c) { return x & c | y & ~c; }
+    // these take both halves
+    @Intrinsic(value = VECTOR_PREFIX, iOp = V128_ANY_TRUE) public static int v128AnyTrue(long lo, long hi) { return (lo | hi) != 0 ? 1 : 0; }
+    // endregion
+    // region Integer arithmetic
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_ABS, inline = false) public static long i8x16Abs(long x) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) r |= (Math.abs((byte) (x >>> i)) & 0xFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_NEG) public static long i8x16Neg(long x) { return (0x8080808080808080L - (x & ~0x8080808080808080L)) ^ (~x & 0x8080808080808080L); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_ADD) public static long i8x16Add(long x, long y) { return ((x & ~0x8080808080808080L) + (y & ~0x8080808080808080L)) ^ ((x ^ y) & 0x8080808080808080L); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_SUB) public static long i8x16Sub(long x, long y) { return ((x | 0x8080808080808080L) - (y & ~0x8080808080808080L)) ^ ((x ^ ~y) & 0x8080808080808080L); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_ALL_TRUE) public static int i8x16AllTrue(long lo, long hi) { return ((((lo & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL) | lo) & (((hi & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL) | hi) & 0x8080808080808080L) == 0x8080808080808080L ? 1 : 0; }
+    // gathers the top bit of each byte into the top byte
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_BITMASK) public static int i8x16Bitmask(long lo, long hi) { return (int) (((lo & 0x8080808080808080L) * 0x0002040810204081L) >>> 56 | ((hi & 0x8080808080808080L) * 0x0002040810204081L) >>> 48 & 0xFF00); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_SHL) public static long i8x16Shl(long x, int y) { int n = y & 7; return x << n & ((0xFFL << n & 0xFF) * 0x0101010101010101L); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_SHR_S, inline = false) public static long i8x16ShrS(long x, int y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) r |= ((byte) (x >>> i) >> (y & 7) & 0xFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_SHR_U) public static long i8x16ShrU(long x, int y) { int n = y & 7; return x >>> n & (0xFFL >>> n) * 0x0101010101010101L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_MIN_S, inline = false) public static long i8x16MinS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) r |= (Math.min((byte) (x >>> i), (byte) (y >>> i)) & 0xFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_MIN_U, inline = false) public static long i8x16MinU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) r |= Math.min(x >>> i & 0xFF, y >>> i & 0xFF) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_MAX_S, inline = false) public static long i8x16MaxS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) r |= (Math.max((byte) (x >>> i), (byte) (y >>> i)) & 0xFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_MAX_U, inline = false) public static long i8x16MaxU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) r |= Math.max(x >>> i & 0xFF, y >>> i & 0xFF) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_ADD_SAT_S, inline = false) public static long i8x16AddSatS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) r |= (Math.max(-128, Math.min(127, (byte) (x >>> i) + (byte) (y >>> i))) & 0xFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_ADD_SAT_U, inline = false) public static long i8x16AddSatU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) r |= Math.min(255, (x >>> i & 0xFF) + (y >>> i & 0xFF)) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_SUB_SAT_S, inline = false) public static long i8x16SubSatS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) r |= (Math.max(-128, Math.min(127, (byte) (x >>> i) - (byte) (y >>> i))) & 0xFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_SUB_SAT_U, inline = false) public static long i8x16SubSatU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) r |= Math.max(0, (x >>> i & 0xFF) - (y >>> i & 0xFF)) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_AVGR_U, inline = false) public static long i8x16AvgrU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 8) r |= ((x >>> i & 0xFF) + (y >>> i & 0xFF) + 1) >>> 1 << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_POPCNT) public static long i8x16Popcnt(long x) { long a = x - (x >>> 1 & 0x5555555555555555L); long b = (a & 0x3333333333333333L) + (a >>> 2 & 0x3333333333333333L); return (b + (b >>> 4)) & 0x0F0F0F0F0F0F0F0FL; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_ABS, inline = false) public static long i16x8Abs(long x) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) r |= (Math.abs((short) (x >>> i)) & 0xFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_NEG) public static long i16x8Neg(long x) { return (0x8000800080008000L - (x & ~0x8000800080008000L)) ^ (~x & 0x8000800080008000L); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_ADD) public static long i16x8Add(long x, long y) { return ((x & ~0x8000800080008000L) + (y & ~0x8000800080008000L)) ^ ((x ^ y) & 0x8000800080008000L); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_SUB) public static long i16x8Sub(long x, long y) { return ((x | 0x8000800080008000L) - (y & ~0x8000800080008000L)) ^ ((x ^ ~y) & 0x8000800080008000L); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_MUL, inline = false) public static long i16x8Mul(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) r |= ((short) (x >>> i) * (short) (y >>> i) & 0xFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_ALL_TRUE) public static int i16x8AllTrue(long lo, long hi) { return ((((lo & 0x7FFF7FFF7FFF7FFFL) + 0x7FFF7FFF7FFF7FFFL) | lo) & (((hi & 0x7FFF7FFF7FFF7FFFL) + 0x7FFF7FFF7FFF7FFFL) | hi) & 0x8000800080008000L) == 0x8000800080008000L ? 1 : 0; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_BITMASK, inline = false) public static int i16x8Bitmask(long lo, long hi) {
+        int r = 0;
+        for (int i = 0; i < 4; i++) r |= (int) (lo >>> (i * 16 + 15) & 1) << i | (int) (hi >>> (i * 16 + 15) & 1) << (i + 4);
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_SHL) public static long i16x8Shl(long x, int y) { int n = y & 15; return x << n & ((0xFFFFL << n & 0xFFFF) * 0x0001000100010001L); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_SHR_S, inline = false) public static long i16x8ShrS(long x, int y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) r |= ((short) (x >>> i) >> (y & 15) & 0xFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_SHR_U) public static long i16x8ShrU(long x, int y) { int n = y & 15; return x >>> n & (0xFFFFL >>> n) * 0x0001000100010001L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_MIN_S, inline = false) public static long i16x8MinS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) r |= (Math.min((short) (x >>> i), (short) (y >>> i)) & 0xFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_MIN_U, inline = false) public static long i16x8MinU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) r |= Math.min(x >>> i & 0xFFFF, y >>> i & 0xFFFF) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_MAX_S, inline = false) public static long i16x8MaxS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) r |= (Math.max((short) (x >>> i), (short) (y >>> i)) & 0xFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_MAX_U, inline = false) public static long i16x8MaxU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) r |= Math.max(x >>> i & 0xFFFF, y >>> i & 0xFFFF) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_ADD_SAT_S, inline = false) public static long i16x8AddSatS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) r |= (Math.max(-32768, Math.min(32767, (short) (x >>> i) + (short) (y >>> i))) & 0xFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_ADD_SAT_U, inline = false) public static long i16x8AddSatU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) r |= Math.min(65535, (x >>> i & 0xFFFF) + (y >>> i & 0xFFFF)) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_SUB_SAT_S, inline = false) public static long i16x8SubSatS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) r |= (Math.max(-32768, Math.min(32767, (short) (x >>> i) - (short) (y >>> i))) & 0xFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_SUB_SAT_U, inline = false) public static long i16x8SubSatU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) r |= Math.max(0, (x >>> i & 0xFFFF) - (y >>> i & 0xFFFF)) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_AVGR_U, inline = false) public static long i16x8AvgrU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) r |= ((x >>> i & 0xFFFF) + (y >>> i & 0xFFFF) + 1) >>> 1 << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_Q15MULR_SAT_S, inline = false) public static long i16x8Q15mulrSatS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) r |= (Math.min(32767, (short) (x >>> i) * (short) (y >>> i) + 0x4000 >> 15) & 0xFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_EXTADD_PAIRWISE_I8X16_S, inline = false) public static long i16x8ExtaddPairwiseI8x16S(long x) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) r |= ((byte) (x >>> i) + (byte) (x >>> (i + 8)) & 0xFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_EXTADD_PAIRWISE_I8X16_U, inline = false) public static long i16x8ExtaddPairwiseI8x16U(long x) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 16) r |= ((x >>> i & 0xFF) + (x >>> (i + 8) & 0xFF)) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_ABS, inline = false) public static long i32x4Abs(long x) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= (Math.abs((int) (x >>> i)) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_NEG) public static long i32x4Neg(long x) { return (0x8000000080000000L - (x & ~0x8000000080000000L)) ^ (~x & 0x8000000080000000L); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_ADD) public static long i32x4Add(long x, long y) { return ((x & ~0x8000000080000000L) + (y & ~0x8000000080000000L)) ^ ((x ^ y) & 0x8000000080000000L); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_SUB) public static long i32x4Sub(long x, long y) { return ((x | 0x8000000080000000L) - (y & ~0x8000000080000000L)) ^ ((x ^ ~y) & 0x8000000080000000L); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_MUL, inline = false) public static long i32x4Mul(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= ((int) (x >>> i) * (int) (y >>> i) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_ALL_TRUE) public static int i32x4AllTrue(long lo, long hi) { return ((((lo & 0x7FFFFFFF7FFFFFFFL) + 0x7FFFFFFF7FFFFFFFL) | lo) & (((hi & 0x7FFFFFFF7FFFFFFFL) + 0x7FFFFFFF7FFFFFFFL) | hi) & 0x8000000080000000L) == 0x8000000080000000L ? 1 : 0; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_BITMASK) public static int i32x4Bitmask(long lo, long hi) { return (int) (lo >>> 31 & 1 | lo >>> 62 & 2 | hi >>> 29 & 4 | hi >>> 60 & 8); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_SHL) public static long i32x4Shl(long x, int y) { int n = y & 31; return x << n & ((0xFFFFFFFFL << n & 0xFFFFFFFFL) * 0x0000000100000001L); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_SHR_S) public static long i32x4ShrS(long x, int y) { int n = y & 31; return ((int) x >> n & 0xFFFFFFFFL) | (long) ((int) (x >>> 32) >> n) << 32; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_SHR_U) public static long i32x4ShrU(long x, int y) { int n = y & 31; return x >>> n & (0xFFFFFFFFL >>> n) * 0x0000000100000001L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_MIN_S, inline = false) public static long i32x4MinS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= (Math.min((int) (x >>> i), (int) (y >>> i)) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_MIN_U, inline = false) public static long i32x4MinU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= Math.min(x >>> i & 0xFFFFFFFFL, y >>> i & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_MAX_S, inline = false) public static long i32x4MaxS(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= (Math.max((int) (x >>> i), (int) (y >>> i)) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_MAX_U, inline = false) public static long i32x4MaxU(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= Math.max(x >>> i & 0xFFFFFFFFL, y >>> i & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_DOT_I16X8_S, inline = false) public static long i32x4DotI16x8S(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= ((short) (x >>> i) * (short) (y >>> i) + (short) (x >>> (i + 16)) * (short) (y >>> (i + 16)) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_EXTADD_PAIRWISE_I16X8_S) public static long i32x4ExtaddPairwiseI16x8S(long x) { return ((short) x + (short) (x >>> 16) & 0xFFFFFFFFL) | (long) ((short) (x >>> 32) + (short) (x >>> 48)) << 32; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_EXTADD_PAIRWISE_I16X8_U) public static long i32x4ExtaddPairwiseI16x8U(long x) { return ((x & 0xFFFF) + (x >>> 16 & 0xFFFF)) | ((x >>> 32 & 0xFFFF) + (x >>> 48)) << 32; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_ABS) public static long i64x2Abs(long x) { return Math.abs(x); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_NEG) public static long i64x2Neg(long x) { return -x; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_ADD) public static long i64x2Add(long x, long y) { return x + y; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_SUB) public static long i64x2Sub(long x, long y) { return x - y; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_MUL) public static long i64x2Mul(long x, long y) { return x * y; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_ALL_TRUE) public static int i64x2AllTrue(long lo, long hi) { return lo != 0 && hi != 0 ? 1 : 0; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_BITMASK) public static int i64x2Bitmask(long lo, long hi) { return (int) (lo >>> 63 | hi >>> 62 & 2); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_SHL) public static long i64x2Shl(long x, int y) { return x << (y & 63); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_SHR_S) public static long i64x2ShrS(long x, int y) { return x >> (y & 63); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_SHR_U) public static long i64x2ShrU(long x, int y) { return x >>> (y & 63); }
+    // endregion
+    // region Widening
+    // these take the half holding the narrow lanes, and compute the low (part 0) or high (part 1) half of the result;
+    // the _HIGH instructions reuse the _LOW implementations with the high half
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_EXTEND_LOW_I8X16_S, inline = false) public static long i16x8ExtendLowI8x16S(long x, int part) {
+        long r = 0;
+        for (int i = 0; i < 4; i++) r |= ((byte) (x >>> (part * 32 + i * 8)) & 0xFFFFL) << (i * 16);
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_EXTEND_LOW_I8X16_U, inline = false) public static long i16x8ExtendLowI8x16U(long x, int part) {
+        long r = 0;
+        for (int i = 0; i < 4; i++) r |= (x >>> (part * 32 + i * 8) & 0xFF) << (i * 16);
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_EXTEND_LOW_I16X8_S) public static long i32x4ExtendLowI16x8S(long x, int part) { return ((short) (x >>> (part * 32)) & 0xFFFFFFFFL) | (long) (short) (x >>> (part * 32 + 16)) << 32; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_EXTEND_LOW_I16X8_U) public static long i32x4ExtendLowI16x8U(long x, int part) { return (x >>> (part * 32) & 0xFFFF) | (x >>> (part * 32 + 16) & 0xFFFF) << 32; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_EXTEND_LOW_I32X4_S) public static long i64x2ExtendLowI32x4S(long x, int part) { return (int) (x >>> (part * 32)); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_EXTEND_LOW_I32X4_U) public static long i64x2ExtendLowI32x4U(long x, int part) { return x >>> (part * 32) & 0xFFFFFFFFL; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_EXTMUL_LOW_I8X16_S, inline = false) public static long i16x8ExtmulLowI8x16S(long x, long y, int part) {
+        long r = 0;
+        for (int i = 0; i < 4; i++) r |= ((byte) (x >>> (part * 32 + i * 8)) * (byte) (y >>> (part * 32 + i * 8)) & 0xFFFFL) << (i * 16);
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_EXTMUL_LOW_I8X16_U, inline = false) public static long i16x8ExtmulLowI8x16U(long x, long y, int part) {
+        long r = 0;
+        for (int i = 0; i < 4; i++) r |= (x >>> (part * 32 + i * 8) & 0xFF) * (y >>> (part * 32 + i * 8) & 0xFF) << (i * 16);
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_EXTMUL_LOW_I16X8_S, inline = false) public static long i32x4ExtmulLowI16x8S(long x, long y, int part) {
+        long r = 0;
+        for (int i = 0; i < 2; i++) r |= ((short) (x >>> (part * 32 + i * 16)) * (short) (y >>> (part * 32 + i * 16)) & 0xFFFFFFFFL) << (i * 32);
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_EXTMUL_LOW_I16X8_U, inline = false) public static long i32x4ExtmulLowI16x8U(long x, long y, int part) {
+        long r = 0;
+        for (int i = 0; i < 2; i++) r |= (x >>> (part * 32 + i * 16) & 0xFFFF) * (y >>> (part * 32 + i * 16) & 0xFFFF) << (i * 32);
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_EXTMUL_LOW_I32X4_S) public static long i64x2ExtmulLowI32x4S(long x, long y, int part) { return (long) (int) (x >>> (part * 32)) * (int) (y >>> (part * 32)); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I64X2_EXTMUL_LOW_I32X4_U) public static long i64x2ExtmulLowI32x4U(long x, long y, int part) { return (x >>> (part * 32) & 0xFFFFFFFFL) * (y >>> (part * 32) & 0xFFFFFFFFL); }
+    // endregion
+    // region Narrowing
+    // these take both halves of one operand, and compute one half of the result
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_NARROW_I16X8_S, inline = false) public static long i8x16NarrowI16x8S(long lo, long hi) {
+        long r = 0;
+        for (int i = 0; i < 4; i++) {
+            r |= (Math.max(-128, Math.min(127, (short) (lo >>> (i * 16)))) & 0xFFL) << (i * 8);
+            r |= (Math.max(-128, Math.min(127, (short) (hi >>> (i * 16)))) & 0xFFL) << (i * 8 + 32);
+        }
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I8X16_NARROW_I16X8_U, inline = false) public static long i8x16NarrowI16x8U(long lo, long hi) {
+        long r = 0;
+        for (int i = 0; i < 4; i++) {
+            r |= (long) Math.max(0, Math.min(255, (short) (lo >>> (i * 16)))) << (i * 8);
+            r |= (long) Math.max(0, Math.min(255, (short) (hi >>> (i * 16)))) << (i * 8 + 32);
+        }
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_NARROW_I32X4_S, inline = false) public static long i16x8NarrowI32x4S(long lo, long hi) {
+        long r = 0;
+        for (int i = 0; i < 2; i++) {
+            r |= (Math.max(-32768, Math.min(32767, (int) (lo >>> (i * 32)))) & 0xFFFFL) << (i * 16);
+            r |= (Math.max(-32768, Math.min(32767, (int) (hi >>> (i * 32)))) & 0xFFFFL) << (i * 16 + 32);
+        }
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I16X8_NARROW_I32X4_U, inline = false) public static long i16x8NarrowI32x4U(long lo, long hi) {
+        long r = 0;
+        for (int i = 0; i < 2; i++) {
+            r |= (long) Math.max(0, Math.min(65535, (int) (lo >>> (i * 32)))) << (i * 16);
+            r |= (long) Math.max(0, Math.min(65535, (int) (hi >>> (i * 32)))) << (i * 16 + 32);
+        }
+        return r;
+    }
+    // endregion
+    // region Floating point
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_ABS) public static long f32x4Abs(long x) { return x & ~0x8000000080000000L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_NEG) public static long f32x4Neg(long x) { return x ^ 0x8000000080000000L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_SQRT, inline = false) public static long f32x4Sqrt(long x) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= (Float.floatToRawIntBits((float) Math.sqrt(Float.intBitsToFloat((int) (x >>> i)))) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_CEIL, inline = false) public static long f32x4Ceil(long x) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= (Float.floatToRawIntBits((float) Math.ceil(Float.intBitsToFloat((int) (x >>> i)))) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_FLOOR, inline = false) public static long f32x4Floor(long x) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= (Float.floatToRawIntBits((float) Math.floor(Float.intBitsToFloat((int) (x >>> i)))) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_TRUNC, inline = false) public static long f32x4Trunc(long x) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) {
+            float f = Float.intBitsToFloat((int) (x >>> i));
+            r |= (Float.floatToRawIntBits((float) (f < 0 ? Math.ceil(f) : Math.floor(f))) & 0xFFFFFFFFL) << i;
+        }
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_NEAREST, inline = false) public static long f32x4Nearest(long x) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= (Float.floatToRawIntBits((float) Math.rint(Float.intBitsToFloat((int) (x >>> i)))) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_ADD, inline = false) public static long f32x4Add(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= (Float.floatToRawIntBits(Float.intBitsToFloat((int) (x >>> i)) + Float.intBitsToFloat((int) (y >>> i))) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_SUB, inline = false) public static long f32x4Sub(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= (Float.floatToRawIntBits(Float.intBitsToFloat((int) (x >>> i)) - Float.intBitsToFloat((int) (y >>> i))) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_MUL, inline = false) public static long f32x4Mul(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= (Float.floatToRawIntBits(Float.intBitsToFloat((int) (x >>> i)) * Float.intBitsToFloat((int) (y >>> i))) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_DIV, inline = false) public static long f32x4Div(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= (Float.floatToRawIntBits(Float.intBitsToFloat((int) (x >>> i)) / Float.intBitsToFloat((int) (y >>> i))) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_MIN, inline = false) public static long f32x4Min(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= (Float.floatToRawIntBits(Math.min(Float.intBitsToFloat((int) (x >>> i)), Float.intBitsToFloat((int) (y >>> i)))) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_MAX, inline = false) public static long f32x4Max(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= (Float.floatToRawIntBits(Math.max(Float.intBitsToFloat((int) (x >>> i)), Float.intBitsToFloat((int) (y >>> i)))) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_PMIN, inline = false) public static long f32x4Pmin(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= ((Float.intBitsToFloat((int) (y >>> i)) < Float.intBitsToFloat((int) (x >>> i)) ? y : x) >>> i & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_PMAX, inline = false) public static long f32x4Pmax(long x, long y) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= ((Float.intBitsToFloat((int) (x >>> i)) < Float.intBitsToFloat((int) (y >>> i)) ? y : x) >>> i & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_ABS) public static long f64x2Abs(long x) { return x & ~0x8000000000000000L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_NEG) public static long f64x2Neg(long x) { return x ^ 0x8000000000000000L; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_SQRT) public static long f64x2Sqrt(long x) { return Double.doubleToRawLongBits(Math.sqrt(Double.longBitsToDouble(x))); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_CEIL) public static long f64x2Ceil(long x) { return Double.doubleToRawLongBits(Math.ceil(Double.longBitsToDouble(x))); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_FLOOR) public static long f64x2Floor(long x) { return Double.doubleToRawLongBits(Math.floor(Double.longBitsToDouble(x))); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_TRUNC) public static long f64x2Trunc(long x) { double d = Double.longBitsToDouble(x); return Double.doubleToRawLongBits(d < 0 ? Math.ceil(d) : Math.floor(d)); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_NEAREST) public static long f64x2Nearest(long x) { return Double.doubleToRawLongBits(Math.rint(Double.longBitsToDouble(x))); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_ADD) public static long f64x2Add(long x, long y) { return Double.doubleToRawLongBits(Double.longBitsToDouble(x) + Double.longBitsToDouble(y)); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_SUB) public static long f64x2Sub(long x, long y) { return Double.doubleToRawLongBits(Double.longBitsToDouble(x) - Double.longBitsToDouble(y)); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_MUL) public static long f64x2Mul(long x, long y) { return Double.doubleToRawLongBits(Double.longBitsToDouble(x) * Double.longBitsToDouble(y)); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_DIV) public static long f64x2Div(long x, long y) { return Double.doubleToRawLongBits(Double.longBitsToDouble(x) / Double.longBitsToDouble(y)); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_MIN) public static long f64x2Min(long x, long y) { return Double.doubleToRawLongBits(Math.min(Double.longBitsToDouble(x), Double.longBitsToDouble(y))); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_MAX) public static long f64x2Max(long x, long y) { return Double.doubleToRawLongBits(Math.max(Double.longBitsToDouble(x), Double.longBitsToDouble(y))); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_PMIN) public static long f64x2Pmin(long x, long y) { return Double.longBitsToDouble(y) < Double.longBitsToDouble(x) ? y : x; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_PMAX) public static long f64x2Pmax(long x, long y) { return Double.longBitsToDouble(x) < Double.longBitsToDouble(y) ? y : x; }
+    // endregion
+    // region Conversion
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_TRUNC_SAT_F32X4_S, inline = false) public static long i32x4TruncSatF32x4S(long x) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= ((int) Float.intBitsToFloat((int) (x >>> i)) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_TRUNC_SAT_F32X4_U, inline = false) public static long i32x4TruncSatF32x4U(long x) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= Math.min(Math.max((long) Float.intBitsToFloat((int) (x >>> i)), 0L), 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_CONVERT_I32X4_S, inline = false) public static long f32x4ConvertI32x4S(long x) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= (Float.floatToRawIntBits((float) (int) (x >>> i)) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_CONVERT_I32X4_U, inline = false) public static long f32x4ConvertI32x4U(long x) {
+        long r = 0;
+        for (int i = 0; i < 64; i += 32) r |= (Float.floatToRawIntBits((float) (x >>> i & 0xFFFFFFFFL)) & 0xFFFFFFFFL) << i;
+        return r;
+    }
+    // like widening, these take the half holding the narrow lanes, and a part
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_CONVERT_LOW_I32X4_S) public static long f64x2ConvertLowI32x4S(long x, int part) { return Double.doubleToRawLongBits((int) (x >>> (part * 32))); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_CONVERT_LOW_I32X4_U) public static long f64x2ConvertLowI32x4U(long x, int part) { return Double.doubleToRawLongBits(x >>> (part * 32) & 0xFFFFFFFFL); }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F64X2_PROMOTE_LOW_F32X4) public static long f64x2PromoteLowF32x4(long x, int part) { return Double.doubleToRawLongBits(Float.intBitsToFloat((int) (x >>> (part * 32)))); }
+    // these take both halves, and compute the low half of the result; the high half is zero
+    @Intrinsic(value = VECTOR_PREFIX, iOp = F32X4_DEMOTE_F64X2_ZERO) public static long f32x4DemoteF64x2Zero(long lo, long hi) { return (Float.floatToRawIntBits((float) Double.longBitsToDouble(lo)) & 0xFFFFFFFFL) | (long) Float.floatToRawIntBits((float) Double.longBitsToDouble(hi)) << 32; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_TRUNC_SAT_F64X2_S_ZERO) public static long i32x4TruncSatF64x2SZero(long lo, long hi) { return ((int) Double.longBitsToDouble(lo) & 0xFFFFFFFFL) | (long) (int) Double.longBitsToDouble(hi) << 32; }
+    @Intrinsic(value = VECTOR_PREFIX, iOp = I32X4_TRUNC_SAT_F64X2_U_ZERO, inline = false) public static long i32x4TruncSatF64x2UZero(long lo, long hi) {
+        long l = Math.min(Math.max((long) Double.longBitsToDouble(lo), 0L), 0xFFFFFFFFL);
+        long h = Math.min(Math.max((long) Double.longBitsToDouble(hi), 0L), 0xFFFFFFFFL);
+        return l | h << 32;
+    }
+    // endregion
+}
+// @formatter:on
@@ -61,6 +61,13 @@ public class CommonOps {
         }) {
             key.attachExt(CommonExts.IS_PURE, true);
         }
+        for (OpKey key : new OpKey[]{
+                IDENTITY.key,
+                ARG,
+                CONST,
+        }) {
+            key.attachExt(CommonExts.IS_DETERMINISTIC, true);
+        }
         IDENTITY.attachExt(CommonExts.CONSTANT_PROPAGATOR, insn -> {
             if (insn.args().size() == 1) {
                 Var arg = insn.args().get(0);
@@ -30,6 +30,12 @@ public class JavaOps {
      */
     public static final UnaryOpKey<IntrinsicImpl> INTRINSIC = new UnaryOpKey<>("intr");
 
+    /**
+     * Effect: an {@link Opcodes#INVOKEDYNAMIC} instruction, with an intrinsic as its bootstrap method.
+     * <p>
+     * The bootstrap method, and any intrinsics it uses, are attached to the class when this is lowered.
+     */
+    public static final UnaryOpKey<IndyIntrinsic> INDY_INTRINSIC = new UnaryOpKey<>("indy_intr");
     /**
      * Control: an {@link Opcodes#TABLESWITCH} instruction.
      * With n-1 jump targets, the first n-1 correspond to keys {@code [0, n-1)}. The last
@@ -131,6 +137,60 @@ public class JavaOps {
         return insns(il);
     }
 
+    /**
+     * The argument of an {@link #INDY_INTRINSIC} instruction.
+     */
+    public static class IndyIntrinsic {
+        /**
+         * The name of the call site.
+         */
+        public final String name;
+        /**
+         * The method descriptor of the call site.
+         */
+        public final String descriptor;
+        /**
+         * The bootstrap method, which must not be inlined.
+         */
+        public final IntrinsicImpl bootstrap;
+        /**
+         * Other intrinsics that the bootstrap method looks up by name in its caller, which must not be inlined.
+         */
+        public final List<IntrinsicImpl> helpers;
+        /**
+         * The static arguments to the bootstrap method.
+         */
+        public final Object[] bootstrapArgs;
+
+        /**
+         * Construct a new indy intrinsic argument.
+         *
+         * @param name          The name of the call site.
+         * @param descriptor    The method descriptor of the call site.
+         * @param bootstrap     The bootstrap method.
+         * @param helpers       Other intrinsics that the bootstrap method looks up.
+         * @param bootstrapArgs The static arguments to the bootstrap method.
+         */
+        public IndyIntrinsic(
+                String name,
+                String descriptor,
+                IntrinsicImpl bootstrap,
+                List<IntrinsicImpl> helpers,
+                Object... bootstrapArgs
+        ) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.bootstrap = bootstrap;
+            this.helpers = helpers;
+            this.bootstrapArgs = bootstrapArgs;
+        }
+
+        @Override
+        public String toString() {
+            return name + descriptor;
+        }
+    }
+
     /**
      * A conditional jump's type in Java bytecode. Each {@link JumpType} represents a condition,
      * the jump will be taken if the condition holds.
@@ -394,5 +454,24 @@ public class JavaOps {
         }) {
             key.attachExt(CommonExts.IS_PURE, true);
         }
+        for (OpKey key : new OpKey[]{
+                THIS.key,
+                SELECT,
+                BOOL_SELECT,
+        }) {
+            key.attachExt(CommonExts.IS_DETERMINISTIC, true);
+        }
+        for (Op op : new Op[]{
+                IADD,
+                ISUB,
+                LADD,
+                IMUL,
+                I2L,
+                I2L_U,
+                IDIV_U,
+                L2I_EXACT,
+        }) {
+            op.attachExt(CommonExts.IS_DETERMINISTIC, true);
+        }
     }
 }
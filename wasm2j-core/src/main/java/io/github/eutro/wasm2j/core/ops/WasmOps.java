@@ -66,6 +66,10 @@ public class WasmOps {
 
     public static final UnaryOpKey<OperatorType> OPERATOR = new UnaryOpKey<>("op");
 
+    // v128 values are kept as their two i64 halves, see ScalarizeVectors
+    public static final SimpleOpKey V128_PACK = new SimpleOpKey("v128.pack"); /* lo hi */
+    public static final UnaryOpKey<@For("half") Integer> V128_HALF = new UnaryOpKey<>("v128.half"); /* vec */
+
     public static Control brIf(Var cond, BasicBlock thenB, BasicBlock elseB) {
         return BR_IF.insn(cond).jumpsTo(thenB, elseB);
     }
@@ -77,7 +81,9 @@ public class WasmOps {
                 FUNC_REF,
                 MEM_SIZE,
                 IS_NULL,
-                SELECT
+                SELECT,
+                V128_PACK,
+                V128_HALF
         }) {
             key.attachExt(CommonExts.IS_PURE, true);
         }
@@ -3,6 +3,7 @@ package io.github.eutro.wasm2j.core.passes;
 import io.github.eutro.wasm2j.core.passes.form.LinearScan;
 import io.github.eutro.wasm2j.core.passes.form.LowerIntrinsics;
 import io.github.eutro.wasm2j.core.passes.form.LowerPhis;
+import io.github.eutro.wasm2j.core.passes.form.SplitLargeFunctions;
 import io.github.eutro.wasm2j.core.passes.meta.InferTypes;
 import io.github.eutro.wasm2j.core.passes.misc.ForPass;
 import io.github.eutro.wasm2j.core.passes.opts.*;
@@ -14,23 +15,43 @@ import io.github.eutro.wasm2j.core.ssa.Function;
 public class Passes {
     /**
      * Simple optimisation passes to run on an SSA-form IR.
+     * <p>
+     * {@code v128} values are {@link ScalarizeVectors kept in pairs of longs} first,
+     * so that the other passes see their halves.
      */
     public static final IRPass<Function, Function> SSA_OPTS =
-            PropagateConstants.INSTANCE
+            ScalarizeVectors.INSTANCE
+                    .then(PropagateConstants.INSTANCE)
+                    .then(EliminateCommonSubexprs.INSTANCE)
                     .then(ForPass.liftInsns(IdentityElimination.INSTANCE).lift())
                     .then(EliminateDeadVars.INSTANCE);
 
     /**
      * Passes that must be run before emitting Java bytecode from IR,
      * such as {@link Stackify stackification} and {@link LinearScan register allocation}.
+     * <p>
+     * Functions that would be too large are {@link SplitLargeFunctions split} into several methods.
      */
-    public static final IRPass<Function, Function> JAVA_PREEMIT =
-            LowerIntrinsics.INSTANCE
-                    .then(CollapseJumps.INSTANCE)
-                    .then(MergeConds.INSTANCE)
-                    .then(SSA_OPTS)
-                    .then(LowerPhis.INSTANCE)
-                    .then(Stackify.INSTANCE)
-                    .then(InferTypes.Java.INSTANCE)
-                    .then(LinearScan.INSTANCE);
+    public static final IRPass<Function, Function> JAVA_PREEMIT = javaPreemit(SplitLargeFunctions.INSTANCE);
+
+    /**
+     * Create a pass like {@link #JAVA_PREEMIT}, but which splits large functions with the given pass.
+     *
+     * @param splitPass The pass which splits large functions, such as a {@link SplitLargeFunctions}
+     *                  with a different size budget.
+     * @return The pre-emit pass.
+     */
+    public static IRPass<Function, Function> javaPreemit(IRPass<Function, Function> splitPass) {
+        return LowerIntrinsics.INSTANCE
+                .then(CollapseJumps.INSTANCE)
+                .then(MergeConds.INSTANCE)
+                .then(HoistFieldLoads.INSTANCE)
+                .then(EliminateBoundsChecks.INSTANCE)
+                .then(SSA_OPTS)
+                .then(LowerPhis.INSTANCE)
+                .then(splitPass)
+                .then(Stackify.INSTANCE)
+                .then(InferTypes.Java.INSTANCE)
+                .then(LinearScan.INSTANCE);
+    }
 }
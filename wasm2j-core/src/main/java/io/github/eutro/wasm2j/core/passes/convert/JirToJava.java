@@ -3,6 +3,7 @@ package io.github.eutro.wasm2j.core.passes.convert;
 import io.github.eutro.wasm2j.core.ext.CommonExts;
 import io.github.eutro.wasm2j.core.ext.Ext;
 import io.github.eutro.wasm2j.core.ext.JavaExts;
+import io.github.eutro.wasm2j.core.ext.MetadataState;
 import io.github.eutro.wasm2j.core.ops.CommonOps;
 import io.github.eutro.wasm2j.core.ops.JavaOps;
 import io.github.eutro.wasm2j.core.ops.OpKey;
@@ -11,6 +12,7 @@ import io.github.eutro.wasm2j.core.ssa.*;
 import io.github.eutro.wasm2j.core.util.GraphWalker;
 import io.github.eutro.wasm2j.core.util.Lazy;
 import io.github.eutro.wasm2j.core.util.Pair;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -19,6 +21,9 @@ import org.objectweb.asm.tree.*;
 
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * A pass which converts Java IR to Java bytecode.
@@ -27,6 +32,13 @@ import java.util.*;
  * and compile them to bytecode one at a time. This is done so that only a few functions
  * have to be in-memory at once, limiting the memory footprint of the conversion.
  * <p>
+ * If constructed with an {@link Executor}, functions are instead forced and compiled in parallel on it,
+ * in which case at most as many functions as the executor runs at once will be in-memory.
+ * Methods which are added to the class while it is being compiled (e.g.
+ * {@link io.github.eutro.wasm2j.core.passes.form.LowerIntrinsics intrinsics}) are compiled afterwards,
+ * sorted by name and descriptor, so the output is the same regardless of scheduling, and the same as
+ * when compiling sequentially.
+ * <p>
  * {@link CommonOps#PHI Phi} nodes must be lowered, and registers should be allocated.
  * As such, the input IR to this pass should not be in SSA form.
  */
@@ -36,6 +48,29 @@ public class JirToJava implements IRPass<JClass, ClassNode> {
      */
     public static JirToJava INSTANCE = new JirToJava();
 
+    private static final Comparator<JClass.JavaMethod> METHOD_ORDER = Comparator
+            .<JClass.JavaMethod, String>comparing(method -> method.name)
+            .thenComparing(JClass.JavaMethod::getDescriptor);
+
+    @Nullable
+    private final Executor executor;
+
+    /**
+     * Construct a pass which compiles methods one at a time, on the calling thread.
+     */
+    public JirToJava() {
+        this(null);
+    }
+
+    /**
+     * Construct a pass which compiles methods in parallel on the given executor.
+     *
+     * @param executor The executor, or null to compile methods one at a time on the calling thread.
+     */
+    public JirToJava(@Nullable Executor executor) {
+        this.executor = executor;
+    }
+
     /**
      * Attached to {@link Var}s. The index of their Java local.
      */
@@ -80,49 +115,83 @@ public class JirToJava implements IRPass<JClass, ClassNode> {
 
         Set<Pair<String, String>> existingMethods = new HashSet<>();
         List<JClass.JavaMethod> methods = jClass.methods;
-        // it may grow
-        //noinspection ForLoopReplaceableByForEach
-        for (int i = 0; i < methods.size(); i++) {
-            JClass.JavaMethod method = methods.get(i);
-
-            String desc = method.getDescriptor();
-            while (!existingMethods.add(Pair.of(method.name, desc))) {
-                method.name += "_";
+        // it may grow, so methods are compiled in batches of those added since the last
+        for (int i = 0; i < methods.size(); ) {
+            List<JClass.JavaMethod> batch = new ArrayList<>(methods.subList(i, methods.size()));
+            if (i != 0) {
+                // methods may have been added concurrently, so in no particular order
+                batch.sort(METHOD_ORDER);
+            }
+            i += batch.size();
+
+            MethodNode[] mns = new MethodNode[batch.size()];
+            for (int j = 0; j < mns.length; j++) {
+                JClass.JavaMethod method = batch.get(j);
+                String desc = method.getDescriptor();
+                while (!existingMethods.add(Pair.of(method.name, desc))) {
+                    method.name += "_";
+                }
+                mns[j] = new MethodNode(
+                        method.access,
+                        method.name,
+                        desc,
+                        null,
+                        null
+                );
             }
 
-            Optional<MethodNode> maybeNative = method.getExt(JavaExts.METHOD_NATIVE_IMPL);
-            MethodNode mn = new MethodNode(
-                    method.access,
-                    method.name,
-                    method.getDescriptor(),
-                    null,
-                    null
-            );
-            if (maybeNative.isPresent()) {
-                maybeNative.get().accept(mn);
-                mn.visibleAnnotations = null;
-                mn.access &= ~Opcodes.ACC_PUBLIC;
-                mn.access |= Opcodes.ACC_PRIVATE;
+            if (executor == null) {
+                for (int j = 0; j < mns.length; j++) {
+                    compileMethodInto(jClass, batch.get(j), mns[j]);
+                }
             } else {
-                Lazy<Function> maybeImpl = method.getNullable(JavaExts.METHOD_IMPL);
-                if (maybeImpl != null) {
-                    try {
-                        Function impl = maybeImpl.get();
-                        maybeImpl.set(null);
-                        compileFuncInto(jClass, mn, impl);
-                    } catch (RuntimeException e) {
-                        throw new RuntimeException("error generating code for method " + method.name, e);
-                    }
-                } else if (Modifier.isAbstract(method.access)) {
-                    throw new RuntimeException("method impl missing for non-abstract function");
+                CompletableFuture<?>[] futures = new CompletableFuture[mns.length];
+                for (int j = 0; j < mns.length; j++) {
+                    JClass.JavaMethod method = batch.get(j);
+                    MethodNode mn = mns[j];
+                    futures[j] = CompletableFuture.runAsync(() -> compileMethodInto(jClass, method, mn), executor);
+                }
+                try {
+                    CompletableFuture.allOf(futures).join();
+                } catch (CompletionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    if (cause instanceof Error) throw (Error) cause;
+                    throw e;
                 }
             }
-            cn.methods.add(mn);
+            cn.methods.addAll(Arrays.asList(mns));
         }
 
         return cn;
     }
 
+    private void compileMethodInto(JClass jClass, JClass.JavaMethod method, MethodNode mn) {
+        MethodNode maybeNative = method.getNullable(JavaExts.METHOD_NATIVE_IMPL);
+        if (maybeNative != null) {
+            // accepting resets labels, so it cannot happen concurrently
+            synchronized (maybeNative) {
+                maybeNative.accept(mn);
+            }
+            mn.visibleAnnotations = null;
+            mn.access &= ~Opcodes.ACC_PUBLIC;
+            mn.access |= Opcodes.ACC_PRIVATE;
+        } else {
+            Lazy<Function> maybeImpl = method.getNullable(JavaExts.METHOD_IMPL);
+            if (maybeImpl != null) {
+                try {
+                    Function impl = maybeImpl.get();
+                    maybeImpl.set(null);
+                    compileFuncInto(jClass, mn, impl);
+                } catch (RuntimeException e) {
+                    throw new RuntimeException("error generating code for method " + method.name, e);
+                }
+            } else if (Modifier.isAbstract(method.access)) {
+                throw new RuntimeException("method impl missing for non-abstract function");
+            }
+        }
+    }
+
     private void compileFuncInto(JClass jClass, MethodNode mn, Function impl) {
         // steps:
         // 1. sort blocks into a nice order (no need to overthink it)
@@ -130,8 +199,9 @@ public class JirToJava implements IRPass<JClass, ClassNode> {
         // 3. compute local variable types
         // 4. run through blocks and emit their bytecode
         //    a. emit the label and a frame for each block
-        //       i. compute stack from the stackified phi nodes,
-        //          variables are allocated globally for the function
+        //       i. the stack is empty, except in exception handlers,
+        //          and only variables that are live into the block are in the frame
+        //       ii. variables are allocated globally for the function
         //    b. run through instructions and emit their bytecode
         //       i. emit stores/loads only for unstackified variables
         //    c. emit the jump and then another if the fallthrough block isn't immediately after
@@ -163,15 +233,14 @@ public class JirToJava implements IRPass<JClass, ClassNode> {
         LabelNode startLabel = new LabelNode();
         LabelNode endLabel = new LabelNode();
         mn.localVariables = new ArrayList<>();
-        Object[] locals;
         Set<Var> allVars = new HashSet<>();
+        List<Object> slotTypes = new ArrayList<>();
         {
-            List<Object> localsList = new ArrayList<>();
-            localsList.add(jClass.name);
+            boolean isStatic = (mn.access & Opcodes.ACC_STATIC) != 0;
+            if (!isStatic) slotTypes.add(jClass.name);
             for (Type argTy : Type.getArgumentTypes(mn.desc)) {
-                localsList.add(getLocalForType(argTy));
+                addSlots(slotTypes, argTy);
             }
-            int localC = Type.getArgumentsAndReturnSizes(mn.desc) >> 2;
             for (BasicBlock block : blockOrder) {
                 for (Effect effect : block.getEffects()) {
                     for (Var var : effect.getAssignsTo()) {
@@ -181,37 +250,46 @@ public class JirToJava implements IRPass<JClass, ClassNode> {
                                 new IllegalStateException(String.format(
                                         "type of var %s has not been inferred",
                                         var)));
-                        Object v = getLocalForType(ty);
-                        localsList.add(v);
-                        var.attachExt(LOCAL_EXT, localC);
-                        localC += ty.getSize();
+                        var.attachExt(LOCAL_EXT, slotTypes.size());
+                        addSlots(slotTypes, ty);
                     }
                 }
             }
-            locals = localsList.toArray();
         }
+        // params are never reassigned, only variables have to be live to be in a frame
+        int paramSlots = Type.getArgumentsAndReturnSizes(mn.desc) >> 2;
+        if ((mn.access & Opcodes.ACC_STATIC) != 0) paramSlots--;
+        impl.getExtOrThrow(CommonExts.METADATA_STATE).ensureValid(impl, MetadataState.LIVE_DATA);
 
         // 4.
         JavaBuilder jb = new JavaBuilder(mn);
-        // FIXME calculate frames and stack map properly...
-        mn.visitFrame(Opcodes.F_FULL, locals.length, locals, 0, new Object[0]);
+        Set<BasicBlock> jumpTargets = new HashSet<>();
+        for (BasicBlock block : blockOrder) {
+            jumpTargets.addAll(block.getControl().targets);
+        }
         boolean isFirst = true;
         for (BasicBlock block : blockOrder) {
+            Set<Var> defined = new HashSet<>(block.getExtOrThrow(CommonExts.LIVE_DATA).liveIn);
+            jb.frameLocals = frameLocals(slotTypes, paramSlots, defined);
+            jb.frameStack = new ArrayList<>();
+
             mn.visitLabel(block.getExtOrThrow(LABEL_EXT));
             AbstractInsnNode labelNode = mn.instructions.getLast();
-            AbstractInsnNode frameNode;
             if (isFirst) {
                 isFirst = false;
-                frameNode = null;
+                // otherwise the implicit frame from the descriptor is enough
+                if (jumpTargets.contains(block)) jb.emitFrame();
             } else if (block.getEffects().size() >= 1 &&
                     block.getEffects().get(0).insn().op.key == JavaOps.CATCH) {
                 Type ty = JavaOps.CATCH.cast(block.getEffects().get(0).insn().op).arg;
-                mn.visitFrame(Opcodes.F_SAME1, locals.length, null, 1, new Object[]{ty.getInternalName()});
-                frameNode = mn.instructions.getLast();
+                jb.emitFrame(ty.getInternalName());
             } else {
-                mn.visitFrame(Opcodes.F_SAME, locals.length, null, 0, null);
-                frameNode = mn.instructions.getLast();
+                jb.emitFrame();
             }
+            AbstractInsnNode frameNode = mn.instructions.getLast();
+
+            // the stackified variables pushed so far, to compute frames within the block
+            List<Var> stack = new ArrayList<>();
             for (Effect effect : block.getEffects()) {
                 if (effect.insn().op.key == CommonOps.PHI) continue;
 
@@ -219,9 +297,29 @@ public class JirToJava implements IRPass<JClass, ClassNode> {
                 if (converter == null) {
                     throw missingConverter(effect.insn());
                 }
+                for (Var arg : effect.insn().args()) {
+                    if (arg.getExt(CommonExts.STACKIFIED).orElse(false)) {
+                        stack.remove(stack.size() - 1);
+                    }
+                }
+                jb.frameStack.clear();
+                for (Var var : stack) {
+                    jb.frameStack.add(getLocalForType(var.getExtOrThrow(JavaExts.TYPE)));
+                }
                 emitLoads(jb, effect.insn());
                 converter.convert(jb, effect);
                 emitStores(jb, effect);
+                boolean definedMore = false;
+                for (Var var : effect.getAssignsTo()) {
+                    if (var.getExt(CommonExts.STACKIFIED).orElse(false)) {
+                        stack.add(var);
+                    } else {
+                        definedMore |= defined.add(var);
+                    }
+                }
+                if (definedMore) {
+                    jb.frameLocals = frameLocals(slotTypes, paramSlots, defined);
+                }
             }
             Control ctrl = block.getControl();
             Converter<Control> converter = CTRL_CONVERTERS.get(ctrl.insn().op.key);
@@ -231,11 +329,9 @@ public class JirToJava implements IRPass<JClass, ClassNode> {
             emitLoads(jb, ctrl.insn());
             converter.convert(jb, ctrl);
 
-            if (mn.instructions.getLast() == frameNode) {
-                mn.instructions.remove(frameNode);
-            }
-            if (mn.instructions.getLast() == labelNode) {
-                // should be fairly uncommon, but we can put more than one label here this way
+            if (mn.instructions.getLast() == labelNode || mn.instructions.getLast() == frameNode) {
+                // should be fairly uncommon, but we can put more than one label here this way,
+                // and every frame must be at a distinct instruction
                 mn.visitInsn(Opcodes.NOP);
             }
         }
@@ -253,15 +349,51 @@ public class JirToJava implements IRPass<JClass, ClassNode> {
         }
     }
 
-    private Object getLocalForType(Type ty) {
-        Object v;
-        if (ty == Type.INT_TYPE) v = Opcodes.INTEGER;
-        else if (ty == Type.FLOAT_TYPE) v = Opcodes.FLOAT;
-        else if (ty == Type.DOUBLE_TYPE) v = Opcodes.DOUBLE;
-        else if (ty == Type.LONG_TYPE) v = Opcodes.LONG;
-        else if (ty == JavaExts.BOTTOM_TYPE) v = Opcodes.NULL;
-        else v = ty.getInternalName();
-        return v;
+    private static Object getLocalForType(Type ty) {
+        if (ty == JavaExts.BOTTOM_TYPE) return Opcodes.NULL;
+        switch (ty.getSort()) {
+            // @formatter:off
+            case Type.BOOLEAN:
+            case Type.CHAR:
+            case Type.BYTE:
+            case Type.SHORT:
+            case Type.INT: return Opcodes.INTEGER;
+            case Type.FLOAT: return Opcodes.FLOAT;
+            case Type.LONG: return Opcodes.LONG;
+            case Type.DOUBLE: return Opcodes.DOUBLE;
+            default: return ty.getInternalName();
+            // @formatter:on
+        }
+    }
+
+    private static void addSlots(List<Object> slotTypes, Type ty) {
+        slotTypes.add(getLocalForType(ty));
+        if (ty.getSize() == 2) slotTypes.add(Opcodes.TOP);
+    }
+
+    private static Object[] frameLocals(List<Object> slotTypes, int paramSlots, Set<Var> defined) {
+        Object[] slots = new Object[slotTypes.size()];
+        for (int i = 0; i < paramSlots; i++) {
+            slots[i] = slotTypes.get(i);
+        }
+        for (Var var : defined) {
+            Integer local = var.getNullable(LOCAL_EXT);
+            if (local != null) slots[local] = slotTypes.get(local);
+        }
+        int end = slots.length;
+        while (end > 0 && slots[end - 1] == null) end--;
+        List<Object> locals = new ArrayList<>();
+        for (int i = 0; i < end; i++) {
+            Object slot = slots[i];
+            if (slot == null) {
+                locals.add(Opcodes.TOP);
+            } else {
+                locals.add(slot);
+                // wide values take up two slots, but only one frame entry
+                if (slot == Opcodes.LONG || slot == Opcodes.DOUBLE) i++;
+            }
+        }
+        return locals.toArray();
     }
 
     private static RuntimeException missingConverter(Insn insn) {
@@ -269,9 +401,32 @@ public class JirToJava implements IRPass<JClass, ClassNode> {
     }
 
     private static class JavaBuilder extends GeneratorAdapter {
+        /**
+         * The types of the locals at the current instruction, in {@link Opcodes#F_NEW} format.
+         */
+        Object[] frameLocals;
+        /**
+         * The types of the values on the stack below the operands of the current instruction.
+         */
+        List<Object> frameStack;
+
         protected JavaBuilder(MethodNode node) {
             super(Opcodes.ASM9, node, node.access, node.name, node.desc);
         }
+
+        /**
+         * Emit a frame with the current locals, and the current stack with the given types pushed.
+         * <p>
+         * This bypasses {@link org.objectweb.asm.commons.LocalVariablesSorter}, as locals are not remapped.
+         *
+         * @param pushed The types pushed on top of the stack.
+         */
+        void emitFrame(Object... pushed) {
+            Object[] stack = new Object[frameStack.size() + pushed.length];
+            frameStack.toArray(stack);
+            System.arraycopy(pushed, 0, stack, frameStack.size(), pushed.length);
+            mv.visitFrame(Opcodes.F_NEW, frameLocals.length, frameLocals, stack.length, stack);
+        }
     }
 
     private interface Converter<T> {
@@ -301,6 +456,10 @@ public class JirToJava implements IRPass<JClass, ClassNode> {
             jb.visitJumpInsn(jumpType.inverse.opcode, elseLabel);
             jb.swap(ty, ty);
             jb.mark(elseLabel);
+            // either operand may be selected, so use the type of the result
+            List<Var> result = fx.getAssignsTo();
+            Object tyLocal = getLocalForType(result.isEmpty() ? ty : result.get(0).getExtOrThrow(JavaExts.TYPE));
+            jb.emitFrame(tyLocal, tyLocal);
             if (ty.getSize() == 2) jb.pop2();
             else jb.pop();
         });
@@ -322,8 +481,10 @@ public class JirToJava implements IRPass<JClass, ClassNode> {
             jb.push(false);
             jb.goTo(endLabel);
             jb.mark(elseLabel);
+            jb.emitFrame();
             jb.push(true);
             jb.mark(endLabel);
+            jb.emitFrame(Opcodes.INTEGER);
         });
         FX_CONVERTERS.put(CommonOps.PHI, (jb, fx) -> {
             // not our responsibility :P
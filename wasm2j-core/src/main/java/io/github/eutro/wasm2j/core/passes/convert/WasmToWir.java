@@ -16,6 +16,8 @@ import io.github.eutro.wasm2j.core.util.InsnMap;
 import io.github.eutro.wasm2j.core.util.Pair;
 import org.jetbrains.annotations.Nullable;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
 
 import static io.github.eutro.jwasm.Opcodes.*;
@@ -623,6 +625,422 @@ public class WasmToWir implements IRPass<ModuleNode, Module> {
                 .insn().assignTo(cs.pushVar())));
     }
 
+    private static Var vectorOp(ConvertState cs, BasicBlock bb, String name, int intOpcode, Var... args) {
+        Var ret = cs.func.newVar(name);
+        bb.addEffect(WasmOps.OPERATOR
+                .create(new WasmOps.OperatorType(VECTOR_PREFIX, intOpcode))
+                .insn(args)
+                .assignTo(ret));
+        return ret;
+    }
+
+    private static Var vectorConst(ConvertState cs, BasicBlock bb, String name, Object value) {
+        Var var = cs.func.newVar(name);
+        bb.addEffect(CommonOps.constant(value).assignTo(var));
+        return var;
+    }
+
+    private static Var vectorHalf(ConvertState cs, BasicBlock bb, Var vec, int half) {
+        Var var = cs.func.newVar(half == 0 ? "lo" : "hi");
+        bb.addEffect(WasmOps.V128_HALF.create(half).insn(vec).assignTo(var));
+        return var;
+    }
+
+    private static void vectorPack(BasicBlock bb, Var ret, Var lo, Var hi) {
+        bb.addEffect(WasmOps.V128_PACK.create().insn(lo, hi).assignTo(ret));
+    }
+
+    private static Var vectorLoad(ConvertState cs, BasicBlock bb, byte loadOp, int offset, Var addr) {
+        Var var = cs.func.newVar("loaded");
+        bb.addEffect(WasmOps.MEM_LOAD
+                .create(WasmOps.WithMemArg.create(WasmOps.DerefType.fromOpcode(loadOp), offset))
+                .insn(addr)
+                .assignTo(var));
+        return var;
+    }
+
+    private static void vectorStore(BasicBlock bb, byte storeOp, int offset, Var addr, Var value) {
+        bb.addEffect(WasmOps.MEM_STORE
+                .create(WasmOps.WithMemArg.create(StoreType.fromOpcode(storeOp), offset))
+                .insn(addr, value)
+                .assignTo());
+    }
+
+    private static boolean vectorMemWraps(ConvertState cs, BasicBlock bb, int offset) {
+        // the upper half is accessed at offset + 8, which must not wrap around;
+        // such an access is always out of bounds anyway
+        if (Integer.compareUnsigned(offset, -8) < 0) return false;
+        bb.setControl(CommonOps.TRAP.create("out of bounds memory access").insn().jumpsTo());
+        cs.unreachable();
+        return true;
+    }
+
+    /**
+     * The number of lanes of each shape that fit in one i64 half of a v128.
+     */
+    private static int lanesPerHalf(int intOpcode) {
+        switch (intOpcode) {
+            case I8X16_EXTRACT_LANE_S:
+            case I8X16_EXTRACT_LANE_U:
+            case I8X16_REPLACE_LANE:
+                return 8;
+            case I16X8_EXTRACT_LANE_S:
+            case I16X8_EXTRACT_LANE_U:
+            case I16X8_REPLACE_LANE:
+                return 4;
+            case I32X4_EXTRACT_LANE:
+            case I32X4_REPLACE_LANE:
+            case F32X4_EXTRACT_LANE:
+            case F32X4_REPLACE_LANE:
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    private static void extractLane(ConvertState cs, BasicBlock bb, int intOpcode, int lane, Var vec, Var ret) {
+        int perHalf = lanesPerHalf(intOpcode);
+        Var half = vectorHalf(cs, bb, vec, lane / perHalf);
+        Var laneV = vectorConst(cs, bb, "lane", lane % perHalf);
+        bb.addEffect(WasmOps.OPERATOR
+                .create(new WasmOps.OperatorType(VECTOR_PREFIX, intOpcode))
+                .insn(half, laneV)
+                .assignTo(ret));
+    }
+
+    private static void replaceLane(ConvertState cs, BasicBlock bb, int intOpcode, int lane, Var vec, Var value, Var ret) {
+        int perHalf = lanesPerHalf(intOpcode);
+        Var lo = vectorHalf(cs, bb, vec, 0);
+        Var hi = vectorHalf(cs, bb, vec, 1);
+        Var laneV = vectorConst(cs, bb, "lane", lane % perHalf);
+        if (lane < perHalf) {
+            lo = vectorOp(cs, bb, "lo", intOpcode, lo, value, laneV);
+        } else {
+            hi = vectorOp(cs, bb, "hi", intOpcode, hi, value, laneV);
+        }
+        vectorPack(bb, ret, lo, hi);
+    }
+
+    /**
+     * Emit a widening operation, which builds each half of its result from the lanes of one half of its operands.
+     */
+    private static void widen(ConvertState cs, BasicBlock bb, int intOpcode, int srcHalf, Var ret, Var... vecs) {
+        Var[] args = new Var[vecs.length + 1];
+        for (int i = 0; i < vecs.length; i++) {
+            args[i] = vectorHalf(cs, bb, vecs[i], srcHalf);
+        }
+        args[vecs.length] = vectorConst(cs, bb, "part", 0);
+        Var lo = vectorOp(cs, bb, "lo", intOpcode, args);
+        args = args.clone();
+        args[vecs.length] = vectorConst(cs, bb, "part", 1);
+        Var hi = vectorOp(cs, bb, "hi", intOpcode, args);
+        vectorPack(bb, ret, lo, hi);
+    }
+
+    static {
+        // v128 values are kept as pairs of little-endian i64 halves, see ScalarizeVectors;
+        // most operations are applied to each half separately, the rest take the halves they need
+        CONVERTERS.putVector(new int[]{
+                V128_NOT,
+                I8X16_ABS, I8X16_NEG, I8X16_POPCNT,
+                I16X8_ABS, I16X8_NEG,
+                I32X4_ABS, I32X4_NEG,
+                I64X2_ABS, I64X2_NEG,
+                F32X4_ABS, F32X4_NEG, F32X4_SQRT, F32X4_CEIL, F32X4_FLOOR, F32X4_TRUNC, F32X4_NEAREST,
+                F64X2_ABS, F64X2_NEG, F64X2_SQRT, F64X2_CEIL, F64X2_FLOOR, F64X2_TRUNC, F64X2_NEAREST,
+                I32X4_TRUNC_SAT_F32X4_S, I32X4_TRUNC_SAT_F32X4_U,
+                F32X4_CONVERT_I32X4_S, F32X4_CONVERT_I32X4_U,
+                I16X8_EXTADD_PAIRWISE_I8X16_S, I16X8_EXTADD_PAIRWISE_I8X16_U,
+                I32X4_EXTADD_PAIRWISE_I16X8_S, I32X4_EXTADD_PAIRWISE_I16X8_U,
+        }, (cs, node, topB) -> {
+            int op = ((VectorInsnNode) node).intOpcode;
+            Var x = cs.popVar();
+            Var lo = vectorOp(cs, topB, "lo", op, vectorHalf(cs, topB, x, 0));
+            Var hi = vectorOp(cs, topB, "hi", op, vectorHalf(cs, topB, x, 1));
+            vectorPack(topB, cs.pushVar(), lo, hi);
+        });
+        CONVERTERS.putVector(new int[]{
+                V128_AND, V128_ANDNOT, V128_OR, V128_XOR,
+                I8X16_EQ, I8X16_NE, I8X16_LT_S, I8X16_LT_U, I8X16_GT_S, I8X16_GT_U,
+                I8X16_LE_S, I8X16_LE_U, I8X16_GE_S, I8X16_GE_U,
+                I16X8_EQ, I16X8_NE, I16X8_LT_S, I16X8_LT_U, I16X8_GT_S, I16X8_GT_U,
+                I16X8_LE_S, I16X8_LE_U, I16X8_GE_S, I16X8_GE_U,
+                I32X4_EQ, I32X4_NE, I32X4_LT_S, I32X4_LT_U, I32X4_GT_S, I32X4_GT_U,
+                I32X4_LE_S, I32X4_LE_U, I32X4_GE_S, I32X4_GE_U,
+                I64X2_EQ, I64X2_NE, I64X2_LT_S, I64X2_GT_S, I64X2_LE_S, I64X2_GE_S,
+                F32X4_EQ, F32X4_NE, F32X4_LT, F32X4_GT, F32X4_LE, F32X4_GE,
+                F64X2_EQ, F64X2_NE, F64X2_LT, F64X2_GT, F64X2_LE, F64X2_GE,
+                I8X16_ADD, I8X16_ADD_SAT_S, I8X16_ADD_SAT_U, I8X16_SUB, I8X16_SUB_SAT_S, I8X16_SUB_SAT_U,
+                I8X16_MIN_S, I8X16_MIN_U, I8X16_MAX_S, I8X16_MAX_U, I8X16_AVGR_U,
+                I16X8_ADD, I16X8_ADD_SAT_S, I16X8_ADD_SAT_U, I16X8_SUB, I16X8_SUB_SAT_S, I16X8_SUB_SAT_U,
+                I16X8_MUL, I16X8_MIN_S, I16X8_MIN_U, I16X8_MAX_S, I16X8_MAX_U, I16X8_AVGR_U,
+                I16X8_Q15MULR_SAT_S,
+                I32X4_ADD, I32X4_SUB, I32X4_MUL, I32X4_MIN_S, I32X4_MIN_U, I32X4_MAX_S, I32X4_MAX_U,
+                I32X4_DOT_I16X8_S,
+                I64X2_ADD, I64X2_SUB, I64X2_MUL,
+                F32X4_ADD, F32X4_SUB, F32X4_MUL, F32X4_DIV, F32X4_MIN, F32X4_MAX, F32X4_PMIN, F32X4_PMAX,
+                F64X2_ADD, F64X2_SUB, F64X2_MUL, F64X2_DIV, F64X2_MIN, F64X2_MAX, F64X2_PMIN, F64X2_PMAX,
+        }, (cs, node, topB) -> {
+            int op = ((VectorInsnNode) node).intOpcode;
+            Var y = cs.popVar();
+            Var x = cs.popVar();
+            Var lo = vectorOp(cs, topB, "lo", op, vectorHalf(cs, topB, x, 0), vectorHalf(cs, topB, y, 0));
+            Var hi = vectorOp(cs, topB, "hi", op, vectorHalf(cs, topB, x, 1), vectorHalf(cs, topB, y, 1));
+            vectorPack(topB, cs.pushVar(), lo, hi);
+        });
+        CONVERTERS.putVector(new int[]{
+                I8X16_SHL, I8X16_SHR_S, I8X16_SHR_U,
+                I16X8_SHL, I16X8_SHR_S, I16X8_SHR_U,
+                I32X4_SHL, I32X4_SHR_S, I32X4_SHR_U,
+                I64X2_SHL, I64X2_SHR_S, I64X2_SHR_U,
+        }, (cs, node, topB) -> {
+            int op = ((VectorInsnNode) node).intOpcode;
+            Var y = cs.popVar();
+            Var x = cs.popVar();
+            Var lo = vectorOp(cs, topB, "lo", op, vectorHalf(cs, topB, x, 0), y);
+            Var hi = vectorOp(cs, topB, "hi", op, vectorHalf(cs, topB, x, 1), y);
+            vectorPack(topB, cs.pushVar(), lo, hi);
+        });
+        CONVERTERS.putVector(V128_BITSELECT, (cs, node, topB) -> {
+            Var c = cs.popVar();
+            Var y = cs.popVar();
+            Var x = cs.popVar();
+            Var lo = vectorOp(cs, topB, "lo", V128_BITSELECT,
+                    vectorHalf(cs, topB, x, 0), vectorHalf(cs, topB, y, 0), vectorHalf(cs, topB, c, 0));
+            Var hi = vectorOp(cs, topB, "hi", V128_BITSELECT,
+                    vectorHalf(cs, topB, x, 1), vectorHalf(cs, topB, y, 1), vectorHalf(cs, topB, c, 1));
+            vectorPack(topB, cs.pushVar(), lo, hi);
+        });
+        CONVERTERS.putVector(new int[]{
+                V128_ANY_TRUE,
+                I8X16_ALL_TRUE, I16X8_ALL_TRUE, I32X4_ALL_TRUE, I64X2_ALL_TRUE,
+                I8X16_BITMASK, I16X8_BITMASK, I32X4_BITMASK, I64X2_BITMASK,
+        }, (cs, node, topB) -> {
+            int op = ((VectorInsnNode) node).intOpcode;
+            Var x = cs.popVar();
+            Var lo = vectorHalf(cs, topB, x, 0);
+            Var hi = vectorHalf(cs, topB, x, 1);
+            topB.addEffect(WasmOps.OPERATOR
+                    .create(new WasmOps.OperatorType(VECTOR_PREFIX, op))
+                    .insn(lo, hi)
+                    .assignTo(cs.pushVar()));
+        });
+        CONVERTERS.putVector(new int[]{
+                I8X16_NARROW_I16X8_S, I8X16_NARROW_I16X8_U,
+                I16X8_NARROW_I32X4_S, I16X8_NARROW_I32X4_U,
+        }, (cs, node, topB) -> {
+            int op = ((VectorInsnNode) node).intOpcode;
+            Var y = cs.popVar();
+            Var x = cs.popVar();
+            Var lo = vectorOp(cs, topB, "lo", op, vectorHalf(cs, topB, x, 0), vectorHalf(cs, topB, x, 1));
+            Var hi = vectorOp(cs, topB, "hi", op, vectorHalf(cs, topB, y, 0), vectorHalf(cs, topB, y, 1));
+            vectorPack(topB, cs.pushVar(), lo, hi);
+        });
+        CONVERTERS.putVector(new int[]{
+                F32X4_DEMOTE_F64X2_ZERO,
+                I32X4_TRUNC_SAT_F64X2_S_ZERO, I32X4_TRUNC_SAT_F64X2_U_ZERO,
+        }, (cs, node, topB) -> {
+            int op = ((VectorInsnNode) node).intOpcode;
+            Var x = cs.popVar();
+            Var lo = vectorOp(cs, topB, "lo", op, vectorHalf(cs, topB, x, 0), vectorHalf(cs, topB, x, 1));
+            vectorPack(topB, cs.pushVar(), lo, vectorConst(cs, topB, "hi", 0L));
+        });
+
+        // widening operations read the lanes of the low or high half of their operands
+        int[][] widening = {
+                {I16X8_EXTEND_LOW_I8X16_S, I16X8_EXTEND_HIGH_I8X16_S},
+                {I16X8_EXTEND_LOW_I8X16_U, I16X8_EXTEND_HIGH_I8X16_U},
+                {I32X4_EXTEND_LOW_I16X8_S, I32X4_EXTEND_HIGH_I16X8_S},
+                {I32X4_EXTEND_LOW_I16X8_U, I32X4_EXTEND_HIGH_I16X8_U},
+                {I64X2_EXTEND_LOW_I32X4_S, I64X2_EXTEND_HIGH_I32X4_S},
+                {I64X2_EXTEND_LOW_I32X4_U, I64X2_EXTEND_HIGH_I32X4_U},
+        };
+        int[][] extmul = {
+                {I16X8_EXTMUL_LOW_I8X16_S, I16X8_EXTMUL_HIGH_I8X16_S},
+                {I16X8_EXTMUL_LOW_I8X16_U, I16X8_EXTMUL_HIGH_I8X16_U},
+                {I32X4_EXTMUL_LOW_I16X8_S, I32X4_EXTMUL_HIGH_I16X8_S},
+                {I32X4_EXTMUL_LOW_I16X8_U, I32X4_EXTMUL_HIGH_I16X8_U},
+                {I64X2_EXTMUL_LOW_I32X4_S, I64X2_EXTMUL_HIGH_I32X4_S},
+                {I64X2_EXTMUL_LOW_I32X4_U, I64X2_EXTMUL_HIGH_I32X4_U},
+        };
+        for (int[] ops : widening) {
+            for (int half = 0; half < 2; half++) {
+                int srcHalf = half;
+                CONVERTERS.putVector(ops[half], (cs, node, topB) -> {
+                    Var x = cs.popVar();
+                    widen(cs, topB, ops[0], srcHalf, cs.pushVar(), x);
+                });
+            }
+        }
+        for (int[] ops : extmul) {
+            for (int half = 0; half < 2; half++) {
+                int srcHalf = half;
+                CONVERTERS.putVector(ops[half], (cs, node, topB) -> {
+                    Var y = cs.popVar();
+                    Var x = cs.popVar();
+                    widen(cs, topB, ops[0], srcHalf, cs.pushVar(), x, y);
+                });
+            }
+        }
+        CONVERTERS.putVector(new int[]{
+                F64X2_CONVERT_LOW_I32X4_S, F64X2_CONVERT_LOW_I32X4_U,
+                F64X2_PROMOTE_LOW_F32X4,
+        }, (cs, node, topB) -> {
+            Var x = cs.popVar();
+            widen(cs, topB, ((VectorInsnNode) node).intOpcode, 0, cs.pushVar(), x);
+        });
+
+        CONVERTERS.putVector(new int[]{
+                I8X16_SPLAT, I16X8_SPLAT, I32X4_SPLAT, I64X2_SPLAT,
+                F32X4_SPLAT, F64X2_SPLAT,
+        }, (cs, node, topB) -> {
+            Var x = cs.popVar();
+            Var half = vectorOp(cs, topB, "half", ((VectorInsnNode) node).intOpcode, x);
+            vectorPack(topB, cs.pushVar(), half, half);
+        });
+        CONVERTERS.putVector(V128_CONST, (cs, node, topB) -> {
+            ByteBuffer bytes = ByteBuffer.wrap(((VectorConstOrShuffleInsnNode) node).bytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            Var lo = vectorConst(cs, topB, "lo", bytes.getLong(0));
+            Var hi = vectorConst(cs, topB, "hi", bytes.getLong(8));
+            vectorPack(topB, cs.pushVar(), lo, hi);
+        });
+        CONVERTERS.putVector(I8X16_SHUFFLE, (cs, node, topB) -> {
+            ByteBuffer lanes = ByteBuffer.wrap(((VectorConstOrShuffleInsnNode) node).bytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            Var y = cs.popVar();
+            Var x = cs.popVar();
+            Var xlo = vectorHalf(cs, topB, x, 0);
+            Var xhi = vectorHalf(cs, topB, x, 1);
+            Var ylo = vectorHalf(cs, topB, y, 0);
+            Var yhi = vectorHalf(cs, topB, y, 1);
+            Var lo = vectorOp(cs, topB, "lo", I8X16_SHUFFLE, xlo, xhi, ylo, yhi,
+                    vectorConst(cs, topB, "lanes", lanes.getLong(0)));
+            Var hi = vectorOp(cs, topB, "hi", I8X16_SHUFFLE, xlo, xhi, ylo, yhi,
+                    vectorConst(cs, topB, "lanes", lanes.getLong(8)));
+            vectorPack(topB, cs.pushVar(), lo, hi);
+        });
+        CONVERTERS.putVector(I8X16_SWIZZLE, (cs, node, topB) -> {
+            Var s = cs.popVar();
+            Var x = cs.popVar();
+            Var xlo = vectorHalf(cs, topB, x, 0);
+            Var xhi = vectorHalf(cs, topB, x, 1);
+            Var lo = vectorOp(cs, topB, "lo", I8X16_SWIZZLE, xlo, xhi, vectorHalf(cs, topB, s, 0));
+            Var hi = vectorOp(cs, topB, "hi", I8X16_SWIZZLE, xlo, xhi, vectorHalf(cs, topB, s, 1));
+            vectorPack(topB, cs.pushVar(), lo, hi);
+        });
+        CONVERTERS.putVector(new int[]{
+                I8X16_EXTRACT_LANE_S, I8X16_EXTRACT_LANE_U,
+                I16X8_EXTRACT_LANE_S, I16X8_EXTRACT_LANE_U,
+                I32X4_EXTRACT_LANE, I64X2_EXTRACT_LANE,
+                F32X4_EXTRACT_LANE, F64X2_EXTRACT_LANE,
+        }, (cs, node, topB) -> {
+            VectorLaneInsnNode lNode = (VectorLaneInsnNode) node;
+            Var vec = cs.popVar();
+            extractLane(cs, topB, lNode.intOpcode, lNode.lane, vec, cs.pushVar());
+        });
+        CONVERTERS.putVector(new int[]{
+                I8X16_REPLACE_LANE, I16X8_REPLACE_LANE,
+                I32X4_REPLACE_LANE, I64X2_REPLACE_LANE,
+                F32X4_REPLACE_LANE, F64X2_REPLACE_LANE,
+        }, (cs, node, topB) -> {
+            VectorLaneInsnNode lNode = (VectorLaneInsnNode) node;
+            Var value = cs.popVar();
+            Var vec = cs.popVar();
+            replaceLane(cs, topB, lNode.intOpcode, lNode.lane, vec, value, cs.pushVar());
+        });
+    }
+
+    static {
+        CONVERTERS.putVector(V128_LOAD, (cs, node, topB) -> {
+            int offset = ((VectorMemInsnNode) node).offset;
+            Var addr = cs.popVar();
+            if (vectorMemWraps(cs, topB, offset)) return;
+            // load the upper half first, so an out of bounds load traps before anything else
+            Var hi = vectorLoad(cs, topB, I64_LOAD, offset + 8, addr);
+            Var lo = vectorLoad(cs, topB, I64_LOAD, offset, addr);
+            vectorPack(topB, cs.pushVar(), lo, hi);
+        });
+        CONVERTERS.putVector(V128_STORE, (cs, node, topB) -> {
+            int offset = ((VectorMemInsnNode) node).offset;
+            Var value = cs.popVar();
+            Var addr = cs.popVar();
+            if (vectorMemWraps(cs, topB, offset)) return;
+            Var lo = vectorHalf(cs, topB, value, 0);
+            Var hi = vectorHalf(cs, topB, value, 1);
+            // store the upper half first, so an out of bounds store doesn't write anything
+            vectorStore(topB, I64_STORE, offset + 8, addr, hi);
+            vectorStore(topB, I64_STORE, offset, addr, lo);
+        });
+
+        // the remaining loads read a scalar, then build the vector from it
+        int[][] extending = {
+                {V128_LOAD8X8_S, I16X8_EXTEND_LOW_I8X16_S},
+                {V128_LOAD8X8_U, I16X8_EXTEND_LOW_I8X16_U},
+                {V128_LOAD16X4_S, I32X4_EXTEND_LOW_I16X8_S},
+                {V128_LOAD16X4_U, I32X4_EXTEND_LOW_I16X8_U},
+                {V128_LOAD32X2_S, I64X2_EXTEND_LOW_I32X4_S},
+                {V128_LOAD32X2_U, I64X2_EXTEND_LOW_I32X4_U},
+        };
+        for (int[] ops : extending) {
+            CONVERTERS.putVector(ops[0], (cs, node, topB) -> {
+                Var addr = cs.popVar();
+                Var loaded = vectorLoad(cs, topB, I64_LOAD, ((VectorMemInsnNode) node).offset, addr);
+                Var lo = vectorOp(cs, topB, "lo", ops[1], loaded, vectorConst(cs, topB, "part", 0));
+                Var hi = vectorOp(cs, topB, "hi", ops[1], loaded, vectorConst(cs, topB, "part", 1));
+                vectorPack(topB, cs.pushVar(), lo, hi);
+            });
+        }
+        int[][] splatting = {
+                {V128_LOAD8_SPLAT, I32_LOAD8_U, I8X16_SPLAT},
+                {V128_LOAD16_SPLAT, I32_LOAD16_U, I16X8_SPLAT},
+                {V128_LOAD32_SPLAT, I32_LOAD, I32X4_SPLAT},
+                {V128_LOAD64_SPLAT, I64_LOAD, I64X2_SPLAT},
+        };
+        for (int[] ops : splatting) {
+            CONVERTERS.putVector(ops[0], (cs, node, topB) -> {
+                Var addr = cs.popVar();
+                Var loaded = vectorLoad(cs, topB, (byte) ops[1], ((VectorMemInsnNode) node).offset, addr);
+                Var half = vectorOp(cs, topB, "half", ops[2], loaded);
+                vectorPack(topB, cs.pushVar(), half, half);
+            });
+        }
+        int[][] zeroing = {
+                {V128_LOAD32_ZERO, I64_LOAD32_U},
+                {V128_LOAD64_ZERO, I64_LOAD},
+        };
+        for (int[] ops : zeroing) {
+            CONVERTERS.putVector(ops[0], (cs, node, topB) -> {
+                Var addr = cs.popVar();
+                Var lo = vectorLoad(cs, topB, (byte) ops[1], ((VectorMemInsnNode) node).offset, addr);
+                vectorPack(topB, cs.pushVar(), lo, vectorConst(cs, topB, "hi", 0L));
+            });
+        }
+        int[][] laneOps = {
+                {V128_LOAD8_LANE, I32_LOAD8_U, I8X16_REPLACE_LANE, V128_STORE8_LANE, I32_STORE8, I8X16_EXTRACT_LANE_U},
+                {V128_LOAD16_LANE, I32_LOAD16_U, I16X8_REPLACE_LANE, V128_STORE16_LANE, I32_STORE16, I16X8_EXTRACT_LANE_U},
+                {V128_LOAD32_LANE, I32_LOAD, I32X4_REPLACE_LANE, V128_STORE32_LANE, I32_STORE, I32X4_EXTRACT_LANE},
+                {V128_LOAD64_LANE, I64_LOAD, I64X2_REPLACE_LANE, V128_STORE64_LANE, I64_STORE, I64X2_EXTRACT_LANE},
+        };
+        for (int[] ops : laneOps) {
+            CONVERTERS.putVector(ops[0], (cs, node, topB) -> {
+                VectorMemLaneInsnNode mNode = (VectorMemLaneInsnNode) node;
+                Var vec = cs.popVar();
+                Var addr = cs.popVar();
+                Var loaded = vectorLoad(cs, topB, (byte) ops[1], mNode.offset, addr);
+                replaceLane(cs, topB, ops[2], mNode.lane, vec, loaded, cs.pushVar());
+            });
+            CONVERTERS.putVector(ops[3], (cs, node, topB) -> {
+                VectorMemLaneInsnNode mNode = (VectorMemLaneInsnNode) node;
+                Var vec = cs.popVar();
+                Var addr = cs.popVar();
+                Var value = cs.func.newVar("lane");
+                extractLane(cs, topB, ops[5], mNode.lane, vec, value);
+                vectorStore(topB, (byte) ops[4], mNode.offset, addr, value);
+            });
+        }
+    }
+
     private static Converter makeOpInsn(int arity, int retArity) {
         return (cs, node, topB) -> {
             cs.popVs(arity);
@@ -639,8 +1057,6 @@ public class WasmToWir implements IRPass<ModuleNode, Module> {
                             node.opcode,
                             node instanceof PrefixInsnNode
                                     ? ((PrefixInsnNode) node).intOpcode
-                                    : node instanceof VectorInsnNode
-                                    ? ((VectorInsnNode) node).intOpcode
                                     : 0
                     )).insn(args)
                     .assignTo(rets));
@@ -654,8 +1070,7 @@ public class WasmToWir implements IRPass<ModuleNode, Module> {
             assert attrs != null;
             switch (attrs.getVisitTarget()) {
                 case Insn:
-                case PrefixInsn:
-                case VectorInsn: {
+                case PrefixInsn: {
                     StackType type = attrs.getType();
                     if (type == null) {
                         throw new IllegalStateException("Insn: " + attrs.getMnemonic());
@@ -742,7 +1157,13 @@ public class WasmToWir implements IRPass<ModuleNode, Module> {
             for (int i = 0; i < cs.localC; ++i) {
                 Var localVar = cs.func.newVar("local", i);
                 cs.varVals.add(localVar);
-                firstBb.addEffect(WasmOps.ZEROINIT.create(cs.localTypes[i]).insn().assignTo(localVar));
+                if (cs.localTypes[i] == V128) {
+                    vectorPack(firstBb, localVar,
+                            vectorConst(cs, firstBb, "lo", 0L),
+                            vectorConst(cs, firstBb, "hi", 0L));
+                } else {
+                    firstBb.addEffect(WasmOps.ZEROINIT.create(cs.localTypes[i]).insn().assignTo(localVar));
+                }
             }
             cs.pushC(END, new TypeNode(new byte[0], new byte[cs.returns]), firstBb);
             rootFrame.bb = lastBb;
@@ -22,6 +22,8 @@ import io.github.eutro.wasm2j.core.util.Pair;
 import java.util.*;
 
 import static io.github.eutro.jwasm.Opcodes.*;
+import static io.github.eutro.wasm2j.core.ext.CommonExts.markDeterministic;
+import static io.github.eutro.wasm2j.core.ext.CommonExts.markPure;
 
 /**
  * Converts WebAssembly IR (possibly not in SSA form) into Java IR, according
@@ -241,6 +243,13 @@ public class WirToJir implements IRPass<Module, JClass> {
                     case EXTERNREF:
                         value = null;
                         break;
+                    case V128: {
+                        Var zero = jb.insert(CommonOps.constant(0L), "zero");
+                        jb.insert(markPure(JavaOps.INTRINSIC.create(JavaIntrinsics.V128_PACK))
+                                .insn(zero, zero)
+                                .copyFrom(fx));
+                        return;
+                    }
                     default:
                         throw new IllegalArgumentException();
                 }
@@ -261,8 +270,22 @@ public class WirToJir implements IRPass<Module, JClass> {
                 IntrinsicImpl intr = JavaIntrinsics.INTRINSICS.get(opTy.op, opTy.intOp);
                 if (intr == null) throw new UnsupportedOperationException("operator " + opTy + " is not implemented");
                 fx.insn().op = JavaOps.INTRINSIC.create(intr);
+                if (opTy.op == VECTOR_PREFIX) {
+                    // vector operators never trap
+                    markDeterministic(markPure(fx.insn().op));
+                }
                 jb.insert(fx);
             });
+
+            // see ScalarizeVectors, which removes these where it can
+            FX_CONVERTERS.put(WasmOps.V128_PACK, (fx, jb, slf) ->
+                    jb.insert(markPure(JavaOps.INTRINSIC.create(JavaIntrinsics.V128_PACK)).copyFrom(fx)));
+            FX_CONVERTERS.put(WasmOps.V128_HALF, (fx, jb, slf) ->
+                    jb.insert(markDeterministic(markPure(JavaOps.INTRINSIC.create(
+                            WasmOps.V128_HALF.cast(fx.insn().op).arg == 0
+                                    ? JavaIntrinsics.V128_LO
+                                    : JavaIntrinsics.V128_HI
+                    ))).copyFrom(fx)));
         }
 
         private static final Map<OpKey, Converter<Control>> CTRL_CONVERTERS = new HashMap<>();
@@ -8,6 +8,7 @@ import io.github.eutro.wasm2j.core.ops.JavaOps;
 import io.github.eutro.wasm2j.core.ops.Op;
 import io.github.eutro.wasm2j.core.ssa.*;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
 
 import java.util.*;
 
@@ -17,6 +18,9 @@ import static io.github.eutro.wasm2j.core.ext.CommonExts.takeNull;
  * A pass which lowers {@link JavaOps#INTRINSIC intrinsics},
  * either by inlining their code, or attaching them as a method
  * to the class.
+ * <p>
+ * {@link JavaOps#INDY_INTRINSIC Indy intrinsics} are lowered to {@code invokedynamic} instructions,
+ * attaching their bootstrap methods to the class.
  */
 public class LowerIntrinsics extends LowerCommon {
     /**
@@ -33,6 +37,22 @@ public class LowerIntrinsics extends LowerCommon {
             ib.insert(emitIntrinsic(ib, intr, effect.insn().args()).copyFrom(effect));
             return true;
         }
+        if (op.key == JavaOps.INDY_INTRINSIC) {
+            JavaOps.IndyIntrinsic indy = JavaOps.INDY_INTRINSIC.cast(op).arg;
+            JClass jClass = ib.func.getExtOrThrow(JavaExts.FUNCTION_METHOD).owner;
+            for (IntrinsicImpl helper : indy.helpers) {
+                attachIntrinsic(jClass, helper);
+            }
+            JClass.JavaMethod bootstrap = attachIntrinsic(jClass, indy.bootstrap);
+            ib.insert(JavaOps.insns(new InvokeDynamicInsnNode(
+                            indy.name,
+                            indy.descriptor,
+                            bootstrap.getHandle(),
+                            indy.bootstrapArgs))
+                    .insn(effect.insn().args())
+                    .copyFrom(effect));
+            return true;
+        }
         return false;
     }
 
@@ -59,25 +79,30 @@ public class LowerIntrinsics extends LowerCommon {
                     .inline(Objects.requireNonNull(intr.impl), args);
         } else {
             JClass jClass = ib.func.getExtOrThrow(JavaExts.FUNCTION_METHOD).owner;
+            return JavaOps.INVOKE
+                    .create(attachIntrinsic(jClass, intr))
+                    .insn(args);
+        }
+    }
+
+    private static JClass.JavaMethod attachIntrinsic(JClass jClass, IntrinsicImpl intr) {
+        // methods of the same class may be lowered concurrently
+        synchronized (jClass) {
             Map<IntrinsicImpl, JClass.JavaMethod> intrinsics = jClass.getExtOrRun(JavaExts.ATTACHED_INTRINSICS, jClass, md -> {
-                // TODO threading?
                 jClass.attachExt(JavaExts.ATTACHED_INTRINSICS, new HashMap<>());
                 return null;
             });
-            JClass.JavaMethod intrMethod = intrinsics.computeIfAbsent(intr, it -> {
+            return intrinsics.computeIfAbsent(intr, it -> {
                 JClass.JavaMethod method = new JClass.JavaMethod(
                         jClass,
                         intr.method.name,
                         intr.method.desc,
                         Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC
                 );
-                jClass.methods.add(method);
                 method.attachExt(JavaExts.METHOD_NATIVE_IMPL, intr.method);
+                jClass.methods.add(method);
                 return method;
             });
-            return JavaOps.INVOKE
-                    .create(intrMethod)
-                    .insn(args);
         }
     }
 }
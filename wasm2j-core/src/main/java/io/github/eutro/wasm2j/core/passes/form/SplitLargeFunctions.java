@@ -0,0 +1,728 @@
+package io.github.eutro.wasm2j.core.passes.form;
+
+import io.github.eutro.wasm2j.core.ext.CommonExts;
+import io.github.eutro.wasm2j.core.ext.JavaExts;
+import io.github.eutro.wasm2j.core.ext.MetadataState;
+import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.ops.JavaOps;
+import io.github.eutro.wasm2j.core.ops.Op;
+import io.github.eutro.wasm2j.core.ops.OpKey;
+import io.github.eutro.wasm2j.core.passes.InPlaceIRPass;
+import io.github.eutro.wasm2j.core.passes.meta.InferTypes;
+import io.github.eutro.wasm2j.core.passes.opts.Stackify;
+import io.github.eutro.wasm2j.core.ssa.*;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+import static io.github.eutro.wasm2j.core.util.Lazy.lazy;
+
+/**
+ * A pass which splits functions that would compile to too much bytecode, by outlining
+ * regions of them into separate methods.
+ * <p>
+ * The JVM refuses methods with more than 64KiB of bytecode, and by default HotSpot will never
+ * JIT compile methods larger than 8000 bytes ({@code -XX:+DontCompileHugeMethods}), so large
+ * functions would either fail to load or run interpreted forever.
+ * <p>
+ * Each outlined region is a subtree of the dominator tree, so it can only be entered at its root.
+ * The variables live at the root are passed to the outlined method as parameters (or through
+ * arrays, if there are too many), and the variables assigned in the region that are live at each
+ * exit are passed back through arrays, one for each kind of type. The outlined method returns the
+ * index of the exit taken, which the caller then switches on.
+ * <p>
+ * Cold regions, which can only ever trap, are outlined first, so that the code that actually runs
+ * stays in as few methods as possible. Identical trap blocks, such as those created by
+ * {@link io.github.eutro.wasm2j.core.util.IRUtils#trapWhen(IRBuilder, Insn, String) trapWhen},
+ * are also merged.
+ * <p>
+ * The size of the bytecode is estimated, since it is only known after {@link Stackify stackification}
+ * and {@link LinearScan register allocation}, which should be run on both the original function and
+ * the outlined methods afterwards. As such, the input IR should have {@link CommonOps#PHI phi} nodes
+ * lowered, but should not be stackified yet. Outlined methods are added to the class of the function,
+ * and their implementations already have those passes applied.
+ */
+public class SplitLargeFunctions implements InPlaceIRPass<Function> {
+    /**
+     * The default maximum estimated size of a method, in bytes.
+     * This is the largest method that HotSpot will JIT compile by default.
+     */
+    public static final int DEFAULT_MAX_SIZE = 8000;
+
+    /**
+     * An instance of this pass, with the {@link #DEFAULT_MAX_SIZE default maximum size}.
+     */
+    public static final SplitLargeFunctions INSTANCE = new SplitLargeFunctions(DEFAULT_MAX_SIZE);
+
+    // outlining anything smaller is not worth the call
+    private static final int MIN_REGION_SIZE = 64;
+    // leave some parameter slots for the receiver and spill arrays
+    private static final int MAX_PARAM_SLOTS = 240;
+
+    private static final int SORT_INT = 0, SORT_LONG = 1, SORT_FLOAT = 2, SORT_DOUBLE = 3, SORT_OBJECT = 4;
+    private static final Type[] SORT_ARRAY_TYPES = {
+            Type.getType(int[].class),
+            Type.getType(long[].class),
+            Type.getType(float[].class),
+            Type.getType(double[].class),
+            Type.getType(Object[].class),
+    };
+    private static final Type OBJECT_TYPE = Type.getType(Object.class);
+
+    private final int maxSize;
+    @Nullable
+    private final BiConsumer<JClass.JavaMethod, List<JClass.JavaMethod>> onSplit;
+
+    /**
+     * Construct a pass that splits functions larger than the given size.
+     *
+     * @param maxSize The maximum estimated size of a method, in bytes.
+     */
+    public SplitLargeFunctions(int maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * Construct a pass that splits functions larger than the given size, and reports
+     * the functions that were split.
+     * <p>
+     * If functions are compiled in parallel, the listener may be called concurrently.
+     *
+     * @param maxSize The maximum estimated size of a method, in bytes.
+     * @param onSplit A listener to call with the method of each function that was split,
+     *                and the methods outlined from it.
+     */
+    public SplitLargeFunctions(int maxSize, @Nullable BiConsumer<JClass.JavaMethod, List<JClass.JavaMethod>> onSplit) {
+        this.maxSize = maxSize;
+        this.onSplit = onSplit;
+    }
+
+    @Override
+    public void runInPlace(Function func) {
+        JClass.JavaMethod method = func.getNullable(JavaExts.FUNCTION_METHOD);
+        if (method == null) return;
+
+        MetadataState ms = func.getExtOrThrow(CommonExts.METADATA_STATE);
+        if (estimateSize(func) <= maxSize) return;
+
+        if (!hasTry(func)) {
+            mergeTraps(func);
+            splitLargeBlocks(func);
+        }
+        ms.graphChanged();
+
+        List<JClass.JavaMethod> outlined = new ArrayList<>();
+        while (true) {
+            ms.ensureValid(func,
+                    MetadataState.DOMS,
+                    MetadataState.LIVE_DATA,
+                    MetadataState.JTYPES_INFERRED);
+
+            Map<BasicBlock, Integer> sizes = new HashMap<>();
+            int total = 0;
+            for (BasicBlock block : func.blocks) {
+                int size = estimateSize(block);
+                sizes.put(block, size);
+                total += size;
+            }
+            if (total <= maxSize) break;
+
+            Map<BasicBlock, List<BasicBlock>> children = new HashMap<>();
+            BasicBlock root = func.blocks.get(0);
+            for (BasicBlock block : func.blocks) {
+                if (block == root) continue;
+                children.computeIfAbsent(block.getExtOrThrow(CommonExts.IDOM), $ -> new ArrayList<>()).add(block);
+            }
+
+            // sum up the dominator tree in reverse pre-order, so that children come before their parents
+            Map<BasicBlock, Integer> subtreeSizes = new HashMap<>();
+            Set<BasicBlock> unsplittable = new HashSet<>();
+            List<BasicBlock> preOrder = dominatorPreOrder(root, children);
+            for (ListIterator<BasicBlock> it = preOrder.listIterator(preOrder.size()); it.hasPrevious(); ) {
+                BasicBlock block = it.previous();
+                int size = sizes.get(block);
+                boolean canSplit = canOutline(block);
+                for (BasicBlock child : children.getOrDefault(block, Collections.emptyList())) {
+                    size += subtreeSizes.get(child);
+                    canSplit &= !unsplittable.contains(child);
+                }
+                subtreeSizes.put(block, size);
+                if (!canSplit) unsplittable.add(block);
+            }
+
+            Set<BasicBlock> cold = findColdRegions(root, children);
+            Map<BasicBlock, Integer> inputCounts = new HashMap<>();
+            List<BasicBlock> candidates = new ArrayList<>();
+            for (BasicBlock block : func.blocks) {
+                if (block == root || unsplittable.contains(block)) continue;
+                int size = subtreeSizes.get(block);
+                if (size > maxSize - maxSize / 8) continue;
+                int inputs = block.getExtOrThrow(CommonExts.LIVE_DATA).liveIn.size();
+                // outline cold regions whenever it saves anything, but hot regions only if they're worth a call
+                if (cold.contains(block) ? size > callCost(inputs) : size >= MIN_REGION_SIZE) {
+                    candidates.add(block);
+                    inputCounts.put(block, inputs);
+                }
+            }
+            candidates.sort(Comparator.<BasicBlock, Boolean>comparing(cold::contains)
+                    .thenComparing(subtreeSizes::get)
+                    .reversed());
+
+            // regions are either nested or disjoint
+            Set<BasicBlock> picked = new LinkedHashSet<>();
+            Set<BasicBlock> pickedAncestors = new HashSet<>();
+            for (BasicBlock candidate : candidates) {
+                if (total <= maxSize) break;
+                if (pickedAncestors.contains(candidate)) continue;
+                boolean nested = false;
+                for (BasicBlock b = candidate; b != root; b = b.getExtOrThrow(CommonExts.IDOM)) {
+                    if (picked.contains(b)) {
+                        nested = true;
+                        break;
+                    }
+                }
+                if (nested) continue;
+                picked.add(candidate);
+                for (BasicBlock b = candidate; b != root; b = b.getExtOrThrow(CommonExts.IDOM)) {
+                    pickedAncestors.add(b.getExtOrThrow(CommonExts.IDOM));
+                }
+                total -= subtreeSizes.get(candidate) - callCost(inputCounts.get(candidate));
+            }
+            if (picked.isEmpty()) break;
+
+            // headers of earlier regions are replaced by the blocks that call them, which have no liveness data
+            Map<BasicBlock, BasicBlock> replaced = new HashMap<>();
+            for (BasicBlock header : picked) {
+                List<BasicBlock> region = new ArrayList<>();
+                Deque<BasicBlock> queue = new ArrayDeque<>();
+                queue.add(header);
+                while (!queue.isEmpty()) {
+                    BasicBlock block = queue.removeFirst();
+                    region.add(block);
+                    queue.addAll(children.getOrDefault(block, Collections.emptyList()));
+                }
+                replaced.put(outline(func, method, header, region, replaced, outlined), header);
+            }
+            ms.graphChanged();
+        }
+        if (onSplit != null && !outlined.isEmpty()) {
+            onSplit.accept(method, outlined);
+        }
+    }
+
+    private static boolean hasTry(Function func) {
+        for (BasicBlock block : func.blocks) {
+            // the extent of a try block is the block itself, so it may not be split or moved around
+            if (block.getControl().insn().op.key == JavaOps.TRY) return true;
+        }
+        return false;
+    }
+
+    private static void mergeTraps(Function func) {
+        // trap paths (e.g. from IRUtils.trapWhen) are cold, so they can all share one block per message
+        Map<String, BasicBlock> traps = new HashMap<>();
+        Map<BasicBlock, BasicBlock> merged = new HashMap<>();
+        for (BasicBlock block : func.blocks) {
+            Insn ctrl = block.getControl().insn();
+            if (ctrl.op.key != CommonOps.TRAP || !block.getEffects().isEmpty()) continue;
+            BasicBlock first = traps.putIfAbsent(CommonOps.TRAP.cast(ctrl.op).arg, block);
+            if (first != null) merged.put(block, first);
+        }
+        if (merged.isEmpty()) return;
+        for (BasicBlock block : func.blocks) {
+            ListIterator<BasicBlock> it = block.getControl().targets.listIterator();
+            while (it.hasNext()) {
+                BasicBlock target = merged.get(it.next());
+                if (target != null) it.set(target);
+            }
+        }
+        func.blocks.removeIf(merged::containsKey);
+    }
+
+    private static List<BasicBlock> dominatorPreOrder(BasicBlock root, Map<BasicBlock, List<BasicBlock>> children) {
+        List<BasicBlock> order = new ArrayList<>();
+        Deque<BasicBlock> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            BasicBlock block = stack.pop();
+            order.add(block);
+            for (BasicBlock child : children.getOrDefault(block, Collections.emptyList())) {
+                stack.push(child);
+            }
+        }
+        return order;
+    }
+
+    private static Set<BasicBlock> findColdRegions(BasicBlock root, Map<BasicBlock, List<BasicBlock>> children) {
+        // number the dominator tree in pre-order, so that each subtree is a contiguous range
+        Map<BasicBlock, Integer> pre = new HashMap<>();
+        List<BasicBlock> order = dominatorPreOrder(root, children);
+        for (BasicBlock block : order) {
+            pre.put(block, pre.size());
+        }
+
+        // a region is cold if it can never complete normally, i.e. it always traps
+        int n = order.size();
+        int[] last = new int[n], minTarget = new int[n], maxTarget = new int[n];
+        boolean[] returns = new boolean[n];
+        Set<BasicBlock> cold = new HashSet<>();
+        for (int i = n - 1; i >= 0; i--) {
+            BasicBlock block = order.get(i);
+            Control ctrl = block.getControl();
+            last[i] = i;
+            minTarget[i] = i;
+            maxTarget[i] = i;
+            returns[i] = ctrl.insn().op.key == CommonOps.RETURN.key;
+            for (BasicBlock target : ctrl.targets) {
+                int t = pre.get(target);
+                minTarget[i] = Math.min(minTarget[i], t);
+                maxTarget[i] = Math.max(maxTarget[i], t);
+            }
+            for (BasicBlock child : children.getOrDefault(block, Collections.emptyList())) {
+                int c = pre.get(child);
+                last[i] = Math.max(last[i], last[c]);
+                minTarget[i] = Math.min(minTarget[i], minTarget[c]);
+                maxTarget[i] = Math.max(maxTarget[i], maxTarget[c]);
+                returns[i] |= returns[c];
+            }
+            if (!returns[i] && minTarget[i] >= i && maxTarget[i] <= last[i]) {
+                cold.add(block);
+            }
+        }
+        return cold;
+    }
+
+    private static int callCost(int inputs) {
+        // loading the arguments, the invocation, and the switch on its result
+        return 2 * inputs + 12;
+    }
+
+    private void splitLargeBlocks(Function func) {
+        int pieceSize = maxSize / 4;
+        for (BasicBlock block : new ArrayList<>(func.blocks)) {
+            if (estimateSize(block) <= pieceSize) continue;
+            BasicBlock current = block;
+            while (true) {
+                List<Effect> effects = current.getEffects();
+                int size = 0;
+                int cut = -1;
+                for (int i = 0; i < effects.size(); i++) {
+                    size += estimateSize(effects.get(i));
+                    if (size > pieceSize && i > 0) {
+                        cut = i;
+                        break;
+                    }
+                }
+                if (cut == -1) break;
+                BasicBlock next = func.newBb();
+                List<Effect> tail = new ArrayList<>(effects.subList(cut, effects.size()));
+                while (effects.size() > cut) effects.remove(effects.size() - 1);
+                for (Effect effect : tail) next.addEffect(effect);
+                next.setControl(current.getControl());
+                current.setControl(Control.br(next));
+                current = next;
+            }
+        }
+    }
+
+    private static boolean canOutline(BasicBlock block) {
+        OpKey ctrlKey = block.getControl().insn().op.key;
+        if (ctrlKey == JavaOps.TRY) return false;
+        for (Effect effect : block.getEffects()) {
+            Insn insn = effect.insn();
+            OpKey key = insn.op.key;
+            if (key == JavaOps.CATCH || key == CommonOps.ARG) return false;
+            if (key == JavaOps.PUT_FIELD) {
+                // final fields can only be set by the constructor or initializer itself
+                if ((JavaOps.PUT_FIELD.cast(insn.op).arg.access & Opcodes.ACC_FINAL) != 0) return false;
+            }
+        }
+        return true;
+    }
+
+    private BasicBlock outline(
+            Function func,
+            JClass.JavaMethod method,
+            BasicBlock header,
+            List<BasicBlock> region,
+            Map<BasicBlock, BasicBlock> replaced,
+            List<JClass.JavaMethod> outlined
+    ) {
+        Set<BasicBlock> regionSet = new HashSet<>(region);
+        List<Var> inputs = new ArrayList<>(header.getExtOrThrow(CommonExts.LIVE_DATA).liveIn);
+        Set<Var> assigned = new HashSet<>();
+        List<BasicBlock> exits = new ArrayList<>();
+        boolean returns = false;
+        for (BasicBlock block : region) {
+            for (Effect effect : block.getEffects()) {
+                assigned.addAll(effect.getAssignsTo());
+            }
+            Control ctrl = block.getControl();
+            if (ctrl.insn().op.key == CommonOps.RETURN.key) returns = true;
+            for (BasicBlock target : ctrl.targets) {
+                if (!regionSet.contains(target) && !exits.contains(target)) {
+                    exits.add(target);
+                }
+            }
+        }
+        List<List<Var>> outputs = new ArrayList<>();
+        for (BasicBlock exit : exits) {
+            List<Var> exitOutputs = new ArrayList<>();
+            for (Var var : replaced.getOrDefault(exit, exit).getExtOrThrow(CommonExts.LIVE_DATA).liveIn) {
+                if (assigned.contains(var)) exitOutputs.add(var);
+            }
+            outputs.add(exitOutputs);
+        }
+        Type returnTy = method.getReturnTy();
+        boolean returnsValue = returns && returnTy.getSize() != 0;
+
+        // allocate array slots, which can be reused by each exit
+        int[] arrayLengths = new int[SORT_ARRAY_TYPES.length];
+        Map<Var, Integer> inputSlots = new HashMap<>();
+        int paramSlots = 0;
+        for (Var input : inputs) {
+            paramSlots += typeOf(input).getSize();
+        }
+        boolean inputsInArrays = paramSlots > MAX_PARAM_SLOTS;
+        if (inputsInArrays) {
+            allocateSlots(inputs, inputSlots, arrayLengths);
+        }
+        List<Map<Var, Integer>> outputSlots = new ArrayList<>();
+        for (List<Var> exitOutputs : outputs) {
+            Map<Var, Integer> slots = new HashMap<>();
+            allocateSlots(exitOutputs, slots, arrayLengths);
+            outputSlots.add(slots);
+        }
+        if (returnsValue) {
+            int sort = sortOf(returnTy);
+            arrayLengths[sort] = Math.max(arrayLengths[sort], 1);
+        }
+
+        boolean isStatic = method.isStatic();
+        List<Type> paramTys = new ArrayList<>();
+        if (!inputsInArrays) {
+            for (Var input : inputs) {
+                paramTys.add(typeOf(input));
+            }
+        }
+        for (int sort = 0; sort < arrayLengths.length; sort++) {
+            if (arrayLengths[sort] != 0) paramTys.add(SORT_ARRAY_TYPES[sort]);
+        }
+        JClass jClass = method.owner;
+        JClass.JavaMethod helperMethod = new JClass.JavaMethod(
+                jClass,
+                method.name + "$split" + outlined.size(),
+                Type.getMethodDescriptor(Type.INT_TYPE, paramTys.toArray(new Type[0])),
+                Opcodes.ACC_PRIVATE | (isStatic ? Opcodes.ACC_STATIC : 0)
+        );
+
+        // build the outlined function
+        Function helper = new Function();
+        helper.attachExt(JavaExts.FUNCTION_METHOD, helperMethod);
+        Map<Var, Var> renamed = new HashMap<>();
+        {
+            IRBuilder ib = new IRBuilder(helper, helper.newBb());
+            int argIdx = 0;
+            if (!inputsInArrays) {
+                for (Var input : inputs) {
+                    ib.insert(CommonOps.ARG.create(argIdx++).insn(), rename(helper, renamed, input));
+                }
+            }
+            Var[] arrays = new Var[arrayLengths.length];
+            for (int sort = 0; sort < arrayLengths.length; sort++) {
+                if (arrayLengths[sort] != 0) {
+                    arrays[sort] = ib.insert(CommonOps.ARG.create(argIdx++).insn(), "spill");
+                }
+            }
+            if (inputsInArrays) {
+                for (Var input : inputs) {
+                    loadSlot(ib, arrays, typeOf(input), inputSlots.get(input), rename(helper, renamed, input));
+                }
+            }
+            ib.insertCtrl(Control.br(header));
+
+            func.blocks.removeIf(regionSet::contains);
+            for (BasicBlock block : region) {
+                helper.blocks.add(block);
+                for (Effect effect : block.getEffects()) {
+                    renameAll(helper, renamed, effect.insn().args());
+                    renameAll(helper, renamed, effect.getAssignsTo());
+                }
+                renameAll(helper, renamed, block.getControl().insn().args());
+            }
+
+            List<BasicBlock> exitBlocks = new ArrayList<>();
+            for (int i = 0; i < exits.size(); i++) {
+                ib.setBlock(helper.newBb());
+                exitBlocks.add(ib.getBlock());
+                for (Var output : outputs.get(i)) {
+                    storeSlot(ib, arrays, typeOf(output), outputSlots.get(i).get(output),
+                            rename(helper, renamed, output));
+                }
+                ib.insertCtrl(CommonOps.RETURN.insn(ib.insert(CommonOps.constant(i), "exit")).jumpsTo());
+            }
+            for (BasicBlock block : region) {
+                Control ctrl = block.getControl();
+                ListIterator<BasicBlock> it = ctrl.targets.listIterator();
+                while (it.hasNext()) {
+                    int exitIdx = exits.indexOf(it.next());
+                    if (exitIdx != -1) it.set(exitBlocks.get(exitIdx));
+                }
+                if (ctrl.insn().op.key == CommonOps.RETURN.key) {
+                    ib.setBlock(block);
+                    if (returnsValue) {
+                        storeSlot(ib, arrays, returnTy, 0, ctrl.insn().args().get(0));
+                    }
+                    ib.insertCtrl(CommonOps.RETURN.insn(ib.insert(CommonOps.constant(exits.size()), "exit"))
+                            .jumpsTo());
+                }
+            }
+        }
+        helper.getExtOrThrow(CommonExts.METADATA_STATE).validate(MetadataState.INTRINSICS_LOWERED);
+
+        synchronized (jClass) {
+            jClass.methods.add(helperMethod);
+        }
+        outlined.add(helperMethod);
+        helperMethod.attachExt(JavaExts.METHOD_IMPL, lazy(() -> Stackify.INSTANCE
+                .then(InferTypes.Java.INSTANCE)
+                .then(LinearScan.INSTANCE)
+                .run(helper)));
+
+        // call it from the original function
+        BasicBlock callBlock = func.newBb();
+        for (BasicBlock block : func.blocks) {
+            ListIterator<BasicBlock> it = block.getControl().targets.listIterator();
+            while (it.hasNext()) {
+                if (it.next() == header) it.set(callBlock);
+            }
+        }
+        IRBuilder ib = new IRBuilder(func, callBlock);
+        Var[] arrays = new Var[arrayLengths.length];
+        for (int sort = 0; sort < arrayLengths.length; sort++) {
+            if (arrayLengths[sort] != 0) {
+                arrays[sort] = ib.insert(newArray(sort)
+                                .insn(ib.insert(CommonOps.constant(arrayLengths[sort]), "len")),
+                        "spill");
+            }
+        }
+        List<Var> args = new ArrayList<>();
+        if (!isStatic) {
+            args.add(ib.insert(JavaOps.THIS.insn(), "this"));
+        }
+        if (inputsInArrays) {
+            for (Var input : inputs) {
+                storeSlot(ib, arrays, typeOf(input), inputSlots.get(input), input);
+            }
+        } else {
+            args.addAll(inputs);
+        }
+        for (Var array : arrays) {
+            if (array != null) args.add(array);
+        }
+        Var exitIdx = ib.insert(JavaOps.INVOKE.create(helperMethod).insn(args), "exit");
+
+        List<BasicBlock> targets = new ArrayList<>();
+        for (int i = 0; i < exits.size(); i++) {
+            List<Var> exitOutputs = outputs.get(i);
+            if (exitOutputs.isEmpty()) {
+                targets.add(exits.get(i));
+                continue;
+            }
+            ib.setBlock(func.newBb());
+            targets.add(ib.getBlock());
+            for (Var output : exitOutputs) {
+                loadSlot(ib, arrays, typeOf(output), outputSlots.get(i).get(output), output);
+            }
+            ib.insertCtrl(Control.br(exits.get(i)));
+        }
+        if (returns) {
+            ib.setBlock(func.newBb());
+            targets.add(ib.getBlock());
+            if (returnsValue) {
+                Var ret = ib.insert(loadSlot(ib, arrays, returnTy, 0), "ret");
+                ib.insertCtrl(CommonOps.RETURN.insn(ret).jumpsTo());
+            } else {
+                ib.insertCtrl(CommonOps.RETURN.insn().jumpsTo());
+            }
+        }
+
+        ib.setBlock(callBlock);
+        if (targets.isEmpty()) {
+            // the region never completes normally, so the helper must throw
+            ib.insertCtrl(JavaOps.insns(new InsnNode(Opcodes.ACONST_NULL), new InsnNode(Opcodes.ATHROW))
+                    .insn()
+                    .jumpsTo());
+        } else if (targets.size() == 1) {
+            ib.insertCtrl(Control.br(targets.get(0)));
+        } else {
+            // the last target is the default
+            ib.insertCtrl(JavaOps.TABLESWITCH.create().insn(exitIdx).jumpsTo(targets));
+        }
+        return callBlock;
+    }
+
+    private static Var rename(Function helper, Map<Var, Var> renamed, Var var) {
+        return renamed.computeIfAbsent(var, v -> helper.newVar(v.name, v.index));
+    }
+
+    private static void renameAll(Function helper, Map<Var, Var> renamed, List<Var> vars) {
+        ListIterator<Var> it = vars.listIterator();
+        while (it.hasNext()) {
+            it.set(rename(helper, renamed, it.next()));
+        }
+    }
+
+    private static Type typeOf(Var var) {
+        return var.getExtOrThrow(JavaExts.TYPE);
+    }
+
+    private static int sortOf(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+            case Type.CHAR:
+            case Type.BYTE:
+            case Type.SHORT:
+            case Type.INT:
+                return SORT_INT;
+            case Type.LONG:
+                return SORT_LONG;
+            case Type.FLOAT:
+                return SORT_FLOAT;
+            case Type.DOUBLE:
+                return SORT_DOUBLE;
+            default:
+                return SORT_OBJECT;
+        }
+    }
+
+    private static void allocateSlots(List<Var> vars, Map<Var, Integer> slots, int[] arrayLengths) {
+        int[] counts = new int[arrayLengths.length];
+        for (Var var : vars) {
+            int sort = sortOf(typeOf(var));
+            slots.put(var, counts[sort]++);
+        }
+        for (int sort = 0; sort < counts.length; sort++) {
+            arrayLengths[sort] = Math.max(arrayLengths[sort], counts[sort]);
+        }
+    }
+
+    private static Op newArray(int sort) {
+        switch (sort) {
+            // @formatter:off
+            case SORT_INT: return JavaOps.insns(new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_INT));
+            case SORT_LONG: return JavaOps.insns(new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG));
+            case SORT_FLOAT: return JavaOps.insns(new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_FLOAT));
+            case SORT_DOUBLE: return JavaOps.insns(new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_DOUBLE));
+            default: return JavaOps.insns(new TypeInsnNode(Opcodes.ANEWARRAY, OBJECT_TYPE.getInternalName()));
+            // @formatter:on
+        }
+    }
+
+    private static void storeSlot(IRBuilder ib, Var[] arrays, Type type, int slot, Var value) {
+        ib.insert(JavaOps.ARRAY_SET.create().insn(
+                arrays[sortOf(type)],
+                ib.insert(CommonOps.constant(slot), "slot"),
+                value
+        ).assignTo());
+    }
+
+    private static Insn loadSlot(IRBuilder ib, Var[] arrays, Type type, int slot) {
+        int sort = sortOf(type);
+        Insn load = JavaOps.ARRAY_GET.create().insn(
+                arrays[sort],
+                ib.insert(CommonOps.constant(slot), "slot")
+        );
+        if (sort != SORT_OBJECT || type.equals(OBJECT_TYPE)) return load;
+        return JavaOps.insns(new TypeInsnNode(Opcodes.CHECKCAST, type.getInternalName()))
+                .insn(ib.insert(load, "raw"));
+    }
+
+    private static void loadSlot(IRBuilder ib, Var[] arrays, Type type, int slot, Var into) {
+        ib.insert(loadSlot(ib, arrays, type, slot), into);
+    }
+
+    /**
+     * Estimate the size of the bytecode a function will compile to.
+     *
+     * @param func The function.
+     * @return The estimated size, in bytes.
+     */
+    public static int estimateSize(Function func) {
+        int size = 0;
+        for (BasicBlock block : func.blocks) {
+            size += estimateSize(block);
+        }
+        return size;
+    }
+
+    private static int estimateSize(BasicBlock block) {
+        int size = 0;
+        for (Effect effect : block.getEffects()) {
+            size += estimateSize(effect);
+        }
+        Control ctrl = block.getControl();
+        // locals are assumed to take two bytes to load or store, most will be stackified anyway
+        size += 2 * ctrl.insn().args().size();
+        OpKey key = ctrl.insn().op.key;
+        int targets = ctrl.targets.size();
+        if (key == CommonOps.BR.key) size += 3;
+        else if (key == JavaOps.BR_COND) size += 6;
+        else if (key == JavaOps.TABLESWITCH) size += 16 + 4 * targets;
+        else if (key == JavaOps.LOOKUPSWITCH) size += 12 + 8 * targets;
+        else if (key == CommonOps.RETURN.key) size += 1;
+        else if (key == CommonOps.TRAP) size += 11; // new, dup, ldc, invokespecial, athrow
+        else if (key == JavaOps.INSNS) size += estimateSize(JavaOps.INSNS.cast(ctrl.insn().op).arg);
+        else if (key != JavaOps.TRY) size += 3;
+        return size;
+    }
+
+    private static int estimateSize(Effect effect) {
+        Insn insn = effect.insn();
+        int size = 2 * (insn.args().size() + effect.getAssignsTo().size());
+        OpKey key = insn.op.key;
+        if (key == JavaOps.INSNS) size += estimateSize(JavaOps.INSNS.cast(insn.op).arg);
+        else if (key == JavaOps.INVOKE) size += JavaOps.INVOKE.cast(insn.op).arg.isInterface() ? 5 : 3;
+        else if (key == JavaOps.ARRAY_GET || key == JavaOps.ARRAY_SET || key == JavaOps.THIS.key) size += 1;
+        else if (key == JavaOps.SELECT || key == JavaOps.BOOL_SELECT) size += 9;
+        else if (key == JavaOps.DROP.key) size += insn.args().size();
+        else if (key != CommonOps.IDENTITY.key && key != CommonOps.ARG && key != JavaOps.CATCH) size += 3;
+        return size;
+    }
+
+    private static int estimateSize(InsnList insns) {
+        int size = 0;
+        for (AbstractInsnNode insn : insns) {
+            switch (insn.getType()) {
+                case AbstractInsnNode.LABEL:
+                case AbstractInsnNode.LINE:
+                case AbstractInsnNode.FRAME:
+                    break;
+                case AbstractInsnNode.INSN:
+                    size += 1;
+                    break;
+                case AbstractInsnNode.INT_INSN:
+                case AbstractInsnNode.VAR_INSN:
+                    size += 2;
+                    break;
+                case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+                    size += 5;
+                    break;
+                case AbstractInsnNode.TABLESWITCH_INSN:
+                    size += 16 + 4 * ((TableSwitchInsnNode) insn).labels.size();
+                    break;
+                case AbstractInsnNode.LOOKUPSWITCH_INSN:
+                    size += 12 + 8 * ((LookupSwitchInsnNode) insn).labels.size();
+                    break;
+                default:
+                    size += 3;
+                    break;
+            }
+        }
+        return size;
+    }
+}
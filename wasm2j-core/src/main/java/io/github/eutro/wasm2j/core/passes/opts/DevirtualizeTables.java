@@ -0,0 +1,315 @@
+package io.github.eutro.wasm2j.core.passes.opts;
+
+import io.github.eutro.jwasm.tree.*;
+import io.github.eutro.wasm2j.core.ext.CommonExts;
+import io.github.eutro.wasm2j.core.ext.MetadataState;
+import io.github.eutro.wasm2j.core.ext.WasmExts;
+import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.ops.WasmOps;
+import io.github.eutro.wasm2j.core.passes.InPlaceIRPass;
+import io.github.eutro.wasm2j.core.ssa.*;
+import io.github.eutro.wasm2j.core.ssa.Module;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+import static io.github.eutro.jwasm.Opcodes.*;
+
+/**
+ * A pass which replaces {@link WasmOps#CALL_INDIRECT indirect calls} through tables that are never modified
+ * with a {@link WasmOps#BR_TABLE br_table} over direct {@link WasmOps#CALL calls} to the functions in the table.
+ * <p>
+ * A table is known to never be modified if it is defined by the module, is not exported, is never the target
+ * of a {@code table.set}, {@code table.grow}, {@code table.fill}, {@code table.init} or {@code table.copy},
+ * and all of its active element segments have constant offsets and contents, so that its contents are
+ * fully determined by the module. The type check of each call is then done at compile time, with slots of the wrong
+ * type, empty slots and out of bounds indices all jumping to a trap.
+ * <p>
+ * Tables larger than {@link #maxTableSize}, and calls which could reach more than {@link #maxTargets} distinct functions,
+ * are left alone.
+ * <p>
+ * This runs over a whole WebAssembly IR {@link Module module}, before it is converted to SSA form. Function bodies
+ * are rewritten lazily, when they are next computed, and those that are already in SSA form by then are left alone.
+ */
+public class DevirtualizeTables implements InPlaceIRPass<Module> {
+    /**
+     * An instance of this pass, with the default limits.
+     */
+    public static final DevirtualizeTables INSTANCE = new DevirtualizeTables(1024, 8);
+
+    /**
+     * The size of the largest table whose calls will be devirtualized.
+     */
+    public final int maxTableSize;
+    /**
+     * The maximum number of distinct functions that a devirtualized call may reach.
+     */
+    public final int maxTargets;
+
+    /**
+     * Construct a new instance of this pass with the given limits.
+     *
+     * @param maxTableSize The size of the largest table whose calls will be devirtualized.
+     * @param maxTargets   The maximum number of distinct functions that a devirtualized call may reach.
+     */
+    public DevirtualizeTables(int maxTableSize, int maxTargets) {
+        this.maxTableSize = maxTableSize;
+        this.maxTargets = maxTargets;
+    }
+
+    @Override
+    public void runInPlace(Module module) {
+        ModuleNode node = module.getExtOrThrow(WasmExts.MODULE);
+        if (node.codes == null) return;
+        Map<Integer, int[]> tables = findImmutableTables(node);
+        if (tables.isEmpty()) return;
+
+        List<TypeNode> funcTypes = new ArrayList<>();
+        if (node.imports != null) {
+            for (AbstractImportNode importNode : node.imports) {
+                if (importNode instanceof FuncImportNode) {
+                    funcTypes.add(Objects.requireNonNull(node.types).types.get(((FuncImportNode) importNode).type));
+                }
+            }
+        }
+        if (node.funcs != null) {
+            for (FuncNode func : node.funcs.funcs) {
+                funcTypes.add(Objects.requireNonNull(node.types).types.get(func.type));
+            }
+        }
+
+        for (CodeNode code : node.codes) {
+            module.funcMap.get(code.expr).mapInPlace(func -> {
+                devirtualize(func, tables, funcTypes);
+                return func;
+            });
+        }
+    }
+
+    /**
+     * Find the tables whose contents are fixed at instantiation, and never change.
+     *
+     * @return A map from the indices of these tables to the function in each slot, or -1 if the slot is empty.
+     */
+    private Map<Integer, int[]> findImmutableTables(ModuleNode node) {
+        Map<Integer, int[]> tables = new HashMap<>();
+        if (node.tables == null) return tables;
+        int tableIdx = 0;
+        if (node.imports != null) {
+            for (AbstractImportNode importNode : node.imports) {
+                if (importNode instanceof TableImportNode) tableIdx++;
+            }
+        }
+        for (TableNode table : node.tables) {
+            if (table.type == FUNCREF && table.limits.min <= maxTableSize) {
+                int[] slots = new int[table.limits.min];
+                Arrays.fill(slots, -1);
+                tables.put(tableIdx, slots);
+            }
+            tableIdx++;
+        }
+
+        if (node.exports != null) {
+            for (ExportNode export : node.exports) {
+                if (export.type == EXPORTS_TABLE) tables.remove(export.index);
+            }
+        }
+
+        for (CodeNode code : Objects.requireNonNull(node.codes)) {
+            for (AbstractInsnNode insn : code.expr) {
+                if (insn instanceof TableInsnNode) {
+                    if (insn.opcode == TABLE_SET) tables.remove(((TableInsnNode) insn).table);
+                } else if (insn instanceof PrefixBinaryTableInsnNode) {
+                    PrefixBinaryTableInsnNode pbtin = (PrefixBinaryTableInsnNode) insn;
+                    // the destination table is first for both
+                    if (pbtin.intOpcode == TABLE_INIT || pbtin.intOpcode == TABLE_COPY) {
+                        tables.remove(pbtin.firstIndex);
+                    }
+                } else if (insn instanceof PrefixTableInsnNode) {
+                    PrefixTableInsnNode ptin = (PrefixTableInsnNode) insn;
+                    if (ptin.intOpcode == TABLE_GROW || ptin.intOpcode == TABLE_FILL) {
+                        tables.remove(ptin.table);
+                    }
+                }
+            }
+        }
+
+        if (node.elems != null) {
+            for (ElementNode elem : node.elems) {
+                if (elem.offset == null) continue;
+                int[] slots = tables.get(elem.table);
+                if (slots == null) continue;
+
+                Integer offset = constantOffset(elem.offset);
+                int[] funcs;
+                if (elem.indices != null) {
+                    funcs = elem.indices;
+                } else {
+                    funcs = new int[elem.init.size()];
+                    int i = 0;
+                    for (ExprNode expr : elem.init) {
+                        Integer func = constantFunc(expr);
+                        if (func == null) {
+                            funcs = null;
+                            break;
+                        }
+                        funcs[i++] = func;
+                    }
+                }
+                // an out of bounds segment fails instantiation, so don't bother
+                if (offset == null || funcs == null || Integer.toUnsignedLong(offset) + funcs.length > slots.length) {
+                    tables.remove(elem.table);
+                    continue;
+                }
+                System.arraycopy(funcs, 0, slots, offset, funcs.length);
+            }
+        }
+
+        return tables;
+    }
+
+    @Nullable
+    private static Integer constantOffset(ExprNode expr) {
+        Iterator<AbstractInsnNode> it = expr.iterator();
+        if (!it.hasNext()) return null;
+        AbstractInsnNode insn = it.next();
+        if (insn.opcode != I32_CONST || !onlyEnds(it)) return null;
+        return (Integer) ((ConstInsnNode) insn).value;
+    }
+
+    @Nullable
+    private static Integer constantFunc(ExprNode expr) {
+        Iterator<AbstractInsnNode> it = expr.iterator();
+        if (!it.hasNext()) return null;
+        AbstractInsnNode insn = it.next();
+        if (!onlyEnds(it)) return null;
+        if (insn.opcode == REF_FUNC) return ((FuncRefInsnNode) insn).function;
+        if (insn.opcode == REF_NULL) return -1;
+        return null;
+    }
+
+    private static boolean onlyEnds(Iterator<AbstractInsnNode> it) {
+        while (it.hasNext()) {
+            if (it.next().opcode != END) return false;
+        }
+        return true;
+    }
+
+    private void devirtualize(Function func, Map<Integer, int[]> tables, List<TypeNode> funcTypes) {
+        MetadataState ms = func.getExtOrThrow(CommonExts.METADATA_STATE);
+        // phis would have to be inserted, don't bother
+        if (ms.isValid(MetadataState.SSA_FORM)) return;
+
+        Map<Var, Integer> useCounts = new HashMap<>();
+        for (BasicBlock block : func.blocks) {
+            for (Effect effect : block.getEffects()) {
+                for (Var arg : effect.insn().args()) {
+                    useCounts.merge(arg, 1, Integer::sum);
+                }
+            }
+            for (Var arg : block.getControl().insn().args()) {
+                useCounts.merge(arg, 1, Integer::sum);
+            }
+        }
+
+        boolean changed = false;
+        Deque<BasicBlock> queue = new ArrayDeque<>(func.blocks);
+        while (!queue.isEmpty()) {
+            BasicBlock block = queue.pop();
+            List<Effect> effects = block.getEffects();
+            for (int i = 0; i < effects.size(); i++) {
+                Effect effect = effects.get(i);
+                TypeNode callType = WasmOps.CALL_INDIRECT.argNullable(effect.insn().op);
+                if (callType == null) continue;
+                Var callee = effect.insn().args().get(0);
+                if (useCounts.getOrDefault(callee, 0) != 1) continue;
+                int refIdx = findTableRef(effects, i, callee);
+                if (refIdx == -1) continue;
+                Effect tableRef = effects.get(refIdx);
+                int[] slots = tables.get(WasmOps.TABLE_REF.cast(tableRef.insn().op).arg);
+                if (slots == null) continue;
+
+                Set<Integer> targets = new HashSet<>();
+                for (int slot : slots) {
+                    if (slot != -1 && sameType(funcTypes.get(slot), callType)) targets.add(slot);
+                }
+                if (targets.size() > maxTargets) continue;
+
+                BasicBlock rest = func.newBb();
+                while (effects.size() > i + 1) {
+                    rest.addEffect(effects.remove(i + 1));
+                }
+                effects.remove(i);
+                effects.remove(refIdx);
+                Control ctrl = block.getControl();
+                block.setControl(null);
+                rest.setControl(ctrl);
+
+                List<Var> args = effect.insn().args().subList(1, effect.insn().args().size());
+                Map<Integer, BasicBlock> calls = new HashMap<>();
+                Map<String, BasicBlock> traps = new HashMap<>();
+                BasicBlock[] jumpTargets = new BasicBlock[slots.length + 1];
+                for (int j = 0; j < slots.length; j++) {
+                    int slot = slots[j];
+                    if (slot == -1) {
+                        jumpTargets[j] = trapBlock(func, traps, "uninitialized element");
+                    } else if (!targets.contains(slot)) {
+                        jumpTargets[j] = trapBlock(func, traps, "indirect call type mismatch");
+                    } else {
+                        jumpTargets[j] = calls.computeIfAbsent(slot, $ -> {
+                            BasicBlock callBlock = func.newBb();
+                            callBlock.addEffect(WasmOps.CALL
+                                    .create(new WasmOps.CallType(slot, funcTypes.get(slot)))
+                                    .insn(new ArrayList<>(args))
+                                    .assignTo(new ArrayList<>(effect.getAssignsTo())));
+                            callBlock.setControl(Control.br(rest));
+                            return callBlock;
+                        });
+                    }
+                }
+                jumpTargets[slots.length] = trapBlock(func, traps, "undefined element");
+                block.setControl(WasmOps.BR_TABLE
+                        .insn(tableRef.insn().args().get(0))
+                        .jumpsTo(jumpTargets));
+
+                queue.push(rest);
+                changed = true;
+                break;
+            }
+        }
+
+        if (changed) {
+            ms.graphChanged();
+        }
+    }
+
+    /**
+     * Find the table reference that defines the callee of an indirect call,
+     * if it is in the same block, and its index is not reassigned before the call.
+     */
+    private static int findTableRef(List<Effect> effects, int callIdx, Var callee) {
+        for (int j = callIdx - 1; j >= 0; j--) {
+            Effect effect = effects.get(j);
+            if (!effect.getAssignsTo().contains(callee)) continue;
+            if (effect.insn().op.key != WasmOps.TABLE_REF) return -1;
+            Var index = effect.insn().args().get(0);
+            for (int k = j + 1; k < callIdx; k++) {
+                if (effects.get(k).getAssignsTo().contains(index)) return -1;
+            }
+            return j;
+        }
+        return -1;
+    }
+
+    private static BasicBlock trapBlock(Function func, Map<String, BasicBlock> traps, String msg) {
+        return traps.computeIfAbsent(msg, $ -> {
+            BasicBlock block = func.newBb();
+            block.setControl(CommonOps.TRAP.create(msg).insn().jumpsTo());
+            return block;
+        });
+    }
+
+    private static boolean sameType(TypeNode a, TypeNode b) {
+        return Arrays.equals(a.params, b.params) && Arrays.equals(a.returns, b.returns);
+    }
+}
@@ -0,0 +1,374 @@
+package io.github.eutro.wasm2j.core.passes.opts;
+
+import io.github.eutro.wasm2j.core.ext.CommonExts;
+import io.github.eutro.wasm2j.core.ext.MetadataState;
+import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.ops.JavaOps;
+import io.github.eutro.wasm2j.core.ops.Op;
+import io.github.eutro.wasm2j.core.passes.InPlaceIRPass;
+import io.github.eutro.wasm2j.core.ssa.*;
+import io.github.eutro.wasm2j.core.util.IRUtils;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.MethodInsnNode;
+
+import java.util.*;
+
+/**
+ * A pass which removes the overflow checks that {@link IRUtils#getAddr(IRBuilder, io.github.eutro.wasm2j.core.ops.WasmOps.WithMemArg, Var)}
+ * emits for memory accesses with a static offset, where they can be shown to be unnecessary.
+ * <p>
+ * An offset address is computed as {@code Math.toIntExact(Integer.toUnsignedLong(ptr) + offset)}, which traps if
+ * the sum does not fit in an {@code int}. This is replaced with a plain {@code ptr + offset} if either:
+ * <ul>
+ *     <li>the unsigned range of {@code ptr}, as computed from constants, masks, shifts and non-overflowing
+ *     arithmetic, shows that the sum never exceeds {@link Integer#MAX_VALUE}, or</li>
+ *     <li>the sum can never wrap past 2<sup>32</sup>, and the address is only ever used as the index of
+ *     a {@link java.nio.ByteBuffer} access, which already traps on the negative index an overflowing sum becomes.</li>
+ * </ul>
+ * <p>
+ * The latter holds whenever {@code ptr} is less than 2<sup>31</sup>, which is known after any dominating access
+ * (or overflow check) with the same base has succeeded, since no buffer can be larger than that.
+ * So, several accesses to the same base, such as the fields of a struct or the elements of an unrolled
+ * array walk, are left with a single check at the first of them, and accesses inside a loop body
+ * share the check of any access with the same base before the loop.
+ * <p>
+ * The ranges of loop variables are found by iterating from zero to a fixpoint, widening a bound to the next
+ * power of two minus one whenever it grows again. So a cursor that is masked on every iteration keeps the range
+ * of its mask, while a counter that is only ever incremented or decremented is assumed to take any value.
+ * Loop conditions, and other branches, are not used to narrow ranges.
+ * <p>
+ * Checks are never moved, since a WebAssembly trap must happen at the faulting access.
+ */
+public class EliminateBoundsChecks implements InPlaceIRPass<Function> {
+    /**
+     * An instance of this pass.
+     */
+    public static final EliminateBoundsChecks INSTANCE = new EliminateBoundsChecks();
+
+    private static final long UINT_MAX = 0xFFFFFFFFL;
+    /**
+     * The number of rounds after which any bound that still grows goes straight to {@link #UINT_MAX}.
+     */
+    private static final int MAX_ROUNDS = 64;
+    private static final String BYTE_BUFFER = Type.getInternalName(java.nio.ByteBuffer.class);
+
+    @Override
+    public void runInPlace(Function func) {
+        MetadataState ms = func.getExtOrThrow(CommonExts.METADATA_STATE);
+        ms.ensureValid(func, MetadataState.DOMS, MetadataState.USES);
+
+        Map<BasicBlock, List<BasicBlock>> domChildren = new HashMap<>();
+        for (BasicBlock block : func.blocks) {
+            BasicBlock idom = block.getNullable(CommonExts.IDOM);
+            if (idom != null && idom != block) {
+                domChildren.computeIfAbsent(idom, $ -> new ArrayList<>()).add(block);
+            }
+        }
+
+        Runner runner = new Runner(func);
+        // walk the dominator tree, so that facts about the accesses in a block hold in all the blocks it dominates
+        Deque<BasicBlock> stack = new ArrayDeque<>();
+        Deque<List<Var>> scopes = new ArrayDeque<>();
+        stack.push(func.blocks.get(0));
+        Set<BasicBlock> entered = new HashSet<>();
+        while (!stack.isEmpty()) {
+            BasicBlock block = stack.peek();
+            if (entered.add(block)) {
+                scopes.push(runner.runBlock(block));
+                for (BasicBlock child : domChildren.getOrDefault(block, Collections.emptyList())) {
+                    stack.push(child);
+                }
+            } else {
+                stack.pop();
+                for (Var var : scopes.pop()) {
+                    runner.safe.remove(var);
+                }
+            }
+        }
+
+        if (runner.changed) {
+            ms.varsChanged();
+        }
+    }
+
+    private static class Runner {
+        final Function func;
+        /**
+         * Variables known to be, as unsigned integers, at most {@link Integer#MAX_VALUE}.
+         */
+        final Set<Var> safe = new HashSet<>();
+        /**
+         * Replaced addresses, mapped to their base, which were computed without unsigned overflow.
+         */
+        final Map<Var, Var> exactBases = new HashMap<>();
+        final Map<Var, Long> bounds = new HashMap<>();
+        /**
+         * The bounds of phi variables, which are solved together since they may depend on each other.
+         */
+        @Nullable Map<Var, Long> phiBounds;
+        boolean changed;
+
+        Runner(Function func) {
+            this.func = func;
+        }
+
+        List<Var> runBlock(BasicBlock block) {
+            List<Var> added = new ArrayList<>();
+            ListIterator<Effect> li = block.getEffects().listIterator();
+            while (li.hasNext()) {
+                Effect effect = li.next();
+                Insn insn = effect.insn();
+                if (insn.op == JavaOps.L2I_EXACT && effect.getAssignsTo().size() == 1) {
+                    Var base = checkOffsetAddr(li, effect);
+                    if (base != null) markSafe(added, base);
+                    continue;
+                }
+                Var index = bufferIndex(insn);
+                if (index != null) {
+                    index = resolve(index);
+                    // the access succeeded, so the index was in bounds, and so was any base it was offset from
+                    markSafe(added, index);
+                    Var base = exactBases.get(index);
+                    if (base != null) markSafe(added, base);
+                }
+            }
+            return added;
+        }
+
+        void markSafe(List<Var> added, Var var) {
+            if (safe.add(var)) added.add(var);
+        }
+
+        /**
+         * Try to replace a checked offset address, returning the base which is known to be safe after it
+         * if it was not replaced.
+         */
+        @Nullable
+        Var checkOffsetAddr(ListIterator<Effect> li, Effect effect) {
+            Insn sum = assignedInsn(effect.insn().args().get(0));
+            if (sum == null || !isOp(sum, JavaOps.LADD, Opcodes.LADD)) return null;
+            Var base = null;
+            Long offset = null;
+            for (Var arg : sum.args()) {
+                Insn argInsn = assignedInsn(arg);
+                if (argInsn == null) return null;
+                if (argInsn.op == JavaOps.I2L_U) {
+                    base = resolve(argInsn.args().get(0));
+                } else if (argInsn.op.key == CommonOps.CONST) {
+                    Object value = CommonOps.CONST.cast(argInsn.op).arg;
+                    if (!(value instanceof Long)) return null;
+                    offset = (Long) value;
+                }
+            }
+            if (base == null || offset == null || offset < 0 || offset > Integer.MAX_VALUE) return null;
+
+            Var addr = effect.getAssignsTo().get(0);
+            long max = bound(base) + offset;
+            if (max > Integer.MAX_VALUE
+                    && !(max <= UINT_MAX && onlyBufferIndex(addr))) {
+                return base;
+            }
+
+            Var offsetVar = func.newVar("offset");
+            li.previous();
+            li.add(CommonOps.constant((int) (long) offset).assignTo(offsetVar));
+            li.next();
+            effect.setInsn(JavaOps.IADD.insn(base, offsetVar));
+            exactBases.put(addr, base);
+            changed = true;
+            return null;
+        }
+
+        long bound(Var var) {
+            var = resolve(var);
+            if (safe.contains(var)) {
+                return Math.min(Integer.MAX_VALUE, rangeBound(var));
+            }
+            return rangeBound(var);
+        }
+
+        /**
+         * The unsigned upper bound of an {@code int} variable, regardless of where it is used.
+         */
+        long rangeBound(Var var) {
+            var = resolve(var);
+            if (phiBounds == null) solvePhis();
+            Long known = phiBounds.get(var);
+            if (known == null) known = bounds.get(var);
+            if (known != null) return known;
+            // every cycle passes through a phi, which already has a bound, so this terminates
+            long bound = computeBound(var);
+            bounds.put(var, bound);
+            return bound;
+        }
+
+        private void solvePhis() {
+            Map<Var, Long> phis = new LinkedHashMap<>();
+            for (BasicBlock block : func.blocks) {
+                for (Effect effect : block.getEffects()) {
+                    if (effect.insn().op.key == CommonOps.PHI && effect.getAssignsTo().size() == 1) {
+                        phis.put(effect.getAssignsTo().get(0), 0L);
+                    }
+                }
+            }
+            phiBounds = phis;
+            Set<Var> raised = new HashSet<>();
+            for (int round = 0; ; round++) {
+                // bounds computed in the last round may have relied on phi bounds that have since grown
+                bounds.clear();
+                boolean grew = false;
+                for (Map.Entry<Var, Long> entry : phis.entrySet()) {
+                    long bound = 0;
+                    Insn phi = assignedInsn(entry.getKey());
+                    for (Var arg : Objects.requireNonNull(phi).args()) {
+                        bound = Math.max(bound, rangeBound(arg));
+                    }
+                    if (bound <= entry.getValue()) continue;
+                    grew = true;
+                    if (round >= MAX_ROUNDS) {
+                        bound = UINT_MAX;
+                    } else if (!raised.add(entry.getKey())) {
+                        bound = widen(bound);
+                    }
+                    entry.setValue(bound);
+                }
+                if (!grew) break;
+            }
+        }
+
+        private long computeBound(Var var) {
+            Insn insn = assignedInsn(var);
+            if (insn == null) return UINT_MAX;
+            if (insn.op.key == CommonOps.CONST) {
+                Object value = CommonOps.CONST.cast(insn.op).arg;
+                return value instanceof Integer ? Integer.toUnsignedLong((Integer) value) : UINT_MAX;
+            }
+            int opcode = singleOpcode(insn);
+            if (opcode == -1 || insn.args().size() != 2) return UINT_MAX;
+            Var lhs = resolve(insn.args().get(0));
+            Var rhs = resolve(insn.args().get(1));
+            switch (opcode) {
+                case Opcodes.IAND:
+                    return Math.min(rangeBound(lhs), rangeBound(rhs));
+                case Opcodes.IOR:
+                case Opcodes.IXOR: {
+                    long max = Math.max(rangeBound(lhs), rangeBound(rhs));
+                    return max == 0 ? 0 : (Long.highestOneBit(max) << 1) - 1;
+                }
+                case Opcodes.IADD: {
+                    long sum = rangeBound(lhs) + rangeBound(rhs);
+                    return sum <= UINT_MAX ? sum : UINT_MAX;
+                }
+                case Opcodes.IMUL: {
+                    long l = rangeBound(lhs);
+                    long r = rangeBound(rhs);
+                    return l == 0 || r <= UINT_MAX / l ? l * r : UINT_MAX;
+                }
+                case Opcodes.ISHL: {
+                    Integer shift = intConst(rhs);
+                    if (shift == null) return UINT_MAX;
+                    long l = rangeBound(lhs);
+                    int s = shift & 31;
+                    return l <= UINT_MAX >>> s ? l << s : UINT_MAX;
+                }
+                case Opcodes.IUSHR: {
+                    Integer shift = intConst(rhs);
+                    return shift == null ? rangeBound(lhs) : rangeBound(lhs) >>> (shift & 31);
+                }
+                default:
+                    return UINT_MAX;
+            }
+        }
+
+        boolean onlyBufferIndex(Var addr) {
+            Set<Insn> uses = addr.getNullable(CommonExts.USED_AT);
+            if (uses == null || uses.isEmpty()) return false;
+            for (Insn use : uses) {
+                if (bufferIndex(use) != addr) return false;
+                if (use.args().indexOf(addr) != use.args().lastIndexOf(addr)) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Get the index argument of an instruction, if it is an absolute {@link java.nio.ByteBuffer} get or put.
+     */
+    @Nullable
+    private static Var bufferIndex(Insn insn) {
+        if (insn.args().size() < 2) return null;
+        if (insn.op.key == JavaOps.INVOKE) {
+            JClass.JavaMethod method = JavaOps.INVOKE.cast(insn.op).arg;
+            if (!method.owner.name.equals(BYTE_BUFFER)
+                    || !isBufferAccess(method.name, method.getDescriptor())) {
+                return null;
+            }
+        } else if (insn.op.key == JavaOps.INSNS) {
+            // such as store instructions, which may convert the value first
+            InsnList insns = JavaOps.INSNS.cast(insn.op).arg;
+            AbstractInsnNode last = insns.getLast();
+            if (!(last instanceof MethodInsnNode)) return null;
+            MethodInsnNode min = (MethodInsnNode) last;
+            if (min.getOpcode() != Opcodes.INVOKEVIRTUAL
+                    || !min.owner.equals(BYTE_BUFFER)
+                    || !isBufferAccess(min.name, min.desc)) {
+                return null;
+            }
+            for (AbstractInsnNode node = last.getPrevious(); node != null; node = node.getPrevious()) {
+                if (node.getType() != AbstractInsnNode.INSN) return null;
+            }
+        } else {
+            return null;
+        }
+        return insn.args().get(1);
+    }
+
+    /**
+     * Round a bound up to the next power of two minus one, so that it can only grow a bounded number of times.
+     */
+    private static long widen(long bound) {
+        return bound == 0 ? 0 : Math.min(UINT_MAX, (Long.highestOneBit(bound) << 1) - 1);
+    }
+
+    private static boolean isBufferAccess(String name, String desc) {
+        return (name.startsWith("get") || name.startsWith("put")) && desc.startsWith("(I");
+    }
+
+    private static boolean isOp(Insn insn, Op op, int opcode) {
+        return insn.op == op || singleOpcode(insn) == opcode;
+    }
+
+    private static int singleOpcode(Insn insn) {
+        if (insn.op.key != JavaOps.INSNS) return -1;
+        InsnList insns = JavaOps.INSNS.cast(insn.op).arg;
+        return insns.size() == 1 ? insns.getFirst().getOpcode() : -1;
+    }
+
+    @Nullable
+    private static Integer intConst(Var var) {
+        Insn insn = assignedInsn(var);
+        if (insn == null || insn.op.key != CommonOps.CONST) return null;
+        Object value = CommonOps.CONST.cast(insn.op).arg;
+        return value instanceof Integer ? (Integer) value : null;
+    }
+
+    @Nullable
+    private static Insn assignedInsn(Var var) {
+        Effect effect = resolve(var).getNullable(CommonExts.ASSIGNED_AT);
+        return effect == null ? null : effect.insn();
+    }
+
+    private static Var resolve(Var var) {
+        while (true) {
+            Effect effect = var.getNullable(CommonExts.ASSIGNED_AT);
+            if (effect == null || effect.insn().op != CommonOps.IDENTITY || effect.insn().args().size() != 1) {
+                return var;
+            }
+            var = effect.insn().args().get(0);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package io.github.eutro.wasm2j.core.passes.opts;
+
+import io.github.eutro.wasm2j.core.ext.CommonExts;
+import io.github.eutro.wasm2j.core.ext.JavaExts;
+import io.github.eutro.wasm2j.core.ext.MetadataState;
+import io.github.eutro.wasm2j.core.intrinsics.IntrinsicImpl;
+import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.ops.JavaOps;
+import io.github.eutro.wasm2j.core.ops.Op;
+import io.github.eutro.wasm2j.core.ops.UnaryOpKey;
+import io.github.eutro.wasm2j.core.passes.InPlaceIRPass;
+import io.github.eutro.wasm2j.core.ssa.*;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+/**
+ * A pass which performs dominator-based global value numbering, replacing instructions
+ * that compute a value which has already been computed with an {@link CommonOps#IDENTITY identity}
+ * of the earlier result.
+ * <p>
+ * Only {@link CommonExts#IS_DETERMINISTIC deterministic} instructions are merged across blocks, with the
+ * earlier instruction dominating the later one. Field reads, which are {@link CommonExts#IS_PURE pure}
+ * but depend on mutable state, are merged only within a block, until the next impure instruction.
+ * Reads of {@link JavaExts#FIELD_IMMUTABLE immutable fields} are treated as deterministic,
+ * unless the function writes to that field itself, as a constructor does.
+ * <p>
+ * Trivial instructions, like constants and {@code this}, are numbered but left in place,
+ * so they can still be emitted where they are used.
+ * <p>
+ * This should be followed by {@link IdentityElimination} and {@link EliminateDeadVars}.
+ */
+public class EliminateCommonSubexprs implements InPlaceIRPass<Function> {
+    /**
+     * An instance of this pass.
+     */
+    public static final EliminateCommonSubexprs INSTANCE = new EliminateCommonSubexprs();
+
+    private enum Kind {
+        /**
+         * Numbered, but never replaced.
+         */
+        LEAF,
+        /**
+         * Merged with any dominating equal instruction.
+         */
+        VALUE,
+        /**
+         * Merged with an equal instruction earlier in the block, if there were no impure instructions in between.
+         */
+        READ,
+        NONE,
+    }
+
+    @Override
+    public void runInPlace(Function func) {
+        MetadataState ms = func.getExtOrThrow(CommonExts.METADATA_STATE);
+        ms.ensureValid(func, MetadataState.DOMS);
+
+        Map<BasicBlock, List<BasicBlock>> domChildren = new HashMap<>();
+        Set<JClass.JavaField> written = new HashSet<>();
+        for (BasicBlock block : func.blocks) {
+            BasicBlock idom = block.getNullable(CommonExts.IDOM);
+            if (idom != null && idom != block) {
+                domChildren.computeIfAbsent(idom, $ -> new ArrayList<>()).add(block);
+            }
+            for (Effect effect : block.getEffects()) {
+                JClass.JavaField field = JavaOps.PUT_FIELD.argNullable(effect.insn().op);
+                if (field != null) written.add(field);
+            }
+        }
+
+        Runner runner = new Runner(written);
+        Deque<BasicBlock> stack = new ArrayDeque<>();
+        Deque<List<List<Object>>> scopes = new ArrayDeque<>();
+        stack.push(func.blocks.get(0));
+        Set<BasicBlock> entered = new HashSet<>();
+        while (!stack.isEmpty()) {
+            BasicBlock block = stack.peek();
+            if (entered.add(block)) {
+                scopes.push(runner.runBlock(block));
+                for (BasicBlock child : domChildren.getOrDefault(block, Collections.emptyList())) {
+                    stack.push(child);
+                }
+            } else {
+                stack.pop();
+                for (List<Object> key : scopes.pop()) {
+                    runner.values.remove(key);
+                }
+            }
+        }
+
+        if (runner.changed) {
+            ms.varsChanged();
+        }
+    }
+
+    private static class Runner {
+        final Set<JClass.JavaField> written;
+        final Map<List<Object>, Var> values = new HashMap<>();
+        final Map<List<Object>, Var> leaves = new HashMap<>();
+        final Map<Var, Var> numbers = new HashMap<>();
+        boolean changed;
+
+        Runner(Set<JClass.JavaField> written) {
+            this.written = written;
+        }
+
+        List<List<Object>> runBlock(BasicBlock block) {
+            List<List<Object>> added = new ArrayList<>();
+            Map<List<Object>, Var> reads = new HashMap<>();
+            for (Effect effect : block.getEffects()) {
+                Insn insn = effect.insn();
+                Kind kind = classify(insn);
+                if (kind == Kind.NONE || effect.getAssignsTo().size() != 1) {
+                    if (kind == Kind.NONE && mayWriteFields(insn)) {
+                        reads.clear();
+                    }
+                    continue;
+                }
+
+                Var var = effect.getAssignsTo().get(0);
+                if (insn.op.key == CommonOps.IDENTITY.key) {
+                    if (insn.args().size() == 1) numbers.put(var, number(insn.args().get(0)));
+                    continue;
+                }
+                List<Object> key = key(insn);
+
+                Map<List<Object>, Var> table;
+                switch (kind) {
+                    case LEAF:
+                        numbers.put(var, number(leaves.computeIfAbsent(key, $ -> var)));
+                        continue;
+                    case VALUE:
+                        table = values;
+                        break;
+                    default:
+                        table = reads;
+                        break;
+                }
+                Var existing = table.get(key);
+                if (existing != null) {
+                    effect.setInsn(CommonOps.IDENTITY.insn(existing));
+                    numbers.put(var, number(existing));
+                    changed = true;
+                } else {
+                    table.put(key, var);
+                    if (table == values) added.add(key);
+                }
+            }
+            return added;
+        }
+
+        Var number(Var var) {
+            return numbers.getOrDefault(var, var);
+        }
+
+        Kind classify(Insn insn) {
+            Op op = insn.op;
+            if (op.key == CommonOps.PHI) return Kind.NONE;
+            if (op.key == CommonOps.CONST || op.key == JavaOps.THIS.key || op.key == CommonOps.ARG) {
+                return Kind.LEAF;
+            }
+            if (insn.getExt(CommonExts.IS_DETERMINISTIC).orElse(false)) return Kind.VALUE;
+            if (op.key == JavaOps.INTRINSIC) {
+                IntrinsicImpl intr = JavaOps.INTRINSIC.cast(op).arg;
+                // intrinsics which can be constant-folded are functions of their arguments
+                return intr.eval != null ? Kind.VALUE : Kind.NONE;
+            }
+            if (op.key == JavaOps.INSNS) {
+                return arithmeticOpcode(JavaOps.INSNS.cast(op).arg) != -1 ? Kind.VALUE : Kind.NONE;
+            }
+            if (op.key == JavaOps.GET_FIELD) {
+                JClass.JavaField field = JavaOps.GET_FIELD.cast(op).arg;
+                if ((field.access & Opcodes.ACC_VOLATILE) != 0) return Kind.NONE;
+                if (field.getExt(JavaExts.FIELD_IMMUTABLE).orElse(false) && !written.contains(field)) {
+                    return Kind.VALUE;
+                }
+                return Kind.READ;
+            }
+            return Kind.NONE;
+        }
+
+        /**
+         * Compute the value key of an instruction, from its operation and the numbers of its arguments.
+         */
+        List<Object> key(Insn insn) {
+            List<Object> key = new ArrayList<>(insn.args().size() + 3);
+            Op op = insn.op;
+            key.add(op.key);
+            if (op.key == JavaOps.INSNS) {
+                key.add(insnsKey(op));
+            } else if (op.key == JavaOps.INVOKE) {
+                JClass.JavaMethod method = JavaOps.INVOKE.cast(op).arg;
+                key.add(method.owner.name);
+                key.add(method.name);
+                key.add(method.getDescriptor());
+            } else if (op.key == JavaOps.GET_FIELD) {
+                JClass.JavaField field = JavaOps.GET_FIELD.cast(op).arg;
+                key.add(field.owner.name);
+                key.add(field.name);
+                key.add(field.descriptor);
+            } else if (op.key instanceof UnaryOpKey) {
+                Object arg = ((UnaryOpKey<?>.UnaryOp) op).arg;
+                // don't mix up 1 and 1L, or 0.0 and -0.0
+                key.add(arg == null ? null : arg.getClass());
+                key.add(arg);
+            }
+            for (Var arg : insn.args()) {
+                key.add(number(arg));
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Whether an instruction which isn't numbered might write to a field, or call something that does.
+     */
+    static boolean mayWriteFields(Insn insn) {
+        if (insn.getExt(CommonExts.IS_PURE).orElse(false)) return false;
+        Op op = insn.op;
+        if (op.key == JavaOps.ARRAY_GET || op.key == JavaOps.ARRAY_SET) return false;
+        if (op.key == JavaOps.INVOKE) {
+            JClass.JavaMethod method = JavaOps.INVOKE.cast(op).arg;
+            // attached intrinsics only reference the JDK
+            if (method.isStatic() && method.getNullable(JavaExts.METHOD_NATIVE_IMPL) != null) return false;
+            if (isUnsafeArrayAccess(method)) return false;
+            // such as memory accesses, which can't call back into the class
+            return !isLeafClass(method.owner.name);
+        }
+        if (op.key == JavaOps.INSNS) {
+            for (AbstractInsnNode node : JavaOps.INSNS.cast(op).arg) {
+                if (node instanceof MethodInsnNode) {
+                    if (!isLeafClass(((MethodInsnNode) node).owner)) return true;
+                } else if (node.getType() != AbstractInsnNode.INSN
+                        || node.getOpcode() == Opcodes.MONITORENTER) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether a method is a primitive get or put of {@code sun.misc.Unsafe}, which generated code
+     * only uses on byte arrays, as
+     * {@link io.github.eutro.wasm2j.core.conf.impl.ByteArrayMemoryConvention ByteArrayMemoryConvention} does.
+     */
+    private static boolean isUnsafeArrayAccess(JClass.JavaMethod method) {
+        if (!method.owner.name.equals("sun/misc/Unsafe")) return false;
+        String name = method.name;
+        if (!name.startsWith("get") && !name.startsWith("put")) return false;
+        switch (name.substring(3)) {
+            case "Byte":
+            case "Short":
+            case "Int":
+            case "Long":
+            case "Float":
+            case "Double":
+                return method.getDescriptor().startsWith("(Ljava/lang/Object;J");
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isLeafClass(String internalName) {
+        return internalName.startsWith("java/nio/")
+                || internalName.equals("java/lang/Math")
+                || internalName.equals("java/lang/Integer")
+                || internalName.equals("java/lang/Long")
+                || internalName.equals("java/lang/Float")
+                || internalName.equals("java/lang/Double");
+    }
+
+    /**
+     * Get a key which is equal for instruction lists that do the same thing, even if they are
+     * several instructions long, or were created separately.
+     * <p>
+     * Lists with instructions that can't be compared, such as jumps, are only equal to the same op.
+     */
+    private static Object insnsKey(Op op) {
+        InsnList insns = JavaOps.INSNS.cast(op).arg;
+        List<Object> key = new ArrayList<>(insns.size());
+        for (AbstractInsnNode node : insns) {
+            key.add(node.getOpcode());
+            switch (node.getType()) {
+                case AbstractInsnNode.INSN:
+                    break;
+                case AbstractInsnNode.INT_INSN:
+                    key.add(((IntInsnNode) node).operand);
+                    break;
+                case AbstractInsnNode.TYPE_INSN:
+                    key.add(((TypeInsnNode) node).desc);
+                    break;
+                case AbstractInsnNode.LDC_INSN: {
+                    Object cst = ((LdcInsnNode) node).cst;
+                    // don't mix up 1 and 1L, or 0.0 and -0.0
+                    key.add(cst.getClass());
+                    key.add(cst);
+                    break;
+                }
+                case AbstractInsnNode.FIELD_INSN: {
+                    FieldInsnNode fin = (FieldInsnNode) node;
+                    key.add(fin.owner);
+                    key.add(fin.name);
+                    key.add(fin.desc);
+                    break;
+                }
+                case AbstractInsnNode.METHOD_INSN: {
+                    MethodInsnNode min = (MethodInsnNode) node;
+                    key.add(min.owner);
+                    key.add(min.name);
+                    key.add(min.desc);
+                    break;
+                }
+                default:
+                    return op;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Get the opcode of a single arithmetic instruction, or -1 if the list is anything else.
+     */
+    private static int arithmeticOpcode(InsnList insns) {
+        if (insns.size() != 1) return -1;
+        AbstractInsnNode node = insns.getFirst();
+        if (node.getType() != AbstractInsnNode.INSN) return -1;
+        int opcode = node.getOpcode();
+        // IADD through LXOR are arithmetic, then I2L through I2S are conversions, then the comparisons
+        if (opcode >= Opcodes.IADD && opcode <= Opcodes.LXOR
+                || opcode >= Opcodes.I2L && opcode <= Opcodes.DCMPG) {
+            return opcode;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,156 @@
+package io.github.eutro.wasm2j.core.passes.opts;
+
+import io.github.eutro.wasm2j.core.ext.CommonExts;
+import io.github.eutro.wasm2j.core.ext.MetadataState;
+import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.ops.JavaOps;
+import io.github.eutro.wasm2j.core.passes.InPlaceIRPass;
+import io.github.eutro.wasm2j.core.ssa.*;
+import org.objectweb.asm.Opcodes;
+
+import java.util.*;
+
+/**
+ * A loop-invariant code motion pass, which hoists field loads out of loops
+ * into the block that enters them, so that memories, tables and globals are not
+ * loaded again on every iteration.
+ * <p>
+ * Loops are found as the natural loops of back edges, that is, jumps to a block which dominates the jumping block.
+ * A load is hoisted if its receiver is defined outside the loop (or is {@code this}),
+ * and nothing in the loop can write to the field. A loop containing a call that could write to fields,
+ * such as a call to another function, is left alone, as is one whose only entry is not an unconditional jump.
+ * A field that is written in the loop, such as the buffer of a memory grown in the loop,
+ * is still loaded where it is used.
+ * <p>
+ * Loads are {@link CommonExts#IS_PURE pure}, so hoisting them is safe even if the loop body would not have run them.
+ * Inner loops are handled first, so loads can be hoisted out of several loops at once.
+ */
+public class HoistFieldLoads implements InPlaceIRPass<Function> {
+    /**
+     * An instance of this pass.
+     */
+    public static final HoistFieldLoads INSTANCE = new HoistFieldLoads();
+
+    @Override
+    public void runInPlace(Function func) {
+        MetadataState ms = func.getExtOrThrow(CommonExts.METADATA_STATE);
+        ms.ensureValid(func, MetadataState.DOMS, MetadataState.PREDS);
+
+        Map<BasicBlock, Set<BasicBlock>> loops = findLoops(func);
+
+        List<Map.Entry<BasicBlock, Set<BasicBlock>>> sorted = new ArrayList<>(loops.entrySet());
+        // inner loops first
+        sorted.sort(Comparator.comparingInt(e -> e.getValue().size()));
+        boolean changed = false;
+        for (Map.Entry<BasicBlock, Set<BasicBlock>> loop : sorted) {
+            changed |= hoist(func, loop.getKey(), loop.getValue());
+        }
+
+        if (changed) {
+            ms.varsChanged();
+        }
+    }
+
+    /**
+     * Find the natural loops of a function, as a map from loop headers to the blocks in each loop.
+     * <p>
+     * Dominators and predecessors must be valid.
+     */
+    static Map<BasicBlock, Set<BasicBlock>> findLoops(Function func) {
+        Map<BasicBlock, Set<BasicBlock>> loops = new LinkedHashMap<>();
+        for (BasicBlock block : func.blocks) {
+            for (BasicBlock target : block.getControl().targets) {
+                if (dominates(target, block)) {
+                    Set<BasicBlock> body = loops.computeIfAbsent(target, $ -> new HashSet<>(Collections.singleton(target)));
+                    collectBody(body, block);
+                }
+            }
+        }
+        return loops;
+    }
+
+    private static boolean dominates(BasicBlock dom, BasicBlock block) {
+        for (BasicBlock b = block; b != null; b = b.getNullable(CommonExts.IDOM)) {
+            if (b == dom) return true;
+            if (b.getNullable(CommonExts.IDOM) == b) break;
+        }
+        return false;
+    }
+
+    private static void collectBody(Set<BasicBlock> body, BasicBlock latch) {
+        Deque<BasicBlock> stack = new ArrayDeque<>();
+        if (body.add(latch)) stack.push(latch);
+        while (!stack.isEmpty()) {
+            for (BasicBlock pred : stack.pop().getExtOrThrow(CommonExts.PREDS)) {
+                if (body.add(pred)) stack.push(pred);
+            }
+        }
+    }
+
+    private static boolean hoist(Function func, BasicBlock header, Set<BasicBlock> body) {
+        BasicBlock preheader = null;
+        for (BasicBlock pred : header.getExtOrThrow(CommonExts.PREDS)) {
+            if (body.contains(pred)) continue;
+            if (preheader != null) return false;
+            preheader = pred;
+        }
+        if (preheader == null || preheader.getControl().insn().op.key != CommonOps.BR.key) return false;
+
+        Set<JClass.JavaField> written = new HashSet<>();
+        for (BasicBlock block : body) {
+            for (Effect effect : block.getEffects()) {
+                Insn insn = effect.insn();
+                JClass.JavaField field = JavaOps.PUT_FIELD.argNullable(insn.op);
+                if (field != null) {
+                    written.add(field);
+                } else if (EliminateCommonSubexprs.mayWriteFields(insn)) {
+                    return false;
+                }
+            }
+        }
+
+        boolean changed = false;
+        Var thisVar = null;
+        // blocks are in pre-order after computing dominators, so receivers are hoisted before their loads
+        for (BasicBlock block : func.blocks) {
+            if (!body.contains(block)) continue;
+            Iterator<Effect> iter = block.getEffects().iterator();
+            while (iter.hasNext()) {
+                Effect effect = iter.next();
+                Insn insn = effect.insn();
+                if (insn.op.key != JavaOps.GET_FIELD || effect.getAssignsTo().size() != 1) continue;
+                JClass.JavaField field = JavaOps.GET_FIELD.cast(insn.op).arg;
+                if (written.contains(field) || (field.access & Opcodes.ACC_VOLATILE) != 0) continue;
+
+                boolean invariant = true;
+                for (Var arg : insn.args()) {
+                    Effect def = arg.getNullable(CommonExts.ASSIGNED_AT);
+                    if (def == null) continue;
+                    if (body.contains(def.getNullable(CommonExts.OWNING_BLOCK))
+                            && def.insn().op.key != JavaOps.THIS.key) {
+                        invariant = false;
+                        break;
+                    }
+                }
+                if (!invariant) continue;
+
+                ListIterator<Var> args = insn.args().listIterator();
+                while (args.hasNext()) {
+                    Effect def = args.next().getNullable(CommonExts.ASSIGNED_AT);
+                    if (def != null && body.contains(def.getNullable(CommonExts.OWNING_BLOCK))) {
+                        // a this from inside the loop
+                        if (thisVar == null) {
+                            thisVar = func.newVar("this");
+                            preheader.addEffect(JavaOps.THIS.insn().assignTo(thisVar));
+                        }
+                        args.set(thisVar);
+                    }
+                }
+                iter.remove();
+                preheader.addEffect(effect);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,208 @@
+package io.github.eutro.wasm2j.core.passes.opts;
+
+import io.github.eutro.jwasm.tree.AbstractImportNode;
+import io.github.eutro.jwasm.tree.CodeNode;
+import io.github.eutro.jwasm.tree.FuncImportNode;
+import io.github.eutro.jwasm.tree.ModuleNode;
+import io.github.eutro.wasm2j.core.ext.CommonExts;
+import io.github.eutro.wasm2j.core.ext.MetadataState;
+import io.github.eutro.wasm2j.core.ext.WasmExts;
+import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.ops.WasmOps;
+import io.github.eutro.wasm2j.core.passes.InPlaceIRPass;
+import io.github.eutro.wasm2j.core.ssa.*;
+import io.github.eutro.wasm2j.core.ssa.Module;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * A pass which inlines small functions into their callers, replacing direct {@link WasmOps#CALL calls}
+ * with the body of the callee.
+ * <p>
+ * This runs over a whole WebAssembly IR {@link Module module}, before it is converted to Java IR,
+ * so that later passes can optimise the inlined code together with the code around it.
+ * Every function body in the module is computed, and converted to SSA form, by this pass;
+ * so functions will no longer be converted lazily.
+ * <p>
+ * A callee is inlined if its size, in instructions, is at most {@link #maxSize}, or at most {@link #maxLoopSize}
+ * if the call is in a loop, where it is likely to run more often. Calls are not inlined into a function once it
+ * has grown beyond {@link #maxCallerSize}, and a function is never inlined into itself.
+ * Only calls in the original body of a function are considered, so recursive functions are inlined at most once.
+ */
+public class InlineSmallFunctions implements InPlaceIRPass<Module> {
+    /**
+     * An instance of this pass, with the default limits.
+     */
+    public static final InlineSmallFunctions INSTANCE = new InlineSmallFunctions(16, 48, 4096);
+
+    /**
+     * The maximum size of a function that will be inlined into a call outside a loop.
+     */
+    public final int maxSize;
+    /**
+     * The maximum size of a function that will be inlined into a call in a loop.
+     */
+    public final int maxLoopSize;
+    /**
+     * The size beyond which nothing more will be inlined into a function.
+     */
+    public final int maxCallerSize;
+
+    /**
+     * Construct a new instance of this pass with the given limits.
+     *
+     * @param maxSize       The maximum size of a function that will be inlined into a call outside a loop.
+     * @param maxLoopSize   The maximum size of a function that will be inlined into a call in a loop.
+     * @param maxCallerSize The size beyond which nothing more will be inlined into a function.
+     */
+    public InlineSmallFunctions(int maxSize, int maxLoopSize, int maxCallerSize) {
+        this.maxSize = maxSize;
+        this.maxLoopSize = maxLoopSize;
+        this.maxCallerSize = maxCallerSize;
+    }
+
+    @Override
+    public void runInPlace(Module module) {
+        ModuleNode node = module.getExtOrThrow(WasmExts.MODULE);
+        if (node.codes == null) return;
+
+        int importCount = 0;
+        if (node.imports != null) {
+            for (AbstractImportNode importNode : node.imports) {
+                if (importNode instanceof FuncImportNode) importCount++;
+            }
+        }
+
+        List<Function> funcs = new ArrayList<>();
+        for (CodeNode code : node.codes) {
+            Function func = module.funcMap.get(code.expr).get();
+            func.getExtOrThrow(CommonExts.METADATA_STATE).ensureValid(func, MetadataState.SSA_FORM);
+            funcs.add(func);
+        }
+
+        Map<Function, Integer> sizes = new HashMap<>();
+        for (Function caller : funcs) {
+            if (inlineInto(caller, funcs, importCount, sizes)) {
+                sizes.remove(caller);
+            }
+        }
+    }
+
+    private boolean inlineInto(Function caller, List<Function> funcs, int importCount, Map<Function, Integer> sizes) {
+        MetadataState ms = caller.getExtOrThrow(CommonExts.METADATA_STATE);
+        ms.ensureValid(caller, MetadataState.DOMS, MetadataState.PREDS);
+        Set<BasicBlock> inLoops = new HashSet<>();
+        for (Set<BasicBlock> body : HoistFieldLoads.findLoops(caller).values()) {
+            inLoops.addAll(body);
+        }
+
+        int callerSize = size(caller, sizes);
+        boolean changed = false;
+        IRBuilder ib = new IRBuilder(caller, null);
+        for (BasicBlock block : new ArrayList<>(caller.blocks)) {
+            boolean hasCalls = false;
+            for (Effect effect : block.getEffects()) {
+                if (effect.insn().op.key == WasmOps.CALL) {
+                    hasCalls = true;
+                    break;
+                }
+            }
+            if (!hasCalls) continue;
+
+            ib.setBlock(block);
+            Control sourceCtrl = block.getControl();
+            block.setControl(null);
+            List<Effect> effects = new ArrayList<>(block.getEffects());
+            block.getEffects().clear();
+            for (Effect effect : effects) {
+                Function callee = pickCallee(
+                        effect.insn(),
+                        caller,
+                        funcs,
+                        importCount,
+                        inLoops.contains(block) ? maxLoopSize : maxSize,
+                        maxCallerSize - callerSize,
+                        sizes
+                );
+                if (callee == null) {
+                    ib.insert(effect);
+                } else {
+                    ib.insert(new Inliner(ib)
+                            .inline(callee, effect.insn().args())
+                            .copyFrom(effect));
+                    callerSize += size(callee, sizes);
+                    changed = true;
+                }
+            }
+            ib.insertCtrl(sourceCtrl);
+
+            if (block != ib.getBlock()) {
+                // the successors are now jumped to from the last inlined block
+                for (BasicBlock target : ib.getBlock().getControl().targets) {
+                    for (Effect effect : target.getEffects()) {
+                        if (effect.insn().op.key != CommonOps.PHI) break;
+                        ListIterator<BasicBlock> it = CommonOps.PHI.cast(effect.insn().op).arg.listIterator();
+                        while (it.hasNext()) {
+                            if (it.next() == block) {
+                                it.set(ib.getBlock());
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        if (changed) {
+            ms.graphChanged();
+        }
+        return changed;
+    }
+
+    @Nullable
+    private Function pickCallee(
+            Insn insn,
+            Function caller,
+            List<Function> funcs,
+            int importCount,
+            int limit,
+            int budget,
+            Map<Function, Integer> sizes
+    ) {
+        WasmOps.CallType call = WasmOps.CALL.argNullable(insn.op);
+        if (call == null || call.func < importCount) return null;
+        Function callee = funcs.get(call.func - importCount);
+        if (callee == caller) return null;
+
+        int size = size(callee, sizes);
+        if (size > limit || size > budget) return null;
+
+        // the inliner would leave a trap effect, which can't be converted, if the callee never returns
+        boolean returns = false;
+        for (BasicBlock block : callee.blocks) {
+            if (block.getControl().insn().op.key == CommonOps.RETURN.key) {
+                returns = true;
+                break;
+            }
+        }
+        if (!returns) return null;
+
+        // the inliner jumps straight to the entry block, so it can't be the target of any other jumps
+        MetadataState ms = callee.getExtOrThrow(CommonExts.METADATA_STATE);
+        ms.ensureValid(callee, MetadataState.PREDS);
+        if (!callee.blocks.get(0).getExtOrThrow(CommonExts.PREDS).isEmpty()) return null;
+        return callee;
+    }
+
+    private static int size(Function func, Map<Function, Integer> sizes) {
+        return sizes.computeIfAbsent(func, $ -> {
+            int size = 0;
+            for (BasicBlock block : func.blocks) {
+                // count the control instruction too
+                size += block.getEffects().size() + 1;
+            }
+            return size;
+        });
+    }
+}
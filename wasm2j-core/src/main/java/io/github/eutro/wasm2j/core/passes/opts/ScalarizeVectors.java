@@ -0,0 +1,218 @@
+package io.github.eutro.wasm2j.core.passes.opts;
+
+import io.github.eutro.wasm2j.core.ext.CommonExts;
+import io.github.eutro.wasm2j.core.ext.MetadataState;
+import io.github.eutro.wasm2j.core.intrinsics.IntrinsicImpl;
+import io.github.eutro.wasm2j.core.intrinsics.JavaIntrinsics;
+import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.ops.JavaOps;
+import io.github.eutro.wasm2j.core.ops.Op;
+import io.github.eutro.wasm2j.core.passes.InPlaceIRPass;
+import io.github.eutro.wasm2j.core.ssa.*;
+import io.github.eutro.wasm2j.core.util.Pair;
+
+import java.util.*;
+
+import static io.github.eutro.wasm2j.core.ext.CommonExts.markDeterministic;
+import static io.github.eutro.wasm2j.core.ext.CommonExts.markPure;
+
+/**
+ * A pass which keeps {@code v128} values in pairs of {@code long} variables, rather than in buffers.
+ * <p>
+ * {@link io.github.eutro.wasm2j.core.passes.convert.WasmToWir WasmToWir} builds every vector
+ * from its two halves, and takes the halves of its operands, which are converted to the
+ * {@link JavaIntrinsics#V128_PACK}, {@link JavaIntrinsics#V128_LO} and {@link JavaIntrinsics#V128_HI}
+ * intrinsics in Java IR. This pass resolves each half to the variable it was packed from,
+ * looking through copies, and splits phis and selects of vectors into ones of their halves,
+ * so that vectors flowing through locals and loops stay in {@code long} variables.
+ * <p>
+ * Only vectors that come from outside the function, such as arguments, globals and call results,
+ * still have their halves read out of a buffer, and only vectors that leave it are packed into one.
+ * Packs that are no longer used are left for {@link EliminateDeadVars}.
+ * <p>
+ * This runs on Java IR, before intrinsics are {@link io.github.eutro.wasm2j.core.passes.form.LowerIntrinsics lowered},
+ * and is part of {@link io.github.eutro.wasm2j.core.passes.Passes#SSA_OPTS}.
+ * The function must be in SSA form.
+ */
+public class ScalarizeVectors implements InPlaceIRPass<Function> {
+    /**
+     * An instance of this pass.
+     */
+    public static final ScalarizeVectors INSTANCE = new ScalarizeVectors();
+
+    @Override
+    public void runInPlace(Function func) {
+        MetadataState ms = func.getExtOrThrow(CommonExts.METADATA_STATE);
+        ms.ensureValid(func, MetadataState.SSA_FORM);
+
+        Map<Var, Var[]> halves = new HashMap<>();
+        for (BasicBlock block : func.blocks) {
+            for (Effect effect : block.getEffects()) {
+                if (JavaOps.INTRINSIC.argNullable(effect.insn().op) == JavaIntrinsics.V128_PACK) {
+                    List<Var> args = effect.insn().args();
+                    halves.put(effect.getAssignsTo().get(0), new Var[]{args.get(0), args.get(1)});
+                }
+            }
+        }
+        if (halves.isEmpty()) return;
+
+        // phis and selects of vectors get a variable for each half
+        Set<Effect> split = new HashSet<>();
+        boolean changed;
+        do {
+            changed = false;
+            for (BasicBlock block : func.blocks) {
+                for (Effect effect : block.getEffects()) {
+                    if (split.contains(effect) || !isSplittable(halves, effect)) continue;
+                    Var var = effect.getAssignsTo().get(0);
+                    halves.put(var, new Var[]{
+                            func.newVar(var.name + "_lo"),
+                            func.newVar(var.name + "_hi"),
+                    });
+                    split.add(effect);
+                    changed = true;
+                }
+            }
+        } while (changed);
+
+        Map<Pair<BasicBlock, Var>, Var[]> extracted = new HashMap<>();
+        for (BasicBlock block : func.blocks) {
+            List<Effect> effects = block.getEffects();
+            List<Effect> packs = new ArrayList<>();
+            int i = 0;
+            for (; i < effects.size(); i++) {
+                Effect effect = effects.get(i);
+                if (effect.insn().op.key != CommonOps.PHI) break;
+                if (!split.contains(effect)) continue;
+                Var var = effect.getAssignsTo().get(0);
+                Var[] varHalves = halves.get(var);
+                List<BasicBlock> preds = CommonOps.PHI.cast(effect.insn().op).arg;
+                List<Var> args = effect.insn().args();
+                Var[] lo = new Var[args.size()];
+                Var[] hi = new Var[args.size()];
+                for (int j = 0; j < args.size(); j++) {
+                    BasicBlock pred = preds.get(j);
+                    Var[] argHalves = halvesOf(halves, args.get(j));
+                    if (argHalves == null) {
+                        // read out of a buffer at the end of the predecessor, once per incoming value
+                        Var arg = args.get(j);
+                        argHalves = extracted.computeIfAbsent(Pair.of(pred, arg), $ -> {
+                            Var[] ex = extract(func, arg);
+                            pred.addEffect(half(0).insn(arg).assignTo(ex[0]));
+                            pred.addEffect(half(1).insn(arg).assignTo(ex[1]));
+                            return ex;
+                        });
+                    }
+                    lo[j] = argHalves[0];
+                    hi[j] = argHalves[1];
+                }
+                effects.set(i, CommonOps.PHI.create(new ArrayList<>(preds)).insn(lo).assignTo(varHalves[0]));
+                effects.add(++i, CommonOps.PHI.create(new ArrayList<>(preds)).insn(hi).assignTo(varHalves[1]));
+                packs.add(pack().insn(varHalves[0], varHalves[1]).assignTo(var));
+            }
+            // phis must stay at the start of the block
+            effects.addAll(i, packs);
+        }
+
+        for (BasicBlock block : func.blocks) {
+            List<Effect> effects = block.getEffects();
+            for (int i = 0; i < effects.size(); i++) {
+                Effect effect = effects.get(i);
+                if (effect.insn().op.key != JavaOps.SELECT || !split.contains(effect)) continue;
+                Var var = effect.getAssignsTo().get(0);
+                Var[] varHalves = halves.get(var);
+                List<Var> args = effect.insn().args();
+                Var[][] argHalves = new Var[2][];
+                for (int j = 0; j < 2; j++) {
+                    argHalves[j] = halvesOf(halves, args.get(j));
+                    if (argHalves[j] == null) {
+                        argHalves[j] = extract(func, args.get(j));
+                        effects.add(i++, half(0).insn(args.get(j)).assignTo(argHalves[j][0]));
+                        effects.add(i++, half(1).insn(args.get(j)).assignTo(argHalves[j][1]));
+                    }
+                }
+                // taken fallthrough cond...
+                List<Var> cond = args.subList(2, args.size());
+                Op op = effect.insn().op;
+                for (int j = 0; j < 2; j++) {
+                    List<Var> halfArgs = new ArrayList<>();
+                    halfArgs.add(argHalves[0][j]);
+                    halfArgs.add(argHalves[1][j]);
+                    halfArgs.addAll(cond);
+                    Effect halfSelect = op.insn(halfArgs).assignTo(varHalves[j]);
+                    if (j == 0) {
+                        effects.set(i, halfSelect);
+                    } else {
+                        effects.add(++i, halfSelect);
+                    }
+                }
+                effects.add(++i, pack().insn(varHalves[0], varHalves[1]).assignTo(var));
+            }
+        }
+
+        for (BasicBlock block : func.blocks) {
+            for (Effect effect : block.getEffects()) {
+                int half = halfIndex(effect.insn().op);
+                if (half < 0) continue;
+                Var[] argHalves = halvesOf(halves, effect.insn().args().get(0));
+                if (argHalves == null) continue;
+                effect.setInsn(CommonOps.IDENTITY.insn(argHalves[half]));
+            }
+        }
+
+        ms.varsChanged();
+    }
+
+    private static boolean isSplittable(Map<Var, Var[]> halves, Effect effect) {
+        Insn insn = effect.insn();
+        if (effect.getAssignsTo().size() != 1) return false;
+        if (insn.op.key == CommonOps.PHI) {
+            for (Var arg : insn.args()) {
+                if (halvesOf(halves, arg) != null) return true;
+            }
+        } else if (insn.op.key == JavaOps.SELECT) {
+            return halvesOf(halves, insn.args().get(0)) != null
+                    || halvesOf(halves, insn.args().get(1)) != null;
+        }
+        return false;
+    }
+
+    /**
+     * Get the variables holding the halves of a vector, or null if they aren't known.
+     */
+    private static Var[] halvesOf(Map<Var, Var[]> halves, Var var) {
+        Var[] varHalves = halves.get(var);
+        if (varHalves != null) return varHalves;
+        Effect assigned = var.getNullable(CommonExts.ASSIGNED_AT);
+        if (assigned == null
+                || assigned.insn().op.key != CommonOps.IDENTITY.key
+                || assigned.getAssignsTo().size() != 1
+                || assigned.insn().args().size() != 1) {
+            return null;
+        }
+        varHalves = halvesOf(halves, assigned.insn().args().get(0));
+        if (varHalves != null) halves.put(var, varHalves);
+        return varHalves;
+    }
+
+    private static int halfIndex(Op op) {
+        IntrinsicImpl intr = JavaOps.INTRINSIC.argNullable(op);
+        if (intr == JavaIntrinsics.V128_LO) return 0;
+        if (intr == JavaIntrinsics.V128_HI) return 1;
+        return -1;
+    }
+
+    private static Op half(int half) {
+        return markDeterministic(markPure(JavaOps.INTRINSIC.create(half == 0
+                ? JavaIntrinsics.V128_LO
+                : JavaIntrinsics.V128_HI)));
+    }
+
+    private static Op pack() {
+        return markPure(JavaOps.INTRINSIC.create(JavaIntrinsics.V128_PACK));
+    }
+
+    private static Var[] extract(Function func, Var vec) {
+        return new Var[]{func.newVar(vec.name + "_lo"), func.newVar(vec.name + "_hi")};
+    }
+}
@@ -13,6 +13,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -35,12 +36,16 @@ public class JClass extends ExtHolder {
     public int access;
     /**
      * The list of methods in the class.
+     * <p>
+     * Methods may be added concurrently while the class is being compiled, so this list is synchronized.
      */
-    public final List<JavaMethod> methods = new ArrayList<>();
+    public final List<JavaMethod> methods = Collections.synchronizedList(new ArrayList<>());
     /**
      * The list of fields in the class.
+     * <p>
+     * Fields may be added concurrently while the class is being compiled, so this list is synchronized.
      */
-    public final List<JavaField> fields = new ArrayList<>();
+    public final List<JavaField> fields = Collections.synchronizedList(new ArrayList<>());
 
     /**
      * Construct a Java class with the given (internal) name and access modifiers.
@@ -102,7 +107,7 @@ public class JClass extends ExtHolder {
         Handle getHandle();
     }
 
-    private SoftReference<Map<Pair<String, List<Class<?>>>, JavaMethod>> methodCache = new SoftReference<>(null);
+    private volatile SoftReference<Map<Pair<String, List<Class<?>>>, JavaMethod>> methodCache = new SoftReference<>(null);
 
     /**
      * Look up a method in this class by {@link java.lang.reflect reflection},
@@ -19,7 +19,7 @@ public class Disassembler {
     /**
      * The map of Java opcodes to their names.
      */
-    private static Map<Integer, String> opcodeMnemonics = null;
+    private static volatile Map<Integer, String> opcodeMnemonics = null;
 
     /**
      * Look up the mnemonic for a Java opcode.
@@ -31,8 +31,9 @@ public class Disassembler {
      */
     @Nullable
     public static String getMnemonic(int opcode) {
-        if (opcodeMnemonics == null) generateMnemonics();
-        return opcodeMnemonics.get(opcode);
+        Map<Integer, String> mnemonics = opcodeMnemonics;
+        if (mnemonics == null) opcodeMnemonics = mnemonics = generateMnemonics();
+        return mnemonics.get(opcode);
     }
 
     /**
@@ -105,8 +106,9 @@ public class Disassembler {
     /**
      * Generate the table of Java mnemonics, for use by {@link #getMnemonic(int)}.
      */
-    private static void generateMnemonics() {
-        opcodeMnemonics = new HashMap<>();
+    private static Map<Integer, String> generateMnemonics() {
+        // only published once complete, so it may be read from other threads
+        Map<Integer, String> opcodeMnemonics = new HashMap<>();
         try {
             Field[] fields = Opcodes.class.getFields();
             for (Field field : fields) {
@@ -117,5 +119,6 @@ public class Disassembler {
             }
         } catch (ReflectiveOperationException ignored) {
         }
+        return opcodeMnemonics;
     }
 }
@@ -1,6 +1,7 @@
 package io.github.eutro.wasm2j.core.util;
 
 import io.github.eutro.wasm2j.core.conf.impl.BasicCallingConvention;
+import io.github.eutro.wasm2j.core.ext.JavaExts;
 import io.github.eutro.wasm2j.core.ops.*;
 import io.github.eutro.wasm2j.core.ssa.*;
 import io.github.eutro.wasm2j.core.ssa.JClass.JavaMethod;
@@ -17,6 +18,7 @@ import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodType;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Iterator;
@@ -492,6 +494,40 @@ public class IRUtils {
         ib.setBlock(endBb);
     }
 
+    /**
+     * Add code to the static initialiser of a class, creating the initialiser if the class doesn't have one yet.
+     * <p>
+     * The initialiser is built lazily, so code added before it is first built runs in the order it was added.
+     *
+     * @param jClass The class.
+     * @param init   A function to emit the code, which must not emit a return.
+     */
+    public static void addStaticInit(JClass jClass, Consumer<IRBuilder> init) {
+        List<Consumer<IRBuilder>> inits;
+        synchronized (jClass) {
+            inits = jClass.getExtOrRun(JavaExts.STATIC_INIT, jClass, $ -> {
+                List<Consumer<IRBuilder>> list = new ArrayList<>();
+                JavaMethod method = new JavaMethod(jClass, "<clinit>", "()V", Opcodes.ACC_STATIC);
+                jClass.methods.add(method);
+                method.attachExt(JavaExts.METHOD_IMPL, Lazy.lazy(() -> {
+                    Function func = new Function();
+                    func.attachExt(JavaExts.FUNCTION_METHOD, method);
+                    IRBuilder ib = new IRBuilder(func, func.newBb());
+                    synchronized (jClass) {
+                        for (Consumer<IRBuilder> it : list) {
+                            it.accept(ib);
+                        }
+                    }
+                    ib.insertCtrl(CommonOps.RETURN.insn().jumpsTo());
+                    return func;
+                }));
+                jClass.attachExt(JavaExts.STATIC_INIT, list);
+                return null;
+            });
+            inits.add(init);
+        }
+    }
+
     /**
      * Emit code to trap with the given message if a given instruction jumps.
      *
@@ -15,6 +15,9 @@ import java.util.List;
  * A map from WebAssembly opcodes to values.
  * <p>
  * Values should not be null.
+ * <p>
+ * This is not synchronized. Once populated (e.g. in a static initializer) it may
+ * be read from multiple threads at once.
  *
  * @param <T> The type of value in the map.
  */
@@ -5,6 +5,9 @@ import java.util.function.UnaryOperator;
 
 /**
  * A lazily-initialized value.
+ * <p>
+ * This is safe to use from multiple threads. The thunk will be run at most once,
+ * and threads that {@link #get()} the value concurrently will wait for it.
  *
  * @param <T> The type of the value.
  */
@@ -12,7 +15,7 @@ public final class Lazy<T> implements Supplier<T> {
     /**
      * The function creating the value.
      */
-    private Supplier<T> thunk;
+    private volatile Supplier<T> thunk;
     /**
      * The value.
      */
@@ -46,8 +49,14 @@ public final class Lazy<T> implements Supplier<T> {
     @Override
     public T get() {
         if (thunk != null) {
-            value = thunk.get();
-            thunk = null;
+            synchronized (this) {
+                // the volatile write of thunk publishes the value
+                Supplier<T> thunk = this.thunk;
+                if (thunk != null) {
+                    value = thunk.get();
+                    this.thunk = null;
+                }
+            }
         }
         return value;
     }
@@ -57,7 +66,7 @@ public final class Lazy<T> implements Supplier<T> {
      *
      * @param op The function to apply.
      */
-    public void mapInPlace(UnaryOperator<T> op) {
+    public synchronized void mapInPlace(UnaryOperator<T> op) {
         if (thunk == null) {
             T value = this.value;
             this.value = null;
@@ -76,8 +85,8 @@ public final class Lazy<T> implements Supplier<T> {
      *
      * @param value The new value.
      */
-    public void set(T value) {
-        this.thunk = null;
+    public synchronized void set(T value) {
         this.value = value;
+        this.thunk = null;
     }
 }
@@ -0,0 +1,137 @@
+package io.github.eutro.wasm2j.test;
+
+import io.github.eutro.jwasm.tree.ModuleNode;
+import io.github.eutro.wasm2j.core.conf.itf.WirJavaConventionFactory;
+import io.github.eutro.wasm2j.core.ext.WasmExts;
+import io.github.eutro.wasm2j.core.ops.WasmOps;
+import io.github.eutro.wasm2j.core.passes.opts.DevirtualizeTables;
+import io.github.eutro.wasm2j.core.ssa.BasicBlock;
+import io.github.eutro.wasm2j.core.ssa.Effect;
+import io.github.eutro.wasm2j.core.ssa.Function;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Tests that {@link DevirtualizeTables} leaves calls through tables that can change indirect,
+ * so that they see the changed table.
+ */
+public class DevirtualizeTablesTest {
+    private static final String MODULE = "(module" +
+            " (type $t (func (param i32) (result i32)))" +
+            " (table 2 funcref)" +
+            " (elem (i32.const 0) $f0)" +
+            " (elem func $f1)" + // passive, for table.init
+            "%s" +
+            " (func $f0 (type $t) (i32.add (local.get 0) (i32.const 1)))" +
+            " (func $f1 (type $t) (i32.mul (local.get 0) (i32.const 10)))" +
+            " (func (param i32 i32) (result i32)" + // _func2: a single call to a slot
+            "  (call_indirect (type $t) (local.get 1) (local.get 0)))" +
+            " (func %s)" + // _func3: change the table
+            ")";
+
+    private static class Compiled {
+        int indirectCalls;
+        final Class<?> theClass;
+
+        Compiled(String fields, String mutation, String name) {
+            theClass = TestCompiler.compile(String.format(MODULE, fields, mutation),
+                    WirJavaConventionFactory.builder(),
+                    "dev/eutro/" + name,
+                    module -> {
+                        DevirtualizeTables.INSTANCE.runInPlace(module);
+                        ModuleNode node = module.getExtOrThrow(WasmExts.MODULE);
+                        Function call = module.funcMap.get(node.codes.codes.get(2).expr).get();
+                        for (BasicBlock block : call.blocks) {
+                            for (Effect effect : block.getEffects()) {
+                                if (effect.insn().op.key == WasmOps.CALL_INDIRECT) indirectCalls++;
+                            }
+                        }
+                        return module;
+                    });
+        }
+
+        Compiled(String mutation, String name) {
+            this("", mutation, name);
+        }
+
+        MethodHandle[] funcs() throws Throwable {
+            MethodHandle[] funcs = new MethodHandle[2];
+            Object instance = TestCompiler.instantiate(theClass);
+            funcs[0] = TestCompiler.method(theClass, instance, "_func2", int.class, int.class);
+            funcs[1] = TestCompiler.method(theClass, instance, "_func3");
+            return funcs;
+        }
+    }
+
+    /**
+     * Check that the call stays indirect, then that it sees the table after running the mutation.
+     */
+    private static void assertSeesMutation(String mutation, String name, int slot, int expected) throws Throwable {
+        Compiled compiled = new Compiled(mutation, name);
+        Assertions.assertEquals(1, compiled.indirectCalls, "indirect calls left");
+        MethodHandle[] funcs = compiled.funcs();
+        Assertions.assertEquals(43, (int) funcs[0].invoke(0, 42));
+        funcs[1].invoke();
+        Assertions.assertEquals(expected, (int) funcs[0].invoke(slot, 42));
+    }
+
+    @Test
+    void testUnchangedTable() throws Throwable {
+        Compiled compiled = new Compiled("", "Devirtualized");
+        Assertions.assertEquals(0, compiled.indirectCalls, "indirect calls left");
+        MethodHandle call = compiled.funcs()[0];
+        Assertions.assertEquals(43, (int) call.invoke(0, 42));
+        Assertions.assertEquals("uninitialized element", Assertions.assertThrows(RuntimeException.class,
+                () -> call.invoke(1, 42)).getMessage());
+    }
+
+    @Test
+    void testTableSet() throws Throwable {
+        assertSeesMutation("(table.set 0 (i32.const 1) (ref.func $f1))", "TableSet", 1, 420);
+    }
+
+    @Test
+    void testTableGrow() throws Throwable {
+        assertSeesMutation("(drop (table.grow 0 (ref.func $f1) (i32.const 1)))", "TableGrow", 2, 420);
+    }
+
+    @Test
+    void testTableFill() throws Throwable {
+        assertSeesMutation("(table.fill 0 (i32.const 0) (ref.func $f1) (i32.const 2))", "TableFill", 0, 420);
+    }
+
+    @Test
+    void testTableInit() throws Throwable {
+        assertSeesMutation("(table.init 0 1 (i32.const 0) (i32.const 0) (i32.const 1))", "TableInit", 0, 420);
+    }
+
+    @Test
+    void testTableCopy() throws Throwable {
+        assertSeesMutation("(table.copy 0 0 (i32.const 1) (i32.const 0) (i32.const 1))", "TableCopy", 1, 43);
+    }
+
+    @Test
+    void testNonConstantOffset() throws Throwable {
+        Compiled compiled = new Compiled(
+                " (global $off i32 (i32.const 1))" +
+                        " (elem (global.get $off) $f1)",
+                "",
+                "GlobalOffset");
+        Assertions.assertEquals(1, compiled.indirectCalls, "indirect calls left");
+        MethodHandle call = compiled.funcs()[0];
+        Assertions.assertEquals(43, (int) call.invoke(0, 42));
+        Assertions.assertEquals(420, (int) call.invoke(1, 42));
+    }
+
+    @Test
+    void testOutOfBoundsSegment() {
+        Compiled compiled = new Compiled(" (elem (i32.const 1) $f1 $f1)", "", "OutOfBoundsSegment");
+        Assertions.assertEquals(1, compiled.indirectCalls, "indirect calls left");
+        // the module can't be instantiated anyway
+        InvocationTargetException e = Assertions.assertThrows(InvocationTargetException.class, compiled::funcs);
+        Assertions.assertInstanceOf(IndexOutOfBoundsException.class, e.getCause());
+    }
+}
@@ -0,0 +1,167 @@
+package io.github.eutro.wasm2j.test;
+
+import io.github.eutro.wasm2j.core.conf.impl.ReturnSlotCallingConvention;
+import io.github.eutro.wasm2j.core.conf.itf.WirJavaConventionFactory;
+import io.github.eutro.wasm2j.core.ext.CommonExts;
+import io.github.eutro.wasm2j.core.ext.JavaExts;
+import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.ops.JavaOps;
+import io.github.eutro.wasm2j.core.ops.Op;
+import io.github.eutro.wasm2j.core.ops.OpKey;
+import io.github.eutro.wasm2j.core.passes.opts.EliminateCommonSubexprs;
+import io.github.eutro.wasm2j.core.ssa.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnNode;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * Tests {@link EliminateCommonSubexprs} on small hand-built functions.
+ * <p>
+ * Field reads are only merged when nothing between them can write the field,
+ * which return slots rely on to see the results of each call.
+ */
+public class EliminateCommonSubexprsTest {
+    private final JClass jClass = new JClass("dev/eutro/Cse");
+    private final JClass.JavaField field = new JClass.JavaField(jClass, "x", "I", false);
+    private final JClass.JavaMethod callee = new JClass.JavaMethod(jClass, "callee", "()V", Opcodes.ACC_PUBLIC);
+    private final JClass.JavaMethod abs = JClass.emptyFromJava(Math.class).lookupMethod("abs", int.class);
+
+    private final Function func = new Function();
+    private final IRBuilder ib = new IRBuilder(func, func.newBb());
+    private final Var self = ib.insert(JavaOps.THIS.insn(), "this");
+
+    private Var read() {
+        return ib.insert(JavaOps.GET_FIELD.create(field).insn(self), "x");
+    }
+
+    private void returnSum(Var a, Var b) {
+        ib.insertCtrl(CommonOps.RETURN.insn(ib.insert(JavaOps.IADD.insn(a, b), "sum")).jumpsTo());
+    }
+
+    private void nextBlock() {
+        BasicBlock next = func.newBb();
+        ib.insertCtrl(Control.br(next));
+        ib.setBlock(next);
+    }
+
+    private int countAfterCse(OpKey key) {
+        EliminateCommonSubexprs.INSTANCE.runInPlace(func);
+        int count = 0;
+        for (BasicBlock block : func.blocks) {
+            for (Effect effect : block.getEffects()) {
+                if (effect.insn().op.key == key) count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    void testValuesMergedAcrossBlocks() {
+        Var a = ib.insert(CommonOps.ARG.create(0).insn(), "a");
+        Var b = ib.insert(CommonOps.ARG.create(1).insn(), "b");
+        Var first = ib.insert(JavaOps.IMUL.insn(a, b), "first");
+        nextBlock();
+        Var second = ib.insert(JavaOps.IMUL.insn(a, b), "second");
+        returnSum(first, second);
+        Assertions.assertEquals(1, countAfterCse(JavaOps.IMUL.key));
+    }
+
+    private static Op deterministic(AbstractInsnNode... insns) {
+        Op op = JavaOps.insns(insns);
+        op.attachExt(CommonExts.IS_DETERMINISTIC, true);
+        return op;
+    }
+
+    @Test
+    void testDifferentInsnsNotMerged() {
+        Var a = ib.insert(CommonOps.ARG.create(0).insn(), "a");
+        // neither is a single arithmetic instruction
+        Var first = ib.insert(deterministic(new InsnNode(Opcodes.INEG), new InsnNode(Opcodes.INEG)).insn(a), "first");
+        Var second = ib.insert(deterministic(new InsnNode(Opcodes.ICONST_1), new InsnNode(Opcodes.IADD)).insn(a), "second");
+        ib.insertCtrl(CommonOps.RETURN.insn(first, second).jumpsTo());
+        Assertions.assertEquals(2, countAfterCse(JavaOps.INSNS));
+    }
+
+    @Test
+    void testEqualInsnsMerged() {
+        Var a = ib.insert(CommonOps.ARG.create(0).insn(), "a");
+        Var first = ib.insert(deterministic(new InsnNode(Opcodes.INEG), new InsnNode(Opcodes.INEG)).insn(a), "first");
+        nextBlock();
+        // separately created, but the same instructions
+        Var second = ib.insert(deterministic(new InsnNode(Opcodes.INEG), new InsnNode(Opcodes.INEG)).insn(a), "second");
+        ib.insertCtrl(CommonOps.RETURN.insn(first, second).jumpsTo());
+        Assertions.assertEquals(1, countAfterCse(JavaOps.INSNS));
+    }
+
+    @Test
+    void testReadsMergedInBlock() {
+        Var first = read();
+        // static JDK methods can't write the field
+        ib.insert(JavaOps.INVOKE.create(abs).insn(first), "abs");
+        Var second = read();
+        returnSum(first, second);
+        Assertions.assertEquals(1, countAfterCse(JavaOps.GET_FIELD));
+    }
+
+    @Test
+    void testReadsNotMergedAcrossPutField() {
+        Var first = read();
+        ib.insert(JavaOps.PUT_FIELD.create(field)
+                .insn(self, ib.insert(CommonOps.constant(1), "one"))
+                .assignTo());
+        Var second = read();
+        returnSum(first, second);
+        Assertions.assertEquals(2, countAfterCse(JavaOps.GET_FIELD));
+    }
+
+    @Test
+    void testReadsNotMergedAcrossCall() {
+        Var first = read();
+        ib.insert(JavaOps.INVOKE.create(callee).insn(self).assignTo());
+        Var second = read();
+        returnSum(first, second);
+        Assertions.assertEquals(2, countAfterCse(JavaOps.GET_FIELD));
+    }
+
+    @Test
+    void testReadsNotMergedAcrossBlocks() {
+        Var first = read();
+        nextBlock();
+        Var second = read();
+        returnSum(first, second);
+        Assertions.assertEquals(2, countAfterCse(JavaOps.GET_FIELD));
+    }
+
+    @Test
+    void testImmutableReadsMergedAcrossCall() {
+        field.attachExt(JavaExts.FIELD_IMMUTABLE, true);
+        Var first = read();
+        ib.insert(JavaOps.INVOKE.create(callee).insn(self).assignTo());
+        nextBlock();
+        Var second = read();
+        returnSum(first, second);
+        Assertions.assertEquals(1, countAfterCse(JavaOps.GET_FIELD));
+    }
+
+    @Test
+    void testReturnSlotsNotMerged() throws Throwable {
+        // both calls write the same return slot, which must be read again after the second one
+        Class<?> theClass = TestCompiler.compile("(module" +
+                        " (func $pair (param i32) (result i32 i32)" +
+                        "  (local.get 0) (i32.mul (local.get 0) (i32.const 10)))" +
+                        " (func (param i32 i32) (result i32) (local i32 i32)" + // _func1
+                        "  (call $pair (local.get 0)) (local.set 2) (drop)" +
+                        "  (call $pair (local.get 1)) (local.set 3) (drop)" +
+                        "  (i32.sub (local.get 3) (local.get 2)))" +
+                        ")",
+                WirJavaConventionFactory.builder()
+                        .setCallingConvention(ReturnSlotCallingConvention.INSTANCE),
+                "dev/eutro/CseReturnSlots");
+        MethodHandle func = TestCompiler.funcs(theClass, 1, 1, int.class, int.class)[0];
+        Assertions.assertEquals(40, (int) func.invoke(1, 5));
+    }
+}
@@ -0,0 +1,37 @@
+package io.github.eutro.wasm2j.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.tree.ClassNode;
+
+public class FramesBenchTest {
+
+    public static final int FUNC_COUNT = 200;
+
+    private static ClassNode compileModule() {
+        StringBuilder sb = new StringBuilder("(module");
+        for (int i = 0; i < FUNC_COUNT; i++) {
+            sb.append(" (func (export \"f").append(i).append("\") (param i32 i64) (result i64) (local f64)")
+                    .append("  (block (loop")
+                    .append("    (br_if 1 (i32.eqz (local.get 0)))")
+                    .append("    (local.set 1 (i64.add (local.get 1) (select")
+                    .append("      (i64.extend_i32_u (local.get 0))")
+                    .append("      (i64.const ").append(i).append(")")
+                    .append("      (i32.and (local.get 0) (i32.const 1)))))")
+                    .append("    (local.set 2 (f64.add (local.get 2) (f64.convert_i32_s (local.get 0))))")
+                    .append("    (local.set 0 (i32.sub (local.get 0) (i32.const 1)))")
+                    .append("    (br 0)))")
+                    .append("  (i64.add (local.get 1) (i64.trunc_f64_s (local.get 2))))");
+        }
+        sb.append(")");
+        return SpecTest.PASS.run(TestCompiler.parse(sb.toString()));
+    }
+
+    @Test
+    void testEmittedFrames() throws Throwable {
+        ClassNode node = compileModule();
+        Class<?> theClass = TestCompiler.define(node);
+        // instantiating links the class, which verifies the emitted frames
+        Assertions.assertNotNull(theClass.getConstructor().newInstance());
+    }
+}
@@ -0,0 +1,209 @@
+package io.github.eutro.wasm2j.test;
+
+import io.github.eutro.wasm2j.core.conf.impl.ByteArrayMemoryConvention;
+import io.github.eutro.wasm2j.core.conf.itf.WirJavaConventionFactory;
+import io.github.eutro.wasm2j.core.ext.JavaExts;
+import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.ops.JavaOps;
+import io.github.eutro.wasm2j.core.passes.IRPass;
+import io.github.eutro.wasm2j.core.passes.Passes;
+import io.github.eutro.wasm2j.core.passes.convert.WasmToWir;
+import io.github.eutro.wasm2j.core.passes.opts.HoistFieldLoads;
+import io.github.eutro.wasm2j.core.ssa.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.invoke.MethodHandle;
+import java.util.*;
+
+/**
+ * Tests {@link HoistFieldLoads}, both on small hand-built loops and on compiled modules
+ * whose loops grow memory or access a byte array memory.
+ */
+public class HoistFieldLoadsTest {
+    private final JClass jClass = new JClass("dev/eutro/Hoist");
+    private final JClass.JavaField x = new JClass.JavaField(jClass, "x", "I", false);
+    private final JClass.JavaField y = new JClass.JavaField(jClass, "y", "I", false);
+    private final JClass.JavaMethod callee = new JClass.JavaMethod(jClass, "callee", "()V", Opcodes.ACC_PUBLIC);
+    private final JClass.JavaMethod abs = JClass.emptyFromJava(Math.class).lookupMethod("abs", int.class);
+    private final JClass.JavaMethod getInt = new JClass.JavaMethod(ByteArrayMemoryConvention.UNSAFE_CLASS,
+            "getInt", "(Ljava/lang/Object;J)I", Opcodes.ACC_PUBLIC);
+    private final JClass.JavaMethod putInt = new JClass.JavaMethod(ByteArrayMemoryConvention.UNSAFE_CLASS,
+            "putInt", "(Ljava/lang/Object;JI)V", Opcodes.ACC_PUBLIC);
+
+    private final Function func = new Function();
+    private final BasicBlock entry = func.newBb();
+    private final BasicBlock header = func.newBb();
+    private final BasicBlock exit = func.newBb();
+    private final IRBuilder ib = new IRBuilder(func, entry);
+    private final Var self = ib.insert(JavaOps.THIS.insn(), "this");
+
+    private interface Body {
+        void build(IRBuilder ib);
+    }
+
+    /**
+     * Build a loop which reads x and y on every iteration, until x is zero.
+     */
+    private void buildLoop(Body body) {
+        ib.insertCtrl(Control.br(header));
+        ib.setBlock(header);
+        Var xv = ib.insert(JavaOps.GET_FIELD.create(x).insn(self), "x");
+        Var yv = ib.insert(JavaOps.GET_FIELD.create(y).insn(self), "y");
+        body.build(ib);
+        ib.insertCtrl(JavaOps.BR_COND.create(JavaOps.JumpType.IFNE).insn(xv).jumpsTo(header, exit));
+        ib.setBlock(exit);
+        ib.insertCtrl(CommonOps.RETURN.insn(ib.insert(JavaOps.IADD.insn(xv, yv), "sum")).jumpsTo());
+        HoistFieldLoads.INSTANCE.runInPlace(func);
+    }
+
+    private static int countLoads(BasicBlock block, JClass.JavaField field) {
+        int count = 0;
+        for (Effect effect : block.getEffects()) {
+            if (JavaOps.GET_FIELD.argNullable(effect.insn().op) == field) count++;
+        }
+        return count;
+    }
+
+    private void assertHoisted(JClass.JavaField field, boolean hoisted) {
+        Assertions.assertEquals(hoisted ? 1 : 0, countLoads(entry, field), field.name + " in the preheader");
+        Assertions.assertEquals(hoisted ? 0 : 1, countLoads(header, field), field.name + " in the loop");
+    }
+
+    @Test
+    void testHoistedWithoutCalls() {
+        buildLoop(ib -> {});
+        assertHoisted(x, true);
+        assertHoisted(y, true);
+    }
+
+    @Test
+    void testHoistedAcrossJdkCall() {
+        buildLoop(ib -> ib.insert(JavaOps.INVOKE.create(abs).insn(ib.insert(CommonOps.constant(-1), "k")), "abs"));
+        assertHoisted(x, true);
+        assertHoisted(y, true);
+    }
+
+    @Test
+    void testHoistedAcrossUnsafeAccess() {
+        buildLoop(ib -> {
+            Var nil = ib.insert(CommonOps.constant(null), "nil");
+            Var addr = ib.insert(CommonOps.constant(16L), "addr");
+            Var loaded = ib.insert(JavaOps.INVOKE.create(getInt).insn(nil, nil, addr), "loaded");
+            ib.insert(JavaOps.INVOKE.create(putInt).insn(nil, nil, addr, loaded).assignTo());
+        });
+        assertHoisted(x, true);
+        assertHoisted(y, true);
+    }
+
+    @Test
+    void testNotHoistedAcrossCall() {
+        buildLoop(ib -> ib.insert(JavaOps.INVOKE.create(callee).insn(self).assignTo()));
+        assertHoisted(x, false);
+        assertHoisted(y, false);
+    }
+
+    @Test
+    void testWrittenFieldNotHoisted() {
+        buildLoop(ib -> ib.insert(JavaOps.PUT_FIELD.create(x)
+                .insn(self, ib.insert(CommonOps.constant(0), "zero"))
+                .assignTo()));
+        assertHoisted(x, false);
+        assertHoisted(y, true);
+    }
+
+    private static final String GROW_MODULE = "(module" +
+            " (memory 1)" +
+            " (data (i32.const 0) \"\\01\\00\\00\\00\\02\\00\\00\\00\\03\\00\\00\\00\")" +
+            " (func $grow (drop (memory.grow (i32.const 1))))" +
+            " (func (param i32) (result i32) (local i32)" + // _func1: grow directly, then use the new page
+            "  (block (loop" +
+            "   (br_if 1 (i32.eqz (local.get 0)))" +
+            "   (drop (memory.grow (i32.const 1)))" +
+            "   (i32.store (i32.sub (i32.mul (memory.size) (i32.const 0x10000)) (i32.const 4)) (local.get 0))" +
+            "   (local.set 1 (i32.add (local.get 1)" +
+            "    (i32.load (i32.sub (i32.mul (memory.size) (i32.const 0x10000)) (i32.const 4)))))" +
+            "   (local.set 0 (i32.sub (local.get 0) (i32.const 1)))" +
+            "   (br 0)))" +
+            "  (local.get 1))" +
+            " (func (param i32) (result i32) (local i32)" + // _func2: grow in a call, then use the new page
+            "  (block (loop" +
+            "   (br_if 1 (i32.eqz (local.get 0)))" +
+            "   (call $grow)" +
+            "   (i32.store (i32.sub (i32.mul (memory.size) (i32.const 0x10000)) (i32.const 4)) (local.get 0))" +
+            "   (local.set 1 (i32.add (local.get 1)" +
+            "    (i32.load (i32.sub (i32.mul (memory.size) (i32.const 0x10000)) (i32.const 4)))))" +
+            "   (local.set 0 (i32.sub (local.get 0) (i32.const 1)))" +
+            "   (br 0)))" +
+            "  (local.get 1))" +
+            " (func (param i32) (result i32) (local i32)" + // _func3: no calls, only loads
+            "  (block (loop" +
+            "   (br_if 1 (i32.eqz (local.get 0)))" +
+            "   (local.set 0 (i32.sub (local.get 0) (i32.const 1)))" +
+            "   (local.set 1 (i32.add (local.get 1) (i32.load (i32.mul (local.get 0) (i32.const 4)))))" +
+            "   (br 0)))" +
+            "  (local.get 1))" +
+            ")";
+
+    private static final String SUM_MODULE = "(module" +
+            " (memory 1)" +
+            " (data (i32.const 0) \"\\01\\00\\00\\00\\02\\00\\00\\00\\03\\00\\00\\00\")" +
+            " (func (param i32) (result i32) (local i32)" + // _func0: sum, and store running totals
+            "  (block (loop" +
+            "   (br_if 1 (i32.eqz (local.get 0)))" +
+            "   (local.set 0 (i32.sub (local.get 0) (i32.const 1)))" +
+            "   (local.set 1 (i32.add (local.get 1) (i32.load (i32.mul (local.get 0) (i32.const 4)))))" +
+            "   (i32.store (i32.add (i32.mul (local.get 0) (i32.const 4)) (i32.const 16)) (local.get 1))" +
+            "   (br 0)))" +
+            "  (local.get 1))" +
+            ")";
+
+    private static boolean inCycle(BasicBlock block) {
+        Set<BasicBlock> seen = new HashSet<>();
+        Deque<BasicBlock> stack = new ArrayDeque<>(block.getControl().targets);
+        while (!stack.isEmpty()) {
+            BasicBlock next = stack.pop();
+            if (next == block) return true;
+            if (seen.add(next)) stack.addAll(next.getControl().targets);
+        }
+        return false;
+    }
+
+    @Test
+    void testByteArrayLoopLoadsHoisted() throws Throwable {
+        List<String> loopLoads = new ArrayList<>();
+        IRPass<Function, Function> findLoopLoads = func -> {
+            JClass.JavaMethod method = func.getNullable(JavaExts.FUNCTION_METHOD);
+            if (method == null || !method.name.equals("_func0")) return func;
+            for (BasicBlock block : func.blocks) {
+                if (!inCycle(block)) continue;
+                for (Effect effect : block.getEffects()) {
+                    JClass.JavaField field = JavaOps.GET_FIELD.argNullable(effect.insn().op);
+                    if (field != null) loopLoads.add(field.name);
+                }
+            }
+            return func;
+        };
+        JClass jClass = TestCompiler.lower(WasmToWir.INSTANCE.run(TestCompiler.parse(SUM_MODULE)),
+                WirJavaConventionFactory.builder()
+                        .setModifyMemConvention(ByteArrayMemoryConvention.MODIFIER),
+                "dev/eutro/HoistArray",
+                Passes.javaPreemit(findLoopLoads));
+        Class<?> theClass = TestCompiler.define(TestCompiler.emit(jClass));
+        // the unsafe accesses don't write fields, so the array and the Unsafe are loaded once, outside the loop
+        Assertions.assertEquals(Collections.emptyList(), loopLoads);
+        Assertions.assertEquals(1 + 2 + 3, (int) TestCompiler.funcs(theClass, 0, 1, int.class)[0].invoke(3));
+    }
+
+    @Test
+    void testLoopsSeeGrownMemory() throws Throwable {
+        Class<?> theClass = TestCompiler.compile(GROW_MODULE, WirJavaConventionFactory.builder(), "dev/eutro/HoistGrow");
+        MethodHandle[] funcs = TestCompiler.funcs(theClass, 1, 3, int.class);
+        Assertions.assertEquals(1 + 2 + 3, (int) funcs[2].invoke(3));
+        // a stale buffer would make the stores to each new page fail
+        Assertions.assertEquals(3 + 2 + 1, (int) funcs[0].invoke(3));
+        Assertions.assertEquals(3 + 2 + 1, (int) funcs[1].invoke(3));
+        Assertions.assertEquals(1 + 2 + 3, (int) funcs[2].invoke(3));
+    }
+}
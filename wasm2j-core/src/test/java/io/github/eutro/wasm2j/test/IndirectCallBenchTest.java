@@ -0,0 +1,113 @@
+package io.github.eutro.wasm2j.test;
+
+import io.github.eutro.wasm2j.core.conf.impl.InlineCacheCallingConvention;
+import io.github.eutro.wasm2j.core.conf.itf.WirJavaConventionFactory;
+import io.github.eutro.wasm2j.core.passes.opts.DevirtualizeTables;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.WrongMethodTypeException;
+
+public class IndirectCallBenchTest {
+    private static final String MODULE = "(module" +
+            " (type $t (func (param i32) (result i32)))" +
+            " (table 10 funcref)" +
+            " (elem (i32.const 0) $f0 $f1 $f2 $f3 $f4 $f5 $f6 $f7 $g)" +
+            " (func $f0 (type $t) (i32.add (local.get 0) (i32.const 1)))" +
+            " (func $f1 (type $t) (i32.sub (local.get 0) (i32.const 2)))" +
+            " (func $f2 (type $t) (i32.xor (local.get 0) (i32.const 3)))" +
+            " (func $f3 (type $t) (i32.mul (local.get 0) (i32.const 5)))" +
+            " (func $f4 (type $t) (i32.rotl (local.get 0) (i32.const 7)))" +
+            " (func $f5 (type $t) (i32.or (local.get 0) (i32.const 11)))" +
+            " (func $f6 (type $t) (i32.shr_u (local.get 0) (i32.const 1)))" +
+            " (func $f7 (type $t) (i32.and (local.get 0) (i32.const 0x7fffffff)))" +
+            " (func $g (param i64) (result i64) (local.get 0))" +
+            " (func (param i32 i32) (result i32) (local i32)" + // _func9: n calls, cycling through mask + 1 slots
+            "  (block (loop" +
+            "   (br_if 1 (i32.eqz (local.get 0)))" +
+            "   (local.set 2 (call_indirect (type $t) (local.get 2) (i32.and (local.get 0) (local.get 1))))" +
+            "   (local.set 0 (i32.sub (local.get 0) (i32.const 1)))" +
+            "   (br 0)))" +
+            "  (local.get 2))" +
+            " (func (param i32 i32) (result i32)" + // _func10: a single call to a slot
+            "  (call_indirect (type $t) (local.get 1) (local.get 0)))" +
+            ")";
+
+    private static MethodHandle[] compile(WirJavaConventionFactory.Builder builder) throws Throwable {
+        return compile(builder, false);
+    }
+
+    private static MethodHandle[] compile(WirJavaConventionFactory.Builder builder, boolean devirtualize) throws Throwable {
+        Class<?> theClass = TestCompiler.compile(MODULE, builder, "dev/eutro/Dispatch", module -> {
+            if (devirtualize) DevirtualizeTables.INSTANCE.runInPlace(module);
+            return module;
+        });
+        return TestCompiler.funcs(theClass, 9, 2, int.class, int.class);
+    }
+
+    private static MethodHandle[] compileBasic() throws Throwable {
+        return compile(WirJavaConventionFactory.builder());
+    }
+
+    private static MethodHandle[] compileCached() throws Throwable {
+        return compile(WirJavaConventionFactory.builder()
+                .setCallingConvention(new InlineCacheCallingConvention(4)));
+    }
+
+    private static MethodHandle[] compileDevirtualized() throws Throwable {
+        return compile(WirJavaConventionFactory.builder(), true);
+    }
+
+    private static <T extends Throwable> T assertFails(Class<T> expected, MethodHandle call, int slot) {
+        return Assertions.assertThrows(expected, () -> {
+            int ignored = (int) call.invokeExact(slot, 42);
+        });
+    }
+
+    private static void assertTraps(String message, MethodHandle call, int slot) {
+        Assertions.assertEquals(message, assertFails(RuntimeException.class, call, slot).getMessage());
+    }
+
+    @Test
+    void testInlineCaches() throws Throwable {
+        MethodHandle[] basic = compileBasic();
+        MethodHandle[] cached = compileCached();
+
+        // monomorphic, polymorphic, then megamorphic
+        for (int mask : new int[]{0, 1, 3, 7}) {
+            Assertions.assertEquals((int) basic[0].invokeExact(10_000, mask), (int) cached[0].invokeExact(10_000, mask));
+        }
+        // still correct once the sites are megamorphic
+        Assertions.assertEquals((int) basic[0].invokeExact(10_000, 1), (int) cached[0].invokeExact(10_000, 1));
+
+        for (int i = 0; i < 8; i++) {
+            Assertions.assertEquals((int) basic[1].invokeExact(i, 42), (int) cached[1].invokeExact(i, 42));
+        }
+        // wrong type, null, and out of bounds fail the same as an uncached call
+        for (MethodHandle call : new MethodHandle[]{basic[1], cached[1]}) {
+            assertFails(WrongMethodTypeException.class, call, 8);
+            assertFails(NullPointerException.class, call, 9);
+            assertFails(ArrayIndexOutOfBoundsException.class, call, 10);
+        }
+    }
+
+    @Test
+    void testDevirtualizeTables() throws Throwable {
+        MethodHandle[] basic = compileBasic();
+        MethodHandle[] devirtualized = compileDevirtualized();
+
+        for (int mask : new int[]{0, 1, 3, 7}) {
+            Assertions.assertEquals((int) basic[0].invokeExact(10_000, mask),
+                    (int) devirtualized[0].invokeExact(10_000, mask));
+        }
+        for (int i = 0; i < 8; i++) {
+            Assertions.assertEquals((int) basic[1].invokeExact(i, 42), (int) devirtualized[1].invokeExact(i, 42));
+        }
+        // wrong type, null, out of bounds, and negative
+        assertTraps("indirect call type mismatch", devirtualized[1], 8);
+        assertTraps("uninitialized element", devirtualized[1], 9);
+        assertTraps("undefined element", devirtualized[1], 10);
+        assertTraps("undefined element", devirtualized[1], -1);
+    }
+}
@@ -1,21 +1,26 @@
 package io.github.eutro.wasm2j.test;
 
+import io.github.eutro.jwasm.tree.ModuleNode;
+import io.github.eutro.wasm2j.core.conf.itf.WirJavaConventionFactory;
 import io.github.eutro.wasm2j.core.intrinsics.ImplClassBytes;
 import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.ops.WasmOps;
 import io.github.eutro.wasm2j.core.passes.IRPass;
 import io.github.eutro.wasm2j.core.passes.convert.JavaToJir;
+import io.github.eutro.wasm2j.core.passes.convert.WasmToWir;
 import io.github.eutro.wasm2j.core.passes.form.SSAify;
-import io.github.eutro.wasm2j.core.ssa.Function;
-import io.github.eutro.wasm2j.core.ssa.IRBuilder;
-import io.github.eutro.wasm2j.core.ssa.Inliner;
-import io.github.eutro.wasm2j.core.ssa.Var;
+import io.github.eutro.wasm2j.core.passes.opts.InlineSmallFunctions;
+import io.github.eutro.wasm2j.core.ssa.*;
+import io.github.eutro.wasm2j.core.ssa.Module;
 import io.github.eutro.wasm2j.core.ssa.display.SSADisplay;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.MethodNode;
 
+import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -69,4 +74,37 @@ public class InlinerTest {
                 "build/ssa/inlined.svg"
         );
     }
+
+    @Test
+    void testInlineSmallFunctions() throws Throwable {
+        ModuleNode node = TestCompiler.parse("(module" +
+                " (func $abs (param i32) (result i32)" + // _func0: two returns, so a phi
+                "  (if (i32.lt_s (local.get 0) (i32.const 0)) (then (return (i32.sub (i32.const 0) (local.get 0)))))" +
+                "  (local.get 0))" +
+                " (func $sq (param i32) (result i32) (i32.mul (local.get 0) (local.get 0)))" + // _func1
+                " (func (param i32) (result i32) (local i32 i32)" + // _func2: sum of squares of abs from -n to n
+                "  (local.set 1 (i32.mul (local.get 0) (i32.const -1)))" +
+                "  (block (loop" +
+                "   (br_if 1 (i32.gt_s (local.get 1) (local.get 0)))" +
+                "   (local.set 2 (i32.add (local.get 2) (call $sq (call $abs (local.get 1)))))" +
+                "   (local.set 1 (i32.add (local.get 1) (i32.const 1)))" +
+                "   (br 0)))" +
+                "  (local.get 2))" +
+                ")");
+        Module wir = WasmToWir.INSTANCE.run(node);
+        InlineSmallFunctions.INSTANCE.runInPlace(wir);
+
+        Function caller = wir.funcMap.get(node.codes.codes.get(2).expr).get();
+        for (BasicBlock block : caller.blocks) {
+            for (Effect effect : block.getEffects()) {
+                Assertions.assertNotSame(WasmOps.CALL, effect.insn().op.key, "call was not inlined");
+            }
+        }
+
+        Class<?> theClass = TestCompiler.compile(wir, WirJavaConventionFactory.builder(), "dev/eutro/Inlined");
+        Method method = theClass.getDeclaredMethod("_func2", int.class);
+        method.setAccessible(true);
+        // 2 * (1 + 4 + 9)
+        Assertions.assertEquals(28, method.invoke(theClass.getConstructor().newInstance(), 3));
+    }
 }
@@ -0,0 +1,263 @@
+package io.github.eutro.wasm2j.test;
+
+import io.github.eutro.wasm2j.core.conf.impl.ByteArrayMemoryConvention;
+import io.github.eutro.wasm2j.core.conf.impl.SegmentedMemoryConvention;
+import io.github.eutro.wasm2j.core.conf.impl.MappedMemoryConvention;
+import io.github.eutro.wasm2j.core.conf.itf.WirJavaConventionFactory;
+import io.github.eutro.wasm2j.core.ext.JavaExts;
+import io.github.eutro.wasm2j.core.ops.JavaOps;
+import io.github.eutro.wasm2j.core.passes.IRPass;
+import io.github.eutro.wasm2j.core.passes.Passes;
+import io.github.eutro.wasm2j.core.passes.convert.WasmToWir;
+import io.github.eutro.wasm2j.core.passes.form.SplitLargeFunctions;
+import io.github.eutro.wasm2j.core.ssa.BasicBlock;
+import io.github.eutro.wasm2j.core.ssa.Effect;
+import io.github.eutro.wasm2j.core.ssa.Function;
+import io.github.eutro.wasm2j.core.ssa.JClass;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class MemoryBenchTest {
+    private static final String MODULE = "(module" +
+            " (memory 1)" +
+            " (data (i32.const 16) \"\\01\\02\\03\\04\\05\\06\\07\\08\")" +
+            " (func (param i32) (result i64) (local i32 i64)" + // _func0: load/store loop
+            "  (block (loop" +
+            "   (br_if 1 (i32.eqz (local.get 0)))" +
+            "   (local.set 1 (i32.and (i32.mul (local.get 0) (i32.const 8)) (i32.const 0xfff8)))" +
+            "   (i64.store (local.get 1) (i64.add (i64.load (local.get 1)) (i64.extend_i32_u (local.get 0))))" +
+            "   (i32.store16 offset=2 (local.get 1) (i32.add (i32.load8_u (local.get 1)) (local.get 0)))" +
+            "   (local.set 2 (i64.add (local.get 2)" +
+            "    (i64.add (i64.load (local.get 1)) (i64.extend_i32_s (i32.load16_s offset=2 (local.get 1))))))" +
+            "   (local.set 0 (i32.sub (local.get 0) (i32.const 1)))" +
+            "   (br 0)))" +
+            "  (local.get 2))" +
+            " (func (param i32) (result i64)" + // _func1: load at an address
+            "  (i64.load (local.get 0)))" +
+            " (func (param i32) (result i32)" + // _func2: grow, fill and copy, then size
+            "  (drop (memory.grow (local.get 0)))" +
+            "  (memory.fill (i32.const 0x10000) (i32.const 0xab) (i32.const 8))" +
+            "  (memory.copy (i32.const 0x10008) (i32.const 16) (i32.const 8))" +
+            "  (memory.size))" +
+            ")";
+
+    public static final int GROW_PAGES = 1024;
+
+    private static final String GROW_MODULE = "(module" +
+            " (memory 1)" +
+            " (func (param i32) (result i32) (local i32)" + // _func0: grow one page at a time, touching each
+            "  (block (loop" +
+            "   (br_if 1 (i32.eqz (local.get 0)))" +
+            "   (local.set 1 (memory.grow (i32.const 1)))" +
+            "   (br_if 1 (i32.lt_s (local.get 1) (i32.const 0)))" +
+            "   (i32.store (i32.sub (i32.mul (i32.add (local.get 1) (i32.const 1)) (i32.const 0x10000)) (i32.const 4))" +
+            "    (i32.add (i32.load (i32.const 0)) (local.get 1)))" +
+            "   (i32.store (i32.const 0) (i32.add (i32.load (i32.const 0)) (i32.const 1)))" +
+            "   (local.set 0 (i32.sub (local.get 0) (i32.const 1)))" +
+            "   (br 0)))" +
+            "  (memory.size))" +
+            " (func (param i32) (result i32)" + // _func1: load at an address
+            "  (i32.load (local.get 0)))" +
+            ")";
+
+    private static final String OFFSET_MODULE = "(module" +
+            " (memory 1)" +
+            " (data (i32.const 16) \"\\01\\02\\03\\04\\05\\06\\07\\08\")" +
+            " (func (param i32) (result i32)" + // _func0: two accesses to the same base
+            "  (i32.add (i32.load8_u (local.get 0)) (i32.load offset=4 (local.get 0))))" +
+            " (func (param i32) (result i32)" + // _func1: a lone offset access
+            "  (i32.load offset=8 (local.get 0)))" +
+            " (func (param i32) (result i32) (local i32 i32)" + // _func2: walk n 16 byte structs
+            "  (block (loop" +
+            "   (br_if 1 (i32.eqz (local.get 0)))" +
+            "   (local.set 0 (i32.sub (local.get 0) (i32.const 1)))" +
+            "   (local.set 1 (i32.mul (local.get 0) (i32.const 16)))" +
+            "   (local.set 2 (i32.add (local.get 2) (i32.add" +
+            "    (i32.add (i32.load (local.get 1)) (i32.load offset=4 (local.get 1)))" +
+            "    (i32.add (i32.load offset=8 (local.get 1)) (i32.load offset=12 (local.get 1))))))" +
+            "   (br 0)))" +
+            "  (local.get 2))" +
+            " (func (param i32) (result i32) (local i32 i32)" + // _func3: sum n words at a wrapping cursor
+            "  (block (loop" +
+            "   (br_if 1 (i32.eqz (local.get 0)))" +
+            "   (local.set 0 (i32.sub (local.get 0) (i32.const 1)))" +
+            "   (local.set 2 (i32.add (local.get 2) (i32.load offset=8 (local.get 1))))" +
+            "   (local.set 1 (i32.and (i32.add (local.get 1) (i32.const 4)) (i32.const 0xfffc)))" +
+            "   (br 0)))" +
+            "  (local.get 2))" +
+            ")";
+
+    private static MethodHandle[] compile(WirJavaConventionFactory.Builder builder) throws Throwable {
+        return compile(builder, MODULE, 3);
+    }
+
+    private static MethodHandle[] compile(WirJavaConventionFactory.Builder builder,
+                                          String module,
+                                          int funcCount) throws Throwable {
+        return TestCompiler.funcs(TestCompiler.compile(module, builder, "dev/eutro/Example"),
+                0, funcCount, int.class);
+    }
+
+    private static MethodHandle[] compileBuffer() throws Throwable {
+        return compile(WirJavaConventionFactory.builder());
+    }
+
+    private static MethodHandle[] compileArray() throws Throwable {
+        return compile(WirJavaConventionFactory.builder()
+                .setModifyMemConvention(ByteArrayMemoryConvention.MODIFIER));
+    }
+
+    private static MethodHandle[] compileSegmented() throws Throwable {
+        return compile(WirJavaConventionFactory.builder()
+                .setModifyMemConvention(SegmentedMemoryConvention.MODIFIER));
+    }
+
+    private static MethodHandle[] compileMapped(Path file) throws Throwable {
+        return compile(WirJavaConventionFactory.builder()
+                .setModifyMemConvention(MappedMemoryConvention.modifier(i -> file.toString())));
+    }
+
+    @Test
+    void testByteArrayMemory() throws Throwable {
+        MethodHandle[] buffer = compileBuffer();
+        MethodHandle[] array = compileArray();
+
+        Assertions.assertEquals((long) buffer[1].invokeExact(16), (long) array[1].invokeExact(16));
+        Assertions.assertEquals(0x0807060504030201L, (long) array[1].invokeExact(16));
+        Assertions.assertEquals((long) buffer[0].invokeExact(10_000), (long) array[0].invokeExact(10_000));
+
+        Assertions.assertThrows(Throwable.class, () -> {
+            long ignored = (long) array[1].invokeExact(0xFFF9);
+        });
+        Assertions.assertThrows(Throwable.class, () -> {
+            long ignored = (long) array[1].invokeExact(-1);
+        });
+
+        Assertions.assertEquals((int) buffer[2].invokeExact(1), (int) array[2].invokeExact(1));
+        Assertions.assertEquals(0xababababababababL, (long) array[1].invokeExact(0x10000));
+        Assertions.assertEquals((long) buffer[1].invokeExact(0x10008), (long) array[1].invokeExact(0x10008));
+    }
+
+    @Test
+    void testSegmentedMemory() throws Throwable {
+        MethodHandle[] buffer = compileBuffer();
+        MethodHandle[] segmented = compileSegmented();
+
+        Assertions.assertEquals(0x0807060504030201L, (long) segmented[1].invokeExact(16));
+        Assertions.assertEquals((long) buffer[0].invokeExact(10_000), (long) segmented[0].invokeExact(10_000));
+
+        Assertions.assertThrows(Throwable.class, () -> {
+            long ignored = (long) segmented[1].invokeExact(0xFFF9);
+        });
+        Assertions.assertThrows(Throwable.class, () -> {
+            long ignored = (long) segmented[1].invokeExact(-1);
+        });
+
+        Assertions.assertEquals((int) buffer[2].invokeExact(1), (int) segmented[2].invokeExact(1));
+        Assertions.assertEquals(0xababababababababL, (long) segmented[1].invokeExact(0x10000));
+        Assertions.assertEquals((long) buffer[1].invokeExact(0x10008), (long) segmented[1].invokeExact(0x10008));
+    }
+
+    @Test
+    void testSharedDataSegments() throws Throwable {
+        MethodHandle[] buffer = compileBuffer();
+        MethodHandle[] shared = compile(WirJavaConventionFactory.builder().setShareDataSegments(true));
+
+        Assertions.assertEquals(0x0807060504030201L, (long) shared[1].invokeExact(16));
+        Assertions.assertEquals((long) buffer[0].invokeExact(10_000), (long) shared[0].invokeExact(10_000));
+        Assertions.assertEquals((int) buffer[2].invokeExact(1), (int) shared[2].invokeExact(1));
+        Assertions.assertEquals((long) buffer[1].invokeExact(0x10008), (long) shared[1].invokeExact(0x10008));
+    }
+
+    @Test
+    void testMappedMemory(@TempDir Path dir) throws Throwable {
+        Path file = dir.resolve("memory.bin");
+        MethodHandle[] buffer = compileBuffer();
+        MethodHandle[] mapped = compileMapped(file);
+
+        Assertions.assertEquals((long) buffer[0].invokeExact(100), (long) mapped[0].invokeExact(100));
+        long persisted = (long) mapped[1].invokeExact(800);
+        Assertions.assertNotEquals(0, persisted);
+        Assertions.assertEquals((int) buffer[2].invokeExact(1), (int) mapped[2].invokeExact(1));
+
+        // a new instance picks up where the file left off
+        MethodHandle[] reopened = compileMapped(file);
+        Assertions.assertEquals(persisted, (long) reopened[1].invokeExact(800));
+        Assertions.assertEquals(0xababababababababL, (long) reopened[1].invokeExact(0x10000));
+    }
+
+    @Test
+    void testOffsetChecks() throws Throwable {
+        Map<String, Integer> exactChecks = new TreeMap<>();
+        IRPass<Function, Function> countChecks = func -> {
+            JClass.JavaMethod method = func.getNullable(JavaExts.FUNCTION_METHOD);
+            if (method == null || !method.name.startsWith("_func")) return func;
+            int count = 0;
+            for (BasicBlock block : func.blocks) {
+                for (Effect effect : block.getEffects()) {
+                    if (effect.insn().op == JavaOps.L2I_EXACT) count++;
+                }
+            }
+            exactChecks.put(method.name, count);
+            return func;
+        };
+        JClass jClass = TestCompiler.lower(WasmToWir.INSTANCE.run(TestCompiler.parse(OFFSET_MODULE)),
+                WirJavaConventionFactory.builder(),
+                "dev/eutro/Offsets",
+                Passes.javaPreemit(countChecks.then(SplitLargeFunctions.INSTANCE)));
+        MethodHandle[] funcs = TestCompiler.funcs(TestCompiler.define(TestCompiler.emit(jClass)), 0, 4, int.class);
+
+        // the second access shares the check of the first
+        Assertions.assertEquals(0, exactChecks.get("_func0"));
+        // nothing is known about a lone parameter
+        Assertions.assertEquals(1, exactChecks.get("_func1"));
+        // the offset fields share the check of the struct's base
+        Assertions.assertEquals(0, exactChecks.get("_func2"));
+        // the cursor is masked, so its offset can never overflow
+        Assertions.assertEquals(0, exactChecks.get("_func3"));
+
+        Assertions.assertEquals(0x08070606, (int) funcs[0].invokeExact(16));
+        Assertions.assertThrows(Throwable.class, () -> {
+            int ignored = (int) funcs[0].invokeExact(-8);
+        });
+        Assertions.assertEquals(0x04030201, (int) funcs[1].invokeExact(8));
+        // these would wrap around to valid addresses if the offset overflowed silently
+        Assertions.assertThrows(Throwable.class, () -> {
+            int ignored = (int) funcs[1].invokeExact(-8);
+        });
+        Assertions.assertThrows(Throwable.class, () -> {
+            int ignored = (int) funcs[1].invokeExact(-4);
+        });
+
+        int structs = 0x10000 / 16;
+        Assertions.assertEquals(0x04030201 + 0x08070605, (int) funcs[2].invokeExact(structs));
+        Assertions.assertThrows(Throwable.class, () -> {
+            int ignored = (int) funcs[2].invokeExact(structs + 1);
+        });
+
+        Assertions.assertEquals(0x04030201 + 0x08070605, (int) funcs[3].invokeExact(4));
+        // the cursor reaches 0xfffc, and the word at 0x10004 is out of bounds
+        Assertions.assertThrows(Throwable.class, () -> {
+            int ignored = (int) funcs[3].invokeExact(0x10000 / 4);
+        });
+    }
+
+    @Test
+    void testIncrementalGrowth() throws Throwable {
+        for (int reserve : new int[]{0, GROW_PAGES / 2}) {
+            MethodHandle[] funcs = compile(WirJavaConventionFactory.builder().setMemoryReservePages(reserve),
+                    GROW_MODULE, 2);
+            Assertions.assertEquals(GROW_PAGES + 1, (int) funcs[0].invokeExact(GROW_PAGES));
+            Assertions.assertEquals(GROW_PAGES, (int) funcs[1].invokeExact(0));
+            for (int page = 1; page <= GROW_PAGES; page++) {
+                Assertions.assertEquals(page * 2 - 1, (int) funcs[1].invokeExact((page + 1) * 0x10000 - 4));
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package io.github.eutro.wasm2j.test;
+
+import io.github.eutro.wasm2j.core.conf.impl.ReturnSlotCallingConvention;
+import io.github.eutro.wasm2j.core.conf.itf.WirJavaConventionFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MultiReturnBenchTest {
+    private static final String MODULE = "(module" +
+            " (type $dm (func (param i32 i32) (result i32 i32)))" +
+            " (table 1 funcref)" +
+            " (elem (i32.const 0) $divmod)" +
+            " (func $divmod (type $dm)" + // _func0
+            "  (i32.div_u (local.get 0) (local.get 1))" +
+            "  (i32.rem_u (local.get 0) (local.get 1)))" +
+            " (func $mixed (param i32) (result i32 i64 f64)" + // _func1
+            "  (local.get 0)" +
+            "  (i64.extend_i32_s (local.get 0))" +
+            "  (f64.convert_i32_s (local.get 0)))" +
+            " (func (param i32) (result i64) (local i64 i32)" + // _func2: n iterations of direct calls
+            "  (block (loop" +
+            "   (br_if 1 (i32.eqz (local.get 0)))" +
+            "   (local.set 1 (i64.add (local.get 1)" +
+            "    (i64.extend_i32_u (i32.add (call $divmod (local.get 0) (i32.const 7))))))" +
+            "   (call $mixed (local.get 0))" +
+            "   (drop)" +
+            "   (local.set 1 (i64.add (local.get 1)))" +
+            "   (local.set 2)" +
+            "   (local.set 1 (i64.add (local.get 1) (i64.extend_i32_s (local.get 2))))" +
+            "   (local.set 0 (i32.sub (local.get 0) (i32.const 1)))" +
+            "   (br 0)))" +
+            "  (local.get 1))" +
+            " (func (param i32 i32) (result i32)" + // _func3: an indirect call, through the Java-facing bridge
+            "  (i32.sub (call_indirect (type $dm) (local.get 0) (local.get 1) (i32.const 0))))" +
+            ")";
+
+    private static Class<?> compile(WirJavaConventionFactory.Builder builder) {
+        return TestCompiler.compile(MODULE, builder, "dev/eutro/MultiReturn");
+    }
+
+    private static MethodHandle[] instantiate(Class<?> theClass) throws Throwable {
+        Object instance = TestCompiler.instantiate(theClass);
+        return new MethodHandle[]{
+                TestCompiler.method(theClass, instance, "_func2", int.class),
+                TestCompiler.method(theClass, instance, "_func3", int.class, int.class),
+        };
+    }
+
+    @Test
+    void testReturnSlots() throws Throwable {
+        Class<?> slotClass = compile(WirJavaConventionFactory.builder()
+                .setCallingConvention(ReturnSlotCallingConvention.INSTANCE));
+        MethodHandle[] basic = instantiate(compile(WirJavaConventionFactory.builder()));
+        MethodHandle[] slots = instantiate(slotClass);
+
+        for (int n : new int[]{0, 1, 7, 100, 10_000}) {
+            Assertions.assertEquals((long) basic[0].invokeExact(n), (long) slots[0].invokeExact(n));
+        }
+        Assertions.assertEquals(100 / 7 - 100 % 7, (int) slots[1].invokeExact(100, 7));
+        Assertions.assertEquals((int) basic[1].invokeExact(-5, 3), (int) slots[1].invokeExact(-5, 3));
+
+        // direct calls return the first value, and references still return arrays
+        Assertions.assertEquals(int.class, slotClass.getDeclaredMethod("_func0", int.class, int.class).getReturnType());
+        Assertions.assertEquals(int[].class, slotClass.getDeclaredMethod("_func0$java", int.class, int.class).getReturnType());
+        Assertions.assertEquals(Object[].class, slotClass.getDeclaredMethod("_func1$java", int.class).getReturnType());
+        Object instance = TestCompiler.instantiate(slotClass);
+        Assertions.assertArrayEquals(new int[]{14, 2},
+                (int[]) TestCompiler.method(slotClass, instance, "_func0$java", int.class, int.class).invoke(100, 7));
+        Assertions.assertArrayEquals(new Object[]{-3, -3L, -3.0},
+                (Object[]) TestCompiler.method(slotClass, instance, "_func1$java", int.class).invoke(-3));
+    }
+
+    @Test
+    void testThreadsDontShareSlots() throws Throwable {
+        Class<?> slotClass = compile(WirJavaConventionFactory.builder()
+                .setCallingConvention(ReturnSlotCallingConvention.INSTANCE));
+        Object instance = TestCompiler.instantiate(slotClass);
+        MethodHandle bridge = TestCompiler.method(slotClass, instance, "_func0$java", int.class, int.class);
+        MethodHandle direct = TestCompiler.method(slotClass, instance, "_func3", int.class, int.class);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int divisor = t + 2;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int n = 0; n < 100_000 && failure.get() == null; n++) {
+                        Assertions.assertArrayEquals(new int[]{n / divisor, n % divisor},
+                                (int[]) bridge.invoke(n, divisor));
+                        Assertions.assertEquals(n / divisor - n % divisor, (int) direct.invoke(n, divisor));
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) throw failure.get();
+    }
+}
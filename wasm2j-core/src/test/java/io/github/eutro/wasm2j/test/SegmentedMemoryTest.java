@@ -0,0 +1,201 @@
+package io.github.eutro.wasm2j.test;
+
+import io.github.eutro.wasm2j.core.conf.impl.SegmentedMemoryConvention;
+import io.github.eutro.wasm2j.core.conf.itf.ExportableConvention;
+import io.github.eutro.wasm2j.core.conf.itf.WirJavaConventionFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+
+/**
+ * Tests {@link SegmentedMemoryConvention} with segments small enough that accesses regularly cross them.
+ */
+public class SegmentedMemoryTest {
+    private static final String MODULE = "(module" +
+            " (memory 1 8)" +
+            " (func (param i32) (result i32) (i32.load8_u (local.get 0)))" + // _func0
+            " (func (param i32 i32) (i32.store8 (local.get 0) (local.get 1)))" + // _func1
+            " (func (param i32) (result i32) (i32.load16_u (local.get 0)))" + // _func2
+            " (func (param i32 i32) (i32.store16 (local.get 0) (local.get 1)))" + // _func3
+            " (func (param i32) (result i32) (i32.load (local.get 0)))" + // _func4
+            " (func (param i32 i32) (i32.store (local.get 0) (local.get 1)))" + // _func5
+            " (func (param i32) (result i64) (i64.load (local.get 0)))" + // _func6
+            " (func (param i32 i64) (i64.store (local.get 0) (local.get 1)))" + // _func7
+            " (func (param i32 i32 i32) (memory.fill (local.get 0) (local.get 1) (local.get 2)))" + // _func8
+            " (func (param i32 i32 i32) (memory.copy (local.get 0) (local.get 1) (local.get 2)))" + // _func9
+            " (func (param i32) (result i32) (memory.grow (local.get 0)))" + // _func10
+            " (func (result i32) (memory.size))" + // _func11
+            ")";
+
+    private static class Compiled {
+        final MethodHandle load8, store8, load16, store16, load32, store32, load64, store64;
+        final MethodHandle fill, copy, grow, size;
+
+        Compiled(int segmentShift) throws Throwable {
+            Class<?> theClass = TestCompiler.compile(MODULE, WirJavaConventionFactory.builder()
+                            .setModifyMemConvention(SegmentedMemoryConvention.modifier(segmentShift)),
+                    "dev/eutro/Segmented" + segmentShift);
+            Object instance = TestCompiler.instantiate(theClass);
+            load8 = TestCompiler.method(theClass, instance, "_func0", int.class);
+            store8 = TestCompiler.method(theClass, instance, "_func1", int.class, int.class);
+            load16 = TestCompiler.method(theClass, instance, "_func2", int.class);
+            store16 = TestCompiler.method(theClass, instance, "_func3", int.class, int.class);
+            load32 = TestCompiler.method(theClass, instance, "_func4", int.class);
+            store32 = TestCompiler.method(theClass, instance, "_func5", int.class, int.class);
+            load64 = TestCompiler.method(theClass, instance, "_func6", int.class);
+            store64 = TestCompiler.method(theClass, instance, "_func7", int.class, long.class);
+            fill = TestCompiler.method(theClass, instance, "_func8", int.class, int.class, int.class);
+            copy = TestCompiler.method(theClass, instance, "_func9", int.class, int.class, int.class);
+            grow = TestCompiler.method(theClass, instance, "_func10", int.class);
+            size = TestCompiler.method(theClass, instance, "_func11");
+        }
+
+        void assertBytes(byte[] expected, int start) throws Throwable {
+            for (int i = 0; i < expected.length; i++) {
+                Assertions.assertEquals(expected[i] & 0xFF, (int) load8.invoke(start + i), "byte at " + (start + i));
+            }
+        }
+    }
+
+    private static long readLe(byte[] bytes, int start, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value |= (bytes[start + i] & 0xFFL) << (i * 8);
+        }
+        return value;
+    }
+
+    private static void writeLe(byte[] bytes, int start, int size, long value) {
+        for (int i = 0; i < size; i++) {
+            bytes[start + i] = (byte) (value >>> (i * 8));
+        }
+    }
+
+    @Test
+    void testStraddlingAccesses() throws Throwable {
+        // 16 byte segments
+        Compiled mem = new Compiled(4);
+        byte[] expected = new byte[64];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) (i * 7 + 1);
+            mem.store8.invoke(i, (int) expected[i]);
+        }
+
+        // loads at every offset, across every boundary
+        for (int addr = 0; addr <= expected.length - 8; addr++) {
+            Assertions.assertEquals((int) readLe(expected, addr, 2), (int) mem.load16.invoke(addr), "load16 at " + addr);
+            Assertions.assertEquals((int) readLe(expected, addr, 4), (int) mem.load32.invoke(addr), "load32 at " + addr);
+            Assertions.assertEquals(readLe(expected, addr, 8), (long) mem.load64.invoke(addr), "load64 at " + addr);
+        }
+
+        // stores at every offset, across every boundary
+        for (int addr = 0; addr <= expected.length - 8; addr++) {
+            long value = 0x0102030405060708L * (addr + 1);
+            switch (addr % 3) {
+                case 0:
+                    mem.store16.invoke(addr, (int) value);
+                    writeLe(expected, addr, 2, value);
+                    break;
+                case 1:
+                    mem.store32.invoke(addr, (int) value);
+                    writeLe(expected, addr, 4, value);
+                    break;
+                default:
+                    mem.store64.invoke(addr, value);
+                    writeLe(expected, addr, 8, value);
+                    break;
+            }
+            mem.assertBytes(expected, 0);
+        }
+
+        // a store straddling the end of memory fails without storing anything
+        for (int i = 0; i < 8; i++) mem.store8.invoke(0xFFF8 + i, i + 1);
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> mem.store64.invoke(0xFFFC, -1L));
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> mem.store32.invoke(0xFFFE, -1));
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> mem.load64.invoke(0xFFFC));
+        mem.assertBytes(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, 0xFFF8);
+    }
+
+    @Test
+    void testBulkAcrossSegments() throws Throwable {
+        // 8 byte segments, the smallest allowed
+        Compiled mem = new Compiled(3);
+        byte[] expected = new byte[96];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) i;
+            mem.store8.invoke(i, i);
+        }
+
+        mem.fill.invoke(5, 0xAB, 40);
+        Arrays.fill(expected, 5, 45, (byte) 0xAB);
+        mem.assertBytes(expected, 0);
+
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) (i * 3);
+            mem.store8.invoke(i, i * 3);
+        }
+        // overlapping, destination after source, so it has to copy backwards
+        mem.copy.invoke(21, 5, 50);
+        System.arraycopy(expected, 5, expected, 21, 50);
+        mem.assertBytes(expected, 0);
+        // overlapping, destination before source
+        mem.copy.invoke(3, 14, 61);
+        System.arraycopy(expected, 14, expected, 3, 61);
+        mem.assertBytes(expected, 0);
+        // the same distance as the segment size
+        mem.copy.invoke(8, 0, 40);
+        System.arraycopy(expected, 0, expected, 8, 40);
+        mem.assertBytes(expected, 0);
+
+        // out of bounds bulk operations fail before writing anything
+        mem.store8.invoke(0xFFF0, 0x12);
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> mem.fill.invoke(0xFFF0, 0, 0x11));
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> mem.copy.invoke(0xFFF0, 0, 0x11));
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> mem.copy.invoke(0, 0xFFF0, 0x11));
+        Assertions.assertEquals(0x12, (int) mem.load8.invoke(0xFFF0));
+        mem.assertBytes(expected, 0);
+    }
+
+    @Test
+    void testGrowPastFirstSegment() throws Throwable {
+        // 2 page segments, so the first one starts half full and is replaced when it grows
+        Compiled mem = new Compiled(17);
+        mem.store32.invoke(0x100, 42);
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> mem.store64.invoke(0xFFFC, -1L));
+
+        Assertions.assertEquals(1, (int) mem.grow.invoke(1));
+        Assertions.assertEquals(2, (int) mem.size.invoke());
+        // the fast path must see the replaced first segment
+        Assertions.assertEquals(42, (int) mem.load32.invoke(0x100));
+        mem.store64.invoke(0xFFFC, 0x1122334455667788L);
+        Assertions.assertEquals(0x1122334455667788L, (long) mem.load64.invoke(0xFFFC));
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> mem.load32.invoke(0x20000));
+
+        Assertions.assertEquals(2, (int) mem.grow.invoke(2));
+        Assertions.assertEquals(4, (int) mem.size.invoke());
+        Assertions.assertEquals(42, (int) mem.load32.invoke(0x100));
+        Assertions.assertEquals(0x1122334455667788L, (long) mem.load64.invoke(0xFFFC));
+        mem.store64.invoke(0x1FFFC, 0x0102030405060708L);
+        Assertions.assertEquals(0x0102030405060708L, (long) mem.load64.invoke(0x1FFFC));
+        Assertions.assertEquals(0x01020304, (int) mem.load32.invoke(0x20000));
+        Assertions.assertEquals(0x05060708, (int) mem.load32.invoke(0x1FFFC));
+
+        Assertions.assertEquals(-1, (int) mem.grow.invoke(5));
+        Assertions.assertEquals(4, (int) mem.grow.invoke(4));
+        Assertions.assertEquals(8, (int) mem.size.invoke());
+        mem.store32.invoke(0x7FFFC, 7);
+        Assertions.assertEquals(7, (int) mem.load32.invoke(0x7FFFC));
+        Assertions.assertEquals(-1, (int) mem.grow.invoke(1));
+        Assertions.assertEquals(0x0102030405060708L, (long) mem.load64.invoke(0x1FFFC));
+    }
+
+    @Test
+    void testSegmentShiftRange() {
+        Assertions.assertThrows(IllegalArgumentException.class, () ->
+                new SegmentedMemoryConvention(ExportableConvention.noop(), 0, false, 1, null, 2));
+        Assertions.assertThrows(IllegalArgumentException.class, () ->
+                new SegmentedMemoryConvention(ExportableConvention.noop(), 0, false, 1, null, 31));
+    }
+}
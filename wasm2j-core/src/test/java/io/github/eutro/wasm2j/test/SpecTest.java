@@ -103,7 +103,7 @@ public class SpecTest {
                     try {
                         lastModule.accept(new ModuleValidator());
                         ClassNode code = PASS.run(lastModule);
-                        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+                        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
                         code.accept(cw);
                         Class<?> theClass = new ClassLoader() {
                             Class<?> defineTheClass() {
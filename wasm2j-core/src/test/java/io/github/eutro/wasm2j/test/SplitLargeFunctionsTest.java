@@ -0,0 +1,115 @@
+package io.github.eutro.wasm2j.test;
+
+import io.github.eutro.wasm2j.core.conf.itf.WirJavaConventionFactory;
+import io.github.eutro.wasm2j.core.ext.JavaExts;
+import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.passes.IRPass;
+import io.github.eutro.wasm2j.core.passes.Passes;
+import io.github.eutro.wasm2j.core.passes.convert.WasmToWir;
+import io.github.eutro.wasm2j.core.passes.form.SplitLargeFunctions;
+import io.github.eutro.wasm2j.core.ssa.BasicBlock;
+import io.github.eutro.wasm2j.core.ssa.Function;
+import io.github.eutro.wasm2j.core.ssa.Insn;
+import io.github.eutro.wasm2j.core.ssa.JClass;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * Tests {@link SplitLargeFunctions}, by compiling the same function with a size budget small
+ * enough to force outlining, and with the default one.
+ */
+public class SplitLargeFunctionsTest {
+    private static final int STEPS = 40;
+    private static final String MODULE;
+
+    static {
+        StringBuilder sb = new StringBuilder("(module (memory 1)" +
+                " (func (param i32) (result i32) (local i32)"); // _func0
+        for (int i = 0; i < STEPS; i++) {
+            sb.append(" (if (i32.lt_s (local.get 0) (i32.const 0)) (then unreachable))")
+                    .append(" (memory.fill (i32.const ").append(i * 4).append(")")
+                    .append("  (i32.add (local.get 0) (i32.const ").append(i).append(")) (i32.const 4))")
+                    .append(" (local.set 1 (i32.add (i32.mul (local.get 1) (i32.const 31))")
+                    .append("  (i32.load (i32.const ").append(i * 4).append("))))");
+        }
+        MODULE = sb.append(" (local.get 1)))").toString();
+    }
+
+    private static Map<String, Integer> countTraps(Function func) {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (BasicBlock block : func.blocks) {
+            Insn ctrl = block.getControl().insn();
+            if (ctrl.op.key == CommonOps.TRAP) {
+                counts.merge(CommonOps.TRAP.cast(ctrl.op).arg, 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    private static Object call(MethodHandle func, int arg) {
+        try {
+            return (int) func.invoke(arg);
+        } catch (Throwable t) {
+            return t.getClass() + ": " + t.getMessage();
+        }
+    }
+
+    @Test
+    void testSplitMatchesUnsplit() throws Throwable {
+        Map<String, Integer> trapsBefore = new TreeMap<>();
+        Map<String, Integer> trapsAfter = new TreeMap<>();
+        Map<String, Integer> trapsOutlined = new TreeMap<>();
+        List<JClass.JavaMethod> outlined = new ArrayList<>();
+        IRPass<Function, Function> countBefore = func -> {
+            JClass.JavaMethod method = func.getNullable(JavaExts.FUNCTION_METHOD);
+            if (method != null && method.name.equals("_func0")) trapsBefore.putAll(countTraps(func));
+            return func;
+        };
+        IRPass<Function, Function> countAfter = func -> {
+            JClass.JavaMethod method = func.getNullable(JavaExts.FUNCTION_METHOD);
+            if (method != null && method.name.equals("_func0")) trapsAfter.putAll(countTraps(func));
+            return func;
+        };
+        SplitLargeFunctions split = new SplitLargeFunctions(512, (method, methods) -> {
+            Assertions.assertEquals("_func0", method.name);
+            outlined.addAll(methods);
+            for (JClass.JavaMethod m : methods) {
+                countTraps(m.getExtOrThrow(JavaExts.METHOD_IMPL).get())
+                        .forEach((msg, count) -> trapsOutlined.merge(msg, count, Integer::sum));
+            }
+        });
+
+        JClass splitClass = TestCompiler.lower(WasmToWir.INSTANCE.run(TestCompiler.parse(MODULE)),
+                WirJavaConventionFactory.builder(),
+                "dev/eutro/Split",
+                Passes.javaPreemit(countBefore.then(split).then(countAfter)));
+        Class<?> splitCompiled = TestCompiler.define(TestCompiler.emit(splitClass));
+        Class<?> unsplitCompiled = TestCompiler.compile(MODULE, WirJavaConventionFactory.builder(), "dev/eutro/Unsplit");
+
+        Assertions.assertFalse(outlined.isEmpty(), "nothing was outlined");
+        Set<String> declared = new HashSet<>();
+        for (Method method : splitCompiled.getDeclaredMethods()) declared.add(method.getName());
+        for (JClass.JavaMethod method : outlined) {
+            Assertions.assertTrue(declared.contains(method.name), method.name + " was not emitted");
+        }
+
+        // identical trap blocks are merged before anything is outlined
+        Assertions.assertTrue(trapsBefore.values().stream().anyMatch(count -> count > 1), "no duplicate traps");
+        for (Map.Entry<String, Integer> entry : trapsBefore.entrySet()) {
+            if (entry.getValue() <= 1) continue;
+            Assertions.assertTrue(trapsAfter.getOrDefault(entry.getKey(), 0) <= 1, "unmerged trap: " + entry.getKey());
+            int total = trapsAfter.getOrDefault(entry.getKey(), 0) + trapsOutlined.getOrDefault(entry.getKey(), 0);
+            Assertions.assertTrue(total < entry.getValue(), "traps were not merged: " + entry.getKey());
+        }
+
+        MethodHandle splitFunc = TestCompiler.funcs(splitCompiled, 0, 1, int.class)[0];
+        MethodHandle unsplitFunc = TestCompiler.funcs(unsplitCompiled, 0, 1, int.class)[0];
+        for (int arg : new int[]{0, 1, 7, 255, 0x1234, Integer.MAX_VALUE, -1, Integer.MIN_VALUE}) {
+            Assertions.assertEquals(call(unsplitFunc, arg), call(splitFunc, arg), "_func0(" + arg + ")");
+        }
+    }
+}
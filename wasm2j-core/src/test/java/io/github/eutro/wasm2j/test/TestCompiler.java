@@ -0,0 +1,111 @@
+package io.github.eutro.wasm2j.test;
+
+import io.github.eutro.jwasm.ByteInputStream;
+import io.github.eutro.jwasm.sexp.WatParser;
+import io.github.eutro.jwasm.sexp.WatReader;
+import io.github.eutro.jwasm.tree.ModuleNode;
+import io.github.eutro.wasm2j.core.conf.itf.WirJavaConventionFactory;
+import io.github.eutro.wasm2j.core.ext.JavaExts;
+import io.github.eutro.wasm2j.core.passes.IRPass;
+import io.github.eutro.wasm2j.core.passes.Passes;
+import io.github.eutro.wasm2j.core.passes.convert.JirToJava;
+import io.github.eutro.wasm2j.core.passes.convert.WasmToWir;
+import io.github.eutro.wasm2j.core.passes.convert.WirToJir;
+import io.github.eutro.wasm2j.core.passes.meta.CheckJava;
+import io.github.eutro.wasm2j.core.ssa.Function;
+import io.github.eutro.wasm2j.core.ssa.JClass;
+import io.github.eutro.wasm2j.core.ssa.Module;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * The WAT to WIR to JIR to class pipeline shared by the tests which run compiled modules.
+ */
+public final class TestCompiler {
+    private TestCompiler() {
+    }
+
+    public static ModuleNode parse(String wat) {
+        return WatParser.DEFAULT.parseModule(WatReader.readAll(
+                new ByteInputStream.ByteBufferByteInputStream(ByteBuffer.wrap(
+                        wat.getBytes(StandardCharsets.UTF_8)))).get(0));
+    }
+
+    public static JClass lower(Module wir, WirJavaConventionFactory.Builder builder, String name) {
+        return lower(wir, builder, name, Passes.JAVA_PREEMIT);
+    }
+
+    public static JClass lower(Module wir,
+                               WirJavaConventionFactory.Builder builder,
+                               String name,
+                               IRPass<Function, Function> preemit) {
+        JClass jClass = new WirToJir(builder
+                .setNameSupplier(() -> name)
+                .build())
+                .run(wir);
+        for (JClass.JavaMethod method : new ArrayList<>(jClass.methods)) {
+            method.getExtOrThrow(JavaExts.METHOD_IMPL)
+                    .mapInPlace(Passes.SSA_OPTS.then(preemit)::run);
+        }
+        return jClass;
+    }
+
+    public static ClassNode emit(JClass jClass) {
+        return JirToJava.INSTANCE.then(CheckJava.INSTANCE).run(jClass);
+    }
+
+    public static Class<?> define(ClassNode code) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        code.accept(cw);
+        byte[] bytes = cw.toByteArray();
+        return new ClassLoader() {
+            Class<?> defineTheClass() {
+                return defineClass(code.name.replace('/', '.'), bytes, 0, bytes.length);
+            }
+        }.defineTheClass();
+    }
+
+    public static Class<?> compile(Module wir, WirJavaConventionFactory.Builder builder, String name) {
+        return define(emit(lower(wir, builder, name)));
+    }
+
+    public static Class<?> compile(String wat,
+                                   WirJavaConventionFactory.Builder builder,
+                                   String name,
+                                   IRPass<Module, Module> wirPass) {
+        return compile(WasmToWir.INSTANCE.then(wirPass).run(parse(wat)), builder, name);
+    }
+
+    public static Class<?> compile(String wat, WirJavaConventionFactory.Builder builder, String name) {
+        return compile(WasmToWir.INSTANCE.run(parse(wat)), builder, name);
+    }
+
+    public static Object instantiate(Class<?> theClass) throws Throwable {
+        return theClass.getConstructor().newInstance();
+    }
+
+    public static MethodHandle method(Class<?> theClass, Object instance, String name, Class<?>... params) throws Throwable {
+        Method method = theClass.getDeclaredMethod(name, params);
+        method.setAccessible(true);
+        return MethodHandles.lookup().unreflect(method).bindTo(instance);
+    }
+
+    /**
+     * Get handles to {@code count} consecutive functions of a new instance, all with the same parameters.
+     */
+    public static MethodHandle[] funcs(Class<?> theClass, int first, int count, Class<?>... params) throws Throwable {
+        Object instance = instantiate(theClass);
+        MethodHandle[] funcs = new MethodHandle[count];
+        for (int i = 0; i < count; i++) {
+            funcs[i] = method(theClass, instance, "_func" + (first + i), params);
+        }
+        return funcs;
+    }
+}
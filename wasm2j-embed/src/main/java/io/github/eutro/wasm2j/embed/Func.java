@@ -1,6 +1,7 @@
 package io.github.eutro.wasm2j.embed;
 
 import io.github.eutro.wasm2j.core.conf.impl.BasicCallingConvention;
+import io.github.eutro.wasm2j.embed.internal.Invokers;
 import io.github.eutro.wasm2j.embed.internal.Utils;
 import io.github.eutro.wasm2j.api.types.ExternType;
 import io.github.eutro.wasm2j.api.types.ValType;
@@ -8,6 +9,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 
 /**
@@ -57,7 +59,9 @@ public interface Func extends ExternVal {
     /**
      * Invoke the function in a generic way.
      * <p>
-     * When the type is known, directly invoking the {@link #handle() handle} should be preferred.
+     * When the type is known, an {@link #invoker(Class) invoker}, or directly invoking the
+     * {@link #handle() handle}, should be preferred. This boxes every argument and result, and collects
+     * the results into an array.
      *
      * @param args The arguments to the function.
      * @return The results of the function call.
@@ -91,6 +95,27 @@ public interface Func extends ExternVal {
         }
     }
 
+    /**
+     * Get an invoker for this function, which implements the given functional interface.
+     * <p>
+     * The single abstract method of the interface must be convertible to the type of the
+     * {@link #handle() handle}, as by {@link MethodHandle#asType(MethodType)}. For example, a function of type
+     * {@code [i32 i32] -> [i32]} may be invoked as an {@link java.util.function.IntBinaryOperator IntBinaryOperator}.
+     * If the types match exactly, calling the invoker does not box or allocate, and it can be inlined by the JIT,
+     * as if the function was called directly.
+     * <p>
+     * Creating an invoker defines a new class, so invokers should be created once, and reused.
+     *
+     * @param iface The functional interface, which must be public.
+     * @param <T>   The type of the interface.
+     * @return The invoker.
+     * @throws IllegalArgumentException If the interface is not a public functional interface,
+     *                                  or its method cannot be converted to the type of the function.
+     */
+    default <T> T invoker(Class<T> iface) {
+        return Invokers.create(iface, handle());
+    }
+
     /**
      * A function extern implemented by wrapping a method handle.
      */
@@ -32,6 +32,110 @@ public interface Global extends ExternVal {
     @GeneratedAccess
     void set(Object value);
 
+    /**
+     * Get the value of this global, which must be an {@code i32}.
+     * <p>
+     * Unlike {@link #get()}, this does not box the value, unless the global itself stores it boxed.
+     *
+     * @return The value of the global.
+     * @throws ClassCastException If the global is not an {@code i32}.
+     */
+    @GeneratedAccess
+    default int getInt() {
+        return (Integer) get();
+    }
+
+    /**
+     * Set the value of this global, which must be a mutable {@code i32}.
+     * <p>
+     * Unlike {@link #set(Object)}, this does not box the value, unless the global itself stores it boxed.
+     *
+     * @param value The value.
+     * @throws ClassCastException If the global is not an {@code i32}.
+     */
+    @GeneratedAccess
+    default void setInt(int value) {
+        set(value);
+    }
+
+    /**
+     * Get the value of this global, which must be an {@code i64}.
+     * <p>
+     * Unlike {@link #get()}, this does not box the value, unless the global itself stores it boxed.
+     *
+     * @return The value of the global.
+     * @throws ClassCastException If the global is not an {@code i64}.
+     */
+    @GeneratedAccess
+    default long getLong() {
+        return (Long) get();
+    }
+
+    /**
+     * Set the value of this global, which must be a mutable {@code i64}.
+     * <p>
+     * Unlike {@link #set(Object)}, this does not box the value, unless the global itself stores it boxed.
+     *
+     * @param value The value.
+     * @throws ClassCastException If the global is not an {@code i64}.
+     */
+    @GeneratedAccess
+    default void setLong(long value) {
+        set(value);
+    }
+
+    /**
+     * Get the value of this global, which must be an {@code f32}.
+     * <p>
+     * Unlike {@link #get()}, this does not box the value, unless the global itself stores it boxed.
+     *
+     * @return The value of the global.
+     * @throws ClassCastException If the global is not an {@code f32}.
+     */
+    @GeneratedAccess
+    default float getFloat() {
+        return (Float) get();
+    }
+
+    /**
+     * Set the value of this global, which must be a mutable {@code f32}.
+     * <p>
+     * Unlike {@link #set(Object)}, this does not box the value, unless the global itself stores it boxed.
+     *
+     * @param value The value.
+     * @throws ClassCastException If the global is not an {@code f32}.
+     */
+    @GeneratedAccess
+    default void setFloat(float value) {
+        set(value);
+    }
+
+    /**
+     * Get the value of this global, which must be an {@code f64}.
+     * <p>
+     * Unlike {@link #get()}, this does not box the value, unless the global itself stores it boxed.
+     *
+     * @return The value of the global.
+     * @throws ClassCastException If the global is not an {@code f64}.
+     */
+    @GeneratedAccess
+    default double getDouble() {
+        return (Double) get();
+    }
+
+    /**
+     * Set the value of this global, which must be a mutable {@code f64}.
+     * <p>
+     * Unlike {@link #set(Object)}, this does not box the value, unless the global itself stores it boxed.
+     *
+     * @param value The value.
+     * @throws ClassCastException If the global is not an {@code f64}.
+     */
+    @GeneratedAccess
+    default void setDouble(double value) {
+        set(value);
+    }
+
     /**
      * Get the type of this global.
      *
@@ -44,10 +148,19 @@ public interface Global extends ExternVal {
 
     /**
      * A global that stores its value directly.
+     * <p>
+     * Numbers are stored unboxed, so the typed accessors, such as {@link #getInt()}, do not allocate.
      */
     class BoxGlobal implements Global {
         private final ValType type;
+        /**
+         * The value, if it is a reference or a vector.
+         */
         private Object value;
+        /**
+         * The bits of the value, if it is a number.
+         */
+        private long bits;
         private boolean isMut = true;
         /**
          * A handle which casts the value to our type.
@@ -65,7 +178,8 @@ public interface Global extends ExternVal {
             checkHandle = MethodHandles
                     .identity(type.getType())
                     .asType(MethodType.methodType(Object.class, Object.class));
-            this.value = checkValue(value);
+            // numbers are already zero
+            if (value != null || !type.getType().isPrimitive()) store(value);
         }
 
         /**
@@ -92,21 +206,106 @@ public interface Global extends ExternVal {
 
         @Override
         public Object get() {
-            return value;
+            switch (type) {
+                case I32:
+                    return (int) bits;
+                case I64:
+                    return bits;
+                case F32:
+                    return Float.intBitsToFloat((int) bits);
+                case F64:
+                    return Double.longBitsToDouble(bits);
+                default:
+                    return value;
+            }
         }
 
         @Override
         public void set(Object value) {
             if (!isMut) throw new UnsupportedOperationException();
-            this.value = checkValue(value);
+            store(value);
         }
 
-        private Object checkValue(Object value) {
+        private void store(Object value) {
+            Object checked;
             try {
-                return checkHandle.invokeExact(value);
+                checked = checkHandle.invokeExact(value);
             } catch (Throwable t) {
                 throw Utils.rethrow(t);
             }
+            switch (type) {
+                case I32:
+                    bits = (Integer) checked;
+                    break;
+                case I64:
+                    bits = (Long) checked;
+                    break;
+                case F32:
+                    bits = Float.floatToRawIntBits((Float) checked);
+                    break;
+                case F64:
+                    bits = Double.doubleToRawLongBits((Double) checked);
+                    break;
+                default:
+                    this.value = checked;
+            }
+        }
+
+        private void checkSet(ValType type) {
+            checkGet(type);
+            if (!isMut) throw new UnsupportedOperationException();
+        }
+
+        private void checkGet(ValType type) {
+            if (this.type != type) throw new ClassCastException("Global is " + this.type + ", not " + type);
+        }
+
+        @Override
+        public int getInt() {
+            checkGet(ValType.I32);
+            return (int) bits;
+        }
+
+        @Override
+        public void setInt(int value) {
+            checkSet(ValType.I32);
+            bits = value;
+        }
+
+        @Override
+        public long getLong() {
+            checkGet(ValType.I64);
+            return bits;
+        }
+
+        @Override
+        public void setLong(long value) {
+            checkSet(ValType.I64);
+            bits = value;
+        }
+
+        @Override
+        public float getFloat() {
+            checkGet(ValType.F32);
+            return Float.intBitsToFloat((int) bits);
+        }
+
+        @Override
+        public void setFloat(float value) {
+            checkSet(ValType.F32);
+            bits = Float.floatToRawIntBits(value);
+        }
+
+        @Override
+        public double getDouble() {
+            checkGet(ValType.F64);
+            return Double.longBitsToDouble(bits);
+        }
+
+        @Override
+        public void setDouble(double value) {
+            checkSet(ValType.F64);
+            bits = Double.doubleToRawLongBits(value);
         }
 
         @NotNull
@@ -118,11 +317,18 @@ public interface Global extends ExternVal {
 
     /**
      * A global that gets and sets through method handles.
+     * <p>
+     * The typed accessors, such as {@link #getInt()}, call the handles without boxing.
      */
     class HandleGlobal implements Global {
         private final ValType type;
         private final MethodHandle get;
         private final @Nullable MethodHandle set;
+        /**
+         * The getter and setter, taking and returning our type.
+         */
+        private final MethodHandle typedGet;
+        private final @Nullable MethodHandle typedSet;
 
         /**
          * Construct a global with the given value type, getter and setter.
@@ -135,6 +341,8 @@ public interface Global extends ExternVal {
             this.type = type;
             this.get = get.asType(MethodType.methodType(Object.class));
             this.set = set == null ? null : set.asType(MethodType.methodType(void.class, Object.class));
+            typedGet = get.asType(MethodType.methodType(type.getType()));
+            typedSet = set == null ? null : set.asType(MethodType.methodType(void.class, type.getType()));
         }
 
         /**
@@ -172,6 +380,96 @@ public interface Global extends ExternVal {
             }
         }
 
+        private MethodHandle checkSet(ValType type) {
+            checkGet(type);
+            if (typedSet == null) throw new UnsupportedOperationException();
+            return typedSet;
+        }
+
+        private void checkGet(ValType type) {
+            if (this.type != type) throw new ClassCastException("Global is " + this.type + ", not " + type);
+        }
+
+        @Override
+        public int getInt() {
+            checkGet(ValType.I32);
+            try {
+                return (int) typedGet.invokeExact();
+            } catch (Throwable e) {
+                throw Utils.rethrow(e);
+            }
+        }
+
+        @Override
+        public void setInt(int value) {
+            MethodHandle handle = checkSet(ValType.I32);
+            try {
+                handle.invokeExact(value);
+            } catch (Throwable e) {
+                throw Utils.rethrow(e);
+            }
+        }
+
+        @Override
+        public long getLong() {
+            checkGet(ValType.I64);
+            try {
+                return (long) typedGet.invokeExact();
+            } catch (Throwable e) {
+                throw Utils.rethrow(e);
+            }
+        }
+
+        @Override
+        public void setLong(long value) {
+            MethodHandle handle = checkSet(ValType.I64);
+            try {
+                handle.invokeExact(value);
+            } catch (Throwable e) {
+                throw Utils.rethrow(e);
+            }
+        }
+
+        @Override
+        public float getFloat() {
+            checkGet(ValType.F32);
+            try {
+                return (float) typedGet.invokeExact();
+            } catch (Throwable e) {
+                throw Utils.rethrow(e);
+            }
+        }
+
+        @Override
+        public void setFloat(float value) {
+            MethodHandle handle = checkSet(ValType.F32);
+            try {
+                handle.invokeExact(value);
+            } catch (Throwable e) {
+                throw Utils.rethrow(e);
+            }
+        }
+
+        @Override
+        public double getDouble() {
+            checkGet(ValType.F64);
+            try {
+                return (double) typedGet.invokeExact();
+            } catch (Throwable e) {
+                throw Utils.rethrow(e);
+            }
+        }
+
+        @Override
+        public void setDouble(double value) {
+            MethodHandle handle = checkSet(ValType.F64);
+            try {
+                handle.invokeExact(value);
+            } catch (Throwable e) {
+                throw Utils.rethrow(e);
+            }
+        }
+
         @NotNull
         @Override
         public ExternType.Global getType() {
@@ -1,6 +1,8 @@
 package io.github.eutro.wasm2j.embed;
 
 import io.github.eutro.jwasm.Opcodes;
+import io.github.eutro.wasm2j.core.conf.impl.ByteBufferMemoryConvention;
+import io.github.eutro.wasm2j.embed.internal.ParkingTable;
 import io.github.eutro.wasm2j.embed.internal.Utils;
 import io.github.eutro.wasm2j.core.ops.WasmOps;
 import io.github.eutro.wasm2j.api.types.ExternType;
@@ -8,10 +10,19 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Type;
+import sun.misc.Unsafe;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.lang.invoke.*;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.EnumMap;
 import java.util.Map;
 
@@ -215,6 +226,59 @@ public interface Memory extends ExternVal {
         }
     }
 
+    /**
+     * The operation of an atomic read-modify-write.
+     */
+    enum RmwOp {
+        /**
+         * Add the operand to the value.
+         */
+        ADD,
+        /**
+         * Subtract the operand from the value.
+         */
+        SUB,
+        /**
+         * Bitwise and the value with the operand.
+         */
+        AND,
+        /**
+         * Bitwise or the value with the operand.
+         */
+        OR,
+        /**
+         * Bitwise exclusive or the value with the operand.
+         */
+        XOR,
+        /**
+         * Replace the value with the operand.
+         */
+        XCHG,
+        ;
+
+        /**
+         * Apply the operation.
+         *
+         * @param value   The value in memory.
+         * @param operand The operand.
+         * @return The new value to store.
+         */
+        public long apply(long value, long operand) {
+            switch (this) {
+                // @formatter:off
+                case ADD: return value + operand;
+                case SUB: return value - operand;
+                case AND: return value & operand;
+                case OR: return value | operand;
+                case XOR: return value ^ operand;
+                case XCHG: return operand;
+                // @formatter:on
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+    }
+
     /**
      * Get a method handle which loads with the specific mode.
      * <p>
@@ -274,6 +338,199 @@ public interface Memory extends ExternVal {
     @GeneratedAccess
     void init(int dstIdx, int srcIdx, int len, ByteBuffer buf);
 
+    /**
+     * Copy a range of this memory to another, possibly overlapping, range of it.
+     * <p>
+     * The default implementation copies one byte at a time, so implementations should override this
+     * if they can copy in bulk.
+     *
+     * @param dstIdx The destination address.
+     * @param srcIdx The source address.
+     * @param len    The number of bytes to copy.
+     * @throws IndexOutOfBoundsException If either range is out of bounds, in which case nothing is copied.
+     */
+    @GeneratedAccess
+    default void copy(int dstIdx, int srcIdx, int len) {
+        long rawSz = (long) size() * PAGE_SIZE;
+        Utils.checkRange(dstIdx, len, rawSz);
+        Utils.checkRange(srcIdx, len, rawSz);
+        MethodHandle load = loadHandle(LoadMode.I32_LOAD8_U);
+        MethodHandle store = storeHandle(StoreMode.I32_STORE8);
+        try {
+            if (Integer.compareUnsigned(dstIdx, srcIdx) <= 0) {
+                for (int i = 0; i < len; i++) {
+                    store.invokeExact(dstIdx + i, (int) load.invokeExact(srcIdx + i));
+                }
+            } else {
+                for (int i = len - 1; i >= 0; i--) {
+                    store.invokeExact(dstIdx + i, (int) load.invokeExact(srcIdx + i));
+                }
+            }
+        } catch (Throwable t) {
+            throw Utils.rethrow(t);
+        }
+    }
+
+    /**
+     * Fill a range of this memory with a byte.
+     * <p>
+     * The default implementation stores one byte at a time, so implementations should override this
+     * if they can fill in bulk.
+     *
+     * @param dstIdx The destination address.
+     * @param value  The byte to fill with.
+     * @param len    The number of bytes to fill.
+     * @throws IndexOutOfBoundsException If the range is out of bounds, in which case nothing is filled.
+     */
+    @GeneratedAccess
+    default void fill(int dstIdx, byte value, int len) {
+        Utils.checkRange(dstIdx, len, (long) size() * PAGE_SIZE);
+        MethodHandle store = storeHandle(StoreMode.I32_STORE8);
+        try {
+            for (int i = 0; i < len; i++) {
+                store.invokeExact(dstIdx + i, (int) value);
+            }
+        } catch (Throwable t) {
+            throw Utils.rethrow(t);
+        }
+    }
+
+    /**
+     * Atomically load a value from the memory.
+     * <p>
+     * The default implementation does a plain load, which is only atomic if the memory is not shared between threads.
+     *
+     * @param addr The address, which must be aligned to {@code size}.
+     * @param size The number of bytes to load: 1, 2, 4 or 8.
+     * @return The value loaded, zero-extended.
+     * @throws IndexOutOfBoundsException If the address is out of bounds.
+     */
+    default long atomicLoad(int addr, int size) {
+        Utils.checkAligned(addr, size);
+        LoadMode mode;
+        switch (size) {
+            // @formatter:off
+            case 1: mode = LoadMode.I64_LOAD8_U; break;
+            case 2: mode = LoadMode.I64_LOAD16_U; break;
+            case 4: mode = LoadMode.I64_LOAD32_U; break;
+            case 8: mode = LoadMode.I64_LOAD; break;
+            // @formatter:on
+            default:
+                throw new IllegalArgumentException("invalid atomic size: " + size);
+        }
+        try {
+            return (long) loadHandle(mode).invokeExact(addr);
+        } catch (Throwable t) {
+            throw Utils.rethrow(t);
+        }
+    }
+
+    /**
+     * Atomically store a value to the memory.
+     * <p>
+     * The default implementation does a plain store, which is only atomic if the memory is not shared between threads.
+     *
+     * @param addr  The address, which must be aligned to {@code size}.
+     * @param size  The number of bytes to store: 1, 2, 4 or 8.
+     * @param value The value to store, which is wrapped to {@code size}.
+     * @throws IndexOutOfBoundsException If the address is out of bounds.
+     */
+    default void atomicStore(int addr, int size, long value) {
+        Utils.checkAligned(addr, size);
+        StoreMode mode;
+        switch (size) {
+            // @formatter:off
+            case 1: mode = StoreMode.I64_STORE8; break;
+            case 2: mode = StoreMode.I64_STORE16; break;
+            case 4: mode = StoreMode.I64_STORE32; break;
+            case 8: mode = StoreMode.I64_STORE; break;
+            // @formatter:on
+            default:
+                throw new IllegalArgumentException("invalid atomic size: " + size);
+        }
+        try {
+            storeHandle(mode).invokeExact(addr, value);
+        } catch (Throwable t) {
+            throw Utils.rethrow(t);
+        }
+    }
+
+    /**
+     * Atomically read, modify and write a value in the memory.
+     * <p>
+     * The default implementation uses {@link #atomicLoad(int, int)} and {@link #atomicStore(int, int, long)},
+     * which is only atomic if the memory is not shared between threads.
+     *
+     * @param op      The operation.
+     * @param addr    The address, which must be aligned to {@code size}.
+     * @param size    The number of bytes to modify: 1, 2, 4 or 8.
+     * @param operand The operand.
+     * @return The value that was in memory before, zero-extended.
+     * @throws IndexOutOfBoundsException If the address is out of bounds.
+     */
+    default long atomicRmw(RmwOp op, int addr, int size, long operand) {
+        long old = atomicLoad(addr, size);
+        atomicStore(addr, size, op.apply(old, operand));
+        return old;
+    }
+
+    /**
+     * Atomically replace a value in the memory, if it is the expected value.
+     * <p>
+     * The default implementation uses {@link #atomicLoad(int, int)} and {@link #atomicStore(int, int, long)},
+     * which is only atomic if the memory is not shared between threads.
+     *
+     * @param addr        The address, which must be aligned to {@code size}.
+     * @param size        The number of bytes to compare and replace: 1, 2, 4 or 8.
+     * @param expected    The expected value, which is wrapped to {@code size}.
+     * @param replacement The value to store.
+     * @return The value that was in memory before, zero-extended.
+     * @throws IndexOutOfBoundsException If the address is out of bounds.
+     */
+    default long atomicCompareExchange(int addr, int size, long expected, long replacement) {
+        long old = atomicLoad(addr, size);
+        if (old == (expected & Utils.sizeMask(size))) {
+            atomicStore(addr, size, replacement);
+        }
+        return old;
+    }
+
+    /**
+     * Wait for a notification on an address, if it holds the expected value.
+     * <p>
+     * Waiting is only allowed on shared memories, so the default implementation traps.
+     *
+     * @param addr         The address, which must be aligned to {@code size}.
+     * @param size         The number of bytes to compare: 4 or 8.
+     * @param expected     The expected value, which is wrapped to {@code size}.
+     * @param timeoutNanos The maximum time to wait, in nanoseconds, or negative to wait forever.
+     * @return 0 if woken by {@link #atomicNotify(int, int)}, 1 if the value was not the expected value,
+     * or 2 if the timeout elapsed.
+     * @throws IndexOutOfBoundsException If the address is out of bounds.
+     * @throws RuntimeException          With the message {@code "expected shared memory"},
+     *                                   if this memory is not shared.
+     * @see SharedMemory
+     */
+    default int atomicWait(int addr, int size, long expected, long timeoutNanos) {
+        atomicLoad(addr, size);
+        throw new RuntimeException("expected shared memory");
+    }
+
+    /**
+     * Wake threads {@link #atomicWait(int, int, long, long) waiting} on an address.
+     * <p>
+     * The default implementation wakes nobody, since nobody can wait on a memory that is not shared.
+     *
+     * @param addr  The address, which must be aligned to 4 bytes.
+     * @param count The maximum number of threads to wake, as an unsigned integer.
+     * @return The number of threads woken.
+     * @throws IndexOutOfBoundsException If the address is out of bounds.
+     */
+    default int atomicNotify(int addr, int count) {
+        atomicLoad(addr, Integer.BYTES);
+        return 0;
+    }
+
     @Embedding("mem_type")
     @Override
     ExternType.@NotNull Mem getType();
@@ -337,7 +594,9 @@ public interface Memory extends ExternVal {
                 storeHandle,
                 size,
                 grow,
-                init;
+                init,
+                copy,
+                fill;
 
         private HandleMemory(
                 @Nullable Integer max,
@@ -345,7 +604,9 @@ public interface Memory extends ExternVal {
                 MethodHandle storeHandle,
                 MethodHandle size,
                 MethodHandle grow,
-                MethodHandle init
+                MethodHandle init,
+                MethodHandle copy,
+                MethodHandle fill
         ) {
             this.max = max;
             this.loadHandle = loadHandle;
@@ -353,6 +614,8 @@ public interface Memory extends ExternVal {
             this.size = size;
             this.grow = grow;
             this.init = init;
+            this.copy = copy;
+            this.fill = fill;
         }
 
         /**
@@ -364,6 +627,8 @@ public interface Memory extends ExternVal {
          * @param size        The {@link #size()} implementation.
          * @param grow        The {@link #grow(int)} implementation.
          * @param init        The {@link #init(int, int, int, ByteBuffer)} implementation.
+         * @param copy        The {@link #copy(int, int, int)} implementation.
+         * @param fill        The {@link #fill(int, byte, int)} implementation, taking the byte as an int.
          * @return The new memory.
          */
         @GeneratedAccess
@@ -373,9 +638,11 @@ public interface Memory extends ExternVal {
                 MethodHandle storeHandle,
                 MethodHandle size,
                 MethodHandle grow,
-                MethodHandle init
+                MethodHandle init,
+                MethodHandle copy,
+                MethodHandle fill
         ) {
-            return new HandleMemory(max, loadHandle, storeHandle, size, grow, init);
+            return new HandleMemory(max, loadHandle, storeHandle, size, grow, init, copy, fill);
         }
 
         @Override
@@ -423,6 +690,24 @@ public interface Memory extends ExternVal {
             }
         }
 
+        @Override
+        public void copy(int dstIdx, int srcIdx, int len) {
+            try {
+                copy.invokeExact(dstIdx, srcIdx, len);
+            } catch (Throwable t) {
+                throw Utils.rethrow(t);
+            }
+        }
+
+        @Override
+        public void fill(int dstIdx, byte value, int len) {
+            try {
+                fill.invokeExact(dstIdx, (int) value, len);
+            } catch (Throwable t) {
+                throw Utils.rethrow(t);
+            }
+        }
+
         @Override
         public ExternType.@NotNull Mem getType() {
             return new ExternType.Mem(new ExternType.Limits(size(), max));
@@ -621,9 +906,37 @@ public interface Memory extends ExternVal {
          * @param max The maximum number of pages, or null if unbounded.
          */
         public ByteBufferMemory(int min, @Nullable Integer max) {
+            this(min, max, min);
+        }
+
+        /**
+         * Create a new byte buffer memory with the given limits, reserving room for
+         * it to grow to {@code reserve} pages (limited by {@code max}) without being copied.
+         *
+         * @param min     The minimum number of pages.
+         * @param max     The maximum number of pages, or null if unbounded.
+         * @param reserve The number of pages to reserve.
+         */
+        public ByteBufferMemory(int min, @Nullable Integer max, int reserve) {
             this.max = max;
-            this.buf = ByteBuffer.allocateDirect(min * PAGE_SIZE)
+            int reserved = Math.max(min, Math.min(reserve, maxPages()));
+            this.buf = ByteBuffer.allocateDirect(reserved * PAGE_SIZE)
                     .order(ByteOrder.LITTLE_ENDIAN);
+            buf.limit(min * PAGE_SIZE);
+        }
+
+        /**
+         * Create a new byte buffer memory with the given initial buffer.
+         * <p>
+         * The limit of the buffer is the size of the memory, and it must be a multiple of the page size.
+         * The buffer must be little-endian.
+         *
+         * @param buf The initial buffer.
+         * @param max The maximum number of pages, or null if unbounded.
+         */
+        protected ByteBufferMemory(ByteBuffer buf, @Nullable Integer max) {
+            this.buf = buf;
+            this.max = max;
         }
 
         /**
@@ -648,33 +961,84 @@ public interface Memory extends ExternVal {
         @Override
         public MethodHandle storeHandle(StoreMode mode) {
             WasmOps.StoreType sTy = WasmOps.StoreType.fromOpcode(mode.opcode);
-            return STORE_HANDLES.get(sTy).bindTo(buf);
+            // the buffer is replaced when the memory outgrows it, so it can't be bound directly
+            return MethodHandles.collectArguments(STORE_HANDLES.get(sTy), 0, GET_BUF.bindTo(this));
         }
 
         @Override
         public int size() {
-            return buf.capacity() / PAGE_SIZE;
+            return buf.limit() / PAGE_SIZE;
         }
 
+        private int maxPages() {
+            return max == null ? ByteBufferMemoryConvention.MAX_PAGES : Math.min(ByteBufferMemoryConvention.MAX_PAGES, max);
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p>
+         * The memory's size is the limit of its buffer, and the buffer is only reallocated when
+         * its capacity runs out, in which case the capacity is doubled (up to the maximum),
+         * so growing is amortized constant time.
+         */
         @Override
         public int grow(int growByPages) {
             if (growByPages < 0) {
                 return -1;
             }
-            int sz = buf.capacity() / PAGE_SIZE;
-            if (max != null && sz + growByPages > max) {
+            int rawSz = buf.limit();
+            int sz = rawSz / PAGE_SIZE;
+            int maxPages = maxPages();
+            if (sz + growByPages > maxPages) {
                 return -1;
             }
+            int newRawSz = rawSz + growByPages * PAGE_SIZE;
+            if (newRawSz > buf.capacity()) {
+                ByteBuffer newBuf = reallocate(buf, newRawSz, maxPages * PAGE_SIZE);
+                if (newBuf == null) {
+                    return -1;
+                }
+                buf = newBuf;
+            }
+            buf.limit(newRawSz);
+            return sz;
+        }
+
+        /**
+         * Replace the buffer of this memory with one that has room for at least {@code minCapacity} bytes,
+         * and contains the contents of the old buffer.
+         * <p>
+         * The default implementation allocates a new direct buffer with double the capacity (up to {@code maxCapacity}),
+         * falling back to exactly {@code minCapacity} if that fails, and copies the old buffer into it.
+         *
+         * @param buf         The current buffer.
+         * @param minCapacity The capacity the new buffer must have at least.
+         * @param maxCapacity The capacity the new buffer need not exceed.
+         * @return The new buffer, which must be little-endian, or null if one could not be allocated.
+         */
+        protected @Nullable ByteBuffer reallocate(ByteBuffer buf, int minCapacity, int maxCapacity) {
+            int cap = buf.capacity();
             ByteBuffer newBuf;
             try {
-                newBuf = ByteBuffer.allocateDirect(buf.capacity() + growByPages * PAGE_SIZE)
-                        .order(ByteOrder.LITTLE_ENDIAN);
+                newBuf = ByteBuffer.allocateDirect(Math.max(minCapacity, cap + Math.min(cap, maxCapacity - cap)));
             } catch (OutOfMemoryError ignored) {
-                return -1;
+                try {
+                    newBuf = ByteBuffer.allocateDirect(minCapacity);
+                } catch (OutOfMemoryError ignored2) {
+                    return null;
+                }
             }
-            newBuf.duplicate().put(buf.duplicate());
-            buf = newBuf;
-            return sz;
+            newBuf.order(ByteOrder.LITTLE_ENDIAN).duplicate().put(buf.duplicate());
+            return newBuf;
+        }
+
+        /**
+         * Get the current buffer of this memory, which is replaced whenever the memory outgrows it.
+         *
+         * @return The buffer.
+         */
+        protected ByteBuffer getBuffer() {
+            return buf;
         }
 
         @Override
@@ -685,9 +1049,392 @@ public interface Memory extends ExternVal {
             thisSliced.put(otherSliced);
         }
 
+        @Override
+        public void copy(int dstIdx, int srcIdx, int len) {
+            Utils.checkRange(dstIdx, len, buf.limit());
+            Utils.checkRange(srcIdx, len, buf.limit());
+            // ByteBuffer#put(ByteBuffer) copies with System.arraycopy or Unsafe.copyMemory, both of which handle overlap
+            ByteBuffer dst = buf.duplicate(), src = buf.duplicate();
+            dst.position(dstIdx);
+            src.limit(srcIdx + len).position(srcIdx);
+            dst.put(src);
+        }
+
+        @Override
+        public void fill(int dstIdx, byte value, int len) {
+            Utils.checkRange(dstIdx, len, buf.limit());
+            if (len == 0) return;
+            // there is no bulk fill for buffers, so repeatedly double the filled range by copying it after itself
+            buf.put(dstIdx, value);
+            for (int filled = 1; filled < len; ) {
+                int count = Math.min(filled, len - filled);
+                ByteBuffer dst = buf.duplicate(), src = buf.duplicate();
+                dst.position(dstIdx + filled);
+                src.limit(dstIdx + count).position(dstIdx);
+                dst.put(src);
+                filled += count;
+            }
+        }
+
+        @Override
+        public long atomicLoad(int addr, int size) {
+            Utils.checkAligned(addr, size);
+            switch (size) {
+                // @formatter:off
+                case 1: return Byte.toUnsignedLong(buf.get(addr));
+                case 2: return Short.toUnsignedLong(buf.getShort(addr));
+                case 4: return Integer.toUnsignedLong(buf.getInt(addr));
+                case 8: return buf.getLong(addr);
+                // @formatter:on
+                default:
+                    throw new IllegalArgumentException("invalid atomic size: " + size);
+            }
+        }
+
+        @Override
+        public void atomicStore(int addr, int size, long value) {
+            Utils.checkAligned(addr, size);
+            switch (size) {
+                // @formatter:off
+                case 1: buf.put(addr, (byte) value); break;
+                case 2: buf.putShort(addr, (short) value); break;
+                case 4: buf.putInt(addr, (int) value); break;
+                case 8: buf.putLong(addr, value); break;
+                // @formatter:on
+                default:
+                    throw new IllegalArgumentException("invalid atomic size: " + size);
+            }
+        }
+
         @Override
         public ExternType.@NotNull Mem getType() {
             return new ExternType.Mem(new ExternType.Limits(size(), max));
         }
     }
+
+    /**
+     * A memory implemented using a {@link MappedByteBuffer} of a file.
+     * <p>
+     * The memory lives in the file rather than on the Java heap or in direct memory,
+     * so it is paged in and out by the operating system, and is not limited by {@code -XX:MaxDirectMemorySize}.
+     * Its size is still limited to {@link ByteBufferMemoryConvention#MAX_PAGES}, since buffers are indexed by ints.
+     * <p>
+     * If the file already exists, the memory starts with its contents, and at least as many pages as fit in it,
+     * so a memory can be persisted with {@link #force()} and picked up again later.
+     * Growing the memory extends the file and maps it again, without copying.
+     */
+    class MappedMemory extends ByteBufferMemory implements Closeable {
+        private final FileChannel channel;
+
+        /**
+         * Open or create a mapped memory backed by the given file, with the given limits.
+         *
+         * @param path The file.
+         * @param min  The minimum number of pages.
+         * @param max  The maximum number of pages, or null if unbounded.
+         * @throws IOException If the file could not be opened or mapped.
+         */
+        public MappedMemory(Path path, int min, @Nullable Integer max) throws IOException {
+            this(FileChannel.open(path,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE), min, max);
+        }
+
+        /**
+         * Open or create a mapped memory backed by the given file, with the given type.
+         *
+         * @param path The file.
+         * @param type The type.
+         * @throws IOException If the file could not be opened or mapped.
+         */
+        public MappedMemory(Path path, ExternType.Mem type) throws IOException {
+            this(path, type.limits.min, type.limits.max);
+        }
+
+        private MappedMemory(FileChannel channel, int min, @Nullable Integer max) throws IOException {
+            super(mapInitial(channel, min, max), max);
+            this.channel = channel;
+        }
+
+        private static ByteBuffer mapInitial(FileChannel channel, int min, @Nullable Integer max) throws IOException {
+            // the channel was opened for this memory, so nothing else will close it if this fails
+            try {
+                return map(channel, initialPages(channel, min, max) * PAGE_SIZE);
+            } catch (IOException | RuntimeException e) {
+                try {
+                    channel.close();
+                } catch (IOException closeError) {
+                    e.addSuppressed(closeError);
+                }
+                throw e;
+            }
+        }
+
+        private static int initialPages(FileChannel channel, int min, @Nullable Integer max) throws IOException {
+            long filePages = channel.size() / PAGE_SIZE;
+            int maxPages = max == null ? ByteBufferMemoryConvention.MAX_PAGES : Math.min(ByteBufferMemoryConvention.MAX_PAGES, max);
+            return (int) Math.max(min, Math.min(filePages, maxPages));
+        }
+
+        private static ByteBuffer map(FileChannel channel, int size) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p>
+         * This maps exactly {@code minCapacity} bytes of the file, since the contents don't need to be copied.
+         */
+        @Override
+        protected @Nullable ByteBuffer reallocate(ByteBuffer buf, int minCapacity, int maxCapacity) {
+            try {
+                return map(channel, minCapacity);
+            } catch (IOException ignored) {
+                return null;
+            }
+        }
+
+        /**
+         * Write any changes to the memory out to the file.
+         *
+         * @see MappedByteBuffer#force()
+         */
+        public void force() {
+            ((MappedByteBuffer) getBuffer()).force();
+        }
+
+        /**
+         * Close the underlying file channel, which was opened by and belongs to this memory.
+         * <p>
+         * The memory can still be used after this, but it can no longer grow.
+         *
+         * @throws IOException If an I/O error occurs.
+         */
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * A memory that can be shared between threads, with atomic accesses and waiting.
+     * <p>
+     * The whole of the maximum size of the memory is allocated up front, so the buffer is never replaced
+     * and threads can access it concurrently while it grows. For this reason shared memories must have a maximum,
+     * and <b>that maximum is allocated (and zeroed) eagerly</b>: a memory declared with a maximum of 65536 pages
+     * takes 4 GiB of direct memory as soon as it is created, whatever its minimum. Direct memory counts
+     * towards {@code -XX:MaxDirectMemorySize}, not the heap, so keep the maximum of shared memories as small
+     * as the module allows.
+     * <p>
+     * Plain loads and stores access the buffer directly, and may race like they would on real hardware.
+     * The atomic methods of this memory are sequentially consistent with each other, and lock-free: they are
+     * volatile accesses and compare-and-swap loops on the native address of the buffer. Only waiting and
+     * notifying take a lock, which is held while a waiting thread checks the value, so
+     * {@link #atomicWait(int, int, long, long)} can't miss a store and notify that happen after it checks the value.
+     * <p>
+     * To share the memory between threads, each thread should import it into its own instance of a module.
+     */
+    class SharedMemory extends ByteBufferMemory {
+        private static final Unsafe UNSAFE;
+        private static final long BUFFER_ADDRESS;
+        private static final boolean NATIVE_LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+        static {
+            try {
+                Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                UNSAFE = (Unsafe) theUnsafe.get(null);
+                BUFFER_ADDRESS = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+            } catch (IllegalAccessException | NoSuchFieldException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private final ParkingTable parking = new ParkingTable();
+        // the buffer is never replaced, and kept alive by the superclass, so its address never changes
+        private final long base;
+        // the limit of the buffer isn't volatile, so atomics check against this instead
+        private volatile int byteSize;
+
+        /**
+         * Create a new shared memory with the given limits.
+         * <p>
+         * This allocates all {@code max} pages immediately.
+         *
+         * @param min The minimum number of pages.
+         * @param max The maximum number of pages.
+         */
+        public SharedMemory(int min, int max) {
+            super(min, max, checkMax(max));
+            base = UNSAFE.getLong(getBuffer(), BUFFER_ADDRESS);
+            byteSize = getBuffer().limit();
+        }
+
+        /**
+         * Create a new shared memory with the given type.
+         * <p>
+         * This allocates all of the maximum pages immediately.
+         *
+         * @param type The type, which must have a maximum.
+         */
+        public SharedMemory(ExternType.Mem type) {
+            this(type.limits.min, requireMax(type));
+        }
+
+        private static int requireMax(ExternType.Mem type) {
+            if (type.limits.max == null) throw new IllegalArgumentException("shared memories must have a maximum");
+            return type.limits.max;
+        }
+
+        private static int checkMax(int max) {
+            if (max > ByteBufferMemoryConvention.MAX_PAGES) {
+                throw new IllegalArgumentException("shared memories can have at most "
+                        + ByteBufferMemoryConvention.MAX_PAGES + " pages, got: " + max);
+            }
+            return max;
+        }
+
+        @Override
+        public synchronized int grow(int growByPages) {
+            int ret = super.grow(growByPages);
+            byteSize = getBuffer().limit();
+            return ret;
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p>
+         * The buffer of a shared memory can't be replaced, and it is allocated at its maximum size, so this always fails.
+         */
+        @Override
+        protected @Nullable ByteBuffer reallocate(ByteBuffer buf, int minCapacity, int maxCapacity) {
+            return null;
+        }
+
+        private long address(int addr, int size) {
+            if (size != 1 && size != 2 && size != 4 && size != 8) {
+                throw new IllegalArgumentException("invalid atomic size: " + size);
+            }
+            Utils.checkAligned(addr, size);
+            Utils.checkRange(addr, size, byteSize);
+            return base + Integer.toUnsignedLong(addr);
+        }
+
+        // memory is little-endian, these convert to and from the native order of Unsafe accesses
+
+        private static short le(short x) {
+            return NATIVE_LITTLE_ENDIAN ? x : Short.reverseBytes(x);
+        }
+
+        private static int le(int x) {
+            return NATIVE_LITTLE_ENDIAN ? x : Integer.reverseBytes(x);
+        }
+
+        private static long le(long x) {
+            return NATIVE_LITTLE_ENDIAN ? x : Long.reverseBytes(x);
+        }
+
+        private static long load(long address, int size) {
+            switch (size) {
+                // @formatter:off
+                case 1: return Byte.toUnsignedLong(UNSAFE.getByteVolatile(null, address));
+                case 2: return Short.toUnsignedLong(le(UNSAFE.getShortVolatile(null, address)));
+                case 4: return Integer.toUnsignedLong(le(UNSAFE.getIntVolatile(null, address)));
+                default: return le(UNSAFE.getLongVolatile(null, address));
+                // @formatter:on
+            }
+        }
+
+        private static boolean compareAndSwap(long address, int size, long expected, long value) {
+            switch (size) {
+                case 4:
+                    return UNSAFE.compareAndSwapInt(null, address, le((int) expected), le((int) value));
+                case 8:
+                    return UNSAFE.compareAndSwapLong(null, address, le(expected), le(value));
+                default: {
+                    // there is no sub-word compare-and-swap, so swap the aligned int containing the value,
+                    // retrying if only the other bytes of it changed
+                    long word = address & ~3L;
+                    int shift = (int) (address & 3) * 8;
+                    int mask = (int) Utils.sizeMask(size) << shift;
+                    int expectedBits = (int) expected << shift & mask;
+                    int valueBits = (int) value << shift & mask;
+                    while (true) {
+                        int current = le(UNSAFE.getIntVolatile(null, word));
+                        if ((current & mask) != expectedBits) return false;
+                        if (UNSAFE.compareAndSwapInt(null, word, le(current), le(current & ~mask | valueBits))) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public long atomicLoad(int addr, int size) {
+            return load(address(addr, size), size);
+        }
+
+        @Override
+        public void atomicStore(int addr, int size, long value) {
+            long address = address(addr, size);
+            switch (size) {
+                // @formatter:off
+                case 1: UNSAFE.putByteVolatile(null, address, (byte) value); break;
+                case 2: UNSAFE.putShortVolatile(null, address, le((short) value)); break;
+                case 4: UNSAFE.putIntVolatile(null, address, le((int) value)); break;
+                default: UNSAFE.putLongVolatile(null, address, le(value)); break;
+                // @formatter:on
+            }
+        }
+
+        @Override
+        public long atomicRmw(RmwOp op, int addr, int size, long operand) {
+            long address = address(addr, size);
+            while (true) {
+                long old = load(address, size);
+                if (compareAndSwap(address, size, old, op.apply(old, operand))) return old;
+            }
+        }
+
+        @Override
+        public long atomicCompareExchange(int addr, int size, long expected, long replacement) {
+            long address = address(addr, size);
+            long wrapped = expected & Utils.sizeMask(size);
+            while (true) {
+                long old = load(address, size);
+                if (old != wrapped || compareAndSwap(address, size, old, replacement)) return old;
+            }
+        }
+
+        @Override
+        public int atomicWait(int addr, int size, long expected, long timeoutNanos) {
+            if (size != Integer.BYTES && size != Long.BYTES) {
+                throw new IllegalArgumentException("invalid wait size: " + size);
+            }
+            long address = address(addr, size);
+            ParkingTable.Stripe stripe = parking.stripe(addr);
+            synchronized (stripe) {
+                // a notify for this address has to take the lock after any store it follows,
+                // so it either finds this thread parked, or this thread sees the store
+                if (load(address, size) != (expected & Utils.sizeMask(size))) return 1;
+                try {
+                    return stripe.park(addr, timeoutNanos) ? 0 : 2;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("interrupted while waiting", e);
+                }
+            }
+        }
+
+        @Override
+        public int atomicNotify(int addr, int count) {
+            address(addr, Integer.BYTES);
+            ParkingTable.Stripe stripe = parking.stripe(addr);
+            synchronized (stripe) {
+                return stripe.unpark(addr, count);
+            }
+        }
+    }
 }
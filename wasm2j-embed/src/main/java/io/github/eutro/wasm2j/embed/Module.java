@@ -9,13 +9,15 @@ import io.github.eutro.jwasm.tree.ExportsNode;
 import io.github.eutro.jwasm.tree.ModuleNode;
 import io.github.eutro.jwasm.tree.analysis.ModuleValidator;
 import io.github.eutro.wasm2j.api.types.ExternType;
-import org.objectweb.asm.Type;
-import org.objectweb.asm.tree.ClassNode;
+import io.github.eutro.wasm2j.embed.internal.DiskClassCache;
+import org.jetbrains.annotations.Nullable;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -24,10 +26,16 @@ import java.util.stream.Collectors;
  */
 public class Module {
     private final ModuleNode node;
+    private final byte @Nullable [] sourceDigest;
     private boolean validated = false;
 
     Module(ModuleNode node) {
+        this(node, null);
+    }
+
+    Module(ModuleNode node, byte @Nullable [] sourceDigest) {
         this.node = node;
+        this.sourceDigest = sourceDigest;
     }
 
     /**
@@ -40,7 +48,7 @@ public class Module {
     public static Module decode(byte[] bytes) {
         ModuleNode node = new ModuleNode();
         ModuleReader.fromBytes(bytes).accept(node);
-        return new Module(node);
+        return new Module(node, DiskClassCache.digest(bytes));
     }
 
     /**
@@ -54,7 +62,7 @@ public class Module {
         List<Object> objs = WatReader.readAll(source);
         if (objs.size() != 1) throw new IllegalArgumentException("Too many modules in string");
         ModuleNode node = WatParser.DEFAULT.parseModule(objs.get(0));
-        return new Module(node);
+        return new Module(node, DiskClassCache.digest(source.getBytes(StandardCharsets.UTF_8)));
     }
 
     /**
@@ -76,6 +84,10 @@ public class Module {
         return node;
     }
 
+    byte @Nullable [] getSourceDigest() {
+        return sourceDigest;
+    }
+
     /**
      * Validate the module, throwing an exception if the module is invalid.
      * <p>
@@ -93,6 +105,9 @@ public class Module {
      * Instantiate the module in the given store with the provided values for imports.
      * <p>
      * The imports must be in the same order as those returned for {@link #imports()}.
+     * <p>
+     * The module is only compiled the first time it is instantiated in a given store,
+     * see {@link Store#setClassCacheSize(int)}.
      *
      * @param store   The store.
      * @param imports The supplied imports.
@@ -122,16 +137,13 @@ public class Module {
             }
         }
 
-        Class<?> moduleClass;
+        Constructor<?> ctor;
         try {
-            ClassNode classNode = store.PASS.run(getNode());
-            classNode.interfaces.add(Type.getInternalName(Instance.class));
-            moduleClass = store.defineClass(classNode);
+            ctor = store.getConstructor(this);
         } catch (OutOfMemoryError e) {
             // chances are it was us here doing horrible things, so yield an exception instead of the error
             throw new ModuleRefusedException(e);
         }
-        Constructor<?> ctor = moduleClass.getConstructors()[0];
 
         Object inst;
         try {
@@ -179,6 +191,35 @@ public class Module {
         });
     }
 
+    /**
+     * Pre-initialise this module, returning a module that starts in the state an instance of this module
+     * is in after it has been instantiated and initialised.
+     * <p>
+     * This instantiates the module in the given store with the provided imports, runs its start function,
+     * then calls {@code initialize} with the instance. The state of the instance's memories and mutable globals
+     * is then captured, and a new module is returned that has that state as its initial state, and which does
+     * not run the start function again.
+     * <p>
+     * Instantiating the returned module skips all the initialisation work done by the start function and
+     * {@code initialize}, and copies the captured contents of each memory straight into the new instance.
+     * <p>
+     * Only state owned by the module is captured. Imported memories, tables and globals are not.
+     * Passive data segments dropped during initialisation are empty in the returned module.
+     * Tables are initialised from the module's element segments as usual, since function references
+     * can't be captured, so if a table is modified during initialisation the snapshot is refused.
+     * Mutable globals must hold numbers or null references.
+     *
+     * @param store      The store to instantiate the module in.
+     * @param imports    The supplied imports, as for {@link #instantiate(Store, ExternVal[])}.
+     * @param initialize A function to call on the instance before it is captured, or null.
+     * @return The pre-initialised module.
+     * @throws UnsupportedOperationException If the instance is in a state that can't be captured.
+     */
+    public Module snapshot(Store store, ExternVal[] imports, @Nullable Consumer<Instance> initialize) {
+        validate();
+        return ModuleSnapshot.take(this, store, imports, initialize);
+    }
+
     /**
      * Get the imports that this module requires.
      *
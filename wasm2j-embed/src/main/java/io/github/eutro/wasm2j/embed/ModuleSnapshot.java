@@ -0,0 +1,211 @@
+package io.github.eutro.wasm2j.embed;
+
+import io.github.eutro.jwasm.Opcodes;
+import io.github.eutro.jwasm.tree.*;
+import io.github.eutro.wasm2j.api.types.ExternType;
+import io.github.eutro.wasm2j.embed.internal.SnapshotAccess;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static io.github.eutro.jwasm.Opcodes.PAGE_SIZE;
+
+/**
+ * Pre-initialises a module by instantiating it, and then rewriting the module so that its
+ * initial state is the state of that instance.
+ * <p>
+ * The contents of memories are not written back into the module, but kept alongside it
+ * and copied straight into the memories of each new instance.
+ *
+ * @see Module#snapshot(Store, ExternVal[], Consumer)
+ */
+final class ModuleSnapshot extends Module {
+    private static final String EXPORT_PREFIX = "wasm2j.snapshot.";
+
+    /**
+     * The captured contents of each of the module's own memories, without trailing zeroes,
+     * or null if it was all zero.
+     */
+    private final byte @Nullable [][] images;
+    private final int importedMems;
+
+    private ModuleSnapshot(ModuleNode node, byte @Nullable [][] images, int importedMems) {
+        super(node);
+        this.images = images;
+        this.importedMems = importedMems;
+    }
+
+    @Override
+    public Instance instantiate(Store store, ExternVal[] imports) {
+        Instance instance = super.instantiate(store, imports);
+        if (images != null) {
+            SnapshotAccess access = (SnapshotAccess) instance;
+            for (int i = 0; i < images.length; i++) {
+                // memory starts zeroed, so only the non-zero prefix needs to be copied
+                if (images[i] != null) access.writeMemory(importedMems + i, ByteBuffer.wrap(images[i]));
+            }
+        }
+        return instance;
+    }
+
+    static Module take(Module module, Store store, ExternVal[] imports, @Nullable Consumer<Instance> initialize) {
+        int importedMems = 0, importedGlobals = 0, importedTables = 0;
+        for (Import theImport : module.imports()) {
+            ExternType.Kind kind = theImport.type.getKind();
+            if (kind == ExternType.Kind.MEM) importedMems++;
+            else if (kind == ExternType.Kind.GLOBAL) importedGlobals++;
+            else if (kind == ExternType.Kind.TABLE) importedTables++;
+        }
+
+        ModuleNode node = module.getNode();
+        List<MemoryNode> mems = node.mems == null ? null : node.mems.memories;
+        List<GlobalNode> globals = node.globals == null ? null : node.globals.globals;
+        int tableCount = 0;
+        if (node.tables != null) {
+            for (TableNode ignored : node.tables) tableCount++;
+        }
+
+        // export everything we need to read back, so the instance can be inspected from outside
+        ModuleNode exporting = copy(node);
+        if (exporting.exports == null) exporting.exports = new ExportsNode();
+        if (mems != null) {
+            for (int i = 0; i < mems.size(); i++) {
+                exporting.exports.visitExport(EXPORT_PREFIX + "mem" + i, Opcodes.IMPORTS_MEM, importedMems + i);
+            }
+        }
+        if (globals != null) {
+            for (int i = 0; i < globals.size(); i++) {
+                if (globals.get(i).type.mut == Opcodes.MUT_CONST) continue;
+                exporting.exports.visitExport(EXPORT_PREFIX + "global" + i, Opcodes.IMPORTS_GLOBAL, importedGlobals + i);
+            }
+        }
+        for (int i = 0; i < tableCount; i++) {
+            exporting.exports.visitExport(EXPORT_PREFIX + "table" + i, Opcodes.IMPORTS_TABLE, importedTables + i);
+        }
+        // run the start function ourselves, so the tables can be read before it
+        if (node.start != null) {
+            exporting.exports.visitExport(EXPORT_PREFIX + "start", Opcodes.IMPORTS_FUNC, node.start);
+            exporting.start = null;
+        }
+        Instance instance = (module instanceof ModuleSnapshot
+                ? new ModuleSnapshot(exporting, ((ModuleSnapshot) module).images, importedMems)
+                : new Module(exporting))
+                .instantiate(store, imports);
+        SnapshotAccess access = (SnapshotAccess) instance;
+        Object[][] initialTables = new Object[tableCount][];
+        for (int i = 0; i < tableCount; i++) {
+            initialTables[i] = readAll(getExport(instance, "table" + i).getAsTable());
+        }
+        if (node.start != null) getExport(instance, "start").getAsFunc().invoke();
+        if (initialize != null) initialize.accept(instance);
+        // function references can't be expressed as constants, so a mutated table can't be captured
+        for (int i = 0; i < tableCount; i++) {
+            if (!sameElements(initialTables[i], readAll(getExport(instance, "table" + i).getAsTable()))) {
+                throw new UnsupportedOperationException("Cannot snapshot table " + (importedTables + i)
+                        + ", it was modified during initialisation");
+            }
+        }
+
+        ModuleNode snapshot = copy(node);
+        // the start function has already run, its effects are in the snapshot
+        snapshot.start = null;
+        if (globals != null) {
+            List<GlobalNode> snapGlobals = snapshot.globals.globals;
+            for (int i = 0; i < snapGlobals.size(); i++) {
+                GlobalNode global = snapGlobals.get(i);
+                if (global.type.mut == Opcodes.MUT_CONST) continue;
+                Object value = getExport(instance, "global" + i).getAsGlobal().get();
+                global.init = constExpr(global.type.type, value);
+            }
+        }
+        if (snapshot.datas != null) {
+            int dataIdx = -1;
+            for (DataNode data : snapshot.datas) {
+                dataIdx++;
+                if (data.offset != null) {
+                    // active segments have already been copied into memory, leave them empty so data indices don't shift
+                    data.offset = null;
+                    data.init = new byte[0];
+                } else if (data.init.length != 0 && access.isDataDropped(dataIdx)) {
+                    // a dropped segment behaves exactly like an empty one
+                    data.init = new byte[0];
+                }
+            }
+        }
+        byte[][] images = null;
+        if (mems != null) {
+            images = new byte[mems.size()][];
+            List<MemoryNode> snapMems = snapshot.mems.memories;
+            for (int i = 0; i < snapMems.size(); i++) {
+                int size = getExport(instance, "mem" + i).getAsMemory().size();
+                snapMems.get(i).limits.min = size;
+                ByteBuffer image = ByteBuffer.allocate(size * PAGE_SIZE);
+                access.readMemory(importedMems + i, image);
+                images[i] = trimZeroes(image.array());
+            }
+        }
+        return new ModuleSnapshot(snapshot, images, importedMems);
+    }
+
+    private static ModuleNode copy(ModuleNode node) {
+        ModuleNode copied = new ModuleNode();
+        node.accept(copied);
+        return copied;
+    }
+
+    private static ExternVal getExport(Instance instance, String name) {
+        ExternVal value = instance.getExport(EXPORT_PREFIX + name);
+        if (value == null) throw new IllegalStateException("Snapshot export " + name + " missing. This is a bug.");
+        return value;
+    }
+
+    private static ExprNode constExpr(byte type, @Nullable Object value) {
+        ExprNode expr = new ExprNode();
+        switch (type) {
+            case Opcodes.I32:
+            case Opcodes.I64:
+            case Opcodes.F32:
+            case Opcodes.F64:
+                expr.visitConstInsn(value);
+                break;
+            case Opcodes.FUNCREF:
+            case Opcodes.EXTERNREF:
+                if (value != null) {
+                    throw new UnsupportedOperationException("Cannot snapshot a global holding a non-null reference");
+                }
+                expr.visitNullInsn(type);
+                break;
+            default:
+                throw new UnsupportedOperationException(String.format("Cannot snapshot a global of type 0x%02x", type));
+        }
+        expr.visitEnd();
+        return expr;
+    }
+
+    private static Object[] readAll(Table table) {
+        Object[] values = new Object[table.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = table.get(i);
+        }
+        return values;
+    }
+
+    private static boolean sameElements(Object[] before, Object[] after) {
+        if (before.length != after.length) return false;
+        for (int i = 0; i < before.length; i++) {
+            // references are compared by identity, there is no other equality on them
+            if (before[i] != after[i]) return false;
+        }
+        return true;
+    }
+
+    private static byte @Nullable [] trimZeroes(byte[] bytes) {
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] == 0) end--;
+        if (end == 0) return null;
+        return end == bytes.length ? bytes : Arrays.copyOf(bytes, end);
+    }
+}
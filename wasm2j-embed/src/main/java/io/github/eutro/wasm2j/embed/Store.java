@@ -1,6 +1,10 @@
 package io.github.eutro.wasm2j.embed;
 
 import io.github.eutro.jwasm.tree.ModuleNode;
+import io.github.eutro.wasm2j.api.WasmCompiler;
+import io.github.eutro.wasm2j.embed.internal.DiskClassCache;
+import io.github.eutro.wasm2j.embed.internal.LazyFunctions;
+import io.github.eutro.wasm2j.embed.internal.SnapshotAccess;
 import io.github.eutro.wasm2j.embed.internal.Utils;
 import io.github.eutro.wasm2j.embed.internal.WasmConvertPass;
 import io.github.eutro.wasm2j.core.passes.IRPass;
@@ -8,6 +12,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.MethodTooLargeException;
+import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
 
 import java.io.File;
@@ -15,7 +20,13 @@ import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
 import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Formally, in the WebAssembly specification, the store contains (owns) all the
@@ -34,13 +45,39 @@ import java.nio.file.Files;
  * </ul>
  * <p>
  * The former may be forced on a given store by calling {@link #forceClassLoaderDefiner()}.
+ * <p>
+ * Each store keeps a bounded cache of the classes it has compiled, so instantiating the same
+ * {@link Module} many times in one store only compiles it once. See {@link #setClassCacheSize(int)}.
+ * Compiled classes may also be persisted across JVM restarts, see {@link #setCacheDirectory(File)}.
+ * <p>
+ * For large modules, of which most functions are never called, functions can instead be compiled
+ * the first time they are called, see {@link #setLazyCompilation(boolean)}.
  */
 public final class Store {
-    final IRPass<ModuleNode, ClassNode> PASS = WasmConvertPass.getPass();
+    /**
+     * The default maximum number of compiled module classes retained by a store.
+     */
+    public static final int DEFAULT_CLASS_CACHE_SIZE = 64;
+
+    private final WasmCompiler compiler = WasmConvertPass.createCompiler();
+    final IRPass<ModuleNode, ClassNode> PASS = WasmConvertPass.getPass(compiler);
     @NotNull
     private ClassDefiner definer = getClassDefiner();
 
     private File debugOutput;
+    @Nullable
+    private DiskClassCache diskCache;
+    private boolean lazyCompilation;
+    private final AtomicInteger lazyModuleCounter = new AtomicInteger();
+
+    private int classCacheSize = DEFAULT_CLASS_CACHE_SIZE;
+    // access-ordered, so the least recently instantiated module is evicted first
+    private final Map<Module, Constructor<?>> classCache = new LinkedHashMap<Module, Constructor<?>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Module, Constructor<?>> eldest) {
+            return size() > classCacheSize;
+        }
+    };
 
     private Store() {
     }
@@ -62,6 +99,102 @@ public final class Store {
     public void forceClassLoaderDefiner() {
         if (definer instanceof StoreClassLoader) return;
         definer = new StoreClassLoader();
+        clearClassCache();
+    }
+
+    /**
+     * Set the directory in which compiled module classes are persisted by this store.
+     * <p>
+     * When set, the first instantiation of a module in this store will look for a class compiled
+     * previously from the same module source (possibly by a different JVM) in the directory, loading it directly
+     * instead of compiling the module again. If there is none, the module is compiled and the result
+     * is written to the directory. Entries from other builds of the compiler (as identified by a digest of
+     * wasm2j's own jars), compiled with different settings, or corrupted, are ignored and replaced.
+     * <p>
+     * Only modules created by {@link Module#decode(byte[])} or {@link Module#parse(String)} can be cached,
+     * since the key is derived from the module's source. If the jars of the compiler cannot be located,
+     * nothing is cached.
+     * <p>
+     * The default (or when {@code null} is passed to this method) is to not persist compiled classes.
+     *
+     * @param cacheDirectory The directory to store compiled classes in.
+     */
+    public void setCacheDirectory(@Nullable File cacheDirectory) {
+        this.diskCache = cacheDirectory == null ? null : new DiskClassCache(cacheDirectory.toPath());
+    }
+
+    /**
+     * Set whether this store compiles the functions of modules lazily.
+     * <p>
+     * When enabled, instantiating a module only compiles a small stub for each of its functions. Each function
+     * is compiled into a class of its own the first time it is called, after which the stub calls it directly.
+     * This makes instantiating large modules much faster, and avoids spending memory on functions that are never
+     * called, at the cost of a pause the first time each function is called.
+     * <p>
+     * Enabling this {@link #forceClassLoaderDefiner() forces the use of a class loader}, since the classes
+     * of functions need to be able to refer to the module class. Modules compiled lazily are not persisted
+     * to the {@link #setCacheDirectory(File) cache directory}.
+     * <p>
+     * The default is to compile all functions when a module is instantiated.
+     *
+     * @param lazyCompilation Whether to compile functions lazily.
+     */
+    public void setLazyCompilation(boolean lazyCompilation) {
+        if (this.lazyCompilation == lazyCompilation) return;
+        if (lazyCompilation) forceClassLoaderDefiner();
+        this.lazyCompilation = lazyCompilation;
+        clearClassCache();
+    }
+
+    /**
+     * Set the maximum number of compiled module classes this store retains.
+     * <p>
+     * When a {@link Module} is instantiated, its compiled class is remembered, so that further instantiations
+     * of the same module in this store only have to invoke the constructor. Once more than {@code size}
+     * modules have been compiled, the least recently instantiated is forgotten, and will be recompiled
+     * if it is instantiated again.
+     * <p>
+     * The default is {@link #DEFAULT_CLASS_CACHE_SIZE}. A size of {@code 0} disables caching entirely.
+     *
+     * @param size The maximum number of classes to retain.
+     */
+    public void setClassCacheSize(int size) {
+        if (size < 0) throw new IllegalArgumentException("Negative cache size: " + size);
+        synchronized (classCache) {
+            classCacheSize = size;
+            // iteration order is access order, so the eldest entries come first
+            Iterator<Module> it = classCache.keySet().iterator();
+            while (classCache.size() > size) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Forget all the compiled module classes retained by this store.
+     */
+    public void clearClassCache() {
+        synchronized (classCache) {
+            classCache.clear();
+        }
+    }
+
+    Constructor<?> getConstructor(Module module) {
+        Constructor<?> ctor;
+        synchronized (classCache) {
+            ctor = classCache.get(module);
+        }
+        if (ctor != null) return ctor;
+
+        // compile outside the lock, so other modules can be instantiated concurrently;
+        // if two threads race on the same module, one of the classes is simply discarded
+        ctor = compileClass(module).getConstructors()[0];
+
+        synchronized (classCache) {
+            Constructor<?> existing = classCache.putIfAbsent(module, ctor);
+            return existing == null ? ctor : existing;
+        }
     }
 
     /**
@@ -75,27 +208,80 @@ public final class Store {
         this.debugOutput = debugOutput;
     }
 
+    private Class<?> compileClass(Module module) {
+        if (lazyCompilation) {
+            LazyFunctions functions = new LazyFunctions(node -> defineClass(node.name, writeClass(node)));
+            ClassNode node = WasmConvertPass.compile(compiler,
+                    module.getNode(),
+                    WasmConvertPass.getClassName("LazyModule" + lazyModuleCounter.getAndIncrement()),
+                    functions::attach);
+            Class<?> moduleClass = defineClass(node);
+            functions.install(moduleClass);
+            return moduleClass;
+        }
+
+        DiskClassCache diskCache = this.diskCache;
+        byte[] sourceDigest = module.getSourceDigest();
+        Optional<String> maybeKey = diskCache == null || sourceDigest == null
+                ? Optional.empty()
+                // lazy modules are never persisted, but key on it anyway in case that changes
+                : DiskClassCache.key(sourceDigest, WasmConvertPass.SETTINGS + ";lazyCompilation=" + lazyCompilation);
+        if (!maybeKey.isPresent()) {
+            return defineClass(PASS.run(module.getNode()));
+        }
+
+        String key = maybeKey.get();
+        // the name is derived from the key, so identical modules are identical classes
+        String name = WasmConvertPass.getClassName("CachedModule_" + key.substring(0, 16));
+        byte[] bytes = diskCache.read(key);
+        if (bytes != null) {
+            try {
+                return defineClass(name, bytes);
+            } catch (LinkageError e) {
+                // most likely the class was tampered with and fails to verify
+                diskCache.invalidate(key);
+            }
+        }
+
+        bytes = writeInstanceClass(WasmConvertPass.compile(compiler, module.getNode(), name));
+        diskCache.write(key, bytes);
+        return defineClass(name, bytes);
+    }
+
     Class<?> defineClass(ClassNode node) {
-        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        return defineClass(node.name, writeInstanceClass(node));
+    }
+
+    private byte[] writeInstanceClass(ClassNode node) {
+        node.interfaces.add(Type.getInternalName(Instance.class));
+        node.interfaces.add(Type.getInternalName(SnapshotAccess.class));
+        return writeClass(node);
+    }
+
+    private byte[] writeClass(ClassNode node) {
+        // frames are emitted by JirToJava, so ASM doesn't have to compute (and load classes for) them
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
         node.accept(cw);
-        byte[] bytes;
         try {
-            bytes = cw.toByteArray();
+            return cw.toByteArray();
         } catch (MethodTooLargeException e) {
             throw new ModuleRefusedException(e);
         }
+    }
+
+    private Class<?> defineClass(String name, byte[] bytes) {
         if (debugOutput != null) {
             boolean ignored = debugOutput.mkdirs();
             try {
                 Files.write(debugOutput.toPath()
-                                .resolve(node.name.substring(
-                                        node.name.lastIndexOf('/') + 1) + ".class"
+                                .resolve(name.substring(
+                                        name.lastIndexOf('/') + 1) + ".class"
                                 ),
                         bytes);
             } catch (Exception ignored1) {
             }
         }
-        return definer.defineClass(node.name.replace('/', '.'), bytes);
+        return definer.defineClass(name.replace('/', '.'), bytes);
     }
 
     private static ClassDefiner getClassDefiner() {
@@ -111,7 +297,13 @@ public final class Store {
     private static class StoreClassLoader extends ClassLoader implements ClassDefiner {
         @Override
         public Class<?> defineClass(String name, byte[] bytes) {
-            return defineClass(name, bytes, 0, bytes.length);
+            synchronized (getClassLoadingLock(name)) {
+                // classes loaded from the disk cache are named by their contents,
+                // so an already loaded class of the same name is the same class
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded != null) return loaded;
+                return defineClass(name, bytes, 0, bytes.length);
+            }
         }
     }
 
@@ -19,6 +19,8 @@ import java.util.List;
  */
 public class WebAssembly {
     private File debugOutput;
+    private File cacheDirectory;
+    private boolean lazyCompilation;
 
     /**
      * Set the debug output of stores created by this embedding instance.
@@ -30,6 +32,26 @@ public class WebAssembly {
         this.debugOutput = file;
     }
 
+    /**
+     * Set the compiled class cache directory of stores created by this embedding instance.
+     *
+     * @param file The cache directory.
+     * @see Store#setCacheDirectory(File)
+     */
+    public void setCacheDirectory(File file) {
+        this.cacheDirectory = file;
+    }
+
+    /**
+     * Set whether stores created by this embedding instance compile functions lazily.
+     *
+     * @param lazyCompilation Whether to compile functions lazily.
+     * @see Store#setLazyCompilation(boolean)
+     */
+    public void setLazyCompilation(boolean lazyCompilation) {
+        this.lazyCompilation = lazyCompilation;
+    }
+
     /**
      * Returns a new empty store.
      *
@@ -40,6 +62,8 @@ public class WebAssembly {
     public Store storeInit() {
         Store store = Store.init();
         store.setDebugOutput(debugOutput);
+        store.setCacheDirectory(cacheDirectory);
+        store.setLazyCompilation(lazyCompilation);
         return store;
     }
 
@@ -0,0 +1,258 @@
+package io.github.eutro.wasm2j.embed.internal;
+
+import io.github.eutro.wasm2j.api.WasmCompiler;
+import io.github.eutro.wasm2j.core.passes.convert.WirToJir;
+import io.github.eutro.wasm2j.core.util.Lazy;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A persistent cache of compiled module classes, stored as files in a directory.
+ * <p>
+ * Entries are keyed by a {@link #digest(byte[]) digest} of the module source, which is combined with
+ * the {@link #FORMAT_VERSION cache format version}, the settings of the compiler, and a
+ * {@link #compilerVersion() digest of the compiler itself}, so entries written by a different build
+ * of wasm2j are never loaded. Each entry records a digest of its own contents, and entries that fail to
+ * verify are deleted, so they can be recompiled.
+ * <p>
+ * Entries are written to a temporary file and then moved into place, so concurrent readers
+ * (even from other processes) never see a partially written entry.
+ */
+public final class DiskClassCache {
+    /**
+     * The version of the cache entry format.
+     */
+    public static final int FORMAT_VERSION = 2;
+    private static final int MAGIC = 0x57324A43; // W2JC
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final Class<?>[] COMPILER_CLASSES = {
+            DiskClassCache.class, // wasm2j-embed
+            WasmCompiler.class, // wasm2j-api
+            WirToJir.class, // wasm2j-core
+    };
+
+    private static final Lazy<Optional<String>> COMPILER_VERSION = Lazy.lazy(DiskClassCache::computeCompilerVersion);
+
+    private final Path directory;
+
+    /**
+     * Construct a cache which stores entries in the given directory.
+     * The directory will be created if it does not exist when an entry is first written.
+     *
+     * @param directory The directory.
+     */
+    public DiskClassCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Compute the digest of some module source, to be used as a key for this cache.
+     *
+     * @param source The bytes of the module source, binary or text.
+     * @return The digest.
+     */
+    public static byte[] digest(byte[] source) {
+        MessageDigest md = newDigest();
+        md.update(source);
+        return md.digest();
+    }
+
+    /**
+     * Get the version of the compiler, as a digest of the jars (or class directories) that wasm2j
+     * is loaded from.
+     * <p>
+     * Any change to the compiler, even one that doesn't change its version number, changes this,
+     * so classes compiled by one build are never loaded by another.
+     * <p>
+     * This is computed once, the first time it is needed.
+     *
+     * @return The version, as a hexadecimal string, or {@link Optional#empty()} if the compiler's classes
+     * could not be located or read, in which case nothing should be cached.
+     */
+    public static Optional<String> compilerVersion() {
+        return COMPILER_VERSION.get();
+    }
+
+    private static Optional<String> computeCompilerVersion() {
+        MessageDigest md = newDigest();
+        Set<Path> seen = new HashSet<>();
+        try {
+            for (Class<?> clazz : COMPILER_CLASSES) {
+                CodeSource source = clazz.getProtectionDomain().getCodeSource();
+                if (source == null || source.getLocation() == null) return Optional.empty();
+                Path location = Paths.get(source.getLocation().toURI());
+                if (!seen.add(location)) continue;
+                if (Files.isDirectory(location)) {
+                    List<Path> files;
+                    try (Stream<Path> walk = Files.walk(location)) {
+                        files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                    }
+                    for (Path file : files) {
+                        md.update(location.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                        md.update(Files.readAllBytes(file));
+                    }
+                } else {
+                    md.update(Files.readAllBytes(location));
+                }
+            }
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            // e.g. a location which isn't a file, or a security manager denying access
+            return Optional.empty();
+        }
+        return Optional.of(hex(md.digest()));
+    }
+
+    /**
+     * Derive the cache key of a module, from the digest of its source, the settings of the compiler,
+     * and the {@link #compilerVersion() version of the compiler}.
+     *
+     * @param sourceDigest The {@link #digest(byte[]) digest} of the module source.
+     * @param settings     A string describing every setting of the compiler that affects the output.
+     * @return The key, as a hexadecimal string, or {@link Optional#empty()} if the version of the compiler
+     * is unknown, and the module should not be cached.
+     */
+    public static Optional<String> key(byte[] sourceDigest, String settings) {
+        Optional<String> compilerVersion = compilerVersion();
+        if (!compilerVersion.isPresent()) return Optional.empty();
+        MessageDigest md = newDigest();
+        DataOutputStream dos = new DataOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                md.update((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                md.update(b, off, len);
+            }
+        });
+        try {
+            dos.writeInt(FORMAT_VERSION);
+            dos.writeUTF(compilerVersion.get());
+            dos.writeUTF(settings);
+            dos.write(sourceDigest);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Optional.of(hex(md.digest()));
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Read the class bytes of an entry, if present and intact.
+     * <p>
+     * If the entry exists, but is corrupted or was written in a different format, it is deleted.
+     *
+     * @param key The key of the entry.
+     * @return The class bytes, or null if there was no valid entry.
+     */
+    public byte @Nullable [] read(String key) {
+        Path file = entryPath(key);
+        if (!Files.isRegularFile(file)) return null;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (dis.readInt() != MAGIC || dis.readInt() != FORMAT_VERSION) {
+                throw new IOException("Bad header");
+            }
+            byte[] expectedDigest = new byte[dis.readUnsignedByte()];
+            dis.readFully(expectedDigest);
+            int length = dis.readInt();
+            if (length < 0) throw new IOException("Bad length");
+            byte[] bytes = new byte[length];
+            dis.readFully(bytes);
+            if (dis.read() != -1 || !Arrays.equals(expectedDigest, digest(bytes))) {
+                throw new IOException("Bad contents");
+            }
+            return bytes;
+        } catch (IOException e) {
+            invalidate(key);
+            return null;
+        }
+    }
+
+    /**
+     * Write the class bytes of an entry, replacing any existing entry.
+     * <p>
+     * Failure to write is not an error, the entry is simply not cached.
+     *
+     * @param key   The key of the entry.
+     * @param bytes The class bytes.
+     */
+    public void write(String key, byte[] bytes) {
+        Path tmp = null;
+        try {
+            Files.createDirectories(directory);
+            tmp = Files.createTempFile(directory, key, ".tmp");
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                byte[] digest = digest(bytes);
+                dos.writeInt(MAGIC);
+                dos.writeInt(FORMAT_VERSION);
+                dos.writeByte(digest.length);
+                dos.write(digest);
+                dos.writeInt(bytes.length);
+                dos.write(bytes);
+            }
+            try {
+                Files.move(tmp, entryPath(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Files.move(tmp, entryPath(key), StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+        } catch (IOException ignored) {
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete an entry, if it exists. This should be called if the class bytes of an entry
+     * turn out to be unusable, e.g. if they fail to verify.
+     *
+     * @param key The key of the entry.
+     */
+    public void invalidate(String key) {
+        try {
+            Files.deleteIfExists(entryPath(key));
+        } catch (IOException ignored) {
+        }
+    }
+
+    private Path entryPath(String key) {
+        return directory.resolve(key + ".w2jc");
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
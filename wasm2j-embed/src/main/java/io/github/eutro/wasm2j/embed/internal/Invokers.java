@@ -0,0 +1,176 @@
+package io.github.eutro.wasm2j.embed.internal;
+
+import io.github.eutro.wasm2j.embed.Func;
+import io.github.eutro.wasm2j.embed.GeneratedAccess;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Support for {@link Func#invoker(Class) typed invokers} of functions.
+ * <p>
+ * Each invoker is an instance of a class of its own, which implements the functional interface
+ * by calling {@link MethodHandle#invokeExact(Object...) invokeExact} on the function's handle,
+ * held in a {@code static final} field. The JIT treats the handle as a constant, so it can inline the
+ * function into the caller, and no arguments or results are boxed or collected into arrays.
+ * <p>
+ * Since this defines a class, invokers should be created once and reused.
+ */
+public final class Invokers {
+    private static final String HANDLE_FIELD = "HANDLE";
+    private static final String MH_DESC = Type.getDescriptor(MethodHandle.class);
+    private static final String INVOKERS_NAME = Type.getInternalName(Invokers.class);
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    /**
+     * Handles of invoker classes which have been defined, but not yet initialised.
+     */
+    private static final Map<String, MethodHandle> PENDING = new ConcurrentHashMap<>();
+
+    private Invokers() {
+    }
+
+    /**
+     * Create an invoker for a method handle, implementing the given functional interface.
+     *
+     * @param iface  The functional interface, which must be public.
+     * @param handle The handle to invoke.
+     * @param <T>    The type of the interface.
+     * @return The invoker.
+     * @throws IllegalArgumentException If the interface is not a public functional interface,
+     *                                  or its method cannot be converted to the type of the handle.
+     */
+    public static <T> T create(Class<T> iface, MethodHandle handle) {
+        if (!iface.isInterface() || !Modifier.isPublic(iface.getModifiers())) {
+            throw new IllegalArgumentException(iface + " is not a public interface");
+        }
+        Method method = findAbstractMethod(iface);
+        MethodType type = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+        MethodHandle typed;
+        try {
+            typed = handle.asType(type);
+        } catch (WrongMethodTypeException e) {
+            throw new IllegalArgumentException("Cannot invoke " + handle.type() + " as " + type, e);
+        }
+
+        String name = INVOKERS_NAME + "$Invoker" + COUNTER.getAndIncrement();
+        byte[] bytes = writeInvoker(name, iface, method);
+        PENDING.put(name, typed);
+        try {
+            Class<?> invokerClass = new InvokerLoader(iface.getClassLoader()).define(name, bytes);
+            return iface.cast(invokerClass.getConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            PENDING.remove(name);
+        }
+    }
+
+    /**
+     * Take the handle of an invoker class, as it is initialised.
+     *
+     * @param name The internal name of the invoker class.
+     * @return The handle.
+     */
+    @GeneratedAccess
+    public static MethodHandle take(String name) {
+        MethodHandle handle = PENDING.remove(name);
+        if (handle == null) throw new IllegalStateException("No handle for " + name);
+        return handle;
+    }
+
+    private static Method findAbstractMethod(Class<?> iface) {
+        Method found = null;
+        for (Method method : iface.getMethods()) {
+            if (!Modifier.isAbstract(method.getModifiers())) continue;
+            // interfaces may redeclare methods of Object, like Comparator#equals
+            try {
+                Object.class.getMethod(method.getName(), method.getParameterTypes());
+                continue;
+            } catch (NoSuchMethodException ignored) {
+            }
+            if (found != null) {
+                throw new IllegalArgumentException(iface + " is not a functional interface");
+            }
+            found = method;
+        }
+        if (found == null) {
+            throw new IllegalArgumentException(iface + " is not a functional interface");
+        }
+        return found;
+    }
+
+    private static byte[] writeInvoker(String name, Class<?> iface, Method method) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8,
+                ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC,
+                name,
+                null,
+                "java/lang/Object",
+                new String[]{Type.getInternalName(iface)});
+        cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, HANDLE_FIELD, MH_DESC, null, null).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+        mv.visitCode();
+        mv.visitLdcInsn(name);
+        mv.visitMethodInsn(INVOKESTATIC, INVOKERS_NAME, "take", "(Ljava/lang/String;)" + MH_DESC, false);
+        mv.visitFieldInsn(PUTSTATIC, name, HANDLE_FIELD, MH_DESC);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        String desc = Type.getMethodDescriptor(method);
+        mv = cw.visitMethod(ACC_PUBLIC, method.getName(), desc, null, null);
+        mv.visitCode();
+        mv.visitFieldInsn(GETSTATIC, name, HANDLE_FIELD, MH_DESC);
+        int slot = 1;
+        for (Type argTy : Type.getArgumentTypes(desc)) {
+            mv.visitVarInsn(argTy.getOpcode(ILOAD), slot);
+            slot += argTy.getSize();
+        }
+        mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/invoke/MethodHandle", "invokeExact", desc, false);
+        mv.visitInsn(Type.getReturnType(desc).getOpcode(IRETURN));
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * A class loader for a single invoker, which can see the interface it implements, and this class.
+     */
+    private static class InvokerLoader extends ClassLoader {
+        InvokerLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.equals(Invokers.class.getName())) return Invokers.class;
+            return super.loadClass(name, resolve);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name.replace('/', '.'), bytes, 0, bytes.length);
+        }
+    }
+}
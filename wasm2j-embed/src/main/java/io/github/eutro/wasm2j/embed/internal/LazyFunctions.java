@@ -0,0 +1,237 @@
+package io.github.eutro.wasm2j.embed.internal;
+
+import io.github.eutro.wasm2j.api.ModuleCompilation;
+import io.github.eutro.wasm2j.api.events.JirPassesEvent;
+import io.github.eutro.wasm2j.core.ext.JavaExts;
+import io.github.eutro.wasm2j.core.ops.CommonOps;
+import io.github.eutro.wasm2j.core.ops.JavaOps;
+import io.github.eutro.wasm2j.core.passes.IRPass;
+import io.github.eutro.wasm2j.core.passes.Passes;
+import io.github.eutro.wasm2j.core.passes.convert.JirToJava;
+import io.github.eutro.wasm2j.core.ssa.*;
+import io.github.eutro.wasm2j.core.util.IRUtils;
+import io.github.eutro.wasm2j.core.util.Lazy;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+
+import java.lang.invoke.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.github.eutro.wasm2j.core.util.Lazy.lazy;
+
+/**
+ * Support for compiling the functions of a module lazily, the first time each is called.
+ * <p>
+ * When {@link #attach(ModuleCompilation) attached} to a compilation, each local function of the module
+ * is compiled as a stub, which {@code invokedynamic}s a public static method of a class of its own.
+ * That class is only compiled and defined when the call site is first linked, and the call site
+ * is then relinked to invoke it directly.
+ * <p>
+ * For this to work, the module class and the function classes must be able to refer to each other by name,
+ * so they have to be defined by the same {@link ClassLoader} (and not as hidden classes). The members of
+ * the module class that function bodies may refer to, being its fields and the methods of its functions,
+ * are also made package-private so that functions may access them. Other methods, such as those
+ * initialising data segments, are left private.
+ * <p>
+ * Once a function has been compiled, its IR is released.
+ */
+public final class LazyFunctions {
+    /**
+     * The name of the public static field of the module class, which holds its {@link LazyFunctions}.
+     */
+    public static final String STATE_FIELD = "$lazyFunctions";
+    /**
+     * The name of the public static method of each function class which implements the function.
+     */
+    public static final String TARGET_NAME = "call";
+    /**
+     * An ASM {@link Handle} to {@link #bootstrapFunction(MethodHandles.Lookup, String, MethodType, int)}.
+     */
+    public static final Handle BOOTSTRAP_HANDLE;
+    private static final MethodHandle RESOLVE;
+
+    static {
+        try {
+            BOOTSTRAP_HANDLE = new Handle(
+                    Opcodes.H_INVOKESTATIC,
+                    Type.getInternalName(LazyFunctions.class),
+                    "bootstrapFunction",
+                    Type.getMethodDescriptor(LazyFunctions.class.getMethod("bootstrapFunction",
+                            MethodHandles.Lookup.class,
+                            String.class,
+                            MethodType.class,
+                            int.class)),
+                    false
+            );
+            RESOLVE = MethodHandles.lookup().findStatic(LazyFunctions.class, "resolve",
+                    MethodType.methodType(MethodHandle.class, MutableCallSite.class,
+                            MethodHandles.Lookup.class, LazyFunctions.class, int.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final java.util.function.Function<ClassNode, Class<?>> definer;
+    private final List<Lazy<Class<?>>> functionClasses = new ArrayList<>();
+
+    /**
+     * Construct an empty set of lazy functions.
+     *
+     * @param definer The function to write and define the class of each function, once it has been converted
+     *                to bytecode. It must use the same class loader as the module class.
+     */
+    public LazyFunctions(java.util.function.Function<ClassNode, Class<?>> definer) {
+        this.definer = definer;
+    }
+
+    /**
+     * Make the functions of the module compiled by the given compilation lazy.
+     * <p>
+     * {@link io.github.eutro.wasm2j.api.events.JavaPreemitEvent} listeners of the compilation
+     * are not run on the lazy functions.
+     *
+     * @param compilation The compilation.
+     */
+    public void attach(ModuleCompilation compilation) {
+        compilation.listen(JirPassesEvent.class, evt -> makeLazy(evt.jir, compilation.getJavaPreemit()));
+    }
+
+    /**
+     * Install this in a module class that was compiled with it attached, so that its functions can be linked.
+     * This must be done before the class is instantiated.
+     *
+     * @param moduleClass The module class.
+     */
+    public void install(Class<?> moduleClass) {
+        try {
+            moduleClass.getField(STATE_FIELD).set(null, this);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalStateException("class was not compiled with lazy functions", e);
+        }
+    }
+
+    private void makeLazy(JClass jClass, IRPass<Function, Function> javaPreemit) {
+        for (JClass.JavaField field : jClass.fields) {
+            field.access &= ~Opcodes.ACC_PRIVATE;
+        }
+        jClass.fields.add(new JClass.JavaField(
+                jClass,
+                STATE_FIELD,
+                Type.getDescriptor(Object.class),
+                Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC
+        ));
+
+        for (JClass.JavaMethod method : jClass.methods) {
+            if (method.getNullable(JavaExts.WASM_FUNCTION_INDEX) == null) continue;
+            // functions call each other, and take handles to each other for references
+            method.access &= ~Opcodes.ACC_PRIVATE;
+            Lazy<Function> impl = method.getNullable(JavaExts.METHOD_IMPL);
+            if (impl == null) continue;
+
+            int index = functionClasses.size();
+            JClass fnClass = new JClass(jClass.name + "$Func" + index);
+            List<Type> params = new ArrayList<>(method.getParamTys());
+            params.add(0, Type.getObjectType(jClass.name));
+            JClass.JavaMethod target = new JClass.JavaMethod(
+                    fnClass,
+                    TARGET_NAME,
+                    Type.getMethodDescriptor(method.getReturnTy(), params.toArray(new Type[0])),
+                    Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC
+            );
+            fnClass.methods.add(target);
+            impl.mapInPlace(func -> {
+                func.attachExt(JavaExts.FUNCTION_METHOD, target);
+                makeStatic(func);
+                return Passes.SSA_OPTS.then(javaPreemit).run(func);
+            });
+            target.attachExt(JavaExts.METHOD_IMPL, impl);
+            functionClasses.add(lazy(() -> {
+                ClassNode node = JirToJava.INSTANCE.run(fnClass);
+                // the thunk is dropped once this returns, but let go of the IR even if definition fails
+                target.removeExt(JavaExts.METHOD_IMPL);
+                return definer.apply(node);
+            }));
+
+            method.attachExt(JavaExts.METHOD_IMPL, lazy(() -> createStub(method, target, index)));
+        }
+    }
+
+    private static void makeStatic(Function func) {
+        // the instance is passed as the first argument instead
+        for (BasicBlock block : func.blocks) {
+            for (Effect effect : block.getEffects()) {
+                Insn insn = effect.insn();
+                if (insn.op.key == JavaOps.THIS.key) {
+                    insn.op = CommonOps.ARG.create(0);
+                } else if (insn.op.key == CommonOps.ARG) {
+                    insn.op = CommonOps.ARG.create(CommonOps.ARG.cast(insn.op).arg + 1);
+                }
+            }
+        }
+    }
+
+    private static Function createStub(JClass.JavaMethod method, JClass.JavaMethod target, int index) {
+        Function stub = new Function();
+        stub.attachExt(JavaExts.FUNCTION_METHOD, method);
+        IRBuilder ib = new IRBuilder(stub, stub.newBb());
+        List<Var> args = new ArrayList<>();
+        args.add(IRUtils.getThis(ib));
+        int argC = method.getParamTys().size();
+        for (int i = 0; i < argC; i++) {
+            args.add(ib.insert(CommonOps.ARG.create(i).insn(), stub.newVar("arg", i)));
+        }
+        Var[] rets = method.getReturnTy().getSize() == 0
+                ? new Var[0]
+                : new Var[]{stub.newVar("ret")};
+        ib.insert(JavaOps.insns(new InvokeDynamicInsnNode(
+                        target.name,
+                        target.getDescriptor(),
+                        BOOTSTRAP_HANDLE,
+                        index))
+                .insn(args)
+                .assignTo(rets));
+        ib.insertCtrl(CommonOps.RETURN.insn(rets).jumpsTo());
+        return stub;
+    }
+
+    /**
+     * The bootstrap method for calls to lazy functions.
+     *
+     * @param caller      The caller, which must be a module class this has been {@link #install(Class) installed} in.
+     * @param invokedName The name specified in the {@code invokedynamic} instruction.
+     * @param invokedType The type specified in the instruction.
+     * @param index       The index of the lazy function.
+     * @return The call site.
+     * @throws ReflectiveOperationException If the caller is not a module class with lazy functions.
+     */
+    public static CallSite bootstrapFunction(
+            MethodHandles.Lookup caller,
+            String invokedName,
+            MethodType invokedType,
+            int index
+    ) throws ReflectiveOperationException {
+        LazyFunctions functions = (LazyFunctions) caller.lookupClass().getField(STATE_FIELD).get(null);
+        MutableCallSite site = new MutableCallSite(invokedType);
+        site.setTarget(MethodHandles.foldArguments(
+                MethodHandles.exactInvoker(invokedType),
+                MethodHandles.insertArguments(RESOLVE, 0, site, caller, functions, index)
+        ));
+        return site;
+    }
+
+    private static MethodHandle resolve(
+            MutableCallSite site,
+            MethodHandles.Lookup caller,
+            LazyFunctions functions,
+            int index
+    ) throws ReflectiveOperationException {
+        Class<?> fnClass = functions.functionClasses.get(index).get();
+        MethodHandle target = caller.findStatic(fnClass, TARGET_NAME, site.type());
+        site.setTarget(target);
+        return target;
+    }
+}
@@ -0,0 +1,119 @@
+package io.github.eutro.wasm2j.embed.internal;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A table of threads waiting on addresses of a shared memory.
+ * <p>
+ * Addresses are divided between a fixed number of {@link Stripe stripes}, by the 8-byte word they are in.
+ * The monitor of each stripe guards only its waiters, not the memory: atomic loads, stores and
+ * read-modify-writes don't take it. A waiting thread checks the value at the address while holding
+ * the monitor, and a notifying thread takes it after its store, so checking the value and starting
+ * to wait is still atomic with respect to a store followed by a notify.
+ */
+public final class ParkingTable {
+    private static final int STRIPES = 64;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * Construct an empty parking table.
+     */
+    public ParkingTable() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Get the stripe that the given address belongs to.
+     *
+     * @param addr The address.
+     * @return The stripe.
+     */
+    public Stripe stripe(int addr) {
+        return stripes[(addr >>> 3) & (STRIPES - 1)];
+    }
+
+    /**
+     * A set of addresses, and the threads waiting on them.
+     * <p>
+     * All methods must be called while holding the monitor of the stripe.
+     */
+    public static final class Stripe {
+        private final LinkedList<Waiter> waiters = new LinkedList<>();
+
+        private Stripe() {
+        }
+
+        /**
+         * Wait until woken by {@link #unpark(int, int)} for the same address, or until the timeout elapses.
+         *
+         * @param addr         The address.
+         * @param timeoutNanos The timeout, in nanoseconds, or negative to wait forever.
+         * @return Whether the thread was woken, rather than timing out.
+         * @throws InterruptedException If the thread was interrupted while waiting. If it had already been
+         *                              woken, the wake-up is passed on to the next thread waiting on the address.
+         */
+        public boolean park(int addr, long timeoutNanos) throws InterruptedException {
+            Waiter waiter = new Waiter(addr);
+            waiters.add(waiter);
+            try {
+                if (timeoutNanos < 0) {
+                    while (!waiter.woken) {
+                        wait();
+                    }
+                } else {
+                    long deadline = System.nanoTime() + timeoutNanos;
+                    long remaining = timeoutNanos;
+                    while (!waiter.woken && remaining > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                        remaining = deadline - System.nanoTime();
+                    }
+                }
+                return waiter.woken;
+            } catch (InterruptedException e) {
+                if (waiter.woken) {
+                    // a notify already counted this thread, so pass the wake-up on instead of losing it
+                    unpark(addr, 1);
+                }
+                throw e;
+            } finally {
+                if (!waiter.woken) waiters.remove(waiter);
+            }
+        }
+
+        /**
+         * Wake threads waiting on an address, in the order they started waiting.
+         *
+         * @param addr  The address.
+         * @param count The maximum number of threads to wake, as an unsigned integer.
+         * @return The number of threads woken.
+         */
+        public int unpark(int addr, int count) {
+            long limit = Integer.toUnsignedLong(count);
+            int woken = 0;
+            Iterator<Waiter> iter = waiters.iterator();
+            while (woken < limit && iter.hasNext()) {
+                Waiter waiter = iter.next();
+                if (waiter.addr == addr) {
+                    iter.remove();
+                    waiter.woken = true;
+                    woken++;
+                }
+            }
+            if (woken != 0) notifyAll();
+            return woken;
+        }
+    }
+
+    private static final class Waiter {
+        final int addr;
+        boolean woken;
+
+        Waiter(int addr) {
+            this.addr = addr;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package io.github.eutro.wasm2j.embed.internal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Implemented by every compiled module instance, so that snapshots can read and restore
+ * state that the module doesn't export.
+ *
+ * @see WasmConvertPass
+ */
+public interface SnapshotAccess {
+    /**
+     * Get whether a data segment of the instance has been dropped, or is empty.
+     *
+     * @param dataIdx The index of the data segment.
+     * @return Whether the segment is empty.
+     */
+    boolean isDataDropped(int dataIdx);
+
+    /**
+     * Copy the start of one of the instance's own memories into a buffer.
+     *
+     * @param memIdx The index of the memory, which must not be imported.
+     * @param dst    The buffer to fill, from its position to its limit.
+     */
+    void readMemory(int memIdx, ByteBuffer dst);
+
+    /**
+     * Copy a buffer into the start of one of the instance's own memories.
+     *
+     * @param memIdx The index of the memory, which must not be imported.
+     * @param src    The buffer to copy, from its position to its limit.
+     */
+    void writeMemory(int memIdx, ByteBuffer src);
+}
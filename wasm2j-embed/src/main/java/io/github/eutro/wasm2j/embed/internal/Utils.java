@@ -31,4 +31,41 @@ public class Utils {
             throw new RuntimeException(t);
         }
     }
+
+    /**
+     * Check that a range of a memory is in bounds.
+     *
+     * @param idx   The start of the range, as an unsigned integer.
+     * @param len   The length of the range, as an unsigned integer.
+     * @param rawSz The size of the memory, in bytes.
+     * @throws IndexOutOfBoundsException If the range is out of bounds.
+     */
+    public static void checkRange(int idx, int len, long rawSz) {
+        if (Integer.toUnsignedLong(idx) + Integer.toUnsignedLong(len) > rawSz) {
+            throw new IndexOutOfBoundsException("out of bounds memory access");
+        }
+    }
+
+    /**
+     * Check that an address is aligned for an atomic access of the given size.
+     *
+     * @param addr The address.
+     * @param size The size of the access, in bytes, which must be a power of two.
+     * @throws RuntimeException If the address is not aligned.
+     */
+    public static void checkAligned(int addr, int size) {
+        if ((addr & (size - 1)) != 0) {
+            throw new RuntimeException("unaligned atomic");
+        }
+    }
+
+    /**
+     * Get the mask of the low bits of a long that fit in the given number of bytes.
+     *
+     * @param size The number of bytes, at most 8.
+     * @return The mask.
+     */
+    public static long sizeMask(int size) {
+        return size >= Long.BYTES ? -1L : (1L << (size * 8)) - 1;
+    }
 }
@@ -6,11 +6,14 @@ import io.github.eutro.wasm2j.api.WasmCompiler;
 import io.github.eutro.wasm2j.api.events.EmitClassEvent;
 import io.github.eutro.wasm2j.api.events.JirPassesEvent;
 import io.github.eutro.wasm2j.api.events.ModifyConventionsEvent;
+import io.github.eutro.wasm2j.api.events.WirPassesEvent;
 import io.github.eutro.wasm2j.api.types.ExternType;
+import io.github.eutro.wasm2j.api.types.ValType;
 import io.github.eutro.wasm2j.api.support.NameMangler;
 import io.github.eutro.wasm2j.core.util.Getters;
 import io.github.eutro.wasm2j.core.conf.itf.*;
 import io.github.eutro.wasm2j.core.conf.impl.BasicCallingConvention;
+import io.github.eutro.wasm2j.core.conf.impl.ByteBufferMemoryConvention;
 import io.github.eutro.wasm2j.core.conf.impl.InstanceFunctionConvention;
 import io.github.eutro.wasm2j.core.ext.Ext;
 import io.github.eutro.wasm2j.core.ext.JavaExts;
@@ -26,9 +29,11 @@ import io.github.eutro.wasm2j.core.util.ValueGetter;
 import io.github.eutro.wasm2j.core.util.ValueGetterSetter;
 import io.github.eutro.wasm2j.embed.*;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.InvokeDynamicInsnNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 
@@ -39,7 +44,13 @@ import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
+import static io.github.eutro.jwasm.Opcodes.F32;
+import static io.github.eutro.jwasm.Opcodes.F64;
+import static io.github.eutro.jwasm.Opcodes.I32;
+import static io.github.eutro.jwasm.Opcodes.I32_LOAD8_U;
+import static io.github.eutro.jwasm.Opcodes.I64;
 import static io.github.eutro.jwasm.Opcodes.MUT_CONST;
 import static io.github.eutro.wasm2j.core.util.Lazy.lazy;
 
@@ -48,6 +59,7 @@ import static io.github.eutro.wasm2j.core.util.Lazy.lazy;
  */
 public class WasmConvertPass {
     private static final Ext<Map<String, ValueGetter>> EXPORTS_EXT = Ext.create(Map.class, "EXPORTS_EXT");
+    private static final Ext<Map<Integer, EmbedMemConvention>> MEMORIES_EXT = Ext.create(Map.class, "MEMORIES_EXT");
     private static final Ext<AtomicInteger> IMPORT_COUNTER_EXT = Ext.create(AtomicInteger.class, "IMPORT_COUNTER_EXT");
     private static final JClass.JavaMethod MH_BIND_TO = IRUtils.METHOD_HANDLE_CLASS.lookupMethod("bindTo", Object.class);
     private static final Type EV_TYPE = Type.getType(ExternVal.class);
@@ -59,6 +71,24 @@ public class WasmConvertPass {
     private static final JClass TABLE_CLASS = JClass.emptyFromJava(Table.class);
     private static final JClass GLOBAL_CLASS = JClass.emptyFromJava(Global.class);
     private static final JClass MEMORY_CLASS = JClass.emptyFromJava(Memory.class);
+    private static final JClass.JavaMethod BUFFER_HAS_REMAINING = IRUtils.BUFFER_CLASS.lookupMethod("hasRemaining");
+    private static final JClass.JavaMethod BUFFER_REMAINING = IRUtils.BUFFER_CLASS.lookupMethod("remaining");
+
+    private static final boolean SHARE_DATA_SEGMENTS = true; // modules are typically instantiated many times per class
+    private static final CallingConvention CALLING_CONVENTION = BasicCallingConvention.INSTANCE;
+    private static final boolean DEVIRTUALIZE_TABLES = true;
+    private static final boolean INLINE_SMALL_FUNCTIONS = false;
+
+    /**
+     * A description of every setting of the compilers {@link #createCompiler() created} by this class
+     * that affects the compiled classes, for use in {@link DiskClassCache#key(byte[], String) cache keys}.
+     * <p>
+     * Any new setting of {@link #createCompiler()} that changes the output must be added here.
+     */
+    public static final String SETTINGS = "shareDataSegments=" + SHARE_DATA_SEGMENTS
+            + ";callingConvention=" + CALLING_CONVENTION.getClass().getName()
+            + ";devirtualizeTables=" + DEVIRTUALIZE_TABLES
+            + ";inlineSmallFunctions=" + INLINE_SMALL_FUNCTIONS;
 
     /**
      * Get the IR pass for compiling WebAssembly.
@@ -66,15 +96,29 @@ public class WasmConvertPass {
      * @return The pass.
      */
     public static IRPass<ModuleNode, ClassNode> getPass() {
-        WasmCompiler cc = new WasmCompiler();
+        return getPass(createCompiler());
+    }
 
+    /**
+     * Get the IR pass for compiling WebAssembly with the given compiler, naming classes
+     * sequentially.
+     *
+     * @param cc The compiler, as returned by {@link #createCompiler()}.
+     * @return The pass.
+     */
+    public static IRPass<ModuleNode, ClassNode> getPass(WasmCompiler cc) {
         AtomicInteger counter = new AtomicInteger(0);
-        String thisClassName = WebAssembly.class.getName();
-        String packageName = thisClassName
-                .substring(0, thisClassName.lastIndexOf('.'))
-                .replace('.', '/');
+        return node -> compile(cc, node, getClassName("Module" + counter.getAndIncrement()));
+    }
+
+    /**
+     * Create a compiler configured with the conventions of the embedder.
+     *
+     * @return The compiler.
+     */
+    public static WasmCompiler createCompiler() {
+        WasmCompiler cc = new WasmCompiler();
         cc.lift().listen(ModifyConventionsEvent.class, evt -> evt.conventionBuilder
-                .setNameSupplier(() -> packageName + "/Module" + counter.getAndIncrement())
                 .setModifyFuncConvention((convention, fn, idx) -> new EmbedFunctionConvention(convention, fn.left))
                 .setModifyTableConvention(EmbedTableConvention::new)
                 .setModifyGlobalConvention(EmbedGlobalConvention::new)
@@ -82,20 +126,65 @@ public class WasmConvertPass {
                 .setFunctionImports(WasmConvertPass::createFunctionImport)
                 .setTableImports(WasmConvertPass::createTableImport)
                 .setGlobalImports(WasmConvertPass::createGlobalImport)
-                .setMemoryImports(WasmConvertPass::createMemoryImport));
+                .setMemoryImports(WasmConvertPass::createMemoryImport)
+                .setCallingConvention(CALLING_CONVENTION)
+                .setShareDataSegments(SHARE_DATA_SEGMENTS));
+        cc.lift().listen(WirPassesEvent.class, evt -> {
+            evt.devirtualizeTables = DEVIRTUALIZE_TABLES;
+            evt.inlineSmallFunctions = INLINE_SMALL_FUNCTIONS;
+        });
         cc.lift().listen(JirPassesEvent.class, WasmConvertPass::buildExports);
+        cc.lift().listen(JirPassesEvent.class, WasmConvertPass::buildSnapshotAccess);
+        return cc;
+    }
 
-        return node -> {
-            ModuleCompilation compilation = cc.submitNode(node);
-            CompletableFuture<ClassNode> classNode = new CompletableFuture<>();
-            compilation.listen(EmitClassEvent.class, ece -> classNode.complete(ece.classNode));
-            compilation.run();
-            ClassNode ret = classNode.getNow(null);
-            if (ret == null) {
-                throw new IllegalStateException();
-            }
-            return ret;
-        };
+    /**
+     * Compile a module with a compiler, to a class with the given name.
+     *
+     * @param cc   The compiler, as returned by {@link #createCompiler()}.
+     * @param node The module to compile.
+     * @param name The internal name of the class, see {@link #getClassName(String)}.
+     * @return The compiled class.
+     */
+    public static ClassNode compile(WasmCompiler cc, ModuleNode node, String name) {
+        return compile(cc, node, name, compilation -> {
+        });
+    }
+
+    /**
+     * Compile a module with a compiler, to a class with the given name, configuring the compilation first.
+     *
+     * @param cc        The compiler, as returned by {@link #createCompiler()}.
+     * @param node      The module to compile.
+     * @param name      The internal name of the class, see {@link #getClassName(String)}.
+     * @param configure The function to configure the compilation with, e.g. {@link LazyFunctions#attach(ModuleCompilation)}.
+     * @return The compiled class.
+     */
+    public static ClassNode compile(WasmCompiler cc, ModuleNode node, String name, Consumer<ModuleCompilation> configure) {
+        ModuleCompilation compilation = cc.submitNode(node).setName(name);
+        configure.accept(compilation);
+        CompletableFuture<ClassNode> classNode = new CompletableFuture<>();
+        compilation.listen(EmitClassEvent.class, ece -> classNode.complete(ece.classNode));
+        compilation.run();
+        ClassNode ret = classNode.getNow(null);
+        if (ret == null) {
+            throw new IllegalStateException();
+        }
+        return ret;
+    }
+
+    /**
+     * Get the internal name of a compiled module class, in the package of the embedder.
+     *
+     * @param simpleName The simple name of the class.
+     * @return The internal name.
+     */
+    public static String getClassName(String simpleName) {
+        String thisClassName = WebAssembly.class.getName();
+        return thisClassName
+                .substring(0, thisClassName.lastIndexOf('.') + 1)
+                .replace('.', '/')
+                + simpleName;
     }
 
     static ValueGetter effectHandle(
@@ -153,6 +242,13 @@ public class WasmConvertPass {
         });
     }
 
+    private static Map<Integer, EmbedMemConvention> getOrMakeMemories(JClass jClass) {
+        return jClass.getExtOrRun(MEMORIES_EXT, jClass, md -> {
+            md.attachExt(MEMORIES_EXT, new TreeMap<>());
+            return null;
+        });
+    }
+
     private static AtomicInteger getOrMakeImportC(Module module) {
         return module.getExtOrRun(IMPORT_COUNTER_EXT, module, md -> {
             md.attachExt(IMPORT_COUNTER_EXT, new AtomicInteger());
@@ -345,9 +441,21 @@ public class WasmConvertPass {
         JClass.JavaMethod get = GLOBAL_CLASS.lookupMethod("get");
         JClass.JavaMethod set = GLOBAL_CLASS.lookupMethod("set", Object.class);
         Type objTy = Type.getType(Object.class);
+        // numbers go through the typed accessors, which don't box
+        Class<?> valClass = ValType.fromOpcode(importNode.type.type).getType();
+        String accessorSuffix = globalAccessorSuffix(importNode.type.type);
+        JClass.JavaMethod typedGet = accessorSuffix == null ? null : GLOBAL_CLASS.lookupMethod("get" + accessorSuffix);
+        JClass.JavaMethod typedSet = accessorSuffix == null ? null : GLOBAL_CLASS.lookupMethod("set" + accessorSuffix, valClass);
         return new GlobalConvention.Delegating(null) {
             @Override
             public void emitGlobalRef(IRBuilder ib, Effect effect) {
+                if (typedGet != null) {
+                    ib.insert(JavaOps.INVOKE
+                            .create(typedGet)
+                            .insn(global.get(ib))
+                            .copyFrom(effect));
+                    return;
+                }
                 ib.insert(CommonOps.IDENTITY
                         .insn(BasicCallingConvention.unboxed(ib,
                                 ib.insert(JavaOps.INVOKE.create(get).insn(global.get(ib)), "boxed"),
@@ -359,6 +467,13 @@ public class WasmConvertPass {
 
             @Override
             public void emitGlobalStore(IRBuilder ib, Effect effect) {
+                if (typedSet != null) {
+                    ib.insert(JavaOps.INVOKE
+                            .create(typedSet)
+                            .insn(global.get(ib), effect.insn().args().get(0))
+                            .assignTo());
+                    return;
+                }
                 ib.insert(JavaOps.INVOKE
                         .create(set)
                         .insn(global.get(ib),
@@ -392,6 +507,26 @@ public class WasmConvertPass {
         };
     }
 
+    /**
+     * Get the suffix of the typed accessors of {@link Global} for a value type, such as {@code Int} for
+     * {@link Global#getInt()}, or null if values of the type are always boxed.
+     */
+    @Nullable
+    private static String globalAccessorSuffix(byte type) {
+        switch (type) {
+            case I32:
+                return "Int";
+            case I64:
+                return "Long";
+            case F32:
+                return "Float";
+            case F64:
+                return "Double";
+            default:
+                return null;
+        }
+    }
+
     private static MemoryConvention createMemoryImport(Module module, MemImportNode importNode, JClass jClass, int idx) {
         int importIdx = getOrMakeImportC(module).getAndIncrement();
         JClass.JavaField field = new JClass.JavaField(jClass,
@@ -404,6 +539,8 @@ public class WasmConvertPass {
         JClass.JavaMethod size = MEMORY_CLASS.lookupMethod("size");
         JClass.JavaMethod grow = MEMORY_CLASS.lookupMethod("grow", int.class);
         JClass.JavaMethod init = MEMORY_CLASS.lookupMethod("init", int.class, int.class, int.class, ByteBuffer.class);
+        JClass.JavaMethod copy = MEMORY_CLASS.lookupMethod("copy", int.class, int.class, int.class);
+        JClass.JavaMethod fill = MEMORY_CLASS.lookupMethod("fill", int.class, byte.class, int.class);
         return new MemoryConvention.Delegating(null) {
             @Override
             public void emitMemLoad(IRBuilder ib, Effect effect) {
@@ -463,6 +600,41 @@ public class WasmConvertPass {
                 ib.insert(JavaOps.INVOKE.create(init).insn(args).copyFrom(effect));
             }
 
+            @Override
+            public void emitMemCopy(IRBuilder ib, Effect effect, MemoryConvention dst) {
+                if (dst == this) {
+                    List<Var> args = new ArrayList<>();
+                    args.add(memory.get(ib));
+                    args.addAll(effect.insn().args());
+                    ib.insert(JavaOps.INVOKE.create(copy).insn(args).copyFrom(effect));
+                    return;
+                }
+                // between different memories, byte by byte
+                IRUtils.emitCopy(ib, effect, WasmOps.MEM_COPY,
+                        (m, idx, val) -> emitMemLoad(ib, WasmOps.MEM_LOAD
+                                .create(WasmOps.WithMemArg.create(WasmOps.DerefType.fromOpcode(I32_LOAD8_U), 0))
+                                .insn(idx)
+                                .assignTo(val)),
+                        (m, idx, val) -> dst.emitMemStore(ib, WasmOps.MEM_STORE
+                                .create(WasmOps.WithMemArg.create(WasmOps.StoreType.I32_8, 0))
+                                .insn(idx, val)
+                                .assignTo()),
+                        this, dst,
+                        MemoryConvention::emitBoundsCheck
+                );
+            }
+
+            @Override
+            public void emitMemFill(IRBuilder ib, Effect effect) {
+                List<Var> args = effect.insn().args();
+                ib.insert(JavaOps.INVOKE.create(fill)
+                        .insn(memory.get(ib),
+                                args.get(0),
+                                ib.insert(JavaOps.insns(new InsnNode(Opcodes.I2B)).insn(args.get(1)), "b"),
+                                args.get(2))
+                        .copyFrom(effect));
+            }
+
             @Override
             public void modifyConstructor(IRBuilder ib, JClass.JavaMethod ctorMethod, Module module, JClass jClass) {
                 JClass.JavaMethod getAsMemory = EV_CLASS.lookupMethod("getAsMemory");
@@ -564,6 +736,106 @@ public class WasmConvertPass {
         }));
     }
 
+    private static void buildSnapshotAccess(JirPassesEvent evt) {
+        JClass jClass = evt.jir;
+        addMethod(jClass, "isDataDropped", "(I)Z", ib -> {
+            List<JClass.JavaField> datas = jClass.getExt(JavaExts.DATA_FIELDS).orElse(Collections.emptyList());
+            int[] keys = new int[datas.size()];
+            for (int i = 0; i < keys.length; i++) keys[i] = i;
+            List<BasicBlock> targets = switchOn(ib, keys, "no such data segment");
+            for (int i = 0; i < keys.length; i++) {
+                ib.setBlock(targets.get(i));
+                Var remaining = ib.insert(JavaOps.INVOKE.create(BUFFER_HAS_REMAINING)
+                                .insn(ib.insert(JavaOps.GET_FIELD.create(datas.get(i)).insn(IRUtils.getThis(ib)),
+                                        "data")),
+                        "remaining");
+                ib.insertCtrl(CommonOps.RETURN.insn(ib.insert(JavaOps.insns(
+                                        new InsnNode(Opcodes.ICONST_1),
+                                        new InsnNode(Opcodes.IXOR))
+                                .insn(remaining),
+                        "dropped")).jumpsTo());
+            }
+        });
+        addMethod(jClass, "readMemory", "(ILjava/nio/ByteBuffer;)V", ib -> {
+            Var dst = ib.insert(CommonOps.ARG.create(1).insn(), "dst");
+            // the buffer is the destination "memory" of a memory.copy, so it is copied in bulk where possible
+            MemoryConvention dstMem = new ByteBufferMemoryConvention(
+                    ExportableConvention.noop(),
+                    new ValueGetterSetter() {
+                        @Override
+                        public Var get(IRBuilder ib) {
+                            return dst;
+                        }
+
+                        @Override
+                        public void set(IRBuilder ib, Var val) {
+                            throw new UnsupportedOperationException();
+                        }
+                    },
+                    null);
+            forEachMemory(jClass, ib, (mem, idx) -> mem.emitMemCopy(ib, WasmOps.MEM_COPY
+                            .create(Pair.of(idx, idx))
+                            .insn(ib.insert(CommonOps.constant(0), "dstAddr"),
+                                    ib.insert(CommonOps.constant(0), "srcAddr"),
+                                    ib.insert(JavaOps.INVOKE.create(BUFFER_REMAINING).insn(dst), "len"))
+                            .assignTo(),
+                    dstMem));
+        });
+        addMethod(jClass, "writeMemory", "(ILjava/nio/ByteBuffer;)V", ib -> {
+            Var src = ib.insert(CommonOps.ARG.create(1).insn(), "src");
+            forEachMemory(jClass, ib, (mem, idx) -> mem.emitMemInit(ib, WasmOps.MEM_INIT
+                            .create(Pair.of(idx, 0))
+                            .insn(ib.insert(CommonOps.constant(0), "dstAddr"),
+                                    ib.insert(CommonOps.constant(0), "srcAddr"),
+                                    ib.insert(JavaOps.INVOKE.create(BUFFER_REMAINING).insn(src), "len"))
+                            .assignTo(),
+                    src));
+        });
+    }
+
+    private static void addMethod(JClass jClass, String name, String desc, Consumer<IRBuilder> body) {
+        JClass.JavaMethod method = new JClass.JavaMethod(jClass, name, desc, Opcodes.ACC_PUBLIC);
+        jClass.methods.add(method);
+        method.attachExt(JavaExts.METHOD_IMPL, lazy(() -> {
+            Function func = new Function();
+            func.attachExt(JavaExts.FUNCTION_METHOD, method);
+            body.accept(new IRBuilder(func, func.newBb()));
+            return func;
+        }));
+    }
+
+    private static void forEachMemory(JClass jClass, IRBuilder ib, BiConsumer<EmbedMemConvention, Integer> body) {
+        // conventions register themselves when the constructor is built, which is before this method's body
+        Map<Integer, EmbedMemConvention> memories = jClass.getExt(MEMORIES_EXT).orElse(Collections.emptyMap());
+        int[] keys = memories.keySet().stream().mapToInt(x -> x).toArray();
+        List<BasicBlock> targets = switchOn(ib, keys, "no such memory");
+        for (int i = 0; i < keys.length; i++) {
+            ib.setBlock(targets.get(i));
+            body.accept(memories.get(keys[i]), keys[i]);
+            ib.insertCtrl(CommonOps.RETURN.insn().jumpsTo());
+        }
+    }
+
+    private static List<BasicBlock> switchOn(IRBuilder ib, int[] keys, String failMsg) {
+        List<BasicBlock> targets = new ArrayList<>();
+        if (keys.length != 0) {
+            for (int ignored : keys) targets.add(ib.func.newBb());
+            BasicBlock failBb = ib.func.newBb();
+            ib.insertCtrl(JavaOps.LOOKUPSWITCH.create(keys)
+                    .insn(ib.insert(CommonOps.ARG.create(0).insn(), "idx"))
+                    .jumpsTo(append(targets, failBb)));
+            ib.setBlock(failBb);
+        }
+        ib.insertCtrl(CommonOps.TRAP.create(failMsg).insn().jumpsTo());
+        return targets;
+    }
+
+    private static BasicBlock[] append(List<BasicBlock> targets, BasicBlock last) {
+        BasicBlock[] array = targets.toArray(new BasicBlock[targets.size() + 1]);
+        array[targets.size()] = last;
+        return array;
+    }
+
     private static class EmbedFunctionConvention extends FunctionConvention.Delegating {
         public static final UnaryOpKey<JClass.JavaMethod>.UnaryOp CREATE_HANDLE_FUNC = JavaOps.INVOKE.create(
                 JClass.emptyFromJava(Func.HandleFunc.class)
@@ -750,10 +1022,12 @@ public class WasmConvertPass {
                                 MethodHandle.class,
                                 MethodHandle.class,
                                 MethodHandle.class,
+                                MethodHandle.class,
+                                MethodHandle.class,
                                 MethodHandle.class));
         private final MemoryNode mem;
         private final int idx;
-        ValueGetter getHandle, storeHandle, sizeHandle, growHandle, initHandle;
+        ValueGetter getHandle, storeHandle, sizeHandle, growHandle, initHandle, copyHandle, fillHandle;
         private boolean exported;
 
         public EmbedMemConvention(MemoryConvention convention, MemoryNode mem, int idx) {
@@ -765,6 +1039,7 @@ public class WasmConvertPass {
         @Override
         public void modifyConstructor(IRBuilder ctorIb, JClass.JavaMethod ctorMethod, Module module, JClass jClass) {
             super.modifyConstructor(ctorIb, ctorMethod, module, jClass);
+            getOrMakeMemories(jClass).put(idx, this);
             if (exported) {
                 getHandle = effectHandle(
                         "mem" + idx + "$get",
@@ -855,6 +1130,20 @@ public class WasmConvertPass {
                             delegate.emitMemInit(ib, fx, data);
                         }
                 );
+                copyHandle = effectHandle(
+                        "mem" + idx + "$copy",
+                        jClass,
+                        "(III)V",
+                        WasmOps.MEM_COPY.create(Pair.of(0, 0)),
+                        (ib, fx) -> delegate.emitMemCopy(ib, fx, delegate)
+                );
+                fillHandle = effectHandle(
+                        "mem" + idx + "$fill",
+                        jClass,
+                        "(III)V",
+                        WasmOps.MEM_FILL.create(0),
+                        delegate::emitMemFill
+                );
             }
         }
 
@@ -886,7 +1175,9 @@ public class WasmConvertPass {
                                     storeHandle.get(ib),
                                     sizeHandle.get(ib),
                                     growHandle.get(ib),
-                                    initHandle.get(ib)
+                                    initHandle.get(ib),
+                                    copyHandle.get(ib),
+                                    fillHandle.get(ib)
                             ),
                     "global"));
         }
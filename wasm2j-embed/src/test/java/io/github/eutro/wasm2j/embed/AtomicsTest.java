@@ -0,0 +1,78 @@
+package io.github.eutro.wasm2j.embed;
+
+import io.github.eutro.wasm2j.embed.internal.ParkingTable;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the atomic {@link Memory} methods, and the {@link ParkingTable} behind shared memory waits.
+ * <p>
+ * The atomic instructions can't be decoded yet, so these are only reachable from Java.
+ */
+class AtomicsTest {
+    @Test
+    void testSharedAtomics() {
+        Memory.SharedMemory mem = new Memory.SharedMemory(1, 1);
+
+        mem.atomicStore(8, 8, 0x1122334455667788L);
+        assertEquals(0x55667788L, mem.atomicLoad(8, 4));
+        assertEquals(0x11223344L, mem.atomicLoad(12, 4));
+
+        // narrow results are zero-extended, narrow stores wrap, and expected values are wrapped
+        assertEquals(0x88L, mem.atomicRmw(Memory.RmwOp.ADD, 8, 1, 0x1FF));
+        assertEquals(0x87L, mem.atomicLoad(8, 1));
+        assertEquals(0x5566L, mem.atomicCompareExchange(10, 2, 0xFFFF5566L, 0xABCDL));
+        assertEquals(0xABCDL, mem.atomicLoad(10, 2));
+        assertEquals(0xABCDL, mem.atomicCompareExchange(10, 2, 0L, 1L));
+        assertEquals(0xABCDL, mem.atomicLoad(10, 2));
+
+        assertEquals("unaligned atomic",
+                assertThrows(RuntimeException.class, () -> mem.atomicLoad(2, 4)).getMessage());
+        assertThrows(IndexOutOfBoundsException.class, () -> mem.atomicLoad(0xFFFC + 4, 4));
+        assertThrows(IndexOutOfBoundsException.class, () -> mem.atomicNotify(0x10000, 1));
+    }
+
+    @Test
+    void testInterruptedWaiterPassesWakeOn() throws Throwable {
+        ParkingTable.Stripe stripe = new ParkingTable().stripe(0);
+        Object[] results = new Object[2];
+        Thread[] waiters = new Thread[2];
+        for (int i = 0; i < waiters.length; i++) {
+            int id = i;
+            waiters[i] = new Thread(() -> {
+                synchronized (stripe) {
+                    try {
+                        results[id] = stripe.park(0, -1);
+                    } catch (InterruptedException e) {
+                        results[id] = e;
+                    }
+                }
+            });
+        }
+        for (Thread waiter : waiters) {
+            waiter.start();
+            // park releases the monitor, so this waits until the thread is parked
+            while (waiter.getState() != Thread.State.WAITING) Thread.yield();
+        }
+
+        // wake and interrupt the first waiter at once, so it may see either first
+        synchronized (stripe) {
+            assertEquals(1, stripe.unpark(0, 1));
+            waiters[0].interrupt();
+        }
+        waiters[0].join();
+        if (results[0] instanceof InterruptedException) {
+            // the wake-up it was counted for went to the other waiter
+            waiters[1].join(10_000);
+            assertEquals(true, results[1]);
+        } else {
+            assertEquals(true, results[0]);
+            synchronized (stripe) {
+                assertEquals(1, stripe.unpark(0, 1));
+            }
+            waiters[1].join();
+            assertEquals(true, results[1]);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package io.github.eutro.wasm2j.embed;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.util.function.IntBinaryOperator;
+
+public class InvokerBenchTest {
+    public static final int ITER_COUNT = 20;
+    public static final int CALL_COUNT = 1_000_000;
+
+    private static Func compileFunc() {
+        return Module.parse("(module" +
+                        " (func (export \"mix\") (param i32 i32) (result i32)" +
+                        "  (i32.add (i32.mul (local.get 0) (i32.const 31)) (local.get 1))))")
+                .instantiate(Store.init(), new ExternVal[0])
+                .getExport("mix")
+                .getAsFunc();
+    }
+
+    private static long timeInvoke(Func func) {
+        long start = System.nanoTime();
+        int acc = 0;
+        for (int i = 0; i < ITER_COUNT * CALL_COUNT; i++) {
+            acc = (int) func.invoke(i, acc)[0];
+        }
+        Assertions.assertNotEquals(-1, acc);
+        return System.nanoTime() - start;
+    }
+
+    private static long timeHandle(MethodHandle handle) throws Throwable {
+        long start = System.nanoTime();
+        int acc = 0;
+        for (int i = 0; i < ITER_COUNT * CALL_COUNT; i++) {
+            acc = (int) handle.invokeExact(i, acc);
+        }
+        Assertions.assertNotEquals(-1, acc);
+        return System.nanoTime() - start;
+    }
+
+    private static long timeInvoker(IntBinaryOperator invoker) {
+        long start = System.nanoTime();
+        int acc = 0;
+        for (int i = 0; i < ITER_COUNT * CALL_COUNT; i++) {
+            acc = invoker.applyAsInt(i, acc);
+        }
+        Assertions.assertNotEquals(-1, acc);
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    void testInvokerThroughput() throws Throwable {
+        Func func = compileFunc();
+        MethodHandle handle = func.handle();
+        IntBinaryOperator invoker = func.invoker(IntBinaryOperator.class);
+        Assertions.assertEquals(31 * 3 + 4, invoker.applyAsInt(3, 4));
+
+        // warm up
+        timeInvoke(func);
+        timeHandle(handle);
+        timeInvoker(invoker);
+
+        long invokeTime = timeInvoke(func);
+        long handleTime = timeHandle(handle);
+        long invokerTime = timeInvoker(invoker);
+        System.out.printf("Func#invoke: %.2fns/call, handle invokeExact: %.2fns/call, invoker: %.2fns/call%n",
+                (double) invokeTime / ITER_COUNT / CALL_COUNT,
+                (double) handleTime / ITER_COUNT / CALL_COUNT,
+                (double) invokerTime / ITER_COUNT / CALL_COUNT);
+    }
+}
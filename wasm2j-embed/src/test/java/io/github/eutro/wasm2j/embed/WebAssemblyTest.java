@@ -1,8 +1,23 @@
 package io.github.eutro.wasm2j.embed;
 
+import io.github.eutro.wasm2j.api.types.ExternType;
+import io.github.eutro.wasm2j.api.types.ValType;
+import io.github.eutro.wasm2j.embed.internal.DiskClassCache;
+import io.github.eutro.wasm2j.embed.internal.WasmConvertPass;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.*;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class WebAssemblyTest {
     @Test
@@ -18,4 +33,481 @@ class WebAssemblyTest {
         );
         Instance inst = wasm.moduleInstantiate(store, module, new ExternVal[]{});
     }
-}
\ No newline at end of file
+
+    @Test
+    void testCacheDirectory(@TempDir Path cacheDir) throws Throwable {
+        String source = "(module (func (export \"answer\") (result i32) (i32.const 42)))";
+        for (int i = 0; i < 3; i++) {
+            if (i == 2) {
+                // corrupted entries should be recompiled
+                File[] entries = cacheDir.toFile().listFiles();
+                assertEquals(1, entries.length);
+                Files.write(entries[0].toPath(), new byte[]{1, 2, 3});
+            }
+            Store store = Store.init();
+            store.setCacheDirectory(cacheDir.toFile());
+            Instance inst = Module.parse(source).instantiate(store, new ExternVal[0]);
+            assertArrayEquals(new Object[]{42}, inst.getExport("answer").getAsFunc().invoke());
+        }
+    }
+
+    @Test
+    void testSnapshotDroppedData() throws Throwable {
+        Module module = Module.parse("(module" +
+                "  (memory (export \"mem\") 1)" +
+                "  (data $p \"\\01\\02\\03\\04\")" +
+                "  (data $q \"\\05\\06\")" +
+                "  (func $start (data.drop $p))" +
+                "  (func (export \"init_p\") (memory.init $p (i32.const 0) (i32.const 0) (i32.const 4)))" +
+                "  (func (export \"init_q\") (memory.init $q (i32.const 16) (i32.const 0) (i32.const 2)))" +
+                "  (start $start)" +
+                ")");
+        Store store = Store.init();
+        Instance original = module.instantiate(store, new ExternVal[0]);
+        Class<? extends Throwable> trap = assertThrows(Throwable.class,
+                () -> original.getExport("init_p").getAsFunc().invoke()).getClass();
+
+        Instance inst = module.snapshot(store, new ExternVal[0], null).instantiate(store, new ExternVal[0]);
+        // still dropped, rather than coming back to life
+        assertThrows(trap, () -> inst.getExport("init_p").getAsFunc().invoke());
+        inst.getExport("init_q").getAsFunc().invoke();
+        Memory mem = inst.getExport("mem").getAsMemory();
+        assertEquals(0, mem.read(0));
+        assertEquals(5, mem.read(16));
+        assertEquals(6, mem.read(17));
+    }
+
+    @Test
+    void testSnapshotTables() throws Throwable {
+        String source = "(module" +
+                "  (table (export \"tbl\") 2 funcref)" +
+                "  (elem (i32.const 0) $f)" +
+                "  (func $f (result i32) (i32.const 1))" +
+                "  (func $start %s)" +
+                "  (func (export \"call\") (param i32) (result i32) (call_indirect (result i32) (local.get 0)))" +
+                "  (start $start)" +
+                ")";
+        Store store = Store.init();
+
+        // untouched tables are fine
+        Instance inst = Module.parse(String.format(source, ""))
+                .snapshot(store, new ExternVal[0], null)
+                .instantiate(store, new ExternVal[0]);
+        assertArrayEquals(new Object[]{1}, inst.getExport("call").getAsFunc().invoke(0));
+
+        // modified by the start function
+        assertThrows(UnsupportedOperationException.class, () -> Module.parse(
+                        String.format(source, "(table.set (i32.const 1) (ref.func $f))"))
+                .snapshot(store, new ExternVal[0], null));
+        assertThrows(UnsupportedOperationException.class, () -> Module.parse(
+                        String.format(source, "(drop (table.grow (ref.null func) (i32.const 1)))"))
+                .snapshot(store, new ExternVal[0], null));
+
+        // modified by the initializer
+        assertThrows(UnsupportedOperationException.class, () -> Module.parse(String.format(source, ""))
+                .snapshot(store, new ExternVal[0], i -> i.getExport("tbl").getAsTable().set(0, null)));
+    }
+
+    @Test
+    void testExportedTableStaysIndirect() throws Throwable {
+        Instance inst = Module.parse("(module" +
+                        "  (table (export \"tbl\") 2 funcref)" +
+                        "  (elem (i32.const 0) $f)" +
+                        "  (func $f (param i32) (result i32) (i32.add (local.get 0) (i32.const 1)))" +
+                        "  (func (export \"call\") (param i32 i32) (result i32)" +
+                        "    (call_indirect (param i32) (result i32) (local.get 1) (local.get 0)))" +
+                        ")")
+                .instantiate(Store.init(), new ExternVal[0]);
+        Func call = inst.getExport("call").getAsFunc();
+        Table tbl = inst.getExport("tbl").getAsTable();
+        assertArrayEquals(new Object[]{43}, call.invoke(0, 42));
+
+        // changes from outside the module are seen by its calls
+        tbl.set(1, tbl.get(0));
+        assertArrayEquals(new Object[]{43}, call.invoke(1, 42));
+        assertEquals(2, tbl.grow(1, tbl.get(0)));
+        assertArrayEquals(new Object[]{43}, call.invoke(2, 42));
+    }
+
+    @Test
+    void testCacheKeys() {
+        byte[] digest = DiskClassCache.digest("(module)".getBytes(StandardCharsets.UTF_8));
+        // the compiler is always found when running from the build directories
+        assertTrue(DiskClassCache.compilerVersion().isPresent());
+        String key = DiskClassCache.key(digest, WasmConvertPass.SETTINGS).get();
+        assertEquals(key, DiskClassCache.key(digest, WasmConvertPass.SETTINGS).get());
+        assertNotEquals(key, DiskClassCache.key(digest, WasmConvertPass.SETTINGS + ";lazyCompilation=true").get());
+        assertNotEquals(key, DiskClassCache.key(DiskClassCache.digest(new byte[0]), WasmConvertPass.SETTINGS).get());
+    }
+
+    @Test
+    void testLazyCompilation() throws Throwable {
+        Store store = Store.init();
+        store.setLazyCompilation(true);
+        Instance inst = Module.parse("(module" +
+                        "  (memory 1)" +
+                        "  (global $g (mut i32) (i32.const 1))" +
+                        "  (func $add (param i32 i32) (result i32) (i32.add (local.get 0) (local.get 1)))" +
+                        "  (func (export \"run\") (param i32) (result i32)" +
+                        "    (i32.store (i32.const 0) (local.get 0))" +
+                        "    (global.set $g (call $add (i32.load (i32.const 0)) (global.get $g)))" +
+                        "    (global.get $g))" +
+                        "  (func $unused (result i32) (i32.const 0))" +
+                        ")")
+                .instantiate(store, new ExternVal[0]);
+        // function classes are named by the order of the functions
+        ClassLoader loader = inst.getClass().getClassLoader();
+        String fnClassPrefix = inst.getClass().getName() + "$Func";
+        assertThrows(ClassNotFoundException.class, () -> Class.forName(fnClassPrefix + 1, false, loader));
+
+        Func run = inst.getExport("run").getAsFunc();
+        assertArrayEquals(new Object[]{42}, run.invoke(41));
+        assertArrayEquals(new Object[]{43}, run.invoke(1));
+
+        Class.forName(fnClassPrefix + 0, false, loader);
+        Class.forName(fnClassPrefix + 1, false, loader);
+        assertThrows(ClassNotFoundException.class, () -> Class.forName(fnClassPrefix + 2, false, loader));
+    }
+
+    @Test
+    void testLargeFunction() throws Throwable {
+        // far larger than a single JVM method allows
+        int n = 4000;
+        StringBuilder sb = new StringBuilder("(module (func (export \"run\") (param i32) (result i32) (local i64)");
+        for (int i = 0; i < n; i++) {
+            sb.append(" (if (i32.ge_u (local.get 0) (i32.const ").append(i % 7).append("))")
+                    .append(" (then (local.set 1 (i64.add (i64.mul (local.get 1) (i64.const 31))")
+                    .append(" (i64.extend_i32_u (i32.add (local.get 0) (i32.const ").append(i).append(")))))))");
+        }
+        sb.append(" (i32.wrap_i64 (local.get 1))))");
+        Func run = Module.parse(sb.toString())
+                .instantiate(Store.init(), new ExternVal[0])
+                .getExport("run")
+                .getAsFunc();
+        for (int x : new int[]{0, 3, 100}) {
+            long acc = 0;
+            for (int i = 0; i < n; i++) {
+                if (Integer.compareUnsigned(x, i % 7) >= 0) {
+                    acc = acc * 31 + Integer.toUnsignedLong(x + i);
+                }
+            }
+            assertArrayEquals(new Object[]{(int) acc}, run.invoke(x));
+        }
+    }
+
+    @Test
+    void testMappedMemory(@TempDir Path dir) throws Throwable {
+        Path file = dir.resolve("memory.bin");
+        Module module = Module.parse("(module" +
+                "  (import \"env\" \"mem\" (memory 1))" +
+                "  (func (export \"run\") (param i32) (result i32)" +
+                "    (drop (memory.grow (i32.const 1)))" +
+                "    (i32.store (i32.const 0x10000) (i32.add (i32.load (i32.const 0x10000)) (local.get 0)))" +
+                "    (i32.load (i32.const 0x10000)))" +
+                ")");
+        for (int i = 0; i < 2; i++) {
+            try (Memory.MappedMemory mem = new Memory.MappedMemory(file, 1, null)) {
+                // the second time around, the memory starts with what was written to the file
+                assertEquals(i + 1, mem.size());
+                Func run = module.instantiate(Store.init(), new ExternVal[]{mem})
+                        .getExport("run")
+                        .getAsFunc();
+                assertArrayEquals(new Object[]{5 * (i + 1)}, run.invoke(5));
+                assertEquals(i + 2, mem.size());
+                mem.force();
+            }
+        }
+        assertEquals(3 * 0x10000, Files.size(file));
+    }
+
+    @Test
+    void testSnapshot() throws Throwable {
+        Module module = Module.parse("(module" +
+                "  (memory (export \"mem\") 1)" +
+                "  (global $starts (mut i32) (i32.const 0))" +
+                "  (global $sum (mut i64) (i64.const 0))" +
+                "  (data (i32.const 8) \"\\01\\02\\03\")" +
+                "  (func $start" +
+                "    (global.set $starts (i32.add (global.get $starts) (i32.const 1)))" +
+                "    (i32.store (i32.const 0x8000) (i32.const 0x12345678)))" +
+                "  (func (export \"init\") (param i32)" +
+                "    (i32.store8 (local.get 0) (i32.const 7)))" +
+                "  (func (export \"add\") (param i64) (result i64)" +
+                "    (global.set $sum (i64.add (global.get $sum) (local.get 0)))" +
+                "    (global.get $sum))" +
+                "  (func (export \"starts\") (result i32) (global.get $starts))" +
+                "  (start $start)" +
+                ")");
+        Store store = Store.init();
+        Module snapshot = module.snapshot(store, new ExternVal[0], inst -> {
+            Func init = inst.getExport("init").getAsFunc();
+            init.invoke(0xFFFF);
+            init.invoke(9);
+            inst.getExport("add").getAsFunc().invoke(40L);
+        });
+        for (int i = 0; i < 2; i++) {
+            Instance inst = snapshot.instantiate(store, new ExternVal[0]);
+            // the start function is not run again
+            assertArrayEquals(new Object[]{1}, inst.getExport("starts").getAsFunc().invoke());
+            assertArrayEquals(new Object[]{42L}, inst.getExport("add").getAsFunc().invoke(2L));
+            Memory mem = inst.getExport("mem").getAsMemory();
+            assertEquals(1, mem.read(8));
+            assertEquals(7, mem.read(9));
+            assertEquals(3, mem.read(10));
+            assertEquals(0x78, mem.read(0x8000));
+            assertEquals(7, mem.read(0xFFFF));
+            assertEquals(0, mem.read(0x4000));
+        }
+
+        // the memory contents of a snapshot carry over into snapshots of it
+        Instance again = snapshot.snapshot(store, new ExternVal[0], inst ->
+                        inst.getExport("init").getAsFunc().invoke(0x4000))
+                .instantiate(store, new ExternVal[0]);
+        Memory mem = again.getExport("mem").getAsMemory();
+        assertEquals(7, mem.read(9));
+        assertEquals(0x78, mem.read(0x8000));
+        assertEquals(7, mem.read(0x4000));
+        assertEquals(7, mem.read(0xFFFF));
+    }
+
+    @Test
+    void testSnapshotUnexportedMemory() throws Throwable {
+        Module module = Module.parse("(module" +
+                "  (memory 1)" +
+                "  (func $start (i32.store (i32.const 100) (i32.const 0x01020304)))" +
+                "  (func (export \"load\") (param i32) (result i32) (i32.load (local.get 0)))" +
+                "  (start $start)" +
+                ")");
+        Store store = Store.init();
+        Instance inst = module.snapshot(store, new ExternVal[0], null).instantiate(store, new ExternVal[0]);
+        assertArrayEquals(new Object[]{0x01020304}, inst.getExport("load").getAsFunc().invoke(100));
+        assertArrayEquals(new Object[]{0}, inst.getExport("load").getAsFunc().invoke(104));
+    }
+
+    @Test
+    void testBulkMemory() throws Throwable {
+        Module module = Module.parse("(module" +
+                "  (import \"env\" \"mem\" (memory 1))" +
+                "  (func (export \"copy\") (param i32 i32 i32) (memory.copy (local.get 0) (local.get 1) (local.get 2)))" +
+                "  (func (export \"fill\") (param i32 i32 i32) (memory.fill (local.get 0) (local.get 1) (local.get 2)))" +
+                ")");
+        Memory mem = Memory.alloc(new ExternType.Mem(new ExternType.Limits(1, null)));
+        Instance inst = module.instantiate(Store.init(), new ExternVal[]{mem});
+        Func copy = inst.getExport("copy").getAsFunc();
+        Func fill = inst.getExport("fill").getAsFunc();
+
+        fill.invoke(10, 0x1ab, 5);
+        for (int i = 0; i < 16; i++) {
+            assertEquals(i >= 10 && i < 15 ? (byte) 0xab : 0, mem.read(i));
+        }
+        for (int i = 0; i < 8; i++) mem.write(i, (byte) i);
+        // overlapping, in both directions
+        copy.invoke(2, 0, 6);
+        assertEquals(5, mem.read(7));
+        assertEquals(0, mem.read(2));
+        copy.invoke(0, 2, 6);
+        assertEquals(5, mem.read(5));
+        assertEquals(0, mem.read(0));
+        assertThrows(RuntimeException.class, () -> fill.invoke(0xFFFF, 0, 2));
+        assertThrows(RuntimeException.class, () -> copy.invoke(0, 0xFFF0, 0x11));
+
+        // the memory of a module, exported
+        Memory exported = Module.parse("(module (memory (export \"mem\") 1))")
+                .instantiate(Store.init(), new ExternVal[0])
+                .getExport("mem")
+                .getAsMemory();
+        exported.fill(100, (byte) 7, 1000);
+        exported.copy(0, 96, 8);
+        assertEquals(0, exported.read(3));
+        assertEquals(7, exported.read(4));
+        assertEquals(7, exported.read(1099));
+        assertEquals(0, exported.read(1100));
+    }
+
+    @Test
+    void testSharedMemory() throws Throwable {
+        Memory.SharedMemory mem = new Memory.SharedMemory(1, 2);
+        Module module = Module.parse("(module" +
+                "  (import \"env\" \"mem\" (memory 1 2))" +
+                "  (func (export \"store\") (param i32 i32) (i32.store (local.get 0) (local.get 1)))" +
+                ")");
+        Store store = Store.init();
+        int threads = 4, iterations = 10000;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            int id = i;
+            // each thread has its own instance, sharing the memory
+            Func storeFn = module.instantiate(store, new ExternVal[]{mem}).getExport("store").getAsFunc();
+            workers[i] = new Thread(() -> {
+                for (int j = 0; j < iterations; j++) {
+                    mem.atomicRmw(Memory.RmwOp.ADD, 0, 4, 1);
+                    mem.atomicRmw(Memory.RmwOp.ADD, 8, 8, 1L << 32);
+                }
+                storeFn.invoke(16 + id * 4, id + 1);
+            });
+        }
+        for (Thread worker : workers) worker.start();
+        for (Thread worker : workers) worker.join();
+        assertEquals(threads * iterations, mem.atomicLoad(0, 4));
+        assertEquals((long) threads * iterations << 32, mem.atomicLoad(8, 8));
+        for (int i = 0; i < threads; i++) {
+            assertEquals(i + 1, mem.atomicLoad(16 + i * 4, 4));
+        }
+
+        // narrow accesses wrap, and compare-exchange compares wrapped values
+        assertEquals(0, mem.atomicRmw(Memory.RmwOp.SUB, 64, 1, 1));
+        assertEquals(0xFF, mem.atomicCompareExchange(64, 1, -1, 7));
+        assertEquals(7, mem.atomicLoad(64, 1));
+        assertThrows(RuntimeException.class, () -> mem.atomicLoad(65, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> mem.atomicLoad(0x10000, 4));
+        assertEquals(1, mem.grow(1));
+        assertEquals(0, mem.atomicLoad(0x10000, 4));
+        assertEquals(-1, mem.grow(1));
+
+        // wait and notify
+        assertEquals(1, mem.atomicWait(128, 4, 1, -1));
+        assertEquals(2, mem.atomicWait(128, 4, 0, 1_000_000));
+        int[] result = {-1};
+        Thread waiter = new Thread(() -> result[0] = mem.atomicWait(128, 4, 0, -1));
+        waiter.start();
+        while (mem.atomicNotify(128, 1) == 0) Thread.yield();
+        waiter.join();
+        assertEquals(0, result[0]);
+        assertEquals(0, mem.atomicNotify(128, -1));
+
+        // unshared memories can't be waited on
+        Memory unshared = Memory.alloc(new ExternType.Mem(new ExternType.Limits(1, null)));
+        assertEquals(0, unshared.atomicRmw(Memory.RmwOp.XCHG, 0, 4, 5));
+        assertEquals(5, unshared.atomicLoad(0, 4));
+        assertEquals(0, unshared.atomicNotify(0, 1));
+        assertEquals("expected shared memory",
+                assertThrows(RuntimeException.class, () -> unshared.atomicWait(0, 4, 5, 0)).getMessage());
+    }
+
+    @Test
+    void testTypedGlobals() throws Throwable {
+        Module module = Module.parse("(module" +
+                "  (import \"env\" \"sp\" (global $sp (mut i32)))" +
+                "  (import \"env\" \"acc\" (global $acc (mut f64)))" +
+                "  (global (export \"count\") (mut i64) (i64.const 0))" +
+                "  (func (export \"frame\") (param i32) (result i32)" +
+                "    (global.set $sp (i32.sub (global.get $sp) (local.get 0)))" +
+                "    (global.set $acc (f64.add (global.get $acc) (f64.convert_i32_s (local.get 0))))" +
+                "    (global.set 2 (i64.add (global.get 2) (i64.const 1)))" +
+                "    (global.get $sp))" +
+                ")");
+        Global sp = new Global.BoxGlobal(ValType.I32, 1024);
+        Global acc = new Global.BoxGlobal(new ExternType.Global(true, ValType.F64));
+        Instance inst = module.instantiate(Store.init(), new ExternVal[]{sp, acc});
+        Func frame = inst.getExport("frame").getAsFunc();
+        assertArrayEquals(new Object[]{1000}, frame.invoke(24));
+        assertArrayEquals(new Object[]{992}, frame.invoke(8));
+        assertEquals(992, sp.getInt());
+        assertEquals(992, sp.get());
+        assertEquals(32.0, acc.getDouble());
+
+        sp.setInt(64);
+        assertArrayEquals(new Object[]{48}, frame.invoke(16));
+        assertThrows(ClassCastException.class, sp::getLong);
+        assertThrows(ClassCastException.class, () -> acc.setFloat(1));
+
+        // exported globals are accessed through handles
+        Global count = inst.getExport("count").getAsGlobal();
+        assertEquals(3L, count.getLong());
+        count.setLong(10);
+        frame.invoke(0);
+        assertEquals(11L, count.get());
+        assertThrows(ClassCastException.class, count::getInt);
+
+        Global immutable = new Global.BoxGlobal(ValType.I32, 5).setMut(false);
+        assertEquals(5, immutable.getInt());
+        assertThrows(UnsupportedOperationException.class, () -> immutable.setInt(6));
+    }
+
+    @Test
+    void testInvokers() throws Throwable {
+        Instance inst = Module.parse("(module" +
+                "  (global $count (mut i32) (i32.const 0))" +
+                "  (func (export \"sub\") (param i32 i32) (result i32) (i32.sub (local.get 0) (local.get 1)))" +
+                "  (func (export \"half\") (param f64) (result f64) (f64.mul (local.get 0) (f64.const 0.5)))" +
+                "  (func (export \"tick\") (global.set $count (i32.add (global.get $count) (i32.const 1))))" +
+                "  (func (export \"count\") (result i64) (i64.extend_i32_u (global.get $count)))" +
+                "  (func (export \"trap\") unreachable)" +
+                ")").instantiate(Store.init(), new ExternVal[0]);
+
+        IntBinaryOperator sub = inst.getExport("sub").getAsFunc().invoker(IntBinaryOperator.class);
+        assertEquals(-3, sub.applyAsInt(4, 7));
+        DoubleUnaryOperator half = inst.getExport("half").getAsFunc().invoker(DoubleUnaryOperator.class);
+        assertEquals(1.25, half.applyAsDouble(2.5));
+        Runnable tick = inst.getExport("tick").getAsFunc().invoker(Runnable.class);
+        LongSupplier count = inst.getExport("count").getAsFunc().invoker(LongSupplier.class);
+        tick.run();
+        tick.run();
+        assertEquals(2L, count.getAsLong());
+        // traps propagate as they are
+        Runnable trap = inst.getExport("trap").getAsFunc().invoker(Runnable.class);
+        assertThrows(RuntimeException.class, trap::run);
+
+        // boxing conversions are allowed, but not mismatched arity
+        @SuppressWarnings("unchecked")
+        BinaryOperator<Integer> boxed = inst.getExport("sub").getAsFunc().invoker(BinaryOperator.class);
+        assertEquals(1, boxed.apply(3, 2));
+        assertThrows(IllegalArgumentException.class, () -> inst.getExport("sub").getAsFunc().invoker(IntUnaryOperator.class));
+        assertThrows(IllegalArgumentException.class, () -> inst.getExport("sub").getAsFunc().invoker(Object.class));
+    }
+
+    @Test
+    void testSimd() throws Throwable {
+        Instance inst = Module.parse("(module" +
+                "  (memory 1)" +
+                "  (func (export \"dot\") (result i32)" +
+                "    (v128.store (i32.const 0) (i32x4.mul (v128.const i32x4 1 2 3 4) (v128.const i32x4 5 6 7 8)))" +
+                "    (i32.add (i32.add (i32.load (i32.const 0)) (i32.load (i32.const 4)))" +
+                "             (i32.add (i32.load (i32.const 8)) (i32.load (i32.const 12)))))" +
+                "  (func (export \"lanes\") (param i32) (result i32)" +
+                "    (i32x4.extract_lane 2 (i32x4.add (i32x4.splat (local.get 0)) (v128.load (i32.const 0)))))" +
+                "  (func (export \"bytes\") (result i32)" +
+                "    (i8x16.extract_lane_u 15 (i8x16.sub (v128.const i64x2 0 0) (i8x16.splat (i32.const 1)))))" +
+                "  (func (export \"shuffle\") (result i32)" +
+                "    (i16x8.extract_lane_s 0 (i8x16.shuffle 16 17 0 0 0 0 0 0 0 0 0 0 0 0 0 0" +
+                "      (v128.const i32x4 0 0 0 0) (i16x8.splat (i32.const -2)))))" +
+                "  (func (export \"zero\") (result i32) (local v128)" +
+                "    (i32x4.extract_lane 3 (local.get 0)))" +
+                "  (func (export \"load\") (param i32) (drop (v128.load (local.get 0))))" +
+                "  (func (export \"dot16\") (result i32)" +
+                "    (i32x4.extract_lane 2 (i32x4.dot_i16x8_s (v128.const i16x8 1 2 3 4 5 6 7 8)" +
+                "      (v128.const i16x8 1 1 1 1 2 2 2 2))))" +
+                "  (func (export \"narrow\") (param i32) (result i32)" +
+                "    (i8x16.extract_lane_s 9 (i8x16.narrow_i16x8_s (v128.const i64x2 0 0) (i16x8.splat (local.get 0)))))" +
+                "  (func (export \"extend\") (result i32)" +
+                "    (i32x4.extract_lane 3 (i32x4.extend_high_i16x8_s (v128.const i16x8 0 0 0 0 0 0 0 -5))))" +
+                "  (func (export \"splat\") (result i32)" +
+                "    (i32.store16 (i32.const 32) (i32.const 0xBEEF))" +
+                "    (i16x8.extract_lane_u 7 (v128.load16_splat (i32.const 32))))" +
+                "  (func (export \"loop\") (param i32) (result i32) (local v128)" +
+                "    (loop $l" +
+                "      (local.set 1 (i32x4.add (local.get 1) (i32x4.splat (local.get 0))))" +
+                "      (br_if $l (local.tee 0 (i32.sub (local.get 0) (i32.const 1)))))" +
+                "    (i32x4.extract_lane 3 (local.get 1)))" +
+                "  (func (export \"select\") (param i32) (result i32)" +
+                "    (i32x4.extract_lane 0 (select (i32x4.splat (i32.const 1)) (i32x4.splat (i32.const 2)) (local.get 0))))" +
+                ")").instantiate(Store.init(), new ExternVal[0]);
+        assertArrayEquals(new Object[]{70}, inst.getExport("dot").getAsFunc().invoke());
+        assertArrayEquals(new Object[]{31}, inst.getExport("lanes").getAsFunc().invoke(10));
+        assertArrayEquals(new Object[]{255}, inst.getExport("bytes").getAsFunc().invoke());
+        assertArrayEquals(new Object[]{-2}, inst.getExport("shuffle").getAsFunc().invoke());
+        assertArrayEquals(new Object[]{0}, inst.getExport("zero").getAsFunc().invoke());
+        assertArrayEquals(new Object[]{22}, inst.getExport("dot16").getAsFunc().invoke());
+        assertArrayEquals(new Object[]{127}, inst.getExport("narrow").getAsFunc().invoke(300));
+        assertArrayEquals(new Object[]{-128}, inst.getExport("narrow").getAsFunc().invoke(-300));
+        assertArrayEquals(new Object[]{-5}, inst.getExport("extend").getAsFunc().invoke());
+        assertArrayEquals(new Object[]{0xBEEF}, inst.getExport("splat").getAsFunc().invoke());
+        // the vector is carried around the loop in a local
+        assertArrayEquals(new Object[]{4 + 3 + 2 + 1}, inst.getExport("loop").getAsFunc().invoke(4));
+        assertArrayEquals(new Object[]{1}, inst.getExport("select").getAsFunc().invoke(1));
+        assertArrayEquals(new Object[]{2}, inst.getExport("select").getAsFunc().invoke(0));
+        Func load = inst.getExport("load").getAsFunc();
+        load.invoke(0xFFF0);
+        assertThrows(RuntimeException.class, () -> load.invoke(0xFFF1));
+    }
+}